@@ -0,0 +1,181 @@
+package dev.ixixpercent.cache;
+
+import dev.ixixpercent.cache.store.CacheStoreManager;
+import dev.ixixpercent.cache.store.EntryEventSubscription;
+import dev.ixixpercent.cache.store.remote.RemoteEntryEvent;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.configuration.Factory;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryEventFilter;
+import javax.cache.event.CacheEntryExpiredListener;
+import javax.cache.event.CacheEntryListener;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.event.CacheEntryUpdatedListener;
+import javax.cache.event.EventType;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A listener registered on a cache, receiving the entry events of the nodes, or of the near cache for an embedded
+ * cache.
+ *
+ * <p>The node only sends the event types the listener implements, with the old values if requested. The filter runs
+ * here, the node cannot load its class. A synchronous listener is called by the thread reading the events of the node,
+ * which reads the next events once it returns; an asynchronous one is called on the executor of the cache, one batch
+ * after the other so that it still sees the events of a key in order.</p>
+ */
+@Slf4j
+class EntryListenerRegistration<K, V> {
+
+  private final IxIxCache<K, V> cache;
+  private final CacheEntryListenerConfiguration<K, V> configuration;
+  private final CacheEntryListener<? super K, ? super V> listener;
+  // null when the configuration has no filter
+  private final CacheEntryEventFilter<? super K, ? super V> filter;
+  // null for a synchronous listener
+  private final Executor executor;
+  private final EntryEventSubscription subscription;
+  // the last asynchronous delivery, the next one runs after it
+  private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+  EntryListenerRegistration(IxIxCache<K, V> cache, CacheStoreManager<K, V> store,
+                            CacheEntryListenerConfiguration<K, V> configuration, Executor executor) {
+    this.cache = cache;
+    this.configuration = configuration;
+    listener = create(configuration.getCacheEntryListenerFactory());
+    if (listener == null) {
+      throw new IllegalArgumentException("The listener configuration has no listener factory");
+    }
+    filter = create(configuration.getCacheEntryEventFilterFactory());
+    this.executor = configuration.isSynchronous() ? null : executor;
+    subscription = store.subscribe(typesOf(listener), configuration.isOldValueRequired(), this::onEvents);
+  }
+
+  private static <T> T create(Factory<T> factory) {
+    return factory == null ? null : factory.create();
+  }
+
+  private static Set<EventType> typesOf(CacheEntryListener<?, ?> listener) {
+    Set<EventType> types = EnumSet.noneOf(EventType.class);
+    if (listener instanceof CacheEntryCreatedListener) {
+      types.add(EventType.CREATED);
+    }
+    if (listener instanceof CacheEntryUpdatedListener) {
+      types.add(EventType.UPDATED);
+    }
+    if (listener instanceof CacheEntryRemovedListener) {
+      types.add(EventType.REMOVED);
+    }
+    if (listener instanceof CacheEntryExpiredListener) {
+      types.add(EventType.EXPIRED);
+    }
+    return types;
+  }
+
+  CacheEntryListenerConfiguration<K, V> getConfiguration() {
+    return configuration;
+  }
+
+  private void onEvents(List<RemoteEntryEvent<K, V>> remoteEvents) {
+    List<CacheEntryEvent<K, V>> events = new ArrayList<>(remoteEvents.size());
+    for (RemoteEntryEvent<K, V> remoteEvent : remoteEvents) {
+      CacheEntryEvent<K, V> event =
+        new IxIxCacheEntryEvent<>(cache, remoteEvent.type(), remoteEvent.key(), remoteEvent.value(),
+                                  remoteEvent.oldValue(), remoteEvent.oldValueAvailable());
+      if (accepts(event)) {
+        events.add(event);
+      }
+    }
+    if (events.isEmpty()) {
+      return;
+    }
+    if (executor == null) {
+      // the streams of the nodes are read concurrently, the listener is called by one at a time
+      synchronized (this) {
+        deliver(events);
+      }
+    } else {
+      synchronized (this) {
+        tail = tail.thenRunAsync(() -> deliver(events), executor);
+      }
+    }
+  }
+
+  private boolean accepts(CacheEntryEvent<K, V> event) {
+    try {
+      return filter == null || filter.evaluate(event);
+    } catch (RuntimeException e) {
+      log.warn("Cache [{}] Entry event filter {} failed, dropping the {} event of key {}", cache.getName(), filter,
+               event.getEventType(), event.getKey(), e);
+      return false;
+    }
+  }
+
+  /**
+   * Calls the listener once for every run of events of the same type.
+   */
+  private void deliver(List<CacheEntryEvent<K, V>> events) {
+    int start = 0;
+    while (start < events.size()) {
+      EventType type = events.get(start).getEventType();
+      int end = start + 1;
+      while (end < events.size() && events.get(end).getEventType() == type) {
+        end++;
+      }
+      try {
+        dispatch(type, events.subList(start, end));
+      } catch (RuntimeException e) {
+        log.warn("Cache [{}] Entry listener {} failed on {} {} events", cache.getName(), listener, end - start, type,
+                 e);
+      }
+      start = end;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void dispatch(EventType type, List<CacheEntryEvent<K, V>> events) {
+    // the listener is typed with wildcards, the events only ever carry K and V
+    Iterable<CacheEntryEvent<? extends K, ? extends V>> iterable =
+      (Iterable<CacheEntryEvent<? extends K, ? extends V>>) (Iterable<?>) events;
+    switch (type) {
+      case CREATED -> ((CacheEntryCreatedListener<K, V>) listener).onCreated(iterable);
+      case UPDATED -> ((CacheEntryUpdatedListener<K, V>) listener).onUpdated(iterable);
+      case REMOVED -> ((CacheEntryRemovedListener<K, V>) listener).onRemoved(iterable);
+      case EXPIRED -> ((CacheEntryExpiredListener<K, V>) listener).onExpired(iterable);
+    }
+  }
+
+  /**
+   * Stops receiving the events, those already received are still delivered to an asynchronous listener.
+   */
+  void close() {
+    subscription.close();
+    CompletableFuture<Void> last;
+    synchronized (this) {
+      last = tail;
+    }
+    last.whenComplete((result, e) -> {
+      closeQuietly(listener);
+      closeQuietly(filter);
+    });
+  }
+
+  private void closeQuietly(Object integration) {
+    if (integration instanceof Closeable closeable) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        log.warn("Cache [{}] Failed to close {}", cache.getName(), integration, e);
+      }
+    }
+  }
+}
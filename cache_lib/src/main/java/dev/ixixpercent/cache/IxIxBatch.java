@@ -0,0 +1,119 @@
+package dev.ixixpercent.cache;
+
+import dev.ixixpercent.cache.connector.PartitionTable;
+import dev.ixixpercent.cache.store.BatchOperation;
+import dev.ixixpercent.cache.store.BatchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Operations on related keys sent to their node in a single call and applied there atomically, in order: the other
+ * writes of these keys happen before or after the whole batch, and every condition sees the writes of the operations
+ * before it.
+ *
+ * <p>The keys of a batch must share a hash tag, the text between the first '{' and the next '}' of a string key,
+ * which places them on the same node:</p>
+ * <pre>
+ * List&lt;BatchResult&lt;String&gt;&gt; results = cache.batch()
+ *   .replace("{session42}:token", oldToken, newToken)
+ *   .put("{session42}:lastSeen", now)
+ *   .remove("{session42}:challenge")
+ *   .execute();
+ * </pre>
+ *
+ * <p>A batch is built and executed by a single thread. The cache writer, if any, is called after the batch for the
+ * operations that were applied.</p>
+ */
+public class IxIxBatch<K, V> {
+
+  private final IxIxCache<K, V> cache;
+  private final List<BatchOperation<K, V>> operations = new ArrayList<>();
+  // null until the first operation is added
+  private String hashTag;
+
+  IxIxBatch(IxIxCache<K, V> cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Reads the value of a key, returned as the previous value of its result.
+   */
+  public IxIxBatch<K, V> get(K key) {
+    return add(BatchOperation.Type.GET, key, null, null);
+  }
+
+  public IxIxBatch<K, V> put(K key, V value) {
+    return add(BatchOperation.Type.PUT, key, requireValue(value), null);
+  }
+
+  public IxIxBatch<K, V> putIfAbsent(K key, V value) {
+    return add(BatchOperation.Type.PUT_IF_ABSENT, key, requireValue(value), null);
+  }
+
+  /**
+   * Writes the value if the key has one.
+   */
+  public IxIxBatch<K, V> replace(K key, V value) {
+    return add(BatchOperation.Type.REPLACE, key, requireValue(value), null);
+  }
+
+  /**
+   * Writes the new value if the key has the old one.
+   */
+  public IxIxBatch<K, V> replace(K key, V oldValue, V newValue) {
+    return add(BatchOperation.Type.REPLACE_IF_EQUALS, key, requireValue(newValue), requireValue(oldValue));
+  }
+
+  public IxIxBatch<K, V> remove(K key) {
+    return add(BatchOperation.Type.REMOVE, key, null, null);
+  }
+
+  /**
+   * Removes the key if it has the given value.
+   */
+  public IxIxBatch<K, V> remove(K key, V oldValue) {
+    return add(BatchOperation.Type.REMOVE_IF_EQUALS, key, null, requireValue(oldValue));
+  }
+
+  /**
+   * @return the number of operations added so far
+   */
+  public int size() {
+    return operations.size();
+  }
+
+  /**
+   * Sends the batch and waits for its results.
+   *
+   * @return the result of every operation, in the order they were added
+   * @throws IllegalStateException     if the cache is closed
+   * @throws javax.cache.CacheException if the node owning the hash tag is not available
+   */
+  public List<BatchResult<V>> execute() {
+    return cache.executeBatch(List.copyOf(operations));
+  }
+
+  private IxIxBatch<K, V> add(BatchOperation.Type type, K key, V value, V expectedValue) {
+    if (key == null) {
+      throw new NullPointerException("Batch keys must not be null");
+    }
+    String keyTag = PartitionTable.hashTagOf(key);
+    if (keyTag == null) {
+      throw new IllegalArgumentException("Key " + key + " has no hash tag, a batch only takes keys sharing one");
+    }
+    if (hashTag != null && !hashTag.equals(keyTag)) {
+      throw new IllegalArgumentException("Key " + key + " does not have the hash tag {" + hashTag + "} of the batch");
+    }
+    hashTag = keyTag;
+    operations.add(new BatchOperation<>(type, key, value, expectedValue));
+    return this;
+  }
+
+  private static <V> V requireValue(V value) {
+    if (value == null) {
+      throw new NullPointerException("Batch values must not be null");
+    }
+    return value;
+  }
+}
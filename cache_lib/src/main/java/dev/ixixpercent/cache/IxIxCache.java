@@ -1,40 +1,109 @@
 package dev.ixixpercent.cache;
 
+import dev.ixixpercent.cache.configuration.IxIxCacheConfiguration;
 import dev.ixixpercent.cache.connector.CacheServiceGrpcFactory;
+import dev.ixixpercent.cache.store.BatchOperation;
+import dev.ixixpercent.cache.store.BatchResult;
 import dev.ixixpercent.cache.store.CacheStoreManager;
+import dev.ixixpercent.cache.store.remote.BigEntry;
+import dev.ixixpercent.cache.store.remote.MapMemoryUsage;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.cache.Cache;
+import javax.cache.CacheException;
 import javax.cache.CacheManager;
 import javax.cache.configuration.CacheEntryListenerConfiguration;
 import javax.cache.configuration.Configuration;
+import javax.cache.configuration.Factory;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+import javax.cache.integration.CacheWriter;
+import javax.cache.integration.CacheWriterException;
 import javax.cache.integration.CompletionListener;
 import javax.cache.processor.EntryProcessor;
 import javax.cache.processor.EntryProcessorException;
 import javax.cache.processor.EntryProcessorResult;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
 
 @Slf4j
 public class IxIxCache<K, V> implements Cache<K, V> {
 
+  // remote calls of a removeAll in flight at once
+  private static final int REMOVE_ALL_PARALLELISM = 32;
+
   private final CacheManager cacheManager;
   private final String cacheName;
   private final Configuration<K, V> configuration;
-  private final Map<K, V> store;
+  private final CacheStoreManager<K, V> store;
+  private final boolean readThrough;
+  private final int loadAllBatchSize;
+  // null when no factory is configured
+  private final CacheLoader<K, V> cacheLoader;
+  // null when write-through is disabled
+  private final CacheWriter<K, V> cacheWriter;
+  // runs the asynchronous entry listeners
+  private final Executor entryListenerExecutor;
+  private final Map<CacheEntryListenerConfiguration<K, V>, EntryListenerRegistration<K, V>> entryListeners =
+    new ConcurrentHashMap<>();
   private volatile boolean isClosed = false;
 
-  public IxIxCache(CacheManager cacheManager,
-                   CacheServiceGrpcFactory stubFactory,
-                   String cacheName,
-                   Configuration<K, V> configuration) {
+  private IxIxCache(CacheManager cacheManager,
+                    CacheServiceGrpcFactory stubFactory,
+                    String cacheName,
+                    Configuration<K, V> configuration) {
     log.trace("Creating cache {} using manager {}", cacheName, cacheManager);
     this.cacheManager = cacheManager;
     this.cacheName = cacheName;
     this.configuration = configuration;
-    store = new CacheStoreManager<>(cacheName, stubFactory, configuration.getKeyType(), configuration.getValueType());
+    IxIxCacheConfiguration<K, V> ixixConfiguration = IxIxCacheConfiguration.from(configuration);
+    loadAllBatchSize = ixixConfiguration.getLoadAllBatchSize();
+    cacheLoader = create(ixixConfiguration.getCacheLoaderFactory());
+    cacheWriter = ixixConfiguration.isWriteThrough() ? create(ixixConfiguration.getCacheWriterFactory()) : null;
+    readThrough = ixixConfiguration.isReadThrough() && cacheLoader != null;
+    // with read-through the loader is the source of truth, refresh-ahead reads from it
+    store = new CacheStoreManager<>(cacheName, stubFactory, ixixConfiguration, readThrough ? this::loadValue : null);
+    Executor executor = create(ixixConfiguration.getEntryListenerExecutorFactory());
+    entryListenerExecutor = executor != null
+                            ? executor
+                            : runnable -> Thread.ofVirtual().name("ixix-entry-listener-" + cacheName).start(runnable);
+  }
+
+  /**
+   * Creates a cache and registers the entry listeners of its configuration. The listeners are registered once the
+   * cache is constructed, so that their registrations never see it partly initialized.
+   */
+  static <K, V> IxIxCache<K, V> create(CacheManager cacheManager,
+                                       CacheServiceGrpcFactory stubFactory,
+                                       String cacheName,
+                                       Configuration<K, V> configuration) {
+    IxIxCache<K, V> cache = new IxIxCache<>(cacheManager, stubFactory, cacheName, configuration);
+    for (CacheEntryListenerConfiguration<K, V> listenerConfiguration :
+      IxIxCacheConfiguration.from(configuration).getCacheEntryListenerConfigurations()) {
+      cache.registerCacheEntryListener(listenerConfiguration);
+    }
+    return cache;
+  }
+
+  // the factories are typed with wildcards, the created instances are only ever used with K and V
+  @SuppressWarnings("unchecked")
+  private static <T> T create(Factory<?> factory) {
+    return factory == null ? null : (T) factory.create();
   }
 
   @Override
@@ -84,23 +153,70 @@ public class IxIxCache<K, V> implements Cache<K, V> {
 
   @Override
   public void close() {
+    if (isClosed) {
+      return;
+    }
     isClosed = true;
-    store.clear();
+    entryListeners.values().forEach(EntryListenerRegistration::close);
+    entryListeners.clear();
+    // flushes pending write-behind entries, the remote entries are left in place
+    store.close();
+    closeQuietly(cacheLoader);
+    closeQuietly(cacheWriter);
+  }
+
+  private void closeQuietly(Object integration) {
+    if (integration instanceof Closeable closeable) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        log.warn("Cache [{}] Failed to close {}", cacheName, integration, e);
+      }
+    }
   }
 
   @Override
   public V get(K key) {
+    return get(key, null);
+  }
+
+  /**
+   * Reads a key like {@link #get(Object)}, a refresh-ahead of its entry started by the read loading the fresh value
+   * with the given loader instead of the loader of the configuration. Lets the callers loading the values
+   * themselves, like the Spring {@code @Cacheable} methods, have their entries refreshed before they expire.
+   *
+   * @param refreshLoader loads the fresh value of the key, a null value leaves the entry to expire, null to use the
+   *                      loader of the configuration
+   */
+  public V get(K key, Function<K, V> refreshLoader) {
     log.trace("Cache [{}] Getting cached value for key [{}]", cacheName, key);
     checkClosed();
-    V value = store.get(key);
+    V value = store.get(key, refreshLoader);
     log.trace("Cache [{}] Cached value found {}", cacheName, value);
+    if (value == null && readThrough) {
+      value = load(key);
+    }
     return value;
   }
 
   @Override
   public Map<K, V> getAll(Set<? extends K> keys) {
     checkClosed();
-    return keys.stream().filter(store::containsKey).collect(Collectors.toMap(key -> key, store::get, (a, b) -> b));
+    Map<K, V> result = new HashMap<>();
+    List<K> misses = new ArrayList<>();
+    for (K key : keys) {
+      V value = store.get(key);
+      if (value != null) {
+        result.put(key, value);
+      } else {
+        misses.add(key);
+      }
+    }
+    if (!misses.isEmpty() && readThrough) {
+      // a single loader call for all the misses instead of one per key
+      result.putAll(loadAndStore(misses));
+    }
+    return result;
   }
 
   @Override
@@ -112,13 +228,158 @@ public class IxIxCache<K, V> implements Cache<K, V> {
 
   @Override
   public void loadAll(Set<? extends K> keys, boolean replaceExistingValues, CompletionListener completionListener) {
-    //TODO
+    log.trace("Cache [{}] Loading all values for keys {}, replacing existing {}", cacheName, keys,
+              replaceExistingValues);
+    checkClosed();
+    if (cacheLoader == null) {
+      if (completionListener != null) {
+        completionListener.onCompletion();
+      }
+      return;
+    }
+    List<List<K>> batches = new ArrayList<>();
+    List<K> batch = new ArrayList<>(loadAllBatchSize);
+    for (K key : keys) {
+      batch.add(key);
+      if (batch.size() == loadAllBatchSize) {
+        batches.add(batch);
+        batch = new ArrayList<>(loadAllBatchSize);
+      }
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+    // loadAll is asynchronous, the caller is only notified through the completion listener
+    Thread.ofVirtual().name("ixix-load-all-" + cacheName).start(() -> {
+      try {
+        loadBatchesInParallel(batches, replaceExistingValues);
+        log.trace("Cache [{}] Loaded {} keys in {} batches", cacheName, keys.size(), batches.size());
+        if (completionListener != null) {
+          completionListener.onCompletion();
+        }
+      } catch (Exception e) {
+        log.error("Cache [{}] Failed to load all keys", cacheName, e);
+        if (completionListener != null) {
+          completionListener.onException(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Runs every batch on its own virtual thread, the loader is typically I/O bound.
+   */
+  private void loadBatchesInParallel(List<List<K>> batches, boolean replaceExistingValues) throws Exception {
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<?>> futures = new ArrayList<>(batches.size());
+      for (List<K> batch : batches) {
+        futures.add(executor.submit(() -> {
+          List<K> toLoad =
+            replaceExistingValues ? batch : batch.stream().filter(key -> !store.containsKey(key)).toList();
+          if (!toLoad.isEmpty()) {
+            loadAndStore(toLoad);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+      }
+    }
+  }
+
+  private V loadValue(K key) {
+    V value;
+    try {
+      value = cacheLoader.load(key);
+    } catch (CacheLoaderException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheLoaderException("Failed to load key " + key + " for cache " + cacheName, e);
+    }
+    log.trace("Cache [{}] Loaded value for key [{}] {}", cacheName, key, value);
+    return value;
+  }
+
+  private V load(K key) {
+    V value = loadValue(key);
+    if (value != null) {
+      store.put(key, value);
+    }
+    return value;
+  }
+
+  private Map<K, V> loadAndStore(Collection<K> keys) {
+    Map<K, V> loaded;
+    try {
+      loaded = cacheLoader.loadAll(keys);
+    } catch (CacheLoaderException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheLoaderException("Failed to load " + keys.size() + " keys for cache " + cacheName, e);
+    }
+    Map<K, V> values = new HashMap<>();
+    if (loaded != null) {
+      // the loader may return null values for keys it does not know about
+      loaded.forEach((key, value) -> {
+        if (key != null && value != null) {
+          values.put(key, value);
+        }
+      });
+    }
+    store.putAll(values);
+    return values;
+  }
+
+  private void write(K key, V value) {
+    if (cacheWriter == null) {
+      return;
+    }
+    try {
+      cacheWriter.write(new IxIxCacheEntry<>(key, value));
+    } catch (CacheWriterException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheWriterException("Failed to write key " + key + " for cache " + cacheName, e);
+    }
+  }
+
+  private void delete(Object key) {
+    if (cacheWriter == null) {
+      return;
+    }
+    try {
+      cacheWriter.delete(key);
+    } catch (CacheWriterException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheWriterException("Failed to delete key " + key + " for cache " + cacheName, e);
+    }
+  }
+
+  private void deleteAll(Collection<?> keys) {
+    if (cacheWriter == null || keys.isEmpty()) {
+      return;
+    }
+    try {
+      // the writer removes the keys it deleted, pass a copy
+      cacheWriter.deleteAll(new ArrayList<>(keys));
+    } catch (CacheWriterException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CacheWriterException("Failed to delete " + keys.size() + " keys for cache " + cacheName, e);
+    }
   }
 
   @Override
   public void put(K key, V value) {
     log.trace("Cache [{}] Putting cached value for key [{}], value {}", cacheName, key, value);
     checkClosed();
+    write(key, value);
     store.put(key, value);
   }
 
@@ -126,24 +387,49 @@ public class IxIxCache<K, V> implements Cache<K, V> {
   public V getAndPut(K key, V value) {
     log.trace("Cache [{}] Getting and putting cached value for key [{}], value {}", cacheName, key, value);
     checkClosed();
+    write(key, value);
     return store.put(key, value);
   }
 
   @Override
   public void putAll(Map<? extends K, ? extends V> map) {
-    //TODO
+    log.trace("Cache [{}] Putting all cached values for keys {}", cacheName, map.keySet());
+    checkClosed();
+    if (cacheWriter == null) {
+      store.putAll(map);
+      return;
+    }
+    Collection<Entry<? extends K, ? extends V>> entries = new ArrayList<>(map.size());
+    map.forEach((key, value) -> entries.add(new IxIxCacheEntry<>(key, value)));
+    try {
+      cacheWriter.writeAll(entries);
+    } catch (Exception e) {
+      // the writer leaves the entries it failed to write in the collection, cache the ones it did write
+      Map<K, V> written = new HashMap<>(map);
+      entries.forEach(entry -> written.remove(entry.getKey()));
+      store.putAll(written);
+      throw e instanceof CacheWriterException writerException ?
+            writerException :
+            new CacheWriterException("Failed to write " + entries.size() + " entries for cache " + cacheName, e);
+    }
+    store.putAll(map);
   }
 
   @Override
   public boolean putIfAbsent(K key, V value) {
     checkClosed();
-    return store.putIfAbsent(key, value) == null;
+    boolean put = store.putIfAbsent(key, value) == null;
+    if (put) {
+      write(key, value);
+    }
+    return put;
   }
 
   @Override
   public boolean remove(K key) {
     log.trace("Cache [{}] Removing cached value for key [{}]", cacheName, key);
     checkClosed();
+    delete(key);
     return store.remove(key) != null;
   }
 
@@ -151,13 +437,18 @@ public class IxIxCache<K, V> implements Cache<K, V> {
   public boolean remove(K key, V oldValue) {
     log.trace("Cache [{}] Removing cached value for key [{}] if value {}", cacheName, key, oldValue);
     checkClosed();
-    return store.remove(key, oldValue);
+    boolean removed = store.remove(key, oldValue);
+    if (removed) {
+      delete(key);
+    }
+    return removed;
   }
 
   @Override
   public V getAndRemove(K key) {
     log.trace("Cache [{}] Getting and removing cached value for key [{}]", cacheName, key);
     checkClosed();
+    delete(key);
     return store.remove(key);
   }
 
@@ -169,36 +460,133 @@ public class IxIxCache<K, V> implements Cache<K, V> {
               oldValue,
               newValue);
     checkClosed();
-    return store.replace(key, oldValue, newValue);
+    boolean replaced = store.replace(key, oldValue, newValue);
+    if (replaced) {
+      write(key, newValue);
+    }
+    return replaced;
   }
 
   @Override
   public boolean replace(K key, V value) {
     log.trace("Cache [{}] Replacing cached value for key [{}] with value {}", cacheName, key, value);
     checkClosed();
-    return store.replace(key, value) != null;
+    boolean replaced = store.replace(key, value) != null;
+    if (replaced) {
+      write(key, value);
+    }
+    return replaced;
   }
 
   @Override
   public V getAndReplace(K key, V value) {
     log.trace("Cache [{}] Getting and cached value for key [{}] with value {}", cacheName, key, value);
     checkClosed();
-    return store.computeIfPresent(key, (k, v) -> store.put(key, value));
+    V result = store.computeIfPresent(key, (k, v) -> store.put(key, value));
+    if (result != null) {
+      write(key, value);
+    }
+    return result;
   }
 
   @Override
   public void removeAll(Set<? extends K> keys) {
     log.trace("Cache [{}] Removing all cached values for keys {}", cacheName, keys);
     checkClosed();
-    for (K key : keys) {
-      store.remove(key);
+    deleteAll(keys);
+    if (keys.size() == 1) {
+      store.remove(keys.iterator().next());
+      return;
+    }
+    // a remote call per key, issued concurrently rather than one after the other but a few at a time, so a large
+    // set does not flood the channels of the nodes
+    Semaphore inFlight = new Semaphore(REMOVE_ALL_PARALLELISM);
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<?>> futures = new ArrayList<>(keys.size());
+      for (K key : keys) {
+        inFlight.acquire();
+        futures.add(executor.submit(() -> {
+          try {
+            store.remove(key);
+          } finally {
+            inFlight.release();
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof RuntimeException cause ? cause : new CacheException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CacheException("Interrupted while removing " + keys.size() + " keys from cache " + cacheName, e);
     }
   }
 
+  /**
+   * Starts a batch of operations on keys sharing a hash tag, applied atomically by their node in a single call.
+   *
+   * @return an empty batch of this cache
+   */
+  public IxIxBatch<K, V> batch() {
+    return new IxIxBatch<>(this);
+  }
+
+  /**
+   * Reports the memory the entries of the cache take on every node, as estimated by the nodes as they are written.
+   * The usage of an embedded cache is estimated from its entries when asked for.
+   *
+   * @return the usage of every node, by address
+   */
+  public Map<String, MapMemoryUsage> memoryUsage() {
+    checkClosed();
+    return store.memoryUsage();
+  }
+
+  /**
+   * Finds the largest entries of the cache kept in memory by the nodes. Every node scans its entries at a limited rate
+   * while serving the other calls, and runs a single scan at a time.
+   *
+   * @param count            the number of entries to return
+   * @param maxScanned       the entries each node reads at most, 0 to read them all
+   * @param entriesPerSecond the entries each node reads per second at most, 0 for the default of the node, not
+   *                         limited for an embedded cache whose entries are read by the calling thread
+   * @return the largest entries, largest first
+   */
+  public List<BigEntry<K>> largestEntries(int count, int maxScanned, int entriesPerSecond) {
+    checkClosed();
+    if (count <= 0) {
+      throw new IllegalArgumentException("The number of entries must be positive, not " + count);
+    }
+    return store.largestEntries(count, maxScanned, entriesPerSecond);
+  }
+
+  List<BatchResult<V>> executeBatch(List<BatchOperation<K, V>> operations) {
+    log.trace("Cache [{}] Executing batch of {} operations", cacheName, operations.size());
+    checkClosed();
+    List<BatchResult<V>> results = store.batch(operations);
+    for (int i = 0; i < results.size(); i++) {
+      BatchOperation<K, V> operation = operations.get(i);
+      if (!results.get(i).applied()) {
+        continue;
+      }
+      if (operation.type().writesValue()) {
+        write(operation.key(), operation.value());
+      } else if (operation.type().removes()) {
+        delete(operation.key());
+      }
+    }
+    return results;
+  }
+
   @Override
   public void removeAll() {
     log.trace("Cache [{}] Removing all cached values for", cacheName);
     checkClosed();
+    if (cacheWriter != null) {
+      deleteAll(store.keySet());
+    }
     store.clear();
   }
 
@@ -217,16 +605,38 @@ public class IxIxCache<K, V> implements Cache<K, V> {
     throw new IllegalArgumentException("Unwrapping to " + clazz + " is not supported");
   }
 
+  /**
+   * Registers a listener of the changes made to the entries of the cache by any client, through a stream of events
+   * from every node. The events a node emits while its stream is being reopened, after the node restarted or the
+   * listener fell too far behind, are lost. The listeners of an embedded cache receive the changes of its near
+   * cache instead.
+   *
+   * @throws IllegalArgumentException if the configuration is already registered
+   */
   @Override
   public void registerCacheEntryListener(CacheEntryListenerConfiguration<K, V> config) {
-    //TODO
-    // Not implemented in this simple cache
+    checkClosed();
+    if (config == null) {
+      throw new NullPointerException("The listener configuration must not be null");
+    }
+    entryListeners.compute(config, (c, registered) -> {
+      if (registered != null) {
+        throw new IllegalArgumentException("The listener configuration is already registered");
+      }
+      return new EntryListenerRegistration<>(this, store, c, entryListenerExecutor);
+    });
   }
 
   @Override
   public void deregisterCacheEntryListener(CacheEntryListenerConfiguration<K, V> config) {
-    // TODO
-    // Not implemented in this simple cache
+    checkClosed();
+    if (config == null) {
+      throw new NullPointerException("The listener configuration must not be null");
+    }
+    EntryListenerRegistration<K, V> registration = entryListeners.remove(config);
+    if (registration != null) {
+      registration.close();
+    }
   }
 
   @Override
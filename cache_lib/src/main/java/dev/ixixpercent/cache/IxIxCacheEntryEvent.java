@@ -0,0 +1,51 @@
+package dev.ixixpercent.cache;
+
+import javax.cache.Cache;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.EventType;
+
+class IxIxCacheEntryEvent<K, V> extends CacheEntryEvent<K, V> {
+
+  private final K key;
+  private final V value;
+  // null when the old value was not requested or the entry had none
+  private final V oldValue;
+  private final boolean oldValueAvailable;
+
+  IxIxCacheEntryEvent(Cache<K, V> source, EventType eventType, K key, V value, V oldValue,
+                      boolean oldValueAvailable) {
+    super(source, eventType);
+    this.key = key;
+    this.value = value;
+    this.oldValue = oldValue;
+    this.oldValueAvailable = oldValueAvailable;
+  }
+
+  @Override
+  public K getKey() {
+    return key;
+  }
+
+  @Override
+  public V getValue() {
+    return value;
+  }
+
+  @Override
+  public V getOldValue() {
+    return oldValue;
+  }
+
+  @Override
+  public boolean isOldValueAvailable() {
+    return oldValueAvailable;
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> clazz) {
+    if (clazz.isAssignableFrom(getClass())) {
+      return clazz.cast(this);
+    }
+    throw new IllegalArgumentException("Unwrapping to " + clazz + " is not supported");
+  }
+}
@@ -1,6 +1,11 @@
 package dev.ixixpercent.cache;
 
+import dev.ixixpercent.cache.configuration.IxIxCacheConfiguration;
 import dev.ixixpercent.cache.connector.CacheServiceGrpcFactory;
+import dev.ixixpercent.cache.connector.ChannelSelection;
+import dev.ixixpercent.cache.tracing.LoggingSpanExporter;
+import dev.ixixpercent.cache.tracing.SpanExporter;
+import dev.ixixpercent.cache.tracing.Tracing;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.cache.Cache;
@@ -11,19 +16,64 @@ import javax.cache.configuration.MutableConfiguration;
 import javax.cache.spi.CachingProvider;
 import java.net.URI;
 import java.util.Collections;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Slf4j
 public class IxIxCacheManager implements CacheManager {
 
+  /**
+   * Manager property holding the maximum number of attempts of the read-only calls to the nodes.
+   */
+  public static final String READ_MAX_ATTEMPTS_PROPERTY = "ixix.read.max-attempts";
+
+  /**
+   * Manager property holding the number of channels opened to every node.
+   */
+  public static final String CHANNELS_PER_NODE_PROPERTY = "ixix.channels-per-node";
+
+  /**
+   * Manager property holding how calls are spread over the channels of a node, round_robin or least_outstanding.
+   */
+  public static final String CHANNEL_SELECTION_PROPERTY = "ixix.channel-selection";
+
+  /**
+   * Manager property holding the fraction of the operations traced when the application gives no parent trace,
+   * between 0 and 1. Tracing is disabled when neither this property nor the parent supplier is set.
+   */
+  public static final String TRACING_SAMPLE_RATE_PROPERTY = "ixix.tracing.sample-rate";
+
+  /**
+   * Manager property holding the class of the {@link SpanExporter} receiving the spans, {@link LoggingSpanExporter}
+   * by default.
+   */
+  public static final String TRACING_EXPORTER_PROPERTY = "ixix.tracing.exporter";
+
+  /**
+   * Manager property holding the class of a {@code Supplier<String>} giving the W3C traceparent of the current span
+   * of the application, to trace the operations as part of it.
+   */
+  public static final String TRACING_PARENT_SUPPLIER_PROPERTY = "ixix.tracing.parent-supplier";
+
+  /**
+   * Manager property holding the comma separated host:port of the nodes used to discover the cluster.
+   */
+  public static final String SEEDS_PROPERTY = "ixix.seeds";
+
+  private static final String DEFAULT_SEEDS = "localhost:50051,localhost:50052,localhost:50053";
+
   private final CachingProvider cachingProvider;
   private final URI uri;
   private final ClassLoader classLoader;
   private final Properties properties;
   private volatile boolean isClosed = false;
   private final Map<String, Cache<?, ?>> caches = new ConcurrentHashMap<>();
+  private final Map<String, IxIxLongCache<?>> longCaches = new ConcurrentHashMap<>();
+  // null when the manager is embedded
   private final CacheServiceGrpcFactory stubFactory;
 
   public IxIxCacheManager(CachingProvider cachingProvider, URI uri, ClassLoader classLoader, Properties properties) {
@@ -31,15 +81,83 @@ public class IxIxCacheManager implements CacheManager {
     this.uri = uri;
     this.classLoader = classLoader;
     this.properties = properties;
-    stubFactory = new CacheServiceGrpcFactory();
+    if (isEmbedded(uri)) {
+      // the caches keep their entries in their near cache, no node is contacted
+      stubFactory = null;
+      log.trace("Created embedded IxIxCacheManager with provider {}", cachingProvider);
+      return;
+    }
+    stubFactory = createStubFactory(properties);
 
-    stubFactory.addNode("localhost", 50051);
-    stubFactory.addNode("localhost", 50052);
-    stubFactory.addNode("localhost", 50053);
+    // the other members of the cluster are learned from the seeds
+    for (String seed : properties.getProperty(SEEDS_PROPERTY, DEFAULT_SEEDS).split(",")) {
+      if (!seed.isBlank()) {
+        String[] parts = seed.trim().split(":");
+        stubFactory.addSeed(parts[0], Integer.parseInt(parts[1]));
+      }
+    }
 
     log.trace("Created IxIxCacheManager with uri {} and provider {}", uri, cachingProvider);
   }
 
+  /**
+   * Waits until a node published the topology of the cluster, so that the first calls go to the owners of their keys
+   * rather than to the seeds.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of the timeout
+   * @return true once the topology is known, right away for the embedded manager, false if the timeout elapsed first
+   */
+  public boolean awaitTopology(long timeout, TimeUnit unit) throws InterruptedException {
+    return stubFactory == null || stubFactory.getTopology().awaitPublished(timeout, unit);
+  }
+
+  /**
+   * @return true if the URI is the one of the embedded managers, {@link IxIxCachingProvider#EMBEDDED_URI}
+   */
+  static boolean isEmbedded(URI uri) {
+    return URI.create(IxIxCachingProvider.EMBEDDED_URI).equals(uri);
+  }
+
+  private static CacheServiceGrpcFactory createStubFactory(Properties properties) {
+    CacheServiceGrpcFactory.Builder builder = new CacheServiceGrpcFactory.Builder();
+    String value;
+    if ((value = properties.getProperty(READ_MAX_ATTEMPTS_PROPERTY)) != null) {
+      builder.withReadMaxAttempts(Integer.parseInt(value.trim()));
+    }
+    if ((value = properties.getProperty(CHANNELS_PER_NODE_PROPERTY)) != null) {
+      builder.withChannelsPerNode(Integer.parseInt(value.trim()));
+    }
+    if ((value = properties.getProperty(CHANNEL_SELECTION_PROPERTY)) != null) {
+      builder.withChannelSelection(ChannelSelection.valueOf(value.trim().toUpperCase(Locale.ROOT)));
+    }
+    String sampleRate = properties.getProperty(TRACING_SAMPLE_RATE_PROPERTY);
+    String parentSupplier = properties.getProperty(TRACING_PARENT_SUPPLIER_PROPERTY);
+    if (sampleRate != null || parentSupplier != null) {
+      Tracing.Builder tracing = new Tracing.Builder();
+      if (sampleRate != null) {
+        tracing.withSampleRate(Double.parseDouble(sampleRate.trim()));
+      }
+      if (parentSupplier != null) {
+        tracing.withParentSupplier(newInstance(parentSupplier, Supplier.class));
+      }
+      if ((value = properties.getProperty(TRACING_EXPORTER_PROPERTY)) != null) {
+        tracing.withExporter(newInstance(value, SpanExporter.class));
+      }
+      builder.withTracing(tracing.build());
+    }
+    return builder.build();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T newInstance(String className, Class<? super T> type) {
+    try {
+      return (T) Class.forName(className.trim()).asSubclass(type).getConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new CacheException("Cannot create " + type.getSimpleName() + " " + className, e);
+    }
+  }
+
   @Override
   public CachingProvider getCachingProvider() {
     return cachingProvider;
@@ -69,7 +187,7 @@ public class IxIxCacheManager implements CacheManager {
     if (caches.containsKey(cacheName)) {
       throw new CacheException("Cache with name " + cacheName + " already exists");
     }
-    Cache<K, V> cache = new IxIxCache<>(this, stubFactory, cacheName, configuration);
+    Cache<K, V> cache = IxIxCache.create(this, stubFactory, cacheName, configuration);
     caches.put(cacheName, cache);
     return cache;
   }
@@ -104,6 +222,46 @@ public class IxIxCacheManager implements CacheManager {
     return cache == null ? createCache(cacheName, new MutableConfiguration<>()) : cache;
   }
 
+  /**
+   * Creates a cache keyed by primitive longs. The only settings used are the value type, the deadlines and the expiry
+   * policy. The caches of the embedded manager keep their entries in this JVM.
+   *
+   * @param cacheName     the name of the cache
+   * @param configuration the configuration of the cache
+   * @param <V>           the type of the values
+   * @return the new cache
+   */
+  public <V> IxIxLongCache<V> createLongCache(String cacheName, IxIxCacheConfiguration<Long, V> configuration) {
+    if (isClosed()) {
+      throw new IllegalStateException("CacheManager is closed");
+    }
+    IxIxLongCache<V> cache = new IxIxLongCache<>(stubFactory, cacheName, configuration);
+    if (longCaches.putIfAbsent(cacheName, cache) != null) {
+      throw new CacheException("Long cache with name " + cacheName + " already exists");
+    }
+    return cache;
+  }
+
+  /**
+   * @return the cache keyed by primitive longs of the given name, created with the default settings if needed
+   */
+  @SuppressWarnings("unchecked")
+  public <V> IxIxLongCache<V> getLongCache(String cacheName, Class<V> valueType) {
+    if (isClosed()) {
+      throw new IllegalStateException("CacheManager is closed");
+    }
+    IxIxLongCache<?> cache = longCaches.get(cacheName);
+    if (cache == null) {
+      IxIxCacheConfiguration<Long, V> configuration = new IxIxCacheConfiguration<>();
+      configuration.setTypes(Long.class, valueType);
+      return createLongCache(cacheName, configuration);
+    }
+    if (!cache.getValueType().equals(valueType)) {
+      throw new ClassCastException("Incompatible value type");
+    }
+    return (IxIxLongCache<V>) cache;
+  }
+
   @Override
   public Iterable<String> getCacheNames() {
     if (isClosed()) {
@@ -119,6 +277,8 @@ public class IxIxCacheManager implements CacheManager {
     }
     Cache<?, ?> cache = caches.remove(cacheName);
     if (cache != null) {
+      // closing keeps the remote entries, destroying the cache removes them
+      cache.clear();
       cache.close();
     }
   }
@@ -140,6 +300,11 @@ public class IxIxCacheManager implements CacheManager {
         cache.close();
       }
       caches.clear();
+      longCaches.clear();
+      if (stubFactory != null) {
+        // the channels, health checks and topology refresh of the manager are its own
+        stubFactory.shutdownAllChannels();
+      }
       isClosed = true;
     }
   }
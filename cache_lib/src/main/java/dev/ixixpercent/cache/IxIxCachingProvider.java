@@ -13,6 +13,11 @@ import java.util.function.Supplier;
 public class IxIxCachingProvider implements CachingProvider {
 
   public static final String CACHE_PROVIDER_URI = "ixix://cache";
+
+  /**
+   * URI of the cache manager keeping the entries in this JVM, without nodes.
+   */
+  public static final String EMBEDDED_URI = "ixix://embedded";
   private final Map<ClassLoader, Map<URI, CacheManager>> cacheManagers = new ConcurrentHashMap<>();
 
   @Override
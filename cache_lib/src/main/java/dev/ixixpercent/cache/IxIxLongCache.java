@@ -0,0 +1,201 @@
+package dev.ixixpercent.cache;
+
+import com.google.protobuf.ByteString;
+import dev.ixixpercent.cache.configuration.IxIxCacheConfiguration;
+import dev.ixixpercent.cache.configuration.RemoteOperation;
+import dev.ixixpercent.cache.connector.CacheServiceGrpcFactory;
+import dev.ixixpercent.cache.grpc.CacheServiceGrpc;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.ClearRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GetLongRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GetResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.LongEntry;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutAllLongRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutLongRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.RemoveLongRequest;
+import dev.ixixpercent.cache.store.near.NearCache;
+import dev.ixixpercent.cache.store.serialization.KryoSerializer;
+
+import javax.cache.CacheException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache keyed by primitive longs, for the caches keyed by numeric ids.
+ *
+ * <p>The keys are neither boxed nor serialized: they travel as 8 fixed bytes and the node keeps them in a table
+ * of primitive longs. The values are serialized like in {@link IxIxCache} and stored as they are by the node,
+ * which never deserializes them. The cache has no near cache, every call goes to the node owning the key.</p>
+ *
+ * <p>The entries live next to those of the {@link IxIxCache} of the same name, and clearing either cache clears
+ * both.</p>
+ *
+ * <p>A cache of the embedded manager keeps its entries in this JVM, unserialized, in a map of its own with the same
+ * expiry, apart from the entries of the {@link IxIxCache} of the same name. Its keys are boxed there.</p>
+ *
+ * @param <V> the type of the values
+ */
+public class IxIxLongCache<V> {
+
+  private final String cacheName;
+  // null for an embedded cache
+  private final CacheServiceGrpcFactory stubFactory;
+  // null for a cache with nodes, the local map holds the entries of an embedded cache
+  private final NearCache<Long, V> localMap;
+  private final Class<V> valueType;
+  private final Map<RemoteOperation, Long> deadlinesMillis;
+  // 0 when the entries do not expire
+  private final long timeToLiveMillis;
+
+  /**
+   * @param stubFactory the factory giving the stubs to the nodes, null for an embedded cache kept in this JVM only
+   */
+  IxIxLongCache(CacheServiceGrpcFactory stubFactory, String cacheName, IxIxCacheConfiguration<Long, V> configuration) {
+    this.cacheName = cacheName;
+    this.stubFactory = stubFactory;
+    this.valueType = configuration.getValueType();
+    this.deadlinesMillis = configuration.getDeadlinesMillis();
+    this.timeToLiveMillis = configuration.getTimeToLiveMillis();
+    this.localMap = stubFactory == null ? new NearCache<>(timeToLiveMillis) : null;
+  }
+
+  public String getName() {
+    return cacheName;
+  }
+
+  public Class<V> getValueType() {
+    return valueType;
+  }
+
+  private CacheServiceGrpc.CacheServiceBlockingStub stub(String node, RemoteOperation operation) {
+    CacheServiceGrpc.CacheServiceBlockingStub stub = stubFactory.getStub(node);
+    long deadline = deadlinesMillis.get(operation);
+    return deadline > 0 ? stub.withDeadlineAfter(deadline, TimeUnit.MILLISECONDS) : stub;
+  }
+
+  /**
+   * Returns the node owning a key, or null when that node is not available. The key is hashed on its 8 bytes, big
+   * endian, like the nodes do.
+   */
+  private String ownerOf(long key) {
+    byte[] bytes = new byte[Long.BYTES];
+    for (int i = Long.BYTES - 1; i >= 0; i--) {
+      bytes[i] = (byte) key;
+      key >>>= 8;
+    }
+    String owner = stubFactory.getTopology().ownerOf(bytes);
+    return owner != null && stubFactory.isAvailable(owner) ? owner : null;
+  }
+
+  /**
+   * Returns the node owning a key for a write, which fails rather than being lost when that node is not available.
+   *
+   * @throws CacheException if the owner of the key is not available
+   */
+  private String writeOwnerOf(long key) {
+    String owner = ownerOf(key);
+    if (owner == null) {
+      throw new CacheException("No node available for key " + key + " in cache " + cacheName);
+    }
+    return owner;
+  }
+
+  /**
+   * @param key the key
+   * @return the value of the key, or null when the node does not have it
+   */
+  public V get(long key) {
+    if (localMap != null) {
+      return localMap.get(key);
+    }
+    String node = ownerOf(key);
+    if (node == null) {
+      return null;
+    }
+    GetResponse response = stub(node, RemoteOperation.GET)
+      .getLong(GetLongRequest.newBuilder().setMapName(cacheName).setKey(key).build());
+    if (response.getValue().isEmpty()) {
+      return null;
+    }
+    return KryoSerializer.deserialize(response.getValue().toByteArray(), valueType);
+  }
+
+  /**
+   * @throws CacheException if the owner of the key is not available
+   */
+  public void put(long key, V value) {
+    if (localMap != null) {
+      localMap.put(key, value);
+      return;
+    }
+    String node = writeOwnerOf(key);
+    stub(node, RemoteOperation.PUT).putLong(PutLongRequest
+                                              .newBuilder()
+                                              .setMapName(cacheName)
+                                              .setKey(key)
+                                              .setValue(ByteString.copyFrom(KryoSerializer.serialize(value)))
+                                              .setTtlMillis(timeToLiveMillis)
+                                              .build());
+  }
+
+  /**
+   * Puts the entries with one call per node. Nothing is sent when the owner of any key is not available.
+   *
+   * @param keys   the keys
+   * @param values the values, in the order of the keys
+   * @throws CacheException if the owner of a key is not available
+   */
+  public void putAll(long[] keys, V[] values) {
+    if (keys.length != values.length) {
+      throw new IllegalArgumentException("As many values as keys are required");
+    }
+    if (localMap != null) {
+      for (int i = 0; i < keys.length; i++) {
+        localMap.put(keys[i], values[i]);
+      }
+      return;
+    }
+    // the owners are found first, so that nothing is sent when one of them is not available
+    String[] nodes = new String[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      nodes[i] = writeOwnerOf(keys[i]);
+    }
+    Map<String, PutAllLongRequest.Builder> requests = new HashMap<>();
+    for (int i = 0; i < keys.length; i++) {
+      String node = nodes[i];
+      LongEntry entry = LongEntry
+        .newBuilder()
+        .setKey(keys[i])
+        .setValue(ByteString.copyFrom(KryoSerializer.serialize(values[i])))
+        .setTtlMillis(timeToLiveMillis)
+        .build();
+      requests.computeIfAbsent(node, n -> PutAllLongRequest.newBuilder().setMapName(cacheName)).addEntries(entry);
+    }
+    requests.forEach((node, request) -> stub(node, RemoteOperation.PUT_ALL).putAllLong(request.build()));
+  }
+
+  /**
+   * @throws CacheException if the owner of the key is not available
+   */
+  public void remove(long key) {
+    if (localMap != null) {
+      localMap.remove(key);
+      return;
+    }
+    String node = writeOwnerOf(key);
+    stub(node, RemoteOperation.REMOVE).removeLong(RemoveLongRequest.newBuilder().setMapName(cacheName).setKey(key).build());
+  }
+
+  /**
+   * Removes the entries of the cache from all the nodes.
+   */
+  public void clear() {
+    if (localMap != null) {
+      localMap.clear();
+      return;
+    }
+    for (String node : stubFactory.getNodes()) {
+      stub(node, RemoteOperation.CLEAR).clear(ClearRequest.newBuilder().setMapName(cacheName).build());
+    }
+  }
+}
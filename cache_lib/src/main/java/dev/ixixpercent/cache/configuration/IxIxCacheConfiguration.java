@@ -0,0 +1,434 @@
+package dev.ixixpercent.cache.configuration;
+
+import javax.cache.configuration.CompleteConfiguration;
+import javax.cache.configuration.Configuration;
+import javax.cache.configuration.Factory;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ExpiryPolicy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * JSR-107 {@link MutableConfiguration} extended with the settings specific to the IxIx cache.
+ *
+ * <p>Caches created with a plain {@link Configuration} use the defaults defined here.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ * IxIxCacheConfiguration&lt;String, String&gt; configuration = new IxIxCacheConfiguration&lt;String, String&gt;()
+ *   .setWriteBehindEnabled(true)
+ *   .setWriteBehindBatchSize(500);
+ * cacheManager.createCache("sessions", configuration);
+ * </pre>
+ */
+public class IxIxCacheConfiguration<K, V> extends MutableConfiguration<K, V> {
+
+  public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 100;
+  public static final long DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MILLIS = 100;
+  public static final int DEFAULT_WRITE_BEHIND_CAPACITY = 10_000;
+  public static final int DEFAULT_LOAD_ALL_BATCH_SIZE = 100;
+  public static final long DEFAULT_DEADLINE_MILLIS = 1_000;
+  public static final long DEFAULT_BULK_DEADLINE_MILLIS = 10_000;
+  public static final long DEFAULT_HEDGE_MIN_DELAY_MILLIS = 2;
+  public static final int DEFAULT_NEGATIVE_CACHE_CAPACITY = 10_000;
+  public static final int DEFAULT_LARGE_VALUE_THRESHOLD_BYTES = 1024 * 1024;
+
+  private boolean writeBehindEnabled = false;
+  private int writeBehindBatchSize = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+  private long writeBehindFlushIntervalMillis = DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL_MILLIS;
+  private int writeBehindCapacity = DEFAULT_WRITE_BEHIND_CAPACITY;
+  private int loadAllBatchSize = DEFAULT_LOAD_ALL_BATCH_SIZE;
+  private final EnumMap<RemoteOperation, Long> deadlinesMillis = defaultDeadlines();
+  private boolean hedgedGetsEnabled = false;
+  private long hedgeMinDelayMillis = DEFAULT_HEDGE_MIN_DELAY_MILLIS;
+  private double refreshAheadFactor = 0;
+  private long negativeCacheTtlMillis = 0;
+  private int negativeCacheCapacity = DEFAULT_NEGATIVE_CACHE_CAPACITY;
+  private long keyFilterRefreshMillis = 0;
+  private long hotKeyTtlMillis = 0;
+  private int largeValueThresholdBytes = DEFAULT_LARGE_VALUE_THRESHOLD_BYTES;
+  // null to dispatch the events of the asynchronous entry listeners on virtual threads
+  private Factory<? extends Executor> entryListenerExecutorFactory;
+
+  public IxIxCacheConfiguration() {
+    super();
+  }
+
+  public IxIxCacheConfiguration(CompleteConfiguration<K, V> configuration) {
+    super(configuration);
+    if (configuration instanceof IxIxCacheConfiguration<K, V> other) {
+      this.writeBehindEnabled = other.writeBehindEnabled;
+      this.writeBehindBatchSize = other.writeBehindBatchSize;
+      this.writeBehindFlushIntervalMillis = other.writeBehindFlushIntervalMillis;
+      this.writeBehindCapacity = other.writeBehindCapacity;
+      this.loadAllBatchSize = other.loadAllBatchSize;
+      this.deadlinesMillis.putAll(other.deadlinesMillis);
+      this.hedgedGetsEnabled = other.hedgedGetsEnabled;
+      this.hedgeMinDelayMillis = other.hedgeMinDelayMillis;
+      this.refreshAheadFactor = other.refreshAheadFactor;
+      this.negativeCacheTtlMillis = other.negativeCacheTtlMillis;
+      this.negativeCacheCapacity = other.negativeCacheCapacity;
+      this.keyFilterRefreshMillis = other.keyFilterRefreshMillis;
+      this.hotKeyTtlMillis = other.hotKeyTtlMillis;
+      this.largeValueThresholdBytes = other.largeValueThresholdBytes;
+      this.entryListenerExecutorFactory = other.entryListenerExecutorFactory;
+    }
+  }
+
+  private static EnumMap<RemoteOperation, Long> defaultDeadlines() {
+    EnumMap<RemoteOperation, Long> deadlines = new EnumMap<>(RemoteOperation.class);
+    for (RemoteOperation operation : RemoteOperation.values()) {
+      deadlines.put(operation, DEFAULT_DEADLINE_MILLIS);
+    }
+    // these scale with the number of entries
+    deadlines.put(RemoteOperation.PUT_ALL, DEFAULT_BULK_DEADLINE_MILLIS);
+    deadlines.put(RemoteOperation.GET_ALL, DEFAULT_BULK_DEADLINE_MILLIS);
+    // these scale with the size of the value
+    deadlines.put(RemoteOperation.PUT_CHUNKED, DEFAULT_BULK_DEADLINE_MILLIS);
+    deadlines.put(RemoteOperation.GET_CHUNKED, DEFAULT_BULK_DEADLINE_MILLIS);
+    deadlines.put(RemoteOperation.CLEAR, DEFAULT_BULK_DEADLINE_MILLIS);
+    deadlines.put(RemoteOperation.GET_KEY_FILTER, DEFAULT_BULK_DEADLINE_MILLIS);
+    // the node scans the map at a limited rate
+    deadlines.put(RemoteOperation.SAMPLE_BIG_KEYS, DEFAULT_BULK_DEADLINE_MILLIS);
+    return deadlines;
+  }
+
+  /**
+   * Returns the given configuration if it already is an IxIx configuration, otherwise a copy of it
+   * with the IxIx specific settings left at their defaults.
+   *
+   * @param configuration the configuration passed when creating the cache
+   * @return the IxIx configuration to use for the cache
+   */
+  public static <K, V> IxIxCacheConfiguration<K, V> from(Configuration<K, V> configuration) {
+    if (configuration instanceof IxIxCacheConfiguration<K, V> ixixConfiguration) {
+      return ixixConfiguration;
+    }
+    if (configuration instanceof CompleteConfiguration<K, V> completeConfiguration) {
+      return new IxIxCacheConfiguration<>(completeConfiguration);
+    }
+    IxIxCacheConfiguration<K, V> result = new IxIxCacheConfiguration<>();
+    result.setTypes(configuration.getKeyType(), configuration.getValueType());
+    result.setStoreByValue(configuration.isStoreByValue());
+    return result;
+  }
+
+  public boolean isWriteBehindEnabled() {
+    return writeBehindEnabled;
+  }
+
+  /**
+   * Enables write-behind: puts are applied to the near cache immediately and sent to the node in batches
+   * by a background flusher instead of waiting for the remote call.
+   *
+   * @param writeBehindEnabled true to enable write-behind
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setWriteBehindEnabled(boolean writeBehindEnabled) {
+    this.writeBehindEnabled = writeBehindEnabled;
+    return this;
+  }
+
+  public int getWriteBehindBatchSize() {
+    return writeBehindBatchSize;
+  }
+
+  /**
+   * Sets the maximum number of entries sent in a single PutAll call. A flush is triggered as soon as this
+   * many entries are pending.
+   *
+   * @param writeBehindBatchSize the batch size, must be positive
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setWriteBehindBatchSize(int writeBehindBatchSize) {
+    if (writeBehindBatchSize <= 0) {
+      throw new IllegalArgumentException("Write-behind batch size must be positive");
+    }
+    this.writeBehindBatchSize = writeBehindBatchSize;
+    return this;
+  }
+
+  public long getWriteBehindFlushIntervalMillis() {
+    return writeBehindFlushIntervalMillis;
+  }
+
+  /**
+   * Sets the maximum time a pending write waits before it is flushed to the node.
+   *
+   * @param writeBehindFlushIntervalMillis the flush interval in milliseconds, must be positive
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setWriteBehindFlushIntervalMillis(long writeBehindFlushIntervalMillis) {
+    if (writeBehindFlushIntervalMillis <= 0) {
+      throw new IllegalArgumentException("Write-behind flush interval must be positive");
+    }
+    this.writeBehindFlushIntervalMillis = writeBehindFlushIntervalMillis;
+    return this;
+  }
+
+  public int getWriteBehindCapacity() {
+    return writeBehindCapacity;
+  }
+
+  /**
+   * Sets the maximum number of distinct keys waiting to be flushed. Writers block once the buffer is full
+   * until the flusher catches up.
+   *
+   * @param writeBehindCapacity the buffer capacity, must be positive
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setWriteBehindCapacity(int writeBehindCapacity) {
+    if (writeBehindCapacity <= 0) {
+      throw new IllegalArgumentException("Write-behind capacity must be positive");
+    }
+    this.writeBehindCapacity = writeBehindCapacity;
+    return this;
+  }
+
+  public int getLoadAllBatchSize() {
+    return loadAllBatchSize;
+  }
+
+  /**
+   * Sets the number of keys handed to {@link javax.cache.integration.CacheLoader#loadAll} at once by
+   * {@link javax.cache.Cache#loadAll}. The batches are loaded in parallel.
+   *
+   * @param loadAllBatchSize the batch size, must be positive
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setLoadAllBatchSize(int loadAllBatchSize) {
+    if (loadAllBatchSize <= 0) {
+      throw new IllegalArgumentException("Load all batch size must be positive");
+    }
+    this.loadAllBatchSize = loadAllBatchSize;
+    return this;
+  }
+
+  /**
+   * @param operation the remote operation
+   * @return the deadline of the operation in milliseconds, 0 when the call has no deadline
+   */
+  public long getDeadlineMillis(RemoteOperation operation) {
+    return deadlinesMillis.get(operation);
+  }
+
+  public Map<RemoteOperation, Long> getDeadlinesMillis() {
+    return Map.copyOf(deadlinesMillis);
+  }
+
+  /**
+   * Sets how long a call to the node may take before it fails with DEADLINE_EXCEEDED.
+   *
+   * @param operation      the remote operation
+   * @param deadlineMillis the deadline in milliseconds, 0 to wait indefinitely
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setDeadlineMillis(RemoteOperation operation, long deadlineMillis) {
+    if (deadlineMillis < 0) {
+      throw new IllegalArgumentException("Deadline must not be negative");
+    }
+    deadlinesMillis.put(operation, deadlineMillis);
+    return this;
+  }
+
+  /**
+   * Sets the same deadline for all remote operations.
+   *
+   * @param deadlineMillis the deadline in milliseconds, 0 to wait indefinitely
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setDeadlineMillis(long deadlineMillis) {
+    for (RemoteOperation operation : RemoteOperation.values()) {
+      setDeadlineMillis(operation, deadlineMillis);
+    }
+    return this;
+  }
+
+  public boolean isHedgedGetsEnabled() {
+    return hedgedGetsEnabled;
+  }
+
+  /**
+   * Enables hedged gets: when a get has not completed within the p95 latency of the recent gets, a second
+   * identical call is sent to the same node over another channel of its pool, and the first response wins.
+   *
+   * @param hedgedGetsEnabled true to enable hedged gets
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setHedgedGetsEnabled(boolean hedgedGetsEnabled) {
+    this.hedgedGetsEnabled = hedgedGetsEnabled;
+    return this;
+  }
+
+  public long getHedgeMinDelayMillis() {
+    return hedgeMinDelayMillis;
+  }
+
+  /**
+   * Sets the lower bound of the hedge delay, so a very low p95 does not double the load on the node.
+   *
+   * @param hedgeMinDelayMillis the minimum delay in milliseconds
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setHedgeMinDelayMillis(long hedgeMinDelayMillis) {
+    if (hedgeMinDelayMillis < 0) {
+      throw new IllegalArgumentException("Hedge delay must not be negative");
+    }
+    this.hedgeMinDelayMillis = hedgeMinDelayMillis;
+    return this;
+  }
+
+  /**
+   * Returns the time to live of the entries, given by the creation duration of the {@link ExpiryPolicy}. The
+   * entries expire this long after they were last written, in the near cache and on the node.
+   *
+   * @return the time to live in milliseconds, 0 when the entries do not expire
+   */
+  public long getTimeToLiveMillis() {
+    Duration duration = getExpiryPolicyFactory().create().getExpiryForCreation();
+    if (duration == null || duration.isEternal()) {
+      return 0;
+    }
+    // a zero duration expires the entries right away
+    return Math.max(1, duration.getTimeUnit().toMillis(duration.getDurationAmount()));
+  }
+
+  public double getRefreshAheadFactor() {
+    return refreshAheadFactor;
+  }
+
+  /**
+   * Enables refresh-ahead: an entry of the near cache read after this fraction of its time to live is
+   * refreshed in the background, from the cache loader when read-through is enabled and from the node
+   * otherwise, while the current value keeps being served. Has no effect when the entries do not expire.
+   *
+   * @param refreshAheadFactor the fraction of the time to live, between 0 and 1, 0 to disable refresh-ahead
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setRefreshAheadFactor(double refreshAheadFactor) {
+    if (refreshAheadFactor < 0 || refreshAheadFactor >= 1) {
+      throw new IllegalArgumentException("Refresh-ahead factor must be at least 0 and less than 1");
+    }
+    this.refreshAheadFactor = refreshAheadFactor;
+    return this;
+  }
+
+  public long getNegativeCacheTtlMillis() {
+    return negativeCacheTtlMillis;
+  }
+
+  /**
+   * Enables the negative cache: the keys the node confirmed absent are remembered for this long, and reading them
+   * again returns null without calling the node. A key is forgotten as soon as this client writes it, a value
+   * written by another client is only seen once the key is forgotten.
+   *
+   * @param negativeCacheTtlMillis the time to remember an absent key in milliseconds, 0 to disable the negative cache
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setNegativeCacheTtlMillis(long negativeCacheTtlMillis) {
+    if (negativeCacheTtlMillis < 0) {
+      throw new IllegalArgumentException("Negative cache time to live must not be negative");
+    }
+    this.negativeCacheTtlMillis = negativeCacheTtlMillis;
+    return this;
+  }
+
+  public int getNegativeCacheCapacity() {
+    return negativeCacheCapacity;
+  }
+
+  /**
+   * Sets the maximum number of absent keys remembered by the negative cache.
+   *
+   * @param negativeCacheCapacity the capacity, must be positive
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setNegativeCacheCapacity(int negativeCacheCapacity) {
+    if (negativeCacheCapacity <= 0) {
+      throw new IllegalArgumentException("Negative cache capacity must be positive");
+    }
+    this.negativeCacheCapacity = negativeCacheCapacity;
+    return this;
+  }
+
+  public long getKeyFilterRefreshMillis() {
+    return keyFilterRefreshMillis;
+  }
+
+  /**
+   * Enables the key filters: every node publishes a Bloom filter of the keys it holds, downloaded at this
+   * interval, and reading a key absent from the filter of its owner returns a miss without calling the node. A
+   * key written by another client since the last download is missed until the next one.
+   *
+   * @param keyFilterRefreshMillis the download interval in milliseconds, 0 to disable the key filters
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setKeyFilterRefreshMillis(long keyFilterRefreshMillis) {
+    if (keyFilterRefreshMillis < 0) {
+      throw new IllegalArgumentException("Key filter refresh interval must not be negative");
+    }
+    this.keyFilterRefreshMillis = keyFilterRefreshMillis;
+    return this;
+  }
+
+  public long getHotKeyTtlMillis() {
+    return hotKeyTtlMillis;
+  }
+
+  /**
+   * Enables the pinning of hot keys: a value read from the node is kept in the near cache for this long when its
+   * node reports the key among the most read ones of the map. The reads of the hot keys then stay local instead of
+   * all landing on the node owning them, at the cost of missing the writes of other clients for that long.
+   *
+   * @param hotKeyTtlMillis the time a hot key is kept in milliseconds, 0 to disable the pinning
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setHotKeyTtlMillis(long hotKeyTtlMillis) {
+    if (hotKeyTtlMillis < 0) {
+      throw new IllegalArgumentException("Hot key time to live must not be negative");
+    }
+    this.hotKeyTtlMillis = hotKeyTtlMillis;
+    return this;
+  }
+
+  public int getLargeValueThresholdBytes() {
+    return largeValueThresholdBytes;
+  }
+
+  /**
+   * Sets the size of the JSON form of a value above which it is streamed to and from the node in chunks, rather
+   * than sent in a single message. The node keeps such a value in its chunks, so that neither side ever allocates an
+   * array of its full size, and values over the 4 MB message limit of gRPC can be stored. Values written by
+   * {@code putAll} are streamed as well, those of the batches and the long-keyed caches are always sent whole.
+   *
+   * @param largeValueThresholdBytes the threshold in UTF-8 bytes of the JSON, must be positive
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setLargeValueThresholdBytes(int largeValueThresholdBytes) {
+    if (largeValueThresholdBytes <= 0) {
+      throw new IllegalArgumentException("Large value threshold must be positive");
+    }
+    this.largeValueThresholdBytes = largeValueThresholdBytes;
+    return this;
+  }
+
+  public Factory<? extends Executor> getEntryListenerExecutorFactory() {
+    return entryListenerExecutorFactory;
+  }
+
+  /**
+   * Sets the executor the events of the asynchronous entry listeners are dispatched on. The events of a listener are
+   * still dispatched one batch at a time, in order. The synchronous listeners are called by the thread receiving the
+   * events from the node.
+   *
+   * @param entryListenerExecutorFactory creates the executor, null to dispatch on virtual threads
+   * @return this configuration for method chaining
+   */
+  public IxIxCacheConfiguration<K, V> setEntryListenerExecutorFactory(
+    Factory<? extends Executor> entryListenerExecutorFactory) {
+    this.entryListenerExecutorFactory = entryListenerExecutorFactory;
+    return this;
+  }
+}
@@ -0,0 +1,37 @@
+package dev.ixixpercent.cache.configuration;
+
+/**
+ * The calls made by a cache to its node, used to configure a deadline per operation.
+ */
+public enum RemoteOperation {
+  GET(true),
+  PUT(false),
+  REMOVE(false),
+  CONTAINS_KEY(true),
+  SIZE(true),
+  IS_EMPTY(true),
+  CLEAR(false),
+  PUT_ALL(false),
+  GET_ALL(true),
+  GET_KEY_FILTER(true),
+  GET_HOT_KEYS(true),
+  OPEN_MAP(true),
+  BATCH(false),
+  PUT_CHUNKED(false),
+  GET_CHUNKED(true),
+  GET_MEMORY_STATS(true),
+  SAMPLE_BIG_KEYS(true);
+
+  private final boolean read;
+
+  RemoteOperation(boolean read) {
+    this.read = read;
+  }
+
+  /**
+   * @return true if the operation does not modify the node and can safely be retried
+   */
+  public boolean isRead() {
+    return read;
+  }
+}
@@ -1,21 +1,27 @@
 package dev.ixixpercent.cache.connector;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
 
 import dev.ixixpercent.cache.grpc.CacheServiceGrpc;
+import dev.ixixpercent.cache.jfr.RoutingEvent;
+import dev.ixixpercent.cache.tracing.Tracing;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.MethodDescriptor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * CacheServiceGrpcFactory is a factory class responsible for managing instances of 
  * CacheServiceGrpc.CacheServiceBlockingStub. It provides a mechanism to create and 
- * manage gRPC channels and stubs in a round-robin fashion from a dynamically 
+ * manage gRPC channels and stubs, selecting the least loaded node from a dynamically 
  * managed list of nodes.
  * 
  * <p>This class is designed to handle multiple nodes, allowing for the addition 
@@ -26,36 +32,85 @@ import lombok.extern.slf4j.Slf4j;
  * <p>Key features include:</p>
  * <ul>
  *   <li>Thread-safe management of nodes using a concurrent data structure.</li>
- *   <li>Round-robin selection of nodes for load balancing.</li>
- *   <li>Automatic health checks to remove unhealthy nodes from the pool.</li>
+ *   <li>Power-of-two-choices selection of nodes, based on their latency and calls in flight.</li>
+ *   <li>Automatic health checks suspending unhealthy nodes and re-admitting them once they recover.</li>
+ *   <li>Transparent retries of the read-only calls failing with UNAVAILABLE.</li>
+ *   <li>A pool of channels per node, each with its own connection, load balanced per call.</li>
+ *   <li>Discovery of the cluster from a few seeds, and the partition table telling which node owns a key.</li>
  *   <li>Logging of significant events for monitoring and debugging purposes.</li>
  * </ul>
  * 
  * <p>Usage:</p>
  * <pre>
- * CacheServiceGrpcFactory factory = new CacheServiceGrpcFactory();
- * factory.addNode("localhost", 50051);
- * CacheServiceGrpc.CacheServiceBlockingStub stub = factory.getStub();
+ * CacheServiceGrpcFactory factory = new CacheServiceGrpcFactory.Builder().withChannelsPerNode(4).build();
+ * factory.addSeed("localhost", 50051);
+ * String node = factory.getTopology().ownerOf(serializedKey);
+ * CacheServiceGrpc.CacheServiceBlockingStub stub = factory.getStub(node);
  * </pre>
  */
 @Slf4j
 public class CacheServiceGrpcFactory {
 
-  // Holds channels and stubs based on host-port key
-  private final Map<String, ManagedChannel> channelCache = new ConcurrentHashMap<>();
+  public static final int DEFAULT_READ_MAX_ATTEMPTS = 3;
+  public static final int DEFAULT_CHANNELS_PER_NODE =
+    Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  public static final long DEFAULT_TOPOLOGY_REFRESH_SECONDS = 5;
+
+  // Holds channel pools and stubs based on host-port key
+  private final Map<String, NodeChannelPool> channelCache = new ConcurrentHashMap<>();
   private final Map<String, CacheServiceGrpc.CacheServiceBlockingStub> stubCache = new ConcurrentHashMap<>();
+  private final Map<String, CacheServiceGrpc.CacheServiceFutureStub> futureStubCache = new ConcurrentHashMap<>();
+  private final Map<String, CacheServiceGrpc.CacheServiceStub> asyncStubCache = new ConcurrentHashMap<>();
 
-  // Thread-safe list of nodes for round-robin selection
+  // Thread-safe list of the nodes available for selection
   private final CopyOnWriteArrayList<String> nodes = new CopyOnWriteArrayList<>();
 
-  // Atomic counter for round-robin index
-  private final AtomicInteger roundRobinIndex = new AtomicInteger(0);
+  // Nodes taken out of the selection after a failure, their channels are kept to detect their recovery
+  private final Set<String> suspendedNodes = ConcurrentHashMap.newKeySet();
+
+  // gRPC service config applied to every channel, null when retries are disabled
+  private final Map<String, ?> serviceConfig;
+  private final int channelsPerNode;
+  private final ChannelSelection channelSelection;
+  // null when the operations are not traced
+  private final Tracing tracing;
+  // set by the builder once the factory is constructed, before it is handed out
+  private ClusterTopology topology;
+  private HealthChecker healthChecker;
 
+  private CacheServiceGrpcFactory(Builder builder) {
+    serviceConfig = builder.readMaxAttempts > 1 ? createRetryServiceConfig(builder.readMaxAttempts) : null;
+    channelsPerNode = builder.channelsPerNode;
+    channelSelection = builder.channelSelection;
+    tracing = builder.tracing;
+  }
 
-  public CacheServiceGrpcFactory() {
+  /**
+   * Starts the topology refresh and the health checks. Called by the builder once the factory is constructed, so
+   * that their threads never see it partly initialized.
+   */
+  private void start(long topologyRefreshSeconds) {
+    topology = new ClusterTopology(this);
+    topology.startPeriodicRefresh(topologyRefreshSeconds);
     // Schedule periodic health checks
     // wait an initial period
-    new HealthChecker.Builder().withFactory(this).withCheckIntervalSeconds(10).buildAndStart();
+    healthChecker = new HealthChecker.Builder().withFactory(this).withCheckIntervalSeconds(10).buildAndStart();
+  }
+
+  /**
+   * Retrieves the topology of the cluster the nodes belong to.
+   *
+   * @return the cluster topology
+   */
+  public ClusterTopology getTopology() {
+    return topology;
+  }
+
+  /**
+   * @return the tracing of the operations and of their calls, null when they are not traced
+   */
+  public Tracing getTracing() {
+    return tracing;
   }
 
   /**
@@ -69,6 +124,49 @@ public class CacheServiceGrpcFactory {
     return Collections.unmodifiableList(this.nodes);
   }
 
+  /**
+   * Retrieves the nodes currently suspended because they failed a health check.
+   *
+   * @return a Set of node keys in the format "host:port"
+   */
+  public Set<String> getSuspendedNodes() {
+    return Collections.unmodifiableSet(suspendedNodes);
+  }
+
+  /**
+   * Checks whether a node can currently be used.
+   *
+   * @param key the node key in the format "host:port"
+   * @return true if the node is added and not suspended
+   */
+  public boolean isAvailable(String key) {
+    return nodes.contains(key);
+  }
+
+  /**
+   * Returns the node owning a key according to the partition table, when it can be used.
+   *
+   * @param mapName      the map of the key, recorded with the decision
+   * @param routingBytes the routing bytes of the key, see {@link PartitionTable#routingBytes(Object, byte[])}
+   * @return the node key in the format "host:port", null when no node is known or the owner is not available
+   */
+  public String ownerOf(String mapName, byte[] routingBytes) {
+    PartitionTable table = topology.getPartitionTable();
+    int partition = table.partitionOf(routingBytes);
+    String owner = table.ownerOf(partition);
+    boolean available = owner != null && isAvailable(owner);
+    RoutingEvent event = new RoutingEvent();
+    if (event.isEnabled()) {
+      event.mapName = mapName;
+      event.strategy = RoutingEvent.PARTITION;
+      event.partition = partition;
+      event.node = owner;
+      event.available = available;
+      event.commit();
+    }
+    return available ? owner : null;
+  }
+
   /**
    * Adds a node to the factory. If the node already exists, it does nothing.
    *
@@ -87,6 +185,18 @@ public class CacheServiceGrpcFactory {
     }
   }
 
+  /**
+   * Adds a node to the factory and uses it to discover the rest of the cluster. Seeds are asked for the topology
+   * whenever no other node is available, even after they were removed.
+   *
+   * @param host Hostname of the node
+   * @param port Port of the node
+   */
+  public void addSeed(String host, int port) {
+    addNode(host, port);
+    topology.addSeed(createKey(host, port));
+  }
+
   /**
    * Removes a node from the factory. If the node does not exist, it does nothing.
    *
@@ -95,7 +205,7 @@ public class CacheServiceGrpcFactory {
    */
   public void removeNode(String host, int port) {
     String key = createKey(host, port);
-    boolean removed = nodes.remove(key);
+    boolean removed = nodes.remove(key) | suspendedNodes.remove(key);
     if (removed) {
       log.info("Node removed: {}", key);
       invalidateNode(host, port);
@@ -105,25 +215,146 @@ public class CacheServiceGrpcFactory {
   }
 
   /**
-   * Returns a CacheServiceBlockingStub using round-robin selection from the available nodes.
+   * Takes a node out of the selection without closing its channels, so its recovery can be detected.
+   *
+   * @param key the node key in the format "host:port"
+   */
+  public void suspendNode(String key) {
+    if (nodes.remove(key)) {
+      suspendedNodes.add(key);
+      log.warn("Node suspended: {}", key);
+    }
+  }
+
+  /**
+   * Puts a suspended node back in the selection.
+   *
+   * @param key the node key in the format "host:port"
+   */
+  public void readmitNode(String key) {
+    if (suspendedNodes.remove(key)) {
+      nodes.addIfAbsent(key);
+      log.info("Node re-admitted: {}", key);
+    }
+  }
+
+  /**
+   * Returns a CacheServiceBlockingStub for the least loaded of the available nodes.
    *
    * @return CacheServiceGrpc.CacheServiceBlockingStub
    * @throws IllegalStateException if no nodes are available
    */
   public CacheServiceGrpc.CacheServiceBlockingStub getStub() {
-    if (nodes.isEmpty()) {
+    String key = selectNode();
+    log.trace("Getting stub for node {}", key);
+    // Retrieve the stub from the cache, creating it if necessary
+    return getStubFromCache(key);
+  }
+
+  /**
+   * Selects a node using the power of two choices: two random available nodes are compared and the one with
+   * the lower latency, scaled by its calls in flight, wins. This moves load away from a degrading node without
+   * sending everything to the single fastest one.
+   *
+   * @return the node key in the format "host:port"
+   * @throws IllegalStateException if no nodes are available
+   */
+  public String selectNode() {
+    Object[] available = nodes.toArray();
+    if (available.length == 0) {
       throw new IllegalStateException("No available nodes to create a stub.");
     }
+    if (available.length == 1) {
+      return (String) available[0];
+    }
 
-    // Calculate the current index in a thread-safe manner
-    int index = Math.abs(roundRobinIndex.getAndIncrement()) % nodes.size();
-    String key = nodes.get(index);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(available.length);
+    int second = random.nextInt(available.length - 1);
+    if (second >= first) {
+      second++;
+    }
+    String firstKey = (String) available[first];
+    String secondKey = (String) available[second];
+    String selected = loadScore(firstKey) <= loadScore(secondKey) ? firstKey : secondKey;
+    RoutingEvent event = new RoutingEvent();
+    if (event.isEnabled()) {
+      event.strategy = RoutingEvent.LEAST_LOADED;
+      event.partition = -1;
+      event.node = selected;
+      event.available = true;
+      event.commit();
+    }
+    return selected;
+  }
 
-    log.trace("Getting stub for node {}", key);
-    // Retrieve the stub from the cache, creating it if necessary
+  private double loadScore(String key) {
+    NodeChannelPool channel = channelCache.get(key);
+    return channel == null ? Double.MAX_VALUE : channel.getLoadScore();
+  }
+
+  /**
+   * Returns the blocking stub of a given node.
+   *
+   * @param key the node key in the format "host:port"
+   * @return CacheServiceGrpc.CacheServiceBlockingStub
+   */
+  public CacheServiceGrpc.CacheServiceBlockingStub getStub(String key) {
     return getStubFromCache(key);
   }
 
+  /**
+   * Returns the future stub of a given node, sharing the channel of the blocking stub.
+   *
+   * @param key the node key in the format "host:port"
+   * @return CacheServiceGrpc.CacheServiceFutureStub
+   */
+  public CacheServiceGrpc.CacheServiceFutureStub getFutureStub(String key) {
+    return futureStubCache.computeIfAbsent(key, k -> {
+      String[] parts = k.split(":");
+      log.info("Creating new future stub for node {}", key);
+      return CacheServiceGrpc.newFutureStub(getChannel(parts[0], Integer.parseInt(parts[1])));
+    });
+  }
+
+  /**
+   * Returns the future stub of a given node with its calls pinned to one channel of the node's pool, so that two
+   * calls given different indexes go over different connections when the pool has more than one channel.
+   *
+   * @param key     the node key in the format "host:port"
+   * @param channel the index of the channel, taken modulo the number of channels of the pool
+   * @return CacheServiceGrpc.CacheServiceFutureStub
+   */
+  public CacheServiceGrpc.CacheServiceFutureStub getFutureStub(String key, int channel) {
+    return getFutureStub(key).withOption(NodeChannelPool.CHANNEL_INDEX, channel);
+  }
+
+  /**
+   * Selects the channel of a node's pool that the next call would be placed on, to pin a call to it with
+   * {@link #getFutureStub(String, int)}.
+   *
+   * @param key the node key in the format "host:port"
+   * @return the index of the channel
+   */
+  public int selectChannel(String key) {
+    return getChannel(key).select();
+  }
+
+  /**
+   * Returns the asynchronous stub of a given node, for the client streaming calls, sharing the channel of the
+   * blocking stub.
+   *
+   * @param key the node key in the format "host:port"
+   * @return CacheServiceGrpc.CacheServiceStub
+   */
+  public CacheServiceGrpc.CacheServiceStub getAsyncStub(String key) {
+    return asyncStubCache.computeIfAbsent(key, k -> {
+      String[] parts = k.split(":");
+      log.info("Creating new async stub for node {}", key);
+      return CacheServiceGrpc.newStub(getChannel(parts[0], Integer.parseInt(parts[1])));
+    });
+  }
+
   /**
    * Invalidates a specific node's channel and stub.
    *
@@ -145,19 +376,26 @@ public class CacheServiceGrpcFactory {
     if (stub != null) {
       log.info("Stub removed from cache for node {}", key);
     }
+    futureStubCache.remove(key);
+    asyncStubCache.remove(key);
   }
 
   /**
-   * Shuts down all channels and clears caches.
+   * Shuts down all channels and clears caches, and stops the health checks and the topology refresh.
    */
   public void shutdownAllChannels() {
+    healthChecker.shutdown();
     channelCache.forEach((key, channel) -> {
       channel.shutdown();
       log.info("Shutting down channel for {}", key);
     });
     channelCache.clear();
     stubCache.clear();
+    futureStubCache.clear();
+    asyncStubCache.clear();
     nodes.clear();
+    suspendedNodes.clear();
+    topology.shutdown();
     log.info("All channels and stubs have been shutdown and caches cleared.");
   }
 
@@ -187,21 +425,77 @@ public class CacheServiceGrpcFactory {
   }
 
   /**
-   * Retrieves a ManagedChannel from the cache or creates a new one if it doesn't exist.
+   * Retrieves the channel pool of a node from the cache or creates a new one if it doesn't exist.
    *
    * @param host Hostname of the node
    * @param port Port of the node
-   * @return ManagedChannel
+   * @return ManagedChannel spreading the calls over the channels of the pool
    */
-  private ManagedChannel getChannel(String host, int port) {
+  NodeChannelPool getChannel(String key) {
+    String[] parts = key.split(":");
+    return getChannel(parts[0], Integer.parseInt(parts[1]));
+  }
+
+  private NodeChannelPool getChannel(String host, int port) {
     String key = createKey(host, port);
     return channelCache.computeIfAbsent(key, k -> {
-      log.info("Creating new channel for node {}", key);
-      // Use plaintext
-      return ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
+      log.info("Creating {} channels for node {} with {} selection", channelsPerNode, key, channelSelection);
+      List<ManagedChannel> channels = new ArrayList<>(channelsPerNode);
+      for (int i = 0; i < channelsPerNode; i++) {
+        // Use plaintext
+        ManagedChannelBuilder<?> builder = ManagedChannelBuilder.forAddress(host, port).usePlaintext();
+        if (serviceConfig != null) {
+          builder.defaultServiceConfig(serviceConfig).enableRetry();
+        }
+        if (tracing != null) {
+          builder.intercept(tracing.clientInterceptor(key));
+        }
+        channels.add(builder.build());
+      }
+      return new NodeChannelPool(channels, channelSelection);
     });
   }
 
+  /**
+   * Creates a service config retrying the calls that do not modify the node. Only UNAVAILABLE is retried,
+   * the deadline set by the caller covers all the attempts.
+   *
+   * @param maxAttempts the maximum number of attempts, including the first one
+   * @return the service config in the map form expected by gRPC
+   */
+  private static Map<String, ?> createRetryServiceConfig(int maxAttempts) {
+    List<Map<String, Object>> names = Stream
+      .of(CacheServiceGrpc.getGetMethod(),
+          CacheServiceGrpc.getContainsKeyMethod(),
+          CacheServiceGrpc.getSizeMethod(),
+          CacheServiceGrpc.getIsEmptyMethod(),
+          CacheServiceGrpc.getGetAllMethod(),
+          CacheServiceGrpc.getGetKeyFilterMethod(),
+          CacheServiceGrpc.getGetHotKeysMethod(),
+          CacheServiceGrpc.getGetLongMethod(),
+          CacheServiceGrpc.getOpenMapMethod(),
+          CacheServiceGrpc.getGetV2Method(),
+          CacheServiceGrpc.getContainsKeyV2Method())
+      .map(CacheServiceGrpcFactory::methodName)
+      .toList();
+    // gRPC parses the service config from JSON, numbers have to be doubles
+    Map<String, Object> retryPolicy = Map.of("maxAttempts",
+                                             (double) maxAttempts,
+                                             "initialBackoff",
+                                             "0.01s",
+                                             "maxBackoff",
+                                             "0.1s",
+                                             "backoffMultiplier",
+                                             2.0,
+                                             "retryableStatusCodes",
+                                             List.of("UNAVAILABLE"));
+    return Map.of("methodConfig", List.of(Map.of("name", names, "retryPolicy", retryPolicy)));
+  }
+
+  private static Map<String, Object> methodName(MethodDescriptor<?, ?> method) {
+    return Map.of("service", method.getServiceName(), "method", method.getBareMethodName());
+  }
+
   /**
    * Retrieves a ManagedChannel from the cache based on the given key.
    *
@@ -211,4 +505,94 @@ public class CacheServiceGrpcFactory {
   public ManagedChannel getChannelFromCache(String key) {
     return channelCache.get(key);
   }
+
+  /**
+   * Builder class for constructing instances of CacheServiceGrpcFactory.
+   */
+  public static class Builder {
+    private int readMaxAttempts = DEFAULT_READ_MAX_ATTEMPTS;
+    private int channelsPerNode = DEFAULT_CHANNELS_PER_NODE;
+    private ChannelSelection channelSelection = ChannelSelection.LEAST_OUTSTANDING;
+    private long topologyRefreshSeconds = DEFAULT_TOPOLOGY_REFRESH_SECONDS;
+    private Tracing tracing;
+
+    /**
+     * Sets the maximum number of attempts of a read-only call failing with UNAVAILABLE.
+     *
+     * @param readMaxAttempts the number of attempts, 1 disables retries
+     * @return the Builder instance for method chaining
+     */
+    public Builder withReadMaxAttempts(int readMaxAttempts) {
+      this.readMaxAttempts = readMaxAttempts;
+      return this;
+    }
+
+    /**
+     * Sets the number of channels, and so of connections, opened to every node.
+     *
+     * @param channelsPerNode the number of channels per node
+     * @return the Builder instance for method chaining
+     */
+    public Builder withChannelsPerNode(int channelsPerNode) {
+      this.channelsPerNode = channelsPerNode;
+      return this;
+    }
+
+    /**
+     * Sets how a call is placed on one of the channels of a node.
+     *
+     * @param channelSelection the channel selection strategy
+     * @return the Builder instance for method chaining
+     */
+    public Builder withChannelSelection(ChannelSelection channelSelection) {
+      this.channelSelection = channelSelection;
+      return this;
+    }
+
+    /**
+     * Sets how often the topology of the cluster is requested from the nodes.
+     *
+     * @param topologyRefreshSeconds the interval in seconds
+     * @return the Builder instance for method chaining
+     */
+    public Builder withTopologyRefreshSeconds(long topologyRefreshSeconds) {
+      this.topologyRefreshSeconds = topologyRefreshSeconds;
+      return this;
+    }
+
+    /**
+     * Sets the tracing of the operations of the caches and of the calls they make, none by default.
+     *
+     * @param tracing the tracing, null to disable it
+     * @return the Builder instance for method chaining
+     */
+    public Builder withTracing(Tracing tracing) {
+      this.tracing = tracing;
+      return this;
+    }
+
+    /**
+     * Builds a new CacheServiceGrpcFactory instance and starts its health checks and topology refresh.
+     *
+     * @return a new CacheServiceGrpcFactory instance
+     * @throws IllegalArgumentException if a value is out of range
+     */
+    public CacheServiceGrpcFactory build() {
+      if (readMaxAttempts < 1) {
+        throw new IllegalArgumentException("Read max attempts must be at least 1");
+      }
+      if (channelsPerNode < 1) {
+        throw new IllegalArgumentException("Channels per node must be at least 1");
+      }
+      if (channelSelection == null) {
+        throw new IllegalArgumentException("Channel selection must be provided");
+      }
+      if (topologyRefreshSeconds < 1) {
+        throw new IllegalArgumentException("Topology refresh interval must be at least 1 second");
+      }
+      CacheServiceGrpcFactory factory = new CacheServiceGrpcFactory(this);
+      factory.start(topologyRefreshSeconds);
+      return factory;
+    }
+  }
 }
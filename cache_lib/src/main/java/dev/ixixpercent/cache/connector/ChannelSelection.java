@@ -0,0 +1,15 @@
+package dev.ixixpercent.cache.connector;
+
+/**
+ * How a channel of a node's channel pool is selected for a new call.
+ */
+public enum ChannelSelection {
+  /**
+   * Cycles through the channels.
+   */
+  ROUND_ROBIN,
+  /**
+   * Picks the channel with the fewest calls in flight, skipping the ones that lost their connection.
+   */
+  LEAST_OUTSTANDING
+}
@@ -0,0 +1,167 @@
+package dev.ixixpercent.cache.connector;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import dev.ixixpercent.cache.grpc.CacheServiceProto.TopologyRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.TopologyResponse;
+import dev.ixixpercent.cache.grpc.ClusterServiceGrpc;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The members of the cluster and the partition table, as last published by one of the nodes.
+ *
+ * <p>The topology is refreshed periodically from the least loaded available node, or from the seeds when none
+ * is available. Members joining the cluster are added to the factory and members that left are removed, so
+ * only the seeds have to be configured. Until a node answered, the partitions are assigned to the seeds the
+ * same way the nodes would assign them.</p>
+ */
+@Slf4j
+public class ClusterTopology {
+
+  private static final long REQUEST_DEADLINE_MILLIS = 1000;
+
+  private final CacheServiceGrpcFactory factory;
+  private final List<String> seeds = new CopyOnWriteArrayList<>();
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+    Thread.ofPlatform().name("ixix-topology").daemon(true).factory());
+  private volatile PartitionTable partitionTable = PartitionTable.compute(List.of(), 1);
+  // whether the table comes from a node rather than from the seeds
+  private volatile boolean published;
+  // released once a node published the table
+  private final CountDownLatch firstPublished = new CountDownLatch(1);
+
+  ClusterTopology(CacheServiceGrpcFactory factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * @param key the seed in the format "host:port"
+   */
+  synchronized void addSeed(String key) {
+    if (!seeds.contains(key)) {
+      seeds.add(key);
+    }
+    if (!published) {
+      partitionTable = PartitionTable.compute(seeds, PartitionTable.DEFAULT_PARTITION_COUNT);
+      // no need to wait for the next periodic refresh to learn the actual members
+      executor.execute(this::refreshIfUnpublished);
+    }
+  }
+
+  private void refreshIfUnpublished() {
+    if (!published) {
+      refresh();
+    }
+  }
+
+  void startPeriodicRefresh(long intervalSeconds) {
+    executor.scheduleWithFixedDelay(this::refresh, 0, intervalSeconds, TimeUnit.SECONDS);
+    log.info("Periodic topology refresh started with an interval of {} seconds.", intervalSeconds);
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return the current partition table
+   */
+  public PartitionTable getPartitionTable() {
+    return partitionTable;
+  }
+
+  /**
+   * Waits until a node published the topology, after which the keys are sent to their actual owners rather than to
+   * the seeds.
+   *
+   * @return true once a node published the topology, false if the timeout elapsed first
+   */
+  public boolean awaitPublished(long timeout, TimeUnit unit) throws InterruptedException {
+    return firstPublished.await(timeout, unit);
+  }
+
+  /**
+   * @param key the routing bytes of the key, see {@link PartitionTable#routingBytes(Object, byte[])}
+   * @return the node owning the key in the format "host:port", null when no node is known
+   */
+  public String ownerOf(byte[] key) {
+    return partitionTable.ownerOf(key);
+  }
+
+  /**
+   * Asks a node for the topology and applies it. The least loaded available node is asked first, then the
+   * seeds in turn.
+   */
+  public void refresh() {
+    Set<String> candidates = new LinkedHashSet<>();
+    if (!factory.getNodes().isEmpty()) {
+      candidates.add(factory.selectNode());
+    }
+    candidates.addAll(seeds);
+    for (String candidate : candidates) {
+      try {
+        TopologyResponse response = ClusterServiceGrpc
+          .newBlockingStub(factory.getChannel(candidate))
+          .withDeadlineAfter(REQUEST_DEADLINE_MILLIS, TimeUnit.MILLISECONDS)
+          .getTopology(TopologyRequest.newBuilder().build());
+        if (response.getMembersCount() > 0) {
+          apply(response);
+          return;
+        }
+      } catch (StatusRuntimeException e) {
+        if (e.getStatus().getCode() == Status.Code.UNIMPLEMENTED) {
+          log.debug("Node {} does not publish a topology", candidate);
+        } else {
+          log.debug("Could not get the topology from {}: {}", candidate, e.getStatus());
+        }
+      } catch (RuntimeException e) {
+        log.warn("Failed to refresh the topology from {}", candidate, e);
+      }
+    }
+    log.debug("No node published a topology, keeping version {}", partitionTable.getVersion());
+  }
+
+  private synchronized void apply(TopologyResponse response) {
+    List<String> members = response.getMembersList();
+    String[] owners = new String[response.getPartitionCount()];
+    for (int partition = 0; partition < owners.length; partition++) {
+      owners[partition] = members.get(response.getPartitionOwners(partition));
+    }
+
+    Set<String> known = new HashSet<>(factory.getNodes());
+    known.addAll(factory.getSuspendedNodes());
+    for (String member : members) {
+      if (!known.contains(member)) {
+        String[] parts = member.split(":");
+        factory.addNode(parts[0], Integer.parseInt(parts[1]));
+      }
+    }
+
+    PartitionTable previous = partitionTable;
+    partitionTable = PartitionTable.of(members, owners, response.getVersion());
+    published = true;
+    firstPublished.countDown();
+
+    for (String node : new ArrayList<>(known)) {
+      if (!members.contains(node)) {
+        log.info("Node {} left the cluster", node);
+        String[] parts = node.split(":");
+        factory.removeNode(parts[0], Integer.parseInt(parts[1]));
+      }
+    }
+    if (previous.getVersion() != response.getVersion()) {
+      log.info("Cluster topology version {} with members {}", response.getVersion(), members);
+    }
+  }
+}
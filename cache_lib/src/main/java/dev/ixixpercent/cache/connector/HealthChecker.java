@@ -4,6 +4,8 @@ import io.grpc.ConnectivityState;
 import io.grpc.ManagedChannel;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -11,23 +13,34 @@ import java.util.concurrent.ScheduledExecutorService;
 /**
  * HealthChecker is responsible for performing health checks on a set of nodes
  * managed by a CacheServiceGrpcFactory. It periodically checks the connectivity
- * state of each node and removes any that are not healthy.
+ * state of each node and suspends any that are not healthy.
+ *
+ * <p>Suspended nodes are probed again with an exponential backoff and re-admitted
+ * as soon as their channel is ready again.</p>
  */
 @Slf4j
 public class HealthChecker {
     private final CacheServiceGrpcFactory factory;
     private final long checkIntervalSeconds;
-    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("ixix-health-checker").daemon(true).factory());
+    // current probe backoff of each suspended node
+    private final Map<String, Long> backoffMillis = new ConcurrentHashMap<>();
     
     private HealthChecker(Builder builder) {
         this.factory = builder.factory;
         this.checkIntervalSeconds = builder.checkIntervalSeconds;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
     }
 
     /**
      * Performs health checks on all nodes managed by the factory.
      * It checks the state of each node's channel and logs the results.
-     * Nodes that are found to be unhealthy are removed from the factory.
+     * Nodes that are found to be unhealthy are suspended and probed until they recover,
+     * nodes whose channel has been shut down are removed from the factory.
      */
     public void performHealthChecks() {
         log.info("Performing health checks on all nodes...");
@@ -50,17 +63,63 @@ public class HealthChecker {
                         log.trace("Node {} responded, channel is in state {}", key, state);
                     }
                     case TRANSIENT_FAILURE, SHUTDOWN -> {
-                        log.warn("Channel for node {} is in failure or shutdown. Removing node.", key);
-                        factory.removeNode(host, port);
+                        log.warn("Channel for node {} is in failure or shutdown. Suspending node.", key);
+                        suspend(key);
                     }
                 }
             } catch (RuntimeException e) {
                 log.error("Failed to perform health checks on node {}", key, e);
-                factory.removeNode(host, port);
+                suspend(key);
             }
         }
     }
 
+    private void suspend(String key) {
+        factory.suspendNode(key);
+        if (backoffMillis.putIfAbsent(key, initialBackoffMillis) == null) {
+            scheduleProbe(key, initialBackoffMillis);
+        }
+    }
+
+    private void scheduleProbe(String key, long delayMillis) {
+        log.trace("Probing suspended node {} in {} ms", key, delayMillis);
+        executor.schedule(() -> probe(key), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks whether a suspended node recovered. Requesting the state also asks the channel
+     * to reconnect, so a node that is back is found ready by one of the next probes.
+     */
+    private void probe(String key) {
+        if (!factory.getSuspendedNodes().contains(key)) {
+            // removed in the meantime
+            backoffMillis.remove(key);
+            return;
+        }
+        ManagedChannel channel = factory.getChannelFromCache(key);
+        ConnectivityState state;
+        try {
+            state = channel == null ? ConnectivityState.SHUTDOWN : channel.getState(true);
+        } catch (RuntimeException e) {
+            log.error("Failed to probe node {}", key, e);
+            state = ConnectivityState.TRANSIENT_FAILURE;
+        }
+        if (state == ConnectivityState.READY) {
+            backoffMillis.remove(key);
+            factory.readmitNode(key);
+        } else if (state == ConnectivityState.SHUTDOWN) {
+            backoffMillis.remove(key);
+            String[] parts = key.split(":");
+            factory.removeNode(parts[0], Integer.parseInt(parts[1]));
+        } else {
+            long backoff = backoffMillis.merge(key,
+                                               initialBackoffMillis,
+                                               (current, initial) -> Math.min(current * 2, maxBackoffMillis));
+            log.trace("Node {} still in state {}", key, state);
+            scheduleProbe(key, backoff);
+        }
+    }
+
     /**
      * Starts periodic health checks at the specified interval.
      * The health checks are executed in a separate thread at a fixed rate.
@@ -75,6 +134,13 @@ public class HealthChecker {
         log.info("Periodic health checks started with an interval of {} seconds.", checkIntervalSeconds);
     }
 
+    /**
+     * Stops the health checks and the probes of the suspended nodes.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
     /**
      * Builder class for constructing instances of HealthChecker.
      * This class allows for setting the CacheServiceGrpcFactory and
@@ -83,6 +149,8 @@ public class HealthChecker {
     public static class Builder {
         private CacheServiceGrpcFactory factory;
         private long checkIntervalSeconds = 60; // Default interval
+        private long initialBackoffMillis = 1_000;
+        private long maxBackoffMillis = 60_000;
         
 
         /**
@@ -107,6 +175,20 @@ public class HealthChecker {
             return this;
         }
 
+        /**
+         * Sets the delay before the first probe of a suspended node. The delay doubles
+         * after every failed probe, up to the maximum backoff.
+         *
+         * @param initialBackoffMillis the initial delay in milliseconds
+         * @param maxBackoffMillis     the maximum delay in milliseconds
+         * @return the Builder instance for method chaining
+         */
+        public Builder withProbeBackoffMillis(long initialBackoffMillis, long maxBackoffMillis) {
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
         /**
          * Builds a new HealthChecker instance with the provided configuration.
          *
@@ -0,0 +1,233 @@
+package dev.ixixpercent.cache.connector;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * A pool of channels to the same node, exposed as a single channel.
+ *
+ * <p>Every channel of the pool holds its own HTTP/2 connection, served by its own Netty event loop, so the
+ * traffic to a node is not limited by what a single connection can carry and a large value only blocks the
+ * connection it is sent on.</p>
+ *
+ * <p>Each call is placed on one of the channels according to the {@link ChannelSelection}. The pool counts
+ * the calls in flight on every channel, which is the number of HTTP/2 streams open on its connection.</p>
+ *
+ * <p>A call can instead be pinned to a channel with the {@link #CHANNEL_INDEX} call option, so that a hedged call
+ * goes over another connection than the call it backs up.</p>
+ *
+ * <p>The pool also keeps an exponentially weighted moving average of the call latency, which together with the
+ * calls in flight tells how loaded the node is.</p>
+ */
+class NodeChannelPool extends ManagedChannel {
+
+  // index of the channel a call is placed on, taken modulo the number of channels
+  static final CallOptions.Key<Integer> CHANNEL_INDEX = CallOptions.Key.create("ixix-channel-index");
+
+  private final List<ManagedChannel> channels;
+  private final ChannelSelection selection;
+  private final AtomicIntegerArray outstanding;
+  private final AtomicInteger roundRobinIndex = new AtomicInteger(0);
+
+  // weight of the latest sample in the moving average
+  private static final double EWMA_ALPHA = 0.2;
+  private final AtomicLong ewmaLatencyNanos = new AtomicLong(0);
+
+  NodeChannelPool(List<ManagedChannel> channels, ChannelSelection selection) {
+    if (channels.isEmpty()) {
+      throw new IllegalArgumentException("A channel pool needs at least one channel");
+    }
+    this.channels = List.copyOf(channels);
+    this.selection = selection;
+    this.outstanding = new AtomicIntegerArray(channels.size());
+  }
+
+  /**
+   * @return the number of calls in flight on all the channels of the pool
+   */
+  int getOutstandingCalls() {
+    int total = 0;
+    for (int i = 0; i < outstanding.length(); i++) {
+      total += outstanding.get(i);
+    }
+    return total;
+  }
+
+  /**
+   * @return the moving average of the call latency in nanoseconds, 0 before the first call completes
+   */
+  long getEwmaLatencyNanos() {
+    return ewmaLatencyNanos.get();
+  }
+
+  /**
+   * Estimates how long a new call would take on this node: the average latency, scaled by the number of calls
+   * already waiting. Lower is better.
+   *
+   * @return the load score of the node
+   */
+  double getLoadScore() {
+    // an unknown latency counts as the best possible one, so new nodes get traffic
+    return Math.max(1, ewmaLatencyNanos.get()) * (getOutstandingCalls() + 1.0);
+  }
+
+  private void recordLatency(long nanos) {
+    ewmaLatencyNanos.updateAndGet(average -> average == 0 ? nanos : average + (long) ((nanos - average) * EWMA_ALPHA));
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method,
+                                                       CallOptions callOptions) {
+    Integer pinned = callOptions.getOption(CHANNEL_INDEX);
+    int index = pinned != null ? Math.floorMod(pinned, channels.size()) : select();
+    return new CountingCall<>(channels.get(index).newCall(method, callOptions), index);
+  }
+
+  /**
+   * Selects the channel the next call is placed on, according to the {@link ChannelSelection}.
+   *
+   * @return the index of the channel
+   */
+  int select() {
+    int size = channels.size();
+    if (size == 1) {
+      return 0;
+    }
+    // rotating the starting point spreads the calls evenly between channels with the same load
+    int start = Math.floorMod(roundRobinIndex.getAndIncrement(), size);
+    if (selection == ChannelSelection.ROUND_ROBIN) {
+      return start;
+    }
+    int best = start;
+    long bestLoad = load(start);
+    for (int i = 1; i < size && bestLoad > 0; i++) {
+      int index = (start + i) % size;
+      long load = load(index);
+      if (load < bestLoad) {
+        best = index;
+        bestLoad = load;
+      }
+    }
+    return best;
+  }
+
+  private long load(int index) {
+    // a failed connection is only used when all of them failed
+    if (channels.get(index).getState(false) == ConnectivityState.TRANSIENT_FAILURE) {
+      return Integer.MAX_VALUE + (long) outstanding.get(index);
+    }
+    return outstanding.get(index);
+  }
+
+  @Override
+  public String authority() {
+    return channels.getFirst().authority();
+  }
+
+  /**
+   * Returns the best state among the channels of the pool, the pool can serve calls as long as one of its
+   * channels can.
+   */
+  @Override
+  public ConnectivityState getState(boolean requestConnection) {
+    ConnectivityState best = ConnectivityState.SHUTDOWN;
+    for (ManagedChannel channel : channels) {
+      ConnectivityState state = channel.getState(requestConnection);
+      if (rank(state) < rank(best)) {
+        best = state;
+      }
+    }
+    return best;
+  }
+
+  private static int rank(ConnectivityState state) {
+    return switch (state) {
+      case READY -> 0;
+      case IDLE -> 1;
+      case CONNECTING -> 2;
+      case TRANSIENT_FAILURE -> 3;
+      case SHUTDOWN -> 4;
+    };
+  }
+
+  @Override
+  public ManagedChannel shutdown() {
+    channels.forEach(ManagedChannel::shutdown);
+    return this;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return channels.stream().allMatch(ManagedChannel::isShutdown);
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return channels.stream().allMatch(ManagedChannel::isTerminated);
+  }
+
+  @Override
+  public ManagedChannel shutdownNow() {
+    channels.forEach(ManagedChannel::shutdownNow);
+    return this;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ManagedChannel channel : channels) {
+      if (!channel.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Keeps the number of calls in flight on a channel up to date.
+   */
+  private class CountingCall<ReqT, RespT> extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+
+    private final int index;
+
+    private CountingCall(ClientCall<ReqT, RespT> delegate, int index) {
+      super(delegate);
+      this.index = index;
+    }
+
+    @Override
+    public void start(Listener<RespT> responseListener, Metadata headers) {
+      outstanding.incrementAndGet(index);
+      long start = System.nanoTime();
+      try {
+        super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+          @Override
+          public void onClose(Status status, Metadata trailers) {
+            outstanding.decrementAndGet(index);
+            // a cancelled call says nothing about the node
+            if (status.getCode() != Status.Code.CANCELLED) {
+              recordLatency(System.nanoTime() - start);
+            }
+            super.onClose(status, trailers);
+          }
+        }, headers);
+      } catch (RuntimeException e) {
+        outstanding.decrementAndGet(index);
+        throw e;
+      }
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package dev.ixixpercent.cache.connector;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Assigns a fixed number of partitions to the live members of the cluster.
+ *
+ * <p>A key belongs to the partition given by the hash of its serialized bytes, or of its hash tag when it has one,
+ * so that related keys can be placed together. Each partition is owned by the
+ * member with the highest hash of the member address and the partition number (rendezvous hashing), so every
+ * node computes the same table from the same members without coordination, and a member joining or leaving
+ * only moves the partitions it gains or loses.</p>
+ *
+ * <p>The nodes compute the table the same way, clients use the one published by the cluster and only compute
+ * it themselves from the seeds until they reached a node.</p>
+ */
+public final class PartitionTable {
+
+  public static final int DEFAULT_PARTITION_COUNT = 271;
+
+  private final List<String> members;
+  private final String[] owners;
+  private final long version;
+
+  private PartitionTable(List<String> members, String[] owners, long version) {
+    this.members = members;
+    this.owners = owners;
+    this.version = version;
+  }
+
+  /**
+   * @param members        the addresses of the live members
+   * @param partitionCount the number of partitions
+   * @return the table assigning the partitions to the members
+   */
+  public static PartitionTable compute(Collection<String> members, int partitionCount) {
+    if (partitionCount <= 0) {
+      throw new IllegalArgumentException("Partition count must be positive");
+    }
+    List<String> sorted = members.stream().distinct().sorted().toList();
+    String[] owners = new String[partitionCount];
+    if (!sorted.isEmpty()) {
+      for (int partition = 0; partition < partitionCount; partition++) {
+        long bestScore = -1;
+        for (String member : sorted) {
+          long score = Integer.toUnsignedLong(Murmur3.hash32(bytes(member + "#" + partition)));
+          if (score > bestScore) {
+            bestScore = score;
+            owners[partition] = member;
+          }
+        }
+      }
+    }
+    // the same members always give the same version, whichever node computed the table
+    long version = Integer.toUnsignedLong(Murmur3.hash32(bytes(String.join(",", sorted))));
+    return new PartitionTable(sorted, owners, version);
+  }
+
+  /**
+   * @param members the addresses of the live members, sorted
+   * @param owners  the address of the owner of each partition
+   * @param version the version of the table
+   * @return the table published by a node
+   */
+  public static PartitionTable of(List<String> members, String[] owners, long version) {
+    if (owners.length == 0) {
+      throw new IllegalArgumentException("Partition count must be positive");
+    }
+    return new PartitionTable(List.copyOf(members), owners.clone(), version);
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the hash tag of a key: the text of a string key between its first '{' and the next '}', when not empty.
+   * The keys with the same tag belong to the same partition, like {@code "{user42}:cart"} and
+   * {@code "{user42}:session"}.
+   *
+   * @param key the key
+   * @return the hash tag, null when the key has none
+   */
+  public static String hashTagOf(Object key) {
+    if (!(key instanceof String string)) {
+      return null;
+    }
+    int start = string.indexOf('{');
+    if (start < 0) {
+      return null;
+    }
+    int end = string.indexOf('}', start + 1);
+    return end > start + 1 ? string.substring(start + 1, end) : null;
+  }
+
+  /**
+   * @param key           the key
+   * @param serializedKey the serialized key
+   * @return the bytes hashed to the partition of the key, those of its hash tag when it has one
+   */
+  public static byte[] routingBytes(Object key, byte[] serializedKey) {
+    String tag = hashTagOf(key);
+    return tag == null ? serializedKey : bytes(tag);
+  }
+
+  /**
+   * @param key the routing bytes of the key
+   * @return the partition of the key
+   * @see #routingBytes(Object, byte[])
+   */
+  public int partitionOf(byte[] key) {
+    return Math.floorMod(Murmur3.hash32(key), owners.length);
+  }
+
+  /**
+   * @param partition the partition
+   * @return the address of the owner of the partition, null when there are no members
+   */
+  public String ownerOf(int partition) {
+    return owners[partition];
+  }
+
+  /**
+   * @param key the routing bytes of the key
+   * @return the address of the owner of the key, null when there are no members
+   */
+  public String ownerOf(byte[] key) {
+    return owners[partitionOf(key)];
+  }
+
+  /**
+   * @return the addresses of the live members, sorted
+   */
+  public List<String> getMembers() {
+    return members;
+  }
+
+  public int getPartitionCount() {
+    return owners.length;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+}
@@ -0,0 +1,36 @@
+package dev.ixixpercent.cache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * An operation of a cache, from the near cache lookup to the node answering, if it was called.
+ */
+@Name("dev.ixixpercent.cache.Operation")
+@Label("Cache Operation")
+@Category({"IxIx Cache", "Client"})
+@Description("A get, put or remove of a cache, with where a get found its value")
+@Threshold("1 ms")
+@StackTrace(false)
+public class CacheOperationEvent extends Event {
+
+  public static final String NEAR_HIT = "near hit";
+  public static final String NEGATIVE_HIT = "negative hit";
+  public static final String REMOTE_HIT = "remote hit";
+  public static final String MISS = "miss";
+
+  @Label("Map Name")
+  public String mapName;
+
+  @Label("Operation")
+  public String operation;
+
+  @Label("Outcome")
+  @Description("Where a get found its value: near hit, negative hit (known missing), remote hit or miss")
+  public String outcome;
+}
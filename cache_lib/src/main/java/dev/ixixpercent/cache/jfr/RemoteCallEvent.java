@@ -0,0 +1,44 @@
+package dev.ixixpercent.cache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A call made by a cache to a node, retries included.
+ */
+@Name("dev.ixixpercent.cache.RemoteCall")
+@Label("Remote Call")
+@Category({"IxIx Cache", "Client"})
+@Description("A call made by a cache to a node")
+@Threshold("1 ms")
+@StackTrace(false)
+public class RemoteCallEvent extends Event {
+
+  @Label("Map Name")
+  public String mapName;
+
+  @Label("Operation")
+  public String operation;
+
+  @Label("Node")
+  public String node;
+
+  @Label("Sent")
+  @Description("Bytes of the serialized keys and values sent")
+  @DataAmount
+  public long sentBytes;
+
+  @Label("Received")
+  @Description("Bytes of the serialized keys and values received")
+  @DataAmount
+  public long receivedBytes;
+
+  @Label("Succeeded")
+  public boolean succeeded;
+}
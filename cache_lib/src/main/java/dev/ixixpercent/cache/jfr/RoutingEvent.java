@@ -0,0 +1,43 @@
+package dev.ixixpercent.cache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The choice of the node a call is sent to. Disabled by default, it is recorded for every call.
+ */
+@Name("dev.ixixpercent.cache.Routing")
+@Label("Routing")
+@Category({"IxIx Cache", "Client"})
+@Description("The node chosen for a call, by the partition of its key or by load")
+@Enabled(false)
+@StackTrace(false)
+public class RoutingEvent extends Event {
+
+  public static final String PARTITION = "partition";
+  public static final String LEAST_LOADED = "least loaded";
+
+  // null for the calls routed by load
+  @Label("Map Name")
+  public String mapName;
+
+  @Label("Strategy")
+  public String strategy;
+
+  // -1 for the calls routed by load
+  @Label("Partition")
+  public int partition;
+
+  // null when the cluster has no members
+  @Label("Node")
+  public String node;
+
+  @Label("Available")
+  @Description("False when the node is suspended or unknown, the call is then not made")
+  public boolean available;
+}
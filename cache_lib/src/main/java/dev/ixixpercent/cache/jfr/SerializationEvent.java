@@ -0,0 +1,39 @@
+package dev.ixixpercent.cache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The serialization or deserialization of a key or value of a cache.
+ */
+@Name("dev.ixixpercent.cache.Serialization")
+@Label("Serialization")
+@Category({"IxIx Cache", "Client"})
+@Description("A key or value of a cache serialized or deserialized")
+@Threshold("1 ms")
+@StackTrace(false)
+public class SerializationEvent extends Event {
+
+  public static final String SERIALIZE = "serialize";
+  public static final String DESERIALIZE = "deserialize";
+
+  @Label("Map Name")
+  public String mapName;
+
+  @Label("Operation")
+  public String operation;
+
+  @Label("Size")
+  @DataAmount
+  public long bytes;
+
+  @Label("Chunked")
+  @Description("Whether the value was large enough to be sent in chunks")
+  public boolean chunked;
+}
@@ -0,0 +1,203 @@
+package dev.ixixpercent.cache.spring;
+
+import dev.ixixpercent.cache.IxIxCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+import org.springframework.cache.support.NullValue;
+
+import javax.cache.Cache;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Spring {@link org.springframework.cache.Cache} over a JSR-107 cache of this library.
+ *
+ * <p>Concurrent loads of a key ({@code @Cacheable(sync = true)}) are single-flight: the first caller runs the loader
+ * and the others wait for its value instead of loading it again. This holds within the JVM, other instances of the
+ * application may load the same key at the same time.</p>
+ *
+ * <p>{@link #retrieve(Object)} and {@link #retrieve(Object, Supplier)} run the calls to the cache on virtual threads,
+ * so the methods returning a {@link CompletableFuture} do not block their caller on a remote call.</p>
+ *
+ * <p>With refresh-ahead enabled, a hit of a read given a loader refreshes the entry nearing its expiry with that
+ * loader, so the {@code @Cacheable} methods do not stall on the load of their expired entries.</p>
+ */
+@Slf4j
+public class IxIxSpringCache extends AbstractValueAdaptingCache {
+
+  private final Cache<Object, Object> cache;
+  private final Executor executor;
+  // store values being loaded, by key
+  private final ConcurrentMap<Object, CompletableFuture<Object>> loads = new ConcurrentHashMap<>();
+
+  public IxIxSpringCache(Cache<Object, Object> cache, boolean allowNullValues, Executor executor) {
+    super(allowNullValues);
+    this.cache = cache;
+    this.executor = executor;
+  }
+
+  @Override
+  public String getName() {
+    return cache.getName();
+  }
+
+  @Override
+  public Cache<Object, Object> getNativeCache() {
+    return cache;
+  }
+
+  @Override
+  protected Object lookup(Object key) {
+    return cache.get(key);
+  }
+
+  /**
+   * Reads a key, a refresh-ahead of its entry started by the read loading the fresh value with the given loader.
+   */
+  private Object lookup(Object key, Function<Object, Object> refreshLoader) {
+    return cache instanceof IxIxCache<Object, Object> ixixCache ? ixixCache.get(key, refreshLoader) : cache.get(key);
+  }
+
+  /**
+   * @return the loaded value as stored, null when it is null and null values are not allowed
+   */
+  private Object toRefreshedValue(Object value) {
+    return value == null && !isAllowNullValues() ? null : toStoreValue(value);
+  }
+
+  @Override
+  protected Object fromStoreValue(Object storeValue) {
+    // a NullValue read from a node is a copy, not the singleton compared by the superclass
+    if (isAllowNullValues() && storeValue instanceof NullValue) {
+      return null;
+    }
+    return storeValue;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> T get(Object key, Callable<T> valueLoader) {
+    Object cached = lookup(key, k -> {
+      try {
+        return toRefreshedValue(valueLoader.call());
+      } catch (Exception e) {
+        throw new ValueRetrievalException(key, valueLoader, e);
+      }
+    });
+    if (cached != null) {
+      return (T) fromStoreValue(cached);
+    }
+    CompletableFuture<Object> load = new CompletableFuture<>();
+    CompletableFuture<Object> running = loads.putIfAbsent(key, load);
+    if (running != null) {
+      log.trace("Cache [{}] Waiting for the running load of key [{}]", getName(), key);
+      try {
+        return (T) fromStoreValue(running.join());
+      } catch (CompletionException e) {
+        throw new ValueRetrievalException(key, valueLoader, e.getCause());
+      }
+    }
+    try {
+      // another caller may have stored the value between the lookup and the claim of the load
+      Object value = lookup(key);
+      if (value == null) {
+        value = toStoreValue(valueLoader.call());
+        cache.put(key, value);
+      }
+      load.complete(value);
+      return (T) fromStoreValue(value);
+    } catch (Exception e) {
+      load.completeExceptionally(e);
+      throw new ValueRetrievalException(key, valueLoader, e);
+    } finally {
+      loads.remove(key, load);
+    }
+  }
+
+  @Override
+  public CompletableFuture<?> retrieve(Object key) {
+    CompletableFuture<Object> running = loads.get(key);
+    CompletableFuture<Object> value = running != null ? running : CompletableFuture.supplyAsync(() -> lookup(key),
+                                                                                                 executor);
+    // a future completed with null is a miss, a wrapped null a cached null
+    return value.thenApply(storeValue -> isAllowNullValues() ? toValueWrapper(storeValue) : fromStoreValue(storeValue));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> CompletableFuture<T> retrieve(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+    CompletableFuture<Object> load = new CompletableFuture<>();
+    CompletableFuture<Object> running = loads.putIfAbsent(key, load);
+    if (running != null) {
+      return running.thenApply(storeValue -> (T) fromStoreValue(storeValue));
+    }
+    CompletableFuture.supplyAsync(() -> lookup(key, k -> toRefreshedValue(valueLoader.get().join())), executor)
+      .thenCompose(cached -> cached != null ? CompletableFuture.completedFuture(cached) : loadAndPut(key, valueLoader))
+      .whenComplete((storeValue, error) -> {
+        loads.remove(key, load);
+        if (error != null) {
+          load.completeExceptionally(error);
+        } else {
+          load.complete(storeValue);
+        }
+      });
+    return load.thenApply(storeValue -> (T) fromStoreValue(storeValue));
+  }
+
+  private <T> CompletableFuture<Object> loadAndPut(Object key, Supplier<CompletableFuture<T>> valueLoader) {
+    return valueLoader.get().thenApplyAsync(value -> {
+      Object storeValue = toStoreValue(value);
+      cache.put(key, storeValue);
+      return storeValue;
+    }, executor);
+  }
+
+  @Override
+  public void put(Object key, Object value) {
+    cache.put(key, toStoreValue(value));
+  }
+
+  @Override
+  public ValueWrapper putIfAbsent(Object key, Object value) {
+    boolean put = cache.putIfAbsent(key, toStoreValue(value));
+    return put ? null : get(key);
+  }
+
+  @Override
+  public void evict(Object key) {
+    cache.remove(key);
+  }
+
+  @Override
+  public boolean evictIfPresent(Object key) {
+    return cache.remove(key);
+  }
+
+  /**
+   * Evicts the keys with a single call to the native cache, which removes them from their nodes concurrently.
+   *
+   * @param keys the keys to evict
+   */
+  public void evictAll(Collection<?> keys) {
+    cache.removeAll(new HashSet<>(keys));
+  }
+
+  @Override
+  public void clear() {
+    cache.removeAll();
+  }
+
+  @Override
+  public boolean invalidate() {
+    cache.clear();
+    return true;
+  }
+}
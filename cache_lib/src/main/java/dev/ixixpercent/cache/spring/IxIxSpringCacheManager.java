@@ -0,0 +1,68 @@
+package dev.ixixpercent.cache.spring;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.AbstractCacheManager;
+
+import javax.cache.CacheManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Spring cache manager over a JSR-107 cache manager of this library, in place of Spring's generic
+ * {@code JCacheCacheManager}: its caches are {@link IxIxSpringCache}s, with single-flight loads for
+ * {@code @Cacheable(sync = true)} and asynchronous retrieval for the methods returning a
+ * {@link java.util.concurrent.CompletableFuture}.
+ *
+ * <p>A cache unknown to the Spring cache manager is created in the JSR-107 cache manager with a default
+ * configuration.</p>
+ */
+public class IxIxSpringCacheManager extends AbstractCacheManager {
+
+  private final CacheManager cacheManager;
+  private final boolean allowNullValues;
+  // a virtual thread per asynchronous call, nothing to shut down
+  private final Executor executor = runnable -> Thread.ofVirtual().name("ixix-spring-cache").start(runnable);
+
+  /**
+   * Caches null values, like Spring's cache managers.
+   */
+  public IxIxSpringCacheManager(CacheManager cacheManager) {
+    this(cacheManager, true);
+  }
+
+  public IxIxSpringCacheManager(CacheManager cacheManager, boolean allowNullValues) {
+    this.cacheManager = cacheManager;
+    this.allowNullValues = allowNullValues;
+  }
+
+  public CacheManager getCacheManager() {
+    return cacheManager;
+  }
+
+  public boolean isAllowNullValues() {
+    return allowNullValues;
+  }
+
+  @Override
+  protected Collection<Cache> loadCaches() {
+    List<Cache> caches = new ArrayList<>();
+    for (String name : cacheManager.getCacheNames()) {
+      caches.add(adapt(cacheManager.getCache(name)));
+    }
+    return caches;
+  }
+
+  @Override
+  protected Cache getMissingCache(String name) {
+    javax.cache.Cache<?, ?> cache = cacheManager.getCache(name);
+    return cache == null ? null : adapt(cache);
+  }
+
+  // Spring caches are untyped, the keys and values are only handed back to the caller who stored them
+  @SuppressWarnings("unchecked")
+  private IxIxSpringCache adapt(javax.cache.Cache<?, ?> cache) {
+    return new IxIxSpringCache((javax.cache.Cache<Object, Object>) cache, allowNullValues, executor);
+  }
+}
@@ -0,0 +1,54 @@
+package dev.ixixpercent.cache.store;
+
+import java.util.Objects;
+
+/**
+ * An operation of a batch, applied by the node atomically with the other operations of the batch.
+ *
+ * @param type          the operation
+ * @param key           the key, with the hash tag shared by the batch
+ * @param value         the value written, null for the reads and removes
+ * @param expectedValue the value the key must have for the conditional operations comparing it, null otherwise
+ */
+public record BatchOperation<K, V>(Type type, K key, V value, V expectedValue) {
+
+  public enum Type {
+    GET,
+    PUT,
+    PUT_IF_ABSENT,
+    // put if the key has a value
+    REPLACE,
+    // put if the key has the expected value
+    REPLACE_IF_EQUALS,
+    REMOVE,
+    // remove if the key has the expected value
+    REMOVE_IF_EQUALS;
+
+    /**
+     * @return true if the operation writes its value when applied
+     */
+    public boolean writesValue() {
+      return this == PUT || this == PUT_IF_ABSENT || this == REPLACE || this == REPLACE_IF_EQUALS;
+    }
+
+    /**
+     * @return true if the operation removes its key when applied
+     */
+    public boolean removes() {
+      return this == REMOVE || this == REMOVE_IF_EQUALS;
+    }
+  }
+
+  /**
+   * @param current the value of the key, null when it has none
+   * @return true if the operation applies to the key, the same way the node decides it
+   */
+  public boolean appliesTo(V current) {
+    return switch (type) {
+      case GET, PUT -> true;
+      case PUT_IF_ABSENT -> current == null;
+      case REPLACE, REMOVE -> current != null;
+      case REPLACE_IF_EQUALS, REMOVE_IF_EQUALS -> current != null && Objects.equals(current, expectedValue);
+    };
+  }
+}
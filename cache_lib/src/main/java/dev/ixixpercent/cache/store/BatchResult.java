@@ -0,0 +1,9 @@
+package dev.ixixpercent.cache.store;
+
+/**
+ * The result of an operation of a batch.
+ *
+ * @param applied       false when the condition of the operation did not hold, or a remove found no value
+ * @param previousValue the value of the key before the operation, null when it had none
+ */
+public record BatchResult<V>(boolean applied, V previousValue) {}
@@ -1,28 +1,98 @@
 package dev.ixixpercent.cache.store;
 
+import dev.ixixpercent.cache.configuration.IxIxCacheConfiguration;
 import dev.ixixpercent.cache.connector.CacheServiceGrpcFactory;
+import dev.ixixpercent.cache.jfr.CacheOperationEvent;
 import dev.ixixpercent.cache.store.near.NearCache;
+import dev.ixixpercent.cache.store.near.NegativeCache;
+import dev.ixixpercent.cache.store.remote.BigEntry;
+import dev.ixixpercent.cache.store.remote.MapMemoryUsage;
 import dev.ixixpercent.cache.store.remote.RemoteCache;
+import dev.ixixpercent.cache.store.remote.RemoteEntryEvent;
+import dev.ixixpercent.cache.tracing.OperationSpan;
+import dev.ixixpercent.cache.tracing.Tracing;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.cache.event.EventType;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Slf4j
 public class CacheStoreManager<K, V> implements Map<K, V> {
 
-  private final Map<K, V> nearMap;
-  private final Map<K, V> remoteMap;
+  private final String cacheName;
+  private final NearCache<K, V> nearMap;
+  // null for an embedded cache, the near cache then holds all the entries
+  private final RemoteCache<K, V> remoteMap;
+  // null when the negative cache is disabled
+  private final NegativeCache<K> negativeCache;
+  private final StoreSynchronizer<K, V> synchronizer;
+  // null for a cache with nodes, they report the changes
+  private final LocalEntryEvents<K, V> localEvents;
+  private final long timeToLiveMillis;
+  // 0 when refresh-ahead is disabled
+  private final double refreshAheadFactor;
+  // null to refresh from the node, or from the loader given to the read
+  private final Function<K, V> refreshLoader;
+  // 0 when the hot keys are not pinned in the near cache
+  private final long hotKeyTtlMillis;
+  // keys with a refresh in flight, so a hot key is refreshed once
+  private final Set<K> refreshing = ConcurrentHashMap.newKeySet();
+  // null when the operations are not traced
+  private final Tracing tracing;
 
 
   public CacheStoreManager(String cacheName,
                            CacheServiceGrpcFactory stubFactory,
-                           Class<K> keyType,
-                           Class<V> valueType) {
-    nearMap = new NearCache<>();
-    remoteMap = new RemoteCache<>(cacheName, stubFactory, keyType, valueType);
+                           IxIxCacheConfiguration<K, V> configuration) {
+    this(cacheName, stubFactory, configuration, null);
+  }
+
+  /**
+   * @param cacheName     the name of the cache
+   * @param stubFactory   the factory giving the stubs to the nodes, null for an embedded cache kept in this JVM only
+   * @param configuration the configuration of the cache
+   * @param refreshLoader loads the fresh value of a key for refresh-ahead, null to read it from the node
+   */
+  public CacheStoreManager(String cacheName,
+                           CacheServiceGrpcFactory stubFactory,
+                           IxIxCacheConfiguration<K, V> configuration,
+                           Function<K, V> refreshLoader) {
+    this.cacheName = cacheName;
+    this.timeToLiveMillis = configuration.getTimeToLiveMillis();
+    this.refreshLoader = refreshLoader;
+    localEvents = stubFactory == null ? new LocalEntryEvents<>() : null;
+    nearMap = new NearCache<>(timeToLiveMillis, localEvents == null ? null : localEvents::expired);
+    tracing = stubFactory == null ? null : stubFactory.getTracing();
+    this.refreshAheadFactor = timeToLiveMillis > 0 ? configuration.getRefreshAheadFactor() : 0;
+    if (stubFactory == null) {
+      // no node to look keys up on or to report hot keys, the entries are only refreshed by the loaders
+      this.hotKeyTtlMillis = 0;
+      remoteMap = null;
+      negativeCache = null;
+      synchronizer = new LocalSynchronizer<>();
+      return;
+    }
+    this.hotKeyTtlMillis = configuration.getHotKeyTtlMillis();
+    remoteMap = new RemoteCache<>(cacheName, stubFactory, configuration);
+    negativeCache = configuration.getNegativeCacheTtlMillis() > 0 ?
+                    new NegativeCache<>(configuration.getNegativeCacheTtlMillis(),
+                                        configuration.getNegativeCacheCapacity()) :
+                    null;
+    synchronizer = configuration.isWriteBehindEnabled() ?
+                   new WriteBehindSynchronizer<>(cacheName,
+                                                 remoteMap,
+                                                 configuration.getWriteBehindBatchSize(),
+                                                 configuration.getWriteBehindFlushIntervalMillis(),
+                                                 configuration.getWriteBehindCapacity()) :
+                   new WriteThroughSynchronizer<>(remoteMap);
   }
 
   @Override
@@ -37,54 +107,360 @@ public class CacheStoreManager<K, V> implements Map<K, V> {
     return nearMap.isEmpty();
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   public boolean containsKey(Object key) {
-    return nearMap.containsKey(key) || remoteMap.containsKey(key);
+    if (nearMap.containsKey(key)) {
+      return true;
+    }
+    if (remoteMap == null) {
+      return false;
+    }
+    if (negativeCache != null && negativeCache.isAbsent(key)) {
+      return false;
+    }
+    OperationSpan span = startSpan("containsKey");
+    try {
+      boolean exists = remoteMap.containsKey(key);
+      if (!exists && negativeCache != null) {
+        negativeCache.markAbsent((K) key);
+      }
+      return exists;
+    } finally {
+      endSpan(span);
+    }
   }
 
   @Override
   public boolean containsValue(Object value) {
-    return nearMap.containsValue(value) || remoteMap.containsValue(value);
+    return nearMap.containsValue(value) || (remoteMap != null && remoteMap.containsValue(value));
   }
 
   @Override
   public V get(Object key) {
-    V value = nearMap.get(key);
-    log.trace("Value with key {} in near cache {}", key, value);
-    if (value == null) {
-      value = remoteMap.get(key);
-      log.trace("Value with key {} remote cache {}", key, value);
+    return get(key, null);
+  }
+
+  /**
+   * Reads a key like {@link #get(Object)}, a refresh-ahead started by the read loading the fresh value with the
+   * given loader.
+   *
+   * @param refreshLoader loads the fresh value of the key, null to use the loader of the cache or the node
+   */
+  public V get(Object key, Function<K, V> refreshLoader) {
+    OperationSpan span = startSpan("get");
+    try {
+      return getValue(key, refreshLoader != null ? refreshLoader : this.refreshLoader);
+    } finally {
+      endSpan(span);
+    }
+  }
+
+  /**
+   * @param refreshLoader loads the fresh value of the key, null to read it from the node
+   */
+  @SuppressWarnings("unchecked")
+  private V getValue(Object key, Function<K, V> refreshLoader) {
+    CacheOperationEvent event = new CacheOperationEvent();
+    event.begin();
+    NearCache.Entry<V> entry = nearMap.getEntry(key);
+    log.trace("Value with key {} in near cache {}", key, entry);
+    if (entry != null) {
+      // a pinned entry simply expires, the next read fetches the value again
+      if (refreshAheadFactor > 0 && !entry.pinned() && (refreshLoader != null || remoteMap != null) &&
+          entry.age(System.nanoTime()) >= refreshAheadFactor) {
+        refreshAhead((K) key, entry, refreshLoader);
+      }
+      commit(event, "get", CacheOperationEvent.NEAR_HIT);
+      return entry.value();
+    }
+    if (remoteMap == null) {
+      commit(event, "get", CacheOperationEvent.MISS);
+      return null;
+    }
+    if (negativeCache != null && negativeCache.isAbsent(key)) {
+      log.trace("Value with key {} recently missing from remote cache", key);
+      commit(event, "get", CacheOperationEvent.NEGATIVE_HIT);
+      return null;
+    }
+    RemoteCache.TimedValue<V> timedValue = remoteMap.getTimed(key);
+    V value = timedValue == null ? null : timedValue.value();
+    log.trace("Value with key {} remote cache {}", key, value);
+    if (value == null && negativeCache != null) {
+      negativeCache.markAbsent((K) key);
+    }
+    if (value != null && timedValue.hot() && hotKeyTtlMillis > 0) {
+      long ttlMillis = timedValue.ttlMillis() > 0 ? Math.min(hotKeyTtlMillis, timedValue.ttlMillis()) : hotKeyTtlMillis;
+      nearMap.pin((K) key, value, ttlMillis);
     }
+    commit(event, "get", value == null ? CacheOperationEvent.MISS : CacheOperationEvent.REMOTE_HIT);
     return value;
   }
 
+  /**
+   * @return the span of the operation, null when it is not traced
+   */
+  private OperationSpan startSpan(String operation) {
+    return tracing == null ? null : tracing.startOperation(operation, cacheName);
+  }
+
+  private static void endSpan(OperationSpan span) {
+    if (span != null) {
+      span.end();
+    }
+  }
+
+  /**
+   * Records an operation if its event is enabled and it took longer than the threshold, the fields are only set
+   * then.
+   *
+   * @param outcome where a get found its value, null for the writes
+   */
+  private void commit(CacheOperationEvent event, String operation, String outcome) {
+    if (event.shouldCommit()) {
+      event.mapName = cacheName;
+      event.operation = operation;
+      event.outcome = outcome;
+      event.commit();
+    }
+  }
+
+  /**
+   * Refreshes an entry of the near cache on a virtual thread while its current value keeps being served. The
+   * refreshed value is dropped if the entry was written or removed in the meantime.
+   *
+   * @param refreshLoader loads the fresh value of the key, null to read it from the node
+   */
+  private void refreshAhead(K key, NearCache.Entry<V> entry, Function<K, V> refreshLoader) {
+    if (!refreshing.add(key)) {
+      return;
+    }
+    Thread.ofVirtual().name("ixix-refresh-" + cacheName).start(() -> {
+      try {
+        if (refreshLoader != null) {
+          V value = refreshLoader.apply(key);
+          if (value != null && nearMap.replace(key, entry, value, timeToLiveMillis)) {
+            synchronizer.put(key, value);
+            written(key, value, entry.value());
+          }
+        } else {
+          // only useful when another client rewrote the entry, the node then has a later expiry
+          RemoteCache.TimedValue<V> timedValue = remoteMap.getTimed(key);
+          long ttlMillis =
+            timedValue == null || timedValue.ttlMillis() == 0 ? timeToLiveMillis : timedValue.ttlMillis();
+          if (timedValue != null && ttlMillis * 1_000_000 > entry.expiresAtNanos() - System.nanoTime()) {
+            nearMap.replace(key, entry, timedValue.value(), ttlMillis);
+          }
+        }
+        log.trace("Cache [{}] Refreshed key [{}] ahead of its expiry", cacheName, key);
+      } catch (RuntimeException e) {
+        // the current value is served until it expires, the next read retries
+        log.warn("Cache [{}] Failed to refresh key [{}] ahead of its expiry", cacheName, key, e);
+      } finally {
+        refreshing.remove(key);
+      }
+    });
+  }
+
   @Override
   public V put(K key, V value) {
-    log.trace("Putting value in local and remote cache, key {} value {}", key, value);
-    // update the remote cache regardless, we do not care about the return value
-    remoteMap.put(key, value);
-    // use the operation result from the near cache
-    nearMap.put(key, value);
+    CacheOperationEvent event = new CacheOperationEvent();
+    event.begin();
+    OperationSpan span = startSpan("put");
+    try {
+      log.trace("Putting value in local and remote cache, key {} value {}", key, value);
+      if (negativeCache != null) {
+        negativeCache.invalidate(key);
+      }
+      // update the remote cache regardless, we do not care about the return value
+      synchronizer.put(key, value);
+      // use the operation result from the near cache
+      written(key, value, nearMap.put(key, value));
+    } finally {
+      endSpan(span);
+    }
+    commit(event, "put", null);
     return value;
   }
 
   @Override
   public V remove(Object key) {
-    // remove from the remote cache regardless, we do not care about the return value
-    remoteMap.remove(key);
-    // use the operation result from the near cache
-    return nearMap.remove(key);
+    CacheOperationEvent event = new CacheOperationEvent();
+    event.begin();
+    OperationSpan span = startSpan("remove");
+    V previous;
+    try {
+      // remove from the remote cache regardless, we do not care about the return value
+      synchronizer.remove(key);
+      // use the operation result from the near cache
+      previous = nearMap.remove(key);
+      removed(key, previous);
+    } finally {
+      endSpan(span);
+    }
+    commit(event, "remove", null);
+    return previous;
   }
 
   @Override
   public void putAll(Map<? extends K, ? extends V> m) {
-    // TODO implement
-    throw new UnsupportedOperationException();
+    if (negativeCache != null) {
+      m.keySet().forEach(negativeCache::invalidate);
+    }
+    OperationSpan span = startSpan("putAll");
+    try {
+      synchronizer.putAll(m);
+    } finally {
+      endSpan(span);
+    }
+    m.forEach((key, value) -> written(key, value, nearMap.put(key, value)));
+  }
+
+  /**
+   * Applies the operations of a batch atomically on the node owning their hash tag, then updates the near cache
+   * with their outcome. For an embedded cache, the batch is applied to the near cache, atomically with respect to the
+   * other batches only.
+   *
+   * @param operations the operations, on keys sharing a hash tag
+   * @return the result of every operation, in order
+   */
+  public List<BatchResult<V>> batch(List<BatchOperation<K, V>> operations) {
+    if (remoteMap == null) {
+      return batchLocally(operations);
+    }
+    List<BatchResult<V>> results;
+    OperationSpan span = startSpan("batch");
+    try {
+      // the writes accepted before the batch reach the node first
+      synchronizer.flush();
+      results = remoteMap.batch(operations);
+    } finally {
+      endSpan(span);
+    }
+    for (int i = 0; i < results.size(); i++) {
+      BatchOperation<K, V> operation = operations.get(i);
+      if (negativeCache != null) {
+        negativeCache.invalidate(operation.key());
+      }
+      if (!results.get(i).applied() && operation.type() != BatchOperation.Type.GET) {
+        // the node did not hold what the caller expected, the near copy may be stale
+        nearMap.remove(operation.key());
+      } else {
+        updateNearCache(operation);
+      }
+    }
+    return results;
+  }
+
+  private synchronized List<BatchResult<V>> batchLocally(List<BatchOperation<K, V>> operations) {
+    List<BatchResult<V>> results = new ArrayList<>(operations.size());
+    for (BatchOperation<K, V> operation : operations) {
+      V current = nearMap.get(operation.key());
+      boolean applied = operation.appliesTo(current);
+      if (applied) {
+        updateNearCache(operation);
+      }
+      results.add(new BatchResult<>(applied, current));
+    }
+    return results;
+  }
+
+  private void updateNearCache(BatchOperation<K, V> operation) {
+    if (operation.type().writesValue()) {
+      written(operation.key(), operation.value(), nearMap.put(operation.key(), operation.value()));
+    } else if (operation.type().removes()) {
+      removed(operation.key(), nearMap.remove(operation.key()));
+    }
+  }
+
+  /**
+   * Reports a write to the entry listeners of an embedded cache, the nodes report those of the other caches.
+   *
+   * @param previous the value replaced in the near cache, null when the key had none
+   */
+  private void written(K key, V value, V previous) {
+    if (localEvents != null) {
+      localEvents.written(key, value, previous);
+    }
+  }
+
+  /**
+   * Reports a removal to the entry listeners of an embedded cache, the nodes report those of the other caches.
+   *
+   * @param previous the value removed from the near cache, null when the key had none
+   */
+  @SuppressWarnings("unchecked")
+  private void removed(Object key, V previous) {
+    if (localEvents != null) {
+      localEvents.removed((K) key, previous);
+    }
+  }
+
+  /**
+   * Subscribes to the changes of the entries of the cache made on the nodes, by any client. The changes of an
+   * embedded cache are those of its near cache, delivered by the thread making them; its entries expire when read
+   * after their expiry.
+   *
+   * @param types     the types of the changes to receive
+   * @param oldValues whether the changes carry the previous value
+   * @param consumer  called with the changes in batches, concurrently for the changes of different nodes
+   * @return the subscription, to close once the changes are no longer needed
+   */
+  public EntryEventSubscription subscribe(Set<EventType> types, boolean oldValues,
+                                          Consumer<List<RemoteEntryEvent<K, V>>> consumer) {
+    if (remoteMap == null) {
+      return localEvents.subscribe(types, oldValues, consumer);
+    }
+    return remoteMap.subscribe(types, oldValues, consumer);
+  }
+
+  /**
+   * @return the memory the entries of the cache take on every node, by node, or in the near cache of an embedded
+   * cache, under the address {@value NearCacheMemory#LOCAL_NODE}
+   */
+  public Map<String, MapMemoryUsage> memoryUsage() {
+    if (remoteMap == null) {
+      return Map.of(NearCacheMemory.LOCAL_NODE, NearCacheMemory.usage(nearMap));
+    }
+    return remoteMap.memoryUsage();
+  }
+
+  /**
+   * @return the largest entries of the cache the nodes keep in memory, or of the near cache of an embedded cache,
+   * largest first
+   * @see RemoteCache#largestEntries(int, int, int)
+   */
+  public List<BigEntry<K>> largestEntries(int count, int maxScanned, int entriesPerSecond) {
+    if (remoteMap == null) {
+      return NearCacheMemory.largestEntries(nearMap, count, maxScanned);
+    }
+    return remoteMap.largestEntries(count, maxScanned, entriesPerSecond);
   }
 
   @Override
   public void clear() {
-    remoteMap.clear();
+    synchronizer.clear();
+    nearMap.clear();
+    if (negativeCache != null) {
+      negativeCache.clear();
+    }
+  }
+
+  /**
+   * Sends all pending writes to the remote cache. A no-op unless write-behind is enabled.
+   */
+  public void flush() {
+    synchronizer.flush();
+  }
+
+  /**
+   * Flushes the pending writes and releases the local resources. The remote entries are kept.
+   */
+  public void close() {
+    synchronizer.close();
+    if (remoteMap != null) {
+      remoteMap.close();
+    }
     nearMap.clear();
   }
 
@@ -92,7 +468,9 @@ public class CacheStoreManager<K, V> implements Map<K, V> {
   public Set<K> keySet() {
     // use a set of keys present in both remote and near caches
     HashSet<K> result = new HashSet<>(nearMap.keySet());
-    result.addAll(new HashSet<>(remoteMap.keySet()));
+    if (remoteMap != null) {
+      result.addAll(new HashSet<>(remoteMap.keySet()));
+    }
     return result;
   }
 
@@ -0,0 +1,12 @@
+package dev.ixixpercent.cache.store;
+
+/**
+ * A subscription to the changes of the entries of a cache, made on the nodes or, for an embedded cache, in this JVM.
+ */
+public interface EntryEventSubscription {
+
+  /**
+   * Stops receiving the changes.
+   */
+  void close();
+}
@@ -0,0 +1,82 @@
+package dev.ixixpercent.cache.store;
+
+import dev.ixixpercent.cache.store.remote.RemoteEntryEvent;
+
+import javax.cache.event.EventType;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * The changes of the entries of an embedded cache, which has no node to report them. A change is delivered to the
+ * subscribers by the thread making it, once it is in the near cache, in the same form as the changes of the nodes.
+ */
+class LocalEntryEvents<K, V> {
+
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+  private class Subscription implements EntryEventSubscription {
+
+    private final Set<EventType> types;
+    private final boolean oldValues;
+    private final Consumer<List<RemoteEntryEvent<K, V>>> consumer;
+
+    private Subscription(Set<EventType> types, boolean oldValues, Consumer<List<RemoteEntryEvent<K, V>>> consumer) {
+      this.types = types;
+      this.oldValues = oldValues;
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void close() {
+      subscriptions.remove(this);
+    }
+  }
+
+  /**
+   * @see CacheStoreManager#subscribe(Set, boolean, Consumer)
+   */
+  EntryEventSubscription subscribe(Set<EventType> types, boolean oldValues,
+                                   Consumer<List<RemoteEntryEvent<K, V>>> consumer) {
+    Subscription subscription = new Subscription(Set.copyOf(types), oldValues, consumer);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /**
+   * @param previous the value replaced, null when the key had none
+   */
+  void written(K key, V value, V previous) {
+    publish(previous == null ? EventType.CREATED : EventType.UPDATED, key, value, previous);
+  }
+
+  /**
+   * @param previous the value removed, null when the key had none
+   */
+  void removed(K key, V previous) {
+    if (previous != null) {
+      publish(EventType.REMOVED, key, null, previous);
+    }
+  }
+
+  void expired(K key, V value) {
+    publish(EventType.EXPIRED, key, null, value);
+  }
+
+  /**
+   * @param value    the value written, null for the removals and expiries
+   * @param oldValue the previous value, null when the key had none
+   */
+  private void publish(EventType type, K key, V value, V oldValue) {
+    for (Subscription subscription : subscriptions) {
+      if (subscription.types.contains(type)) {
+        boolean hasOldValue = subscription.oldValues && oldValue != null;
+        // like the nodes, the removals and expiries carry the old value only when it is requested
+        V eventValue = value != null ? value : hasOldValue ? oldValue : null;
+        subscription.consumer.accept(List.of(new RemoteEntryEvent<>(type, key, eventValue,
+                                                                    hasOldValue ? oldValue : null, hasOldValue)));
+      }
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package dev.ixixpercent.cache.store;
+
+import java.util.Map;
+
+/**
+ * Keeps every change local, for the embedded caches whose near cache is the only storage.
+ */
+class LocalSynchronizer<K, V> implements StoreSynchronizer<K, V> {
+
+  @Override
+  public void put(K key, V value) {
+    // the near cache holds the entry
+  }
+
+  @Override
+  public void putAll(Map<? extends K, ? extends V> entries) {
+    // the near cache holds the entries
+  }
+
+  @Override
+  public void remove(Object key) {
+    // removed from the near cache only
+  }
+
+  @Override
+  public void clear() {
+    // cleared in the near cache only
+  }
+
+  @Override
+  public void flush() {
+    // nothing is buffered
+  }
+
+  @Override
+  public void close() {
+    // nothing to release
+  }
+}
@@ -0,0 +1,104 @@
+package dev.ixixpercent.cache.store;
+
+import dev.ixixpercent.cache.store.near.NearCache;
+import dev.ixixpercent.cache.store.remote.BigEntry;
+import dev.ixixpercent.cache.store.remote.MapMemoryUsage;
+import dev.ixixpercent.cache.store.serialization.KryoSerializer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Estimates the memory of the entries of an embedded cache, which has no node to account for them. The entries of the
+ * near cache are read when asked for, and their keys and values counted like the nodes count the JSON strings they
+ * store, a byte per character of their JSON form plus the headers of a string.
+ */
+final class NearCacheMemory {
+
+  /**
+   * The address the usage of an embedded cache is reported under.
+   */
+  static final String LOCAL_NODE = "local";
+
+  private static final int HISTOGRAM_BUCKETS = 40;
+  // node of the map and entry of the near cache
+  private static final long ENTRY_OVERHEAD = 40 + 40;
+  private static final long STRING_OVERHEAD = 40;
+
+  private NearCacheMemory() {
+  }
+
+  static <K, V> MapMemoryUsage usage(NearCache<K, V> nearMap) {
+    long[] totals = new long[3];
+    long[] keySizes = new long[HISTOGRAM_BUCKETS];
+    long[] valueSizes = new long[HISTOGRAM_BUCKETS];
+    nearMap.forEach((key, value) -> {
+      long keyBytes = sizeOf(key);
+      long valueBytes = sizeOf(value);
+      totals[0]++;
+      totals[1] += keyBytes;
+      totals[2] += valueBytes;
+      keySizes[bucketOf(keyBytes)]++;
+      valueSizes[bucketOf(valueBytes)]++;
+    });
+    // the highest buckets are mostly empty, they are left out like the nodes do
+    int last = Math.max(lastNonEmpty(keySizes), lastNonEmpty(valueSizes));
+    List<Long> keyHistogram = new ArrayList<>(last + 1);
+    List<Long> valueHistogram = new ArrayList<>(last + 1);
+    for (int i = 0; i <= last; i++) {
+      keyHistogram.add(keySizes[i]);
+      valueHistogram.add(valueSizes[i]);
+    }
+    return new MapMemoryUsage(LOCAL_NODE, totals[0], totals[1], totals[2], totals[0] * ENTRY_OVERHEAD, 0,
+                              keyHistogram, valueHistogram);
+  }
+
+  /**
+   * Reads the entries of the near cache in the calling thread, without the rate limit of the nodes.
+   *
+   * @param count      the number of entries to return
+   * @param maxScanned the entries read at most, 0 to read them all
+   * @return the largest entries, largest first
+   */
+  static <K, V> List<BigEntry<K>> largestEntries(NearCache<K, V> nearMap, int count, int maxScanned) {
+    Comparator<BigEntry<K>> bySize = Comparator.comparingLong(entry -> entry.keyBytes() + entry.valueBytes());
+    // the smallest of the largest entries found so far on top
+    PriorityQueue<BigEntry<K>> largest = new PriorityQueue<>(count + 1, bySize);
+    int[] scanned = new int[1];
+    nearMap.forEach((key, value) -> {
+      if (maxScanned > 0 && scanned[0] >= maxScanned) {
+        return;
+      }
+      scanned[0]++;
+      largest.add(new BigEntry<>(key, LOCAL_NODE, sizeOf(key), sizeOf(value), false));
+      if (largest.size() > count) {
+        largest.poll();
+      }
+    });
+    List<BigEntry<K>> entries = new ArrayList<>(largest);
+    entries.sort(bySize.reversed());
+    return entries;
+  }
+
+  private static long sizeOf(Object object) {
+    return STRING_OVERHEAD + KryoSerializer.jsonLength(object);
+  }
+
+  /**
+   * @return the histogram bucket of a size, the number of bits it takes
+   */
+  private static int bucketOf(long size) {
+    return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(size));
+  }
+
+  private static int lastNonEmpty(long[] histogram) {
+    for (int i = histogram.length - 1; i >= 0; i--) {
+      if (histogram[i] != 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -1,6 +1,31 @@
 package dev.ixixpercent.cache.store;
 
+import java.util.Map;
+
 /**
  * Synchronizes the near cache with the remote cache.
+ *
+ * <p>The {@link CacheStoreManager} always applies changes to the near cache itself and hands them to the
+ * synchronizer to propagate to the remote cache.</p>
  */
-interface StoreSynchronizer {}
+interface StoreSynchronizer<K, V> extends AutoCloseable {
+
+  void put(K key, V value);
+
+  void putAll(Map<? extends K, ? extends V> entries);
+
+  void remove(Object key);
+
+  void clear();
+
+  /**
+   * Blocks until all changes accepted so far have been sent to the remote cache.
+   */
+  void flush();
+
+  /**
+   * Flushes the pending changes and releases the resources held by the synchronizer.
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,258 @@
+package dev.ixixpercent.cache.store;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.cache.CacheException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Buffers puts and sends them to the remote cache in PutAll batches from a background thread.
+ *
+ * <p>The buffer coalesces writes by key: a newer value for a key that is still pending replaces the queued one
+ * instead of taking another slot. A batch is flushed as soon as {@code batchSize} keys are pending, or after
+ * {@code flushIntervalMillis} at the latest. When {@code capacity} keys are pending, writers block until the
+ * flusher frees some room.</p>
+ *
+ * <p>Removals and clears are sent synchronously. They wait for the batch in flight and drop the matching pending
+ * writes, so a flushed batch can never bring back a removed key.</p>
+ */
+@Slf4j
+class WriteBehindSynchronizer<K, V> implements StoreSynchronizer<K, V> {
+
+  private final String cacheName;
+  private final Map<K, V> remoteMap;
+  private final int batchSize;
+  private final int capacity;
+
+  // Pending writes in arrival order, guarded by lock
+  private final LinkedHashMap<K, V> pending = new LinkedHashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+
+  // Held while talking to the remote cache, always acquired before lock
+  private final ReentrantLock flushLock = new ReentrantLock();
+
+  private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+  private final ScheduledExecutorService executor;
+  private volatile boolean closed = false;
+
+  WriteBehindSynchronizer(String cacheName,
+                          Map<K, V> remoteMap,
+                          int batchSize,
+                          long flushIntervalMillis,
+                          int capacity) {
+    this.cacheName = cacheName;
+    this.remoteMap = remoteMap;
+    this.batchSize = batchSize;
+    this.capacity = capacity;
+    this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "ixix-write-behind-" + cacheName);
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    log.info("Cache [{}] Write-behind started with batch size {}, flush interval {} ms and capacity {}",
+             cacheName,
+             batchSize,
+             flushIntervalMillis,
+             capacity);
+  }
+
+  @Override
+  public void put(K key, V value) {
+    lock.lock();
+    try {
+      // overwriting a pending key does not need extra room
+      while (pending.size() >= capacity && !pending.containsKey(key)) {
+        checkOpen();
+        requestFlush();
+        log.trace("Cache [{}] Write-behind buffer full, waiting for flush", cacheName);
+        notFull.await();
+      }
+      checkOpen();
+      pending.put(key, value);
+      if (pending.size() >= batchSize) {
+        requestFlush();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CacheException("Interrupted while waiting for write-behind buffer space", e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void putAll(Map<? extends K, ? extends V> entries) {
+    entries.forEach(this::put);
+  }
+
+  @Override
+  public void remove(Object key) {
+    flushLock.lock();
+    try {
+      lock.lock();
+      try {
+        if (pending.remove(key) != null) {
+          notFull.signalAll();
+        }
+      } finally {
+        lock.unlock();
+      }
+      remoteMap.remove(key);
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  @Override
+  public void clear() {
+    flushLock.lock();
+    try {
+      lock.lock();
+      try {
+        pending.clear();
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+      remoteMap.clear();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  @Override
+  public void flush() {
+    flushLock.lock();
+    try {
+      Map<K, V> batch = drain();
+      while (!batch.isEmpty() && send(batch)) {
+        batch = drain();
+      }
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    executor.shutdown();
+    flush();
+    lock.lock();
+    try {
+      if (!pending.isEmpty()) {
+        log.warn("Cache [{}] Discarding {} write-behind entries that could not be flushed on close",
+                 cacheName,
+                 pending.size());
+        pending.clear();
+      }
+      // wake up writers still waiting for room so they fail instead of hanging
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    log.info("Cache [{}] Write-behind stopped", cacheName);
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Write-behind for cache " + cacheName + " is closed");
+    }
+  }
+
+  private void requestFlush() {
+    if (flushRequested.compareAndSet(false, true)) {
+      try {
+        executor.execute(() -> {
+          flushRequested.set(false);
+          flushQuietly();
+        });
+      } catch (RejectedExecutionException e) {
+        // closing, the final flush is done by close()
+        flushRequested.set(false);
+      }
+    }
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      log.error("Cache [{}] Write-behind flush failed", cacheName, e);
+    }
+  }
+
+  /**
+   * Takes up to batchSize pending writes out of the buffer, oldest first.
+   */
+  private Map<K, V> drain() {
+    lock.lock();
+    try {
+      Map<K, V> batch = new LinkedHashMap<>();
+      Iterator<Map.Entry<K, V>> iterator = pending.entrySet().iterator();
+      while (iterator.hasNext() && batch.size() < batchSize) {
+        Map.Entry<K, V> entry = iterator.next();
+        batch.put(entry.getKey(), entry.getValue());
+        iterator.remove();
+      }
+      if (!batch.isEmpty()) {
+        notFull.signalAll();
+      }
+      return batch;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Sends a batch to the remote cache. On failure the writes that were not superseded in the meantime are put
+   * back in the buffer, as far as there is room, to be retried by the next flush.
+   *
+   * @return true if the batch was sent
+   */
+  private boolean send(Map<K, V> batch) {
+    try {
+      remoteMap.putAll(batch);
+      log.trace("Cache [{}] Flushed {} write-behind entries", cacheName, batch.size());
+      return true;
+    } catch (RuntimeException e) {
+      log.error("Cache [{}] Failed to flush {} write-behind entries", cacheName, batch.size(), e);
+      requeue(batch);
+      return false;
+    }
+  }
+
+  private void requeue(Map<K, V> batch) {
+    lock.lock();
+    try {
+      int dropped = 0;
+      for (Map.Entry<K, V> entry : batch.entrySet()) {
+        if (pending.containsKey(entry.getKey())) {
+          continue;
+        }
+        if (pending.size() < capacity) {
+          pending.put(entry.getKey(), entry.getValue());
+        } else {
+          dropped++;
+        }
+      }
+      if (dropped > 0) {
+        log.warn("Cache [{}] Write-behind buffer full, dropped {} entries that failed to flush", cacheName, dropped);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
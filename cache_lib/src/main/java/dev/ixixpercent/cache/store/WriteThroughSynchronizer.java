@@ -0,0 +1,45 @@
+package dev.ixixpercent.cache.store;
+
+import java.util.Map;
+
+/**
+ * Sends every change to the remote cache synchronously, in the caller thread.
+ */
+class WriteThroughSynchronizer<K, V> implements StoreSynchronizer<K, V> {
+
+  private final Map<K, V> remoteMap;
+
+  WriteThroughSynchronizer(Map<K, V> remoteMap) {
+    this.remoteMap = remoteMap;
+  }
+
+  @Override
+  public void put(K key, V value) {
+    remoteMap.put(key, value);
+  }
+
+  @Override
+  public void putAll(Map<? extends K, ? extends V> entries) {
+    remoteMap.putAll(entries);
+  }
+
+  @Override
+  public void remove(Object key) {
+    remoteMap.remove(key);
+  }
+
+  @Override
+  public void clear() {
+    remoteMap.clear();
+  }
+
+  @Override
+  public void flush() {
+    // nothing is buffered
+  }
+
+  @Override
+  public void close() {
+    // nothing to release
+  }
+}
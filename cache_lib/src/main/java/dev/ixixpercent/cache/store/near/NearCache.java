@@ -1,5 +1,164 @@
 package dev.ixixpercent.cache.store.near;
 
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
-public class NearCache<K, V> extends ConcurrentHashMap<K, V> {}
+/**
+ * The local copy of the entries of a cache.
+ *
+ * <p>Every entry remembers when it was written and when it expires, expired entries are treated as absent and
+ * removed when they are read. A time to live of 0 keeps the entries until they are removed.</p>
+ */
+public class NearCache<K, V> {
+
+  private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+  private final long timeToLiveNanos;
+  // null when the expiries are not reported
+  private final BiConsumer<K, V> onExpired;
+
+  /**
+   * @param timeToLiveMillis the time to live of the entries in milliseconds, 0 for no expiry
+   */
+  public NearCache(long timeToLiveMillis) {
+    this(timeToLiveMillis, null);
+  }
+
+  /**
+   * @param timeToLiveMillis the time to live of the entries in milliseconds, 0 for no expiry
+   * @param onExpired        called with the key and value of the expired entries once removed, null if not needed
+   */
+  public NearCache(long timeToLiveMillis, BiConsumer<K, V> onExpired) {
+    this.timeToLiveNanos = timeToLiveMillis * 1_000_000;
+    this.onExpired = onExpired;
+  }
+
+  /**
+   * A value with the times it was written and expires at, as given by {@link System#nanoTime()}. A pinned value
+   * was read from the node rather than written by this client.
+   */
+  public record Entry<V>(V value, long writtenAtNanos, long expiresAtNanos, boolean pinned) {
+
+    public boolean isExpired(long nowNanos) {
+      return nowNanos - expiresAtNanos >= 0;
+    }
+
+    /**
+     * @param nowNanos the current time
+     * @return the fraction of its lifetime the entry has lived, 0 for an entry that does not expire
+     */
+    public double age(long nowNanos) {
+      long lifetime = expiresAtNanos - writtenAtNanos;
+      return lifetime == Long.MAX_VALUE ? 0 : (double) (nowNanos - writtenAtNanos) / lifetime;
+    }
+  }
+
+  private Entry<V> newEntry(V value, long timeToLiveNanos, boolean pinned) {
+    long now = System.nanoTime();
+    return new Entry<>(value, now, timeToLiveNanos > 0 ? now + timeToLiveNanos : now + Long.MAX_VALUE, pinned);
+  }
+
+  private static <V> V valueOf(Entry<V> entry) {
+    return entry == null || entry.isExpired(System.nanoTime()) ? null : entry.value();
+  }
+
+  /**
+   * @param key the key
+   * @return the entry of the key, or null when it is absent or expired
+   */
+  @SuppressWarnings("unchecked")
+  public Entry<V> getEntry(Object key) {
+    Entry<V> entry = entries.get(key);
+    if (entry != null && entry.isExpired(System.nanoTime())) {
+      if (entries.remove(key, entry) && onExpired != null) {
+        // only the keys of the map have an entry
+        onExpired.accept((K) key, entry.value());
+      }
+      return null;
+    }
+    return entry;
+  }
+
+  public V get(Object key) {
+    Entry<V> entry = getEntry(key);
+    return entry == null ? null : entry.value();
+  }
+
+  public boolean containsKey(Object key) {
+    return getEntry(key) != null;
+  }
+
+  public boolean containsValue(Object value) {
+    long now = System.nanoTime();
+    return entries.values().stream().anyMatch(entry -> !entry.isExpired(now) && Objects.equals(entry.value(), value));
+  }
+
+  public V put(K key, V value) {
+    return valueOf(entries.put(key, newEntry(value, timeToLiveNanos, false)));
+  }
+
+  public void putAll(Map<? extends K, ? extends V> map) {
+    map.forEach(this::put);
+  }
+
+  /**
+   * Replaces an entry unless it was written or removed in the meantime.
+   *
+   * @param key              the key
+   * @param expected         the entry expected to be in place
+   * @param value            the new value
+   * @param timeToLiveMillis the time to live of the new value in milliseconds, 0 for no expiry
+   * @return true if the entry was replaced
+   */
+  public boolean replace(K key, Entry<V> expected, V value, long timeToLiveMillis) {
+    return entries.replace(key, expected, newEntry(value, timeToLiveMillis * 1_000_000, false));
+  }
+
+  /**
+   * Keeps a value read from the node for a while, unless the key has an entry already.
+   *
+   * @param key              the key
+   * @param value            the value read from the node
+   * @param timeToLiveMillis the time to keep the value in milliseconds
+   */
+  public void pin(K key, V value, long timeToLiveMillis) {
+    entries.putIfAbsent(key, newEntry(value, timeToLiveMillis * 1_000_000, true));
+  }
+
+  public V remove(Object key) {
+    return valueOf(entries.remove(key));
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * @return the number of entries, including the expired ones not read since they expired
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /**
+   * Calls the action with the entries that have not expired, as they are read from the map while it changes.
+   */
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    long now = System.nanoTime();
+    entries.forEach((key, entry) -> {
+      if (!entry.isExpired(now)) {
+        action.accept(key, entry.value());
+      }
+    });
+  }
+
+  public Set<K> keySet() {
+    return entries.keySet();
+  }
+}
@@ -0,0 +1,68 @@
+package dev.ixixpercent.cache.store.near;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The keys recently confirmed absent by the node, so that reading them again does not call the node.
+ *
+ * <p>A key is remembered for a fixed time and forgotten as soon as it is written. When the cache is full, the
+ * expired keys are dropped first, then arbitrary ones.</p>
+ */
+public class NegativeCache<K> {
+
+  private final ConcurrentHashMap<K, Long> absentUntilNanos = new ConcurrentHashMap<>();
+  private final long timeToLiveNanos;
+  private final int capacity;
+
+  /**
+   * @param timeToLiveMillis the time a key is remembered in milliseconds
+   * @param capacity         the maximum number of keys remembered
+   */
+  public NegativeCache(long timeToLiveMillis, int capacity) {
+    this.timeToLiveNanos = timeToLiveMillis * 1_000_000;
+    this.capacity = capacity;
+  }
+
+  /**
+   * @param key the key
+   * @return true if the key was recently confirmed absent
+   */
+  public boolean isAbsent(Object key) {
+    Long until = absentUntilNanos.get(key);
+    if (until == null) {
+      return false;
+    }
+    if (System.nanoTime() - until >= 0) {
+      absentUntilNanos.remove(key, until);
+      return false;
+    }
+    return true;
+  }
+
+  public void markAbsent(K key) {
+    if (absentUntilNanos.size() >= capacity) {
+      evict();
+    }
+    absentUntilNanos.put(key, System.nanoTime() + timeToLiveNanos);
+  }
+
+  private void evict() {
+    long now = System.nanoTime();
+    absentUntilNanos.values().removeIf(until -> now - until >= 0);
+    // still full, make room for about a tenth of the capacity
+    Iterator<K> keys = absentUntilNanos.keySet().iterator();
+    for (int i = absentUntilNanos.size() - capacity * 9 / 10; i > 0 && keys.hasNext(); i--) {
+      keys.next();
+      keys.remove();
+    }
+  }
+
+  public void invalidate(Object key) {
+    absentUntilNanos.remove(key);
+  }
+
+  public void clear() {
+    absentUntilNanos.clear();
+  }
+}
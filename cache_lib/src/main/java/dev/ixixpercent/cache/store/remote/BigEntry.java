@@ -0,0 +1,12 @@
+package dev.ixixpercent.cache.store.remote;
+
+/**
+ * One of the largest entries of a map found by the nodes.
+ *
+ * @param key        the key
+ * @param node       the address of the node holding it
+ * @param keyBytes   the estimated bytes of the key
+ * @param valueBytes the estimated bytes of the value
+ * @param chunked    whether the value was written in chunks
+ */
+public record BigEntry<K>(K key, String node, long keyBytes, long valueBytes, boolean chunked) {}
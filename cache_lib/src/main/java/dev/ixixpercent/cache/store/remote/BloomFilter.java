@@ -0,0 +1,69 @@
+package dev.ixixpercent.cache.store.remote;
+
+import dev.ixixpercent.cache.connector.Murmur3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of serialized keys published by a node. The bit indexes are derived the same way as on the node,
+ * from two Murmur3 hashes of the key.
+ */
+class BloomFilter {
+
+  private final AtomicLongArray words;
+  private final long bitCount;
+  private final int hashCount;
+
+  /**
+   * @param bits      the bits of the filter as little-endian 64 bits words
+   * @param hashCount the number of bits set per key
+   */
+  BloomFilter(byte[] bits, int hashCount) {
+    ByteBuffer buffer = ByteBuffer.wrap(bits).order(ByteOrder.LITTLE_ENDIAN);
+    this.words = new AtomicLongArray(bits.length / Long.BYTES);
+    for (int i = 0; i < words.length(); i++) {
+      words.set(i, buffer.getLong());
+    }
+    this.bitCount = words.length() * 64L;
+    this.hashCount = hashCount;
+  }
+
+  /**
+   * @param key the serialized key
+   * @return false if the key is certainly not in the filter
+   */
+  boolean mightContain(byte[] key) {
+    if (bitCount == 0) {
+      return true;
+    }
+    int h1 = Murmur3.hash32(key, 0);
+    int h2 = Murmur3.hash32(key, h1);
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+      if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds a key written by this client, so that it is not reported missing before the next download.
+   *
+   * @param key the serialized key
+   */
+  void add(byte[] key) {
+    if (bitCount == 0) {
+      return;
+    }
+    int h1 = Murmur3.hash32(key, 0);
+    int h2 = Murmur3.hash32(key, h1);
+    for (int i = 0; i < hashCount; i++) {
+      long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+      long mask = 1L << bit;
+      words.getAndUpdate((int) (bit >>> 6), value -> value | mask);
+    }
+  }
+}
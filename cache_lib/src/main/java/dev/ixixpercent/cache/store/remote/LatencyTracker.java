@@ -0,0 +1,54 @@
+package dev.ixixpercent.cache.store.remote;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the latencies of the most recent calls and derives a percentile from them.
+ *
+ * <p>The percentile is recomputed every {@value #RECOMPUTE_INTERVAL} samples instead of on every read, so
+ * reading it is a volatile read.</p>
+ */
+class LatencyTracker {
+
+  private static final int WINDOW = 1024;
+  private static final int MIN_SAMPLES = 100;
+  private static final int RECOMPUTE_INTERVAL = 128;
+
+  private final double percentile;
+  private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+  private final AtomicLong count = new AtomicLong();
+  private volatile long percentileNanos = -1;
+
+  /**
+   * @param percentile the percentile to track, between 0 and 1
+   */
+  LatencyTracker(double percentile) {
+    this.percentile = percentile;
+  }
+
+  void record(long nanos) {
+    long recorded = count.incrementAndGet();
+    samples.set((int) ((recorded - 1) % WINDOW), nanos);
+    if (recorded >= MIN_SAMPLES && recorded % RECOMPUTE_INTERVAL == 0) {
+      recompute((int) Math.min(recorded, WINDOW));
+    }
+  }
+
+  /**
+   * @return the tracked percentile in nanoseconds, or -1 while there are not enough samples
+   */
+  long getPercentileNanos() {
+    return percentileNanos;
+  }
+
+  private void recompute(int size) {
+    long[] sorted = new long[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = samples.get(i);
+    }
+    Arrays.sort(sorted);
+    percentileNanos = sorted[Math.max(0, Math.min(size - 1, (int) Math.ceil(percentile * size) - 1))];
+  }
+}
@@ -0,0 +1,30 @@
+package dev.ixixpercent.cache.store.remote;
+
+import java.util.List;
+
+/**
+ * The memory a node estimates the entries of a map take. The sizes are estimated from the objects the node stores,
+ * a string counting a byte per character plus its headers.
+ *
+ * <p>In the histograms, the bucket 0 counts the entries of 0 bytes and the bucket i the entries from 2^(i-1) to
+ * 2^i - 1 bytes.</p>
+ *
+ * @param node               the address of the node
+ * @param entries            the entries kept in memory
+ * @param keyBytes           the estimated bytes of their keys
+ * @param valueBytes         the estimated bytes of their values
+ * @param overheadBytes      the estimated bytes of the structures holding them
+ * @param coldEntries        the entries demoted to the cold tier, on disk
+ * @param keySizeHistogram   the number of keys per size bucket
+ * @param valueSizeHistogram the number of values per size bucket
+ */
+public record MapMemoryUsage(String node, long entries, long keyBytes, long valueBytes, long overheadBytes,
+                             long coldEntries, List<Long> keySizeHistogram, List<Long> valueSizeHistogram) {
+
+  /**
+   * @return the estimated bytes of the entries kept in memory
+   */
+  public long totalBytes() {
+    return keyBytes + valueBytes + overheadBytes;
+  }
+}
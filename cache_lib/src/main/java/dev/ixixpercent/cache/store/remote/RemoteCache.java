@@ -6,85 +6,436 @@ import static com.fasterxml.jackson.databind.ObjectMapper.DefaultTyping.OBJECT_A
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.jsontype.impl.LaissezFaireSubTypeValidator;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 
+import javax.cache.CacheException;
+import javax.cache.event.EventType;
+
+import dev.ixixpercent.cache.configuration.IxIxCacheConfiguration;
+import dev.ixixpercent.cache.configuration.RemoteOperation;
 import dev.ixixpercent.cache.connector.CacheServiceGrpcFactory;
+import dev.ixixpercent.cache.connector.PartitionTable;
 import dev.ixixpercent.cache.grpc.CacheServiceGrpc;
+import dev.ixixpercent.cache.jfr.RemoteCallEvent;
+import dev.ixixpercent.cache.jfr.SerializationEvent;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BatchRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BatchResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BigKey;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BigKeysRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.ClearRequest;
-import dev.ixixpercent.cache.grpc.CacheServiceProto.ContainsKeyRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEvent;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEventBatch;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEventType;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.GetAllRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.GetAllResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GetChunk;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.GetRequest;
-import dev.ixixpercent.cache.grpc.CacheServiceProto.GetResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GetResponseV2;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.HotKeysRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.HotKeysResponse;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.IsEmptyRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.KeyFilterRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.KeyFilterResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.MapMemoryStats;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.MemoryStatsRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.MemoryStatsResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.KeyRequestV2;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.OpenMapRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.PutAllRequest;
-import dev.ixixpercent.cache.grpc.CacheServiceProto.PutRequest;
-import dev.ixixpercent.cache.grpc.CacheServiceProto.RemoveRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutChunk;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutRequestV2;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutResponse;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.SizeRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.SubscribeRequest;
+import dev.ixixpercent.cache.store.BatchOperation;
+import dev.ixixpercent.cache.store.BatchResult;
 import dev.ixixpercent.cache.store.serialization.KryoSerializer;
+import dev.ixixpercent.cache.store.serialization.KryoSerializer.SerializedValue;
+import dev.ixixpercent.cache.tracing.OperationSpan;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class RemoteCache<K, V> implements Map<K, V> {
 
+  // size of the chunks of the large values, well under the message limit
+  private static final int VALUE_CHUNK_BYTES = 256 * 1024;
+
   private final ObjectMapper mapper;
   private final String mapName;
-  // TODO key type is currently just string but if other classes are used the serialization will fail
+  private final Class<K> keyType;
   private final Class<V> valueType;
-  private final CacheServiceGrpc.CacheServiceBlockingStub stub;
+  private final CacheServiceGrpcFactory stubFactory;
+  private final Map<RemoteOperation, Long> deadlinesMillis;
+  private final boolean hedgedGetsEnabled;
+  private final long hedgeMinDelayNanos;
+  private final LatencyTracker getLatency = new LatencyTracker(0.95);
+  // 0 when the entries do not expire
+  private final long timeToLiveMillis;
+  private final int largeValueThresholdBytes;
+  // null when the key filters are disabled
+  private final ScheduledExecutorService keyFilterRefresher;
+  private volatile KeyFilters keyFilters;
+  private final boolean hotKeysEnabled;
+  private final Map<String, HotKeys> hotKeysByNode = new ConcurrentHashMap<>();
+  // nodes with a hot keys fetch in flight
+  private final Set<String> hotKeysFetches = ConcurrentHashMap.newKeySet();
+  // handle of the map on each node, for the v2 calls
+  private final Map<String, Long> handles = new ConcurrentHashMap<>();
 
 
-  public RemoteCache(String mapName, CacheServiceGrpcFactory stubFactory, Class<K> keyType, Class<V> valueType) {
+  public RemoteCache(String mapName, CacheServiceGrpcFactory stubFactory, IxIxCacheConfiguration<K, V> configuration) {
     this.mapName = mapName;
-    this.valueType = valueType;
+    this.keyType = configuration.getKeyType();
+    this.valueType = configuration.getValueType();
     mapper = new ObjectMapper();
     this.mapper.activateDefaultTyping(LaissezFaireSubTypeValidator.instance,
                                       OBJECT_AND_NON_CONCRETE,
                                       PROPERTY);
-    this.stub = stubFactory.getStub();
+    this.stubFactory = stubFactory;
+    this.deadlinesMillis = configuration.getDeadlinesMillis();
+    this.hedgedGetsEnabled = configuration.isHedgedGetsEnabled();
+    this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getHedgeMinDelayMillis());
+    this.timeToLiveMillis = configuration.getTimeToLiveMillis();
+    this.largeValueThresholdBytes = configuration.getLargeValueThresholdBytes();
+    this.hotKeysEnabled = configuration.getHotKeyTtlMillis() > 0;
+    long keyFilterRefreshMillis = configuration.getKeyFilterRefreshMillis();
+    if (keyFilterRefreshMillis > 0) {
+      keyFilterRefresher = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("ixix-key-filters-" + mapName).daemon(true).factory());
+      keyFilterRefresher.scheduleWithFixedDelay(this::refreshKeyFilters, 0, keyFilterRefreshMillis,
+                                                TimeUnit.MILLISECONDS);
+    } else {
+      keyFilterRefresher = null;
+    }
+  }
+
+  /**
+   * The key filters of the nodes, valid for the partition table they were downloaded with.
+   */
+  private record KeyFilters(long tableVersion, Map<String, BloomFilter> byNode) {}
+
+  /**
+   * A value read from the node with the time it has left to live.
+   *
+   * @param value     the value
+   * @param ttlMillis the time left to live in milliseconds, 0 when the entry does not expire
+   * @param hot       whether the node reports the key among the most read ones
+   */
+  public record TimedValue<V>(V value, long ttlMillis, boolean hot) {}
+
+  /**
+   * The hot keys of a node for this map.
+   */
+  private record HotKeys(int version, Set<ByteString> keys) {}
+
+  private static final HotKeys NO_HOT_KEYS = new HotKeys(0, Set.of());
+
+  /**
+   * Returns the stub to use for a single call. The deadline is absolute once set, so it is applied per call.
+   */
+  private CacheServiceGrpc.CacheServiceBlockingStub stub(String node, RemoteOperation operation) {
+    CacheServiceGrpc.CacheServiceBlockingStub stub = stubFactory.getStub(node);
+    long deadline = deadlinesMillis.get(operation);
+    return deadline > 0 ? stub.withDeadlineAfter(deadline, TimeUnit.MILLISECONDS) : stub;
   }
 
+  private CacheServiceGrpc.CacheServiceFutureStub futureStub(String node, int channel, RemoteOperation operation) {
+    CacheServiceGrpc.CacheServiceFutureStub futureStub = stubFactory.getFutureStub(node, channel);
+    long deadline = deadlinesMillis.get(operation);
+    return deadline > 0 ? futureStub.withDeadlineAfter(deadline, TimeUnit.MILLISECONDS) : futureStub;
+  }
+
+  /**
+   * Returns the node owning a key according to the partition table, or null when that node is not available.
+   * The entries of an unavailable node are read as missing until the cluster hands its partitions over to the
+   * remaining nodes, and their writes fail.
+   */
+  private String ownerOf(Object key, byte[] serializedKey) {
+    String owner = stubFactory.ownerOf(mapName, PartitionTable.routingBytes(key, serializedKey));
+    if (owner == null) {
+      log.trace("Map [{}] Owner of key unavailable", mapName);
+      return null;
+    }
+    return owner;
+  }
+
+  /**
+   * Returns the node owning a key for a write, which fails rather than being lost when that node is not available.
+   *
+   * @throws CacheException if the owner of the key is not available
+   */
+  private String writeOwnerOf(Object key, byte[] serializedKey) {
+    String owner = ownerOf(key, serializedKey);
+    if (owner == null) {
+      throw new CacheException("No node available for key " + key + " in map " + mapName);
+    }
+    return owner;
+  }
+
+  /**
+   * Returns the handle of the map on a node, opening the map on the first call.
+   */
+  private long handleOf(String node) {
+    Long handle = handles.get(node);
+    if (handle == null) {
+      handle = stub(node, RemoteOperation.OPEN_MAP)
+        .openMap(OpenMapRequest.newBuilder().setMapName(mapName).build())
+        .getHandle();
+      handles.put(node, handle);
+    }
+    return handle;
+  }
+
+  /**
+   * Makes a v2 call with the handle of the map on the node. A node that restarted no longer knows the handle and
+   * fails the call with NOT_FOUND, the map is then opened again and the call made once more.
+   */
+  private <T> T withHandle(String node, LongFunction<T> call) {
+    try {
+      return call.apply(handleOf(node));
+    } catch (StatusRuntimeException e) {
+      if (e.getStatus().getCode() != Status.Code.NOT_FOUND) {
+        throw e;
+      }
+      log.debug("Map [{}] Handle unknown to {}, opening the map again", mapName, node);
+      handles.remove(node);
+      return call.apply(handleOf(node));
+    }
+  }
+
+  /**
+   * Downloads the key filter of every node. A node that does not answer has no filter, its keys are always looked
+   * up.
+   */
+  private void refreshKeyFilters() {
+    long tableVersion = stubFactory.getTopology().getPartitionTable().getVersion();
+    Map<String, BloomFilter> byNode = new HashMap<>();
+    KeyFilterRequest request = KeyFilterRequest.newBuilder().setMapName(mapName).build();
+    for (String node : stubFactory.getNodes()) {
+      try {
+        KeyFilterResponse response = stub(node, RemoteOperation.GET_KEY_FILTER).getKeyFilter(request);
+        byNode.put(node, new BloomFilter(response.getBits().toByteArray(), response.getHashCount()));
+      } catch (RuntimeException e) {
+        // an exception would cancel the periodic refresh
+        log.debug("Map [{}] Could not get the key filter of {}: {}", mapName, node, e.getMessage());
+      }
+    }
+    keyFilters = new KeyFilters(tableVersion, byNode);
+  }
+
+  /**
+   * @return false if the key filter of the node shows it does not have the key
+   */
+  private boolean mightContain(String node, byte[] key) {
+    BloomFilter filter = keyFilterOf(node);
+    return filter == null || filter.mightContain(key);
+  }
+
+  /**
+   * Returns the key filter of a node, or null when there is none or the partitions moved since it was downloaded.
+   */
+  private BloomFilter keyFilterOf(String node) {
+    KeyFilters filters = keyFilters;
+    if (filters == null || filters.tableVersion() != stubFactory.getTopology().getPartitionTable().getVersion()) {
+      return null;
+    }
+    return filters.byNode().get(node);
+  }
+
+  /**
+   * Stops downloading the key filters.
+   */
+  public void close() {
+    if (keyFilterRefresher != null) {
+      keyFilterRefresher.shutdownNow();
+    }
+  }
 
   // Kryo Serialization
   private byte[] serialize(Object obj) {
-    return KryoSerializer.serialize(obj);  
+    SerializationEvent event = new SerializationEvent();
+    OperationSpan span = currentSpan();
+    long start = span == null ? 0 : System.nanoTime();
+    event.begin();
+    byte[] bytes = KryoSerializer.serialize(obj);
+    addSerializationNanos(span, start);
+    commit(event, SerializationEvent.SERIALIZE, bytes.length, false);
+    return bytes;
   }
 
   // Kryo Deserialization
   private Object deserialize(byte[] bytes) {
-    return KryoSerializer.deserialize(bytes, valueType); 
+    return deserialize(bytes, valueType);
+  }
+
+  private K deserializeKey(byte[] bytes) {
+    return deserialize(bytes, keyType);
+  }
+
+  private <T> T deserialize(byte[] bytes, Class<T> type) {
+    SerializationEvent event = new SerializationEvent();
+    OperationSpan span = currentSpan();
+    long start = span == null ? 0 : System.nanoTime();
+    event.begin();
+    T value = KryoSerializer.deserialize(bytes, type);
+    addSerializationNanos(span, start);
+    commit(event, SerializationEvent.DESERIALIZE, bytes.length, false);
+    return value;
+  }
+
+  private SerializedValue serializeValue(Object value) {
+    SerializationEvent event = new SerializationEvent();
+    OperationSpan span = currentSpan();
+    long start = span == null ? 0 : System.nanoTime();
+    event.begin();
+    SerializedValue serializedValue = KryoSerializer.serializeValue(value, largeValueThresholdBytes, VALUE_CHUNK_BYTES);
+    addSerializationNanos(span, start);
+    if (event.shouldCommit()) {
+      commit(event, SerializationEvent.SERIALIZE,
+             serializedValue.isChunked() ? sizeOf(serializedValue.chunks()) : serializedValue.bytes().size(),
+             serializedValue.isChunked());
+    }
+    return serializedValue;
+  }
+
+  private V deserializeChunks(List<ByteString> chunks) {
+    SerializationEvent event = new SerializationEvent();
+    OperationSpan span = currentSpan();
+    long start = span == null ? 0 : System.nanoTime();
+    event.begin();
+    V value = KryoSerializer.deserializeChunks(chunks, valueType);
+    addSerializationNanos(span, start);
+    if (event.shouldCommit()) {
+      commit(event, SerializationEvent.DESERIALIZE, sizeOf(chunks), true);
+    }
+    return value;
+  }
+
+  /**
+   * @return the traced operation of the current thread, null when it is not traced
+   */
+  private OperationSpan currentSpan() {
+    return stubFactory.getTracing() == null ? null : OperationSpan.current();
+  }
+
+  private static void addSerializationNanos(OperationSpan span, long startNanos) {
+    if (span != null) {
+      span.addSerializationNanos(System.nanoTime() - startNanos);
+    }
+  }
+
+  private void commit(SerializationEvent event, String operation, long bytes, boolean chunked) {
+    if (event.shouldCommit()) {
+      event.mapName = mapName;
+      event.operation = operation;
+      event.bytes = bytes;
+      event.chunked = chunked;
+      event.commit();
+    }
+  }
+
+  private static long sizeOf(List<ByteString> chunks) {
+    long size = 0;
+    for (ByteString chunk : chunks) {
+      size += chunk.size();
+    }
+    return size;
+  }
+
+  /**
+   * Makes a call to a node, recorded as a remote call event when it takes longer than the threshold. The sizes are
+   * only computed then.
+   *
+   * @param sentBytes     the bytes of the keys and values sent
+   * @param receivedBytes the bytes of the keys and values in the response
+   */
+  private <T> T record(RemoteOperation operation, String node, LongSupplier sentBytes, Supplier<T> call,
+                       ToLongFunction<T> receivedBytes) {
+    RemoteCallEvent event = new RemoteCallEvent();
+    event.begin();
+    T response = null;
+    boolean succeeded = false;
+    try {
+      response = call.get();
+      succeeded = true;
+      return response;
+    } finally {
+      if (event.shouldCommit()) {
+        event.mapName = mapName;
+        event.operation = operation.name();
+        event.node = node;
+        event.sentBytes = sentBytes.getAsLong();
+        event.receivedBytes = response == null ? 0 : receivedBytes.applyAsLong(response);
+        event.succeeded = succeeded;
+        event.commit();
+      }
+    }
   }
 
   @Override
   public int size() {
-    return stub.size(SizeRequest.newBuilder().setMapName(mapName).build()).getSize();
+    int size = 0;
+    for (String node : stubFactory.getNodes()) {
+      size += stub(node, RemoteOperation.SIZE).size(SizeRequest.newBuilder().setMapName(mapName).build()).getSize();
+    }
+    return size;
   }
 
   @Override
   public boolean isEmpty() {
-    return stub.isEmpty(IsEmptyRequest.newBuilder().setMapName(mapName).build()).getIsEmpty();
+    for (String node : stubFactory.getNodes()) {
+      if (!stub(node, RemoteOperation.IS_EMPTY)
+        .isEmpty(IsEmptyRequest.newBuilder().setMapName(mapName).build())
+        .getIsEmpty()) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public boolean containsKey(Object key) {
-    return stub
-      .containsKey(ContainsKeyRequest
-                     .newBuilder()
-                     .setKey(ByteString.copyFrom(serialize(key)))
-                     .setMapName(mapName)
-                     .build())
-      .getExists();
+    byte[] serializedKey = serialize(key);
+    String node = ownerOf(key, serializedKey);
+    if (node == null || !mightContain(node, serializedKey)) {
+      return false;
+    }
+    ByteString keyBytes = ByteString.copyFrom(serializedKey);
+    return record(RemoteOperation.CONTAINS_KEY, node, keyBytes::size, () -> withHandle(
+      node, handle -> stub(node, RemoteOperation.CONTAINS_KEY)
+        .containsKeyV2(KeyRequestV2.newBuilder().setMap(handle).setKey(keyBytes).build())
+        .getExists()), exists -> 0);
   }
 
   @Override
@@ -95,63 +446,468 @@ public class RemoteCache<K, V> implements Map<K, V> {
 
   @Override
   public V get(Object key) {
-    GetResponse response =
-      stub.get(GetRequest.newBuilder().setKey(ByteString.copyFrom(serialize(key))).setMapName(mapName).build());
-    if (response.getValue().isEmpty()) {
+    TimedValue<V> timedValue = getTimed(key);
+    return timedValue == null ? null : timedValue.value();
+  }
+
+  /**
+   * @param key the key
+   * @return the value of the key with the time it has left to live, or null when the node does not have it
+   */
+  @SuppressWarnings("unchecked")
+  public TimedValue<V> getTimed(Object key) {
+    byte[] serializedKey = serialize(key);
+    String node = ownerOf(key, serializedKey);
+    if (node == null || !mightContain(node, serializedKey)) {
       return null;
     }
-    return (V) deserialize(response.getValue().toByteArray());
+    ByteString keyBytes = ByteString.copyFrom(serializedKey);
+    GetResponseV2 response = record(RemoteOperation.GET, node, keyBytes::size, () -> withHandle(node, handle -> {
+      KeyRequestV2 request = KeyRequestV2.newBuilder().setMap(handle).setKey(keyBytes).build();
+      return hedgedGetsEnabled ? hedgedGet(node, request) : timedGet(node, request);
+    }), r -> r.getValue().size());
+    if (!response.getFound()) {
+      return null;
+    }
+    boolean hot = hotKeysEnabled && isHot(node, response.getHotKeysVersion(), keyBytes);
+    if (response.getChunked()) {
+      List<ByteString> chunks = getChunks(node, keyBytes);
+      // null when the key was removed in the meantime
+      return chunks == null ? null : new TimedValue<>(deserializeChunks(chunks), response.getTtlMillis(), hot);
+    }
+    return new TimedValue<>((V) deserialize(response.getValue().toByteArray()), response.getTtlMillis(), hot);
+  }
+
+  /**
+   * Reads the chunks of a large value, one at a time as they are consumed.
+   *
+   * @return the chunks, or null when the node no longer has the key
+   */
+  private List<ByteString> getChunks(String node, ByteString keyBytes) {
+    return record(RemoteOperation.GET_CHUNKED, node, keyBytes::size, () -> {
+      Iterator<GetChunk> chunks = stub(node, RemoteOperation.GET_CHUNKED)
+        .getChunked(GetRequest.newBuilder().setMapName(mapName).setKey(keyBytes).build());
+      List<ByteString> data = new ArrayList<>();
+      while (chunks.hasNext()) {
+        GetChunk chunk = chunks.next();
+        if (data.isEmpty() && !chunk.getFound()) {
+          return null;
+        }
+        data.add(chunk.getData());
+      }
+      return data;
+    }, RemoteCache::sizeOf);
+  }
+
+  /**
+   * Tells whether a key is among the hot keys of its node, fetching them in the background when the version
+   * returned by the node is not the one known here.
+   */
+  private boolean isHot(String node, int version, ByteString key) {
+    HotKeys hotKeys = hotKeysByNode.getOrDefault(node, NO_HOT_KEYS);
+    if (hotKeys.version() != version && hotKeysFetches.add(node)) {
+      Thread.ofVirtual().name("ixix-hot-keys-" + mapName).start(() -> {
+        try {
+          HotKeysResponse response = stub(node, RemoteOperation.GET_HOT_KEYS)
+            .getHotKeys(HotKeysRequest.newBuilder().setMapName(mapName).build());
+          hotKeysByNode.put(node, new HotKeys(response.getVersion(), Set.copyOf(response.getKeysList())));
+          log.debug("Map [{}] {} hot keys on {}", mapName, response.getKeysCount(), node);
+        } catch (RuntimeException e) {
+          log.debug("Map [{}] Could not get the hot keys of {}: {}", mapName, node, e.getMessage());
+        } finally {
+          hotKeysFetches.remove(node);
+        }
+      });
+    }
+    return hotKeys.keys().contains(key);
+  }
+
+  private GetResponseV2 timedGet(String node, KeyRequestV2 request) {
+    long start = System.nanoTime();
+    GetResponseV2 response = stub(node, RemoteOperation.GET).getV2(request);
+    getLatency.record(System.nanoTime() - start);
+    return response;
+  }
+
+  /**
+   * Sends the get and, if it has not completed within the recent p95 latency, a second identical one.
+   * The first successful response wins and the other call is cancelled.
+   *
+   * <p>The owner holds the only copy of the entry, so both calls go to the same node. The second one goes over the
+   * next channel of the node's pool so that it does not wait behind the first one on a slow connection; with a
+   * single channel per node the hedge only helps when the node itself was slow for the first call.</p>
+   */
+  private GetResponseV2 hedgedGet(String node, KeyRequestV2 request) {
+    long hedgeDelay = getLatency.getPercentileNanos();
+    if (hedgeDelay < 0) {
+      // not enough samples yet to know what a slow call is
+      return timedGet(node, request);
+    }
+    long start = System.nanoTime();
+    int channel = stubFactory.selectChannel(node);
+    ListenableFuture<GetResponseV2> first = futureStub(node, channel, RemoteOperation.GET).getV2(request);
+    try {
+      GetResponseV2 response = first.get(Math.max(hedgeDelay, hedgeMinDelayNanos), TimeUnit.NANOSECONDS);
+      getLatency.record(System.nanoTime() - start);
+      return response;
+    } catch (TimeoutException e) {
+      log.trace("Map [{}] Get slower than {} ns, sending hedged request", mapName, hedgeDelay);
+      ListenableFuture<GetResponseV2> second = futureStub(node, channel + 1, RemoteOperation.GET).getV2(request);
+      try {
+        GetResponseV2 response = firstSuccessful(first, second).get();
+        getLatency.record(System.nanoTime() - start);
+        return response;
+      } catch (ExecutionException executionException) {
+        throw unwrap(executionException);
+      } catch (InterruptedException interruptedException) {
+        Thread.currentThread().interrupt();
+        throw new CacheException("Interrupted while waiting for get", interruptedException);
+      } finally {
+        first.cancel(true);
+        second.cancel(true);
+      }
+    } catch (ExecutionException e) {
+      throw unwrap(e);
+    } catch (InterruptedException e) {
+      first.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new CacheException("Interrupted while waiting for get", e);
+    }
+  }
+
+  /**
+   * Completes with the first attempt that succeeds, or with the failure of the last one if they all fail.
+   */
+  @SafeVarargs
+  private static <T> CompletableFuture<T> firstSuccessful(ListenableFuture<T>... attempts) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    AtomicInteger failures = new AtomicInteger();
+    for (ListenableFuture<T> attempt : attempts) {
+      attempt.addListener(() -> {
+        try {
+          result.complete(attempt.get());
+        } catch (Exception e) {
+          if (failures.incrementAndGet() == attempts.length) {
+            result.completeExceptionally(e instanceof ExecutionException ? e.getCause() : e);
+          }
+        }
+      }, Runnable::run);
+    }
+    return result;
+  }
+
+  private static RuntimeException unwrap(ExecutionException e) {
+    return e.getCause() instanceof RuntimeException cause ? cause : new CacheException(e.getCause());
   }
 
   @Override
   public V put(K key, V value) {
-    stub.put(PutRequest
-               .newBuilder()
-               .setKey(ByteString.copyFrom(serialize(key)))
-               .setValue(ByteString.copyFrom(serialize(value)))
-               .setMapName(mapName)
-               .build());
+    byte[] serializedKey = serialize(key);
+    String node = writeOwnerOf(key, serializedKey);
+    addToKeyFilter(node, serializedKey);
+    ByteString keyBytes = ByteString.copyFrom(serializedKey);
+    SerializedValue serializedValue = serializeValue(value);
+    if (serializedValue.isChunked()) {
+      putChunks(node, keyBytes, serializedValue.chunks());
+      return value;
+    }
+    record(RemoteOperation.PUT, node, () -> keyBytes.size() + serializedValue.bytes().size(),
+           () -> withHandle(node, handle -> stub(node, RemoteOperation.PUT).putV2(PutRequestV2
+                                                                                 .newBuilder()
+                                                                                 .setMap(handle)
+                                                                                 .setKey(keyBytes)
+                                                                                 .setValue(serializedValue.bytes())
+                                                                                 .setTtlMillis(timeToLiveMillis)
+                                                                                 .build())), response -> 0);
     // TODO implement to respect Map semantics
     return value;
   }
 
+  /**
+   * Streams the chunks of a large value, as fast as the node reads them, and waits for the node to store it.
+   */
+  private void putChunks(String node, ByteString keyBytes, List<ByteString> chunks) {
+    CacheServiceGrpc.CacheServiceStub asyncStub = stubFactory.getAsyncStub(node);
+    long deadline = deadlinesMillis.get(RemoteOperation.PUT_CHUNKED);
+    if (deadline > 0) {
+      asyncStub = asyncStub.withDeadlineAfter(deadline, TimeUnit.MILLISECONDS);
+    }
+    CompletableFuture<Void> stored = new CompletableFuture<>();
+    asyncStub.putChunked(new ClientResponseObserver<PutChunk, PutResponse>() {
+      private int next = 0;
+
+      @Override
+      public void beforeStart(ClientCallStreamObserver<PutChunk> requestStream) {
+        requestStream.setOnReadyHandler(() -> {
+          while (next <= chunks.size() && requestStream.isReady()) {
+            if (next == chunks.size()) {
+              requestStream.onCompleted();
+            } else {
+              PutChunk.Builder chunk = PutChunk.newBuilder().setData(chunks.get(next));
+              if (next == 0) {
+                chunk.setMapName(mapName).setKey(keyBytes).setTtlMillis(timeToLiveMillis);
+              }
+              requestStream.onNext(chunk.build());
+            }
+            next++;
+          }
+        });
+      }
+
+      @Override
+      public void onNext(PutResponse response) {
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        stored.completeExceptionally(t);
+      }
+
+      @Override
+      public void onCompleted() {
+        stored.complete(null);
+      }
+    });
+    record(RemoteOperation.PUT_CHUNKED, node, () -> keyBytes.size() + sizeOf(chunks), () -> {
+      try {
+        return stored.get();
+      } catch (ExecutionException e) {
+        throw unwrap(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CacheException("Interrupted while waiting for put", e);
+      }
+    }, response -> 0);
+  }
+
+  private void addToKeyFilter(String node, byte[] serializedKey) {
+    BloomFilter filter = keyFilterOf(node);
+    if (filter != null) {
+      filter.add(serializedKey);
+    }
+  }
+
   @Override
   public V remove(Object key) {
-    RemoveRequest request =
-      RemoveRequest.newBuilder().setKey(ByteString.copyFrom(serialize(key))).setMapName(mapName).build();
-    stub.remove(request);
+    byte[] serializedKey = serialize(key);
+    String node = writeOwnerOf(key, serializedKey);
+    ByteString keyBytes = ByteString.copyFrom(serializedKey);
+    record(RemoteOperation.REMOVE, node, keyBytes::size, () -> withHandle(
+      node, handle -> stub(node, RemoteOperation.REMOVE)
+        .removeV2(KeyRequestV2.newBuilder().setMap(handle).setKey(keyBytes).build())), response -> 0);
     // TODO implement to respect Map semantics
     return null;
   }
 
+  /**
+   * Puts the entries with one call per node. Nothing is sent when the owner of any key is not available.
+   *
+   * @throws CacheException if the owner of a key is not available
+   */
   @Override
   public void putAll(Map<? extends K, ? extends V> map) {
-    PutAllRequest.Builder requestBuilder = PutAllRequest.newBuilder();
-    for (Entry<? extends K, ? extends V> entry : map.entrySet()) {
-
+    // the owners are found first, so that nothing is sent when one of them is not available
+    List<Entry<? extends K, ? extends V>> entries = new ArrayList<>(map.entrySet());
+    List<byte[]> serializedKeys = new ArrayList<>(entries.size());
+    List<String> nodes = new ArrayList<>(entries.size());
+    for (Entry<? extends K, ? extends V> entry : entries) {
+      byte[] serializedKey = serialize(entry.getKey());
+      serializedKeys.add(serializedKey);
+      nodes.add(writeOwnerOf(entry.getKey(), serializedKey));
+    }
+    // one call per node, carrying the entries of the partitions it owns
+    Map<String, PutAllRequest.Builder> requests = new HashMap<>();
+    for (int i = 0; i < entries.size(); i++) {
+      Entry<? extends K, ? extends V> entry = entries.get(i);
+      byte[] serializedKey = serializedKeys.get(i);
+      String node = nodes.get(i);
+      addToKeyFilter(node, serializedKey);
+      SerializedValue serializedValue = serializeValue(entry.getValue());
+      if (serializedValue.isChunked()) {
+        // too large for the call of its node
+        putChunks(node, ByteString.copyFrom(serializedKey), serializedValue.chunks());
+        continue;
+      }
       var protoEntry = dev.ixixpercent.cache.grpc.CacheServiceProto.Entry
         .newBuilder()
-        .setKey(ByteString.copyFrom(serialize(entry.getKey())))
-        .setValue(ByteString.copyFrom(serialize(entry.getValue())))
+        .setKey(ByteString.copyFrom(serializedKey))
+        .setValue(serializedValue.bytes())
+        .setTtlMillis(timeToLiveMillis)
         .build();
-      requestBuilder.addEntries(protoEntry);
+      requests.computeIfAbsent(node, n -> PutAllRequest.newBuilder().setMapName(mapName)).addEntries(protoEntry);
     }
-    stub.putAll(requestBuilder.setMapName(mapName).build());
+    requests.forEach((node, request) -> {
+      PutAllRequest putAllRequest = request.build();
+      record(RemoteOperation.PUT_ALL, node, putAllRequest::getSerializedSize,
+             () -> stub(node, RemoteOperation.PUT_ALL).putAll(putAllRequest), response -> 0);
+    });
+  }
+
+  /**
+   * Sends the operations of a batch to the node owning their hash tag, in a single call.
+   *
+   * @param operations the operations, on keys sharing a hash tag
+   * @return the result of every operation, in order
+   * @throws CacheException if the owner of the hash tag is not available
+   */
+  @SuppressWarnings("unchecked")
+  public List<BatchResult<V>> batch(List<BatchOperation<K, V>> operations) {
+    if (operations.isEmpty()) {
+      return List.of();
+    }
+    K firstKey = operations.get(0).key();
+    String node = ownerOf(firstKey, serialize(firstKey));
+    if (node == null) {
+      throw new CacheException("No node available for the batch of key " + firstKey + " in map " + mapName);
+    }
+    BatchRequest.Builder request = BatchRequest.newBuilder().setMapName(mapName);
+    for (BatchOperation<K, V> operation : operations) {
+      byte[] serializedKey = serialize(operation.key());
+      var protoOperation = dev.ixixpercent.cache.grpc.CacheServiceProto.BatchOperation
+        .newBuilder()
+        .setType(dev.ixixpercent.cache.grpc.CacheServiceProto.BatchOperation.Type.valueOf(operation.type().name()))
+        .setKey(ByteString.copyFrom(serializedKey))
+        .setTtlMillis(timeToLiveMillis);
+      if (operation.value() != null) {
+        protoOperation.setValue(ByteString.copyFrom(serialize(operation.value())));
+      }
+      if (operation.expectedValue() != null) {
+        protoOperation.setExpectedValue(ByteString.copyFrom(serialize(operation.expectedValue())));
+      }
+      if (operation.type().writesValue()) {
+        addToKeyFilter(node, serializedKey);
+      }
+      request.addOperations(protoOperation);
+    }
+    BatchRequest batchRequest = request.build();
+    BatchResponse response = record(RemoteOperation.BATCH, node, batchRequest::getSerializedSize,
+                                    () -> stub(node, RemoteOperation.BATCH).batch(batchRequest),
+                                    BatchResponse::getSerializedSize);
+    List<BatchResult<V>> results = new ArrayList<>(response.getResultsCount());
+    for (dev.ixixpercent.cache.grpc.CacheServiceProto.BatchResult result : response.getResultsList()) {
+      V previousValue = result.getFound() ? (V) deserialize(result.getValue().toByteArray()) : null;
+      results.add(new BatchResult<>(result.getApplied(), previousValue));
+    }
+    return results;
+  }
+
+  /**
+   * Subscribes to the changes of the entries of the map on every node, the nodes joining later included.
+   *
+   * @param types     the types of the changes to receive
+   * @param oldValues whether the changes carry the previous value
+   * @param consumer  called with the changes in batches, concurrently for the changes of different nodes
+   * @return the subscription, to close once the changes are no longer needed
+   */
+  public RemoteEntryEventSubscription subscribe(Set<EventType> types, boolean oldValues,
+                                                Consumer<List<RemoteEntryEvent<K, V>>> consumer) {
+    SubscribeRequest.Builder request = SubscribeRequest.newBuilder().setMapName(mapName).setOldValues(oldValues);
+    types.forEach(type -> request.addTypes(EntryEventType.valueOf(type.name())));
+    return new RemoteEntryEventSubscription(mapName, stubFactory, request.build(), batch -> {
+      if (batch.getEventsCount() > 0) {
+        consumer.accept(toEvents(batch));
+      }
+    }, deadlinesMillis.get(RemoteOperation.OPEN_MAP));
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<RemoteEntryEvent<K, V>> toEvents(EntryEventBatch batch) {
+    List<RemoteEntryEvent<K, V>> events = new ArrayList<>(batch.getEventsCount());
+    for (EntryEvent event : batch.getEventsList()) {
+      K key = deserializeKey(event.getKey().toByteArray());
+      V oldValue = event.getHasOldValue() ? (V) deserialize(event.getOldValue().toByteArray()) : null;
+      // the removals and expiries carry no value, they report the old one as JCache 1.1 does
+      V value = event.getValue().isEmpty() ? oldValue : (V) deserialize(event.getValue().toByteArray());
+      events.add(new RemoteEntryEvent<>(EventType.valueOf(event.getType().name()), key, value, oldValue,
+                                        event.getHasOldValue()));
+    }
+    return events;
+  }
+
+  /**
+   * @return the memory the entries of the map take on every node, by node
+   */
+  public Map<String, MapMemoryUsage> memoryUsage() {
+    MemoryStatsRequest request = MemoryStatsRequest.newBuilder().setMapName(mapName).build();
+    Map<String, MapMemoryUsage> usage = new HashMap<>();
+    for (String node : stubFactory.getNodes()) {
+      MapMemoryUsage nodeUsage = usageOf(node, stub(node, RemoteOperation.GET_MEMORY_STATS).getMemoryStats(request));
+      if (nodeUsage != null) {
+        usage.put(node, nodeUsage);
+      }
+    }
+    return usage;
+  }
+
+  /**
+   * Picks the usage of the map out of the stats of a node. The node also reports the map keyed by primitive longs
+   * of the same name, which belongs to the long cache and is left out.
+   *
+   * @return the usage of the map on the node, null when the node does not have it
+   */
+  static MapMemoryUsage usageOf(String node, MemoryStatsResponse response) {
+    for (MapMemoryStats stats : response.getMapsList()) {
+      if (!stats.getLongKeys()) {
+        return new MapMemoryUsage(node, stats.getEntries(), stats.getKeyBytes(), stats.getValueBytes(),
+                                  stats.getOverheadBytes(), stats.getColdEntries(), stats.getKeySizeHistogramList(),
+                                  stats.getValueSizeHistogramList());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Asks every node in turn for the largest entries of the map it keeps in memory. A node scans its entries at the
+   * given rate and refuses the call with RESOURCE_EXHAUSTED while another scan runs on it.
+   *
+   * @param count            the number of entries to return
+   * @param maxScanned       the entries each node reads at most, 0 to read them all
+   * @param entriesPerSecond the entries each node reads per second at most, 0 for the default of the node
+   * @return the largest entries, largest first
+   */
+  public List<BigEntry<K>> largestEntries(int count, int maxScanned, int entriesPerSecond) {
+    BigKeysRequest request = BigKeysRequest
+      .newBuilder()
+      .setMapName(mapName)
+      .setCount(count)
+      .setMaxScanned(maxScanned)
+      .setEntriesPerSecond(entriesPerSecond)
+      .build();
+    List<BigEntry<K>> entries = new ArrayList<>();
+    for (String node : stubFactory.getNodes()) {
+      for (BigKey bigKey : stub(node, RemoteOperation.SAMPLE_BIG_KEYS).sampleBigKeys(request).getKeysList()) {
+        entries.add(new BigEntry<>(deserializeKey(bigKey.getKey().toByteArray()), node, bigKey.getKeyBytes(),
+                                   bigKey.getValueBytes(), bigKey.getChunked()));
+      }
+    }
+    entries.sort((a, b) -> Long.compare(b.keyBytes() + b.valueBytes(), a.keyBytes() + a.valueBytes()));
+    return entries.size() > count ? List.copyOf(entries.subList(0, count)) : entries;
   }
 
   @Override
   public void clear() {
-    stub.clear(ClearRequest.newBuilder().setMapName(mapName).build());
+    for (String node : stubFactory.getNodes()) {
+      stub(node, RemoteOperation.CLEAR).clear(ClearRequest.newBuilder().setMapName(mapName).build());
+    }
+  }
+
+  private List<dev.ixixpercent.cache.grpc.CacheServiceProto.Entry> getAllEntries() {
+    GetAllRequest request = GetAllRequest.newBuilder().setMapName(mapName).build();
+    List<dev.ixixpercent.cache.grpc.CacheServiceProto.Entry> entries = new ArrayList<>();
+    for (String node : stubFactory.getNodes()) {
+      GetAllResponse response = record(RemoteOperation.GET_ALL, node, () -> 0,
+                                       () -> stub(node, RemoteOperation.GET_ALL).getAll(request),
+                                       GetAllResponse::getSerializedSize);
+      entries.addAll(response.getEntriesList());
+    }
+    return entries;
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public Set<K> keySet() {
-    GetAllRequest request = GetAllRequest.newBuilder().setMapName(mapName).build();
-    GetAllResponse response = stub.getAll(request);
     Set<K> keys = new HashSet<>();
-    for (dev.ixixpercent.cache.grpc.CacheServiceProto.Entry entry : response.getEntriesList()) {
-      keys.add((K) deserialize(entry.getKey().toByteArray()));
+    for (dev.ixixpercent.cache.grpc.CacheServiceProto.Entry entry : getAllEntries()) {
+      keys.add(deserializeKey(entry.getKey().toByteArray()));
     }
     return keys;
   }
@@ -159,10 +915,8 @@ public class RemoteCache<K, V> implements Map<K, V> {
   @SuppressWarnings("unchecked")
   @Override
   public Collection<V> values() {
-    GetAllRequest request = GetAllRequest.newBuilder().setMapName(mapName).build();
-    GetAllResponse response = stub.getAll(request);
     List<V> values = new ArrayList<>();
-    for (dev.ixixpercent.cache.grpc.CacheServiceProto.Entry entry : response.getEntriesList()) {
+    for (dev.ixixpercent.cache.grpc.CacheServiceProto.Entry entry : getAllEntries()) {
       values.add((V) deserialize(entry.getValue().toByteArray()));
     }
     return values;
@@ -171,11 +925,9 @@ public class RemoteCache<K, V> implements Map<K, V> {
   @SuppressWarnings("unchecked")
   @Override
   public Set<Entry<K, V>> entrySet() {
-    GetAllRequest request = GetAllRequest.newBuilder().setMapName(mapName).build();
-    GetAllResponse response = stub.getAll(request);
     Set<Entry<K, V>> entries = new HashSet<>();
-    for (dev.ixixpercent.cache.grpc.CacheServiceProto.Entry entry : response.getEntriesList()) {
-      K key = (K) deserialize(entry.getKey().toByteArray());
+    for (dev.ixixpercent.cache.grpc.CacheServiceProto.Entry entry : getAllEntries()) {
+      K key = deserializeKey(entry.getKey().toByteArray());
       V value = (V) deserialize(entry.getValue().toByteArray());
       entries.add(new AbstractMap.SimpleEntry<>(key, value));
     }
@@ -0,0 +1,14 @@
+package dev.ixixpercent.cache.store.remote;
+
+import javax.cache.event.EventType;
+
+/**
+ * A change of an entry made on a node.
+ *
+ * @param type              the type of the change
+ * @param key               the key
+ * @param value             the value written, the old value for the removals and expiries
+ * @param oldValue          the previous value, null when it was not requested or the entry had none
+ * @param oldValueAvailable whether the node sent the previous value
+ */
+public record RemoteEntryEvent<K, V>(EventType type, K key, V value, V oldValue, boolean oldValueAvailable) {}
@@ -0,0 +1,139 @@
+package dev.ixixpercent.cache.store.remote;
+
+import dev.ixixpercent.cache.connector.CacheServiceGrpcFactory;
+import dev.ixixpercent.cache.store.EntryEventSubscription;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEventBatch;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.SubscribeRequest;
+import io.grpc.Context;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A stream of the entry events of a map from every node, each read by its own virtual thread.
+ *
+ * <p>The nodes joining the cluster are subscribed to within a second, and a stream that ended, because its node
+ * stopped or could not keep up, is opened again. The events a node emitted while it had no stream are lost.</p>
+ *
+ * <p>A batch the consumer fails on, because its entries cannot be read, is logged and dropped, and the stream goes
+ * on with the next batch.</p>
+ */
+@Slf4j
+public class RemoteEntryEventSubscription implements EntryEventSubscription {
+
+  private static final long WATCH_INTERVAL_MILLIS = 1000;
+
+  private final String mapName;
+  private final CacheServiceGrpcFactory stubFactory;
+  private final SubscribeRequest request;
+  private final Consumer<EntryEventBatch> consumer;
+  private final Map<String, Context.CancellableContext> streams = new ConcurrentHashMap<>();
+  private final Thread watcher;
+  private volatile boolean closed;
+
+  /**
+   * Subscribes to the nodes known now, waiting for them to confirm it for at most the given time, and to the nodes
+   * joining later.
+   *
+   * @param consumer called with every batch of events, by the thread reading the stream of its node
+   */
+  RemoteEntryEventSubscription(String mapName, CacheServiceGrpcFactory stubFactory, SubscribeRequest request,
+                               Consumer<EntryEventBatch> consumer, long startTimeoutMillis) {
+    this.mapName = mapName;
+    this.stubFactory = stubFactory;
+    this.request = request;
+    this.consumer = consumer;
+    List<String> nodes = stubFactory.getNodes();
+    CountDownLatch started = new CountDownLatch(nodes.size());
+    for (String node : nodes) {
+      open(node, started);
+    }
+    try {
+      if (!started.await(startTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        log.warn("Map [{}] Not every node confirmed the entry event subscription in {} ms", mapName,
+                 startTimeoutMillis);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    watcher = Thread.ofVirtual().name("ixix-entry-events-" + mapName).start(this::watch);
+  }
+
+  private void watch() {
+    while (!closed) {
+      try {
+        Thread.sleep(WATCH_INTERVAL_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+      for (String node : stubFactory.getNodes()) {
+        if (!closed && !streams.containsKey(node)) {
+          open(node, null);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param started counted down once the node confirmed the subscription or failed to, null when nobody waits
+   */
+  private void open(String node, CountDownLatch started) {
+    Context.CancellableContext context = Context.current().withCancellation();
+    streams.put(node, context);
+    Thread.ofVirtual().name("ixix-entry-events-" + mapName + "-" + node).start(() -> context.run(() -> {
+      boolean confirmed = false;
+      try {
+        // no deadline, the stream lasts as long as the subscription
+        Iterator<EntryEventBatch> batches = stubFactory.getStub(node).subscribe(request);
+        while (batches.hasNext()) {
+          EntryEventBatch batch = batches.next();
+          if (!confirmed) {
+            // the node sends an empty batch once the subscription is in place
+            confirmed = true;
+            if (started != null) {
+              started.countDown();
+            }
+          }
+          deliver(node, batch);
+        }
+        log.debug("Map [{}] Entry events of {} ended", mapName, node);
+      } catch (RuntimeException e) {
+        if (!closed) {
+          log.warn("Map [{}] Entry events of {} interrupted: {}", mapName, node, e.getMessage());
+        }
+      } finally {
+        if (!confirmed && started != null) {
+          started.countDown();
+        }
+        streams.remove(node, context);
+        context.cancel(null);
+      }
+    }));
+  }
+
+  private void deliver(String node, EntryEventBatch batch) {
+    try {
+      consumer.accept(batch);
+    } catch (RuntimeException e) {
+      log.error("Map [{}] Dropped {} entry events of {}", mapName, batch.getEventsCount(), node, e);
+    }
+  }
+
+  /**
+   * Cancels the streams of every node.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    if (watcher != null) {
+      watcher.interrupt();
+    }
+    streams.values().forEach(context -> context.cancel(null));
+  }
+}
@@ -0,0 +1,156 @@
+package dev.ixixpercent.cache.store.serialization;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the JSON form of a value in a string while it is short, and switches to UTF-8 chunks of a fixed size once
+ * its UTF-8 form grows over a maximum, so that a large value is never held in a single array.
+ */
+class ChunkingWriter extends Writer {
+
+  private final int maxWholeBytes;
+  private final int chunkBytes;
+  // null once the value went over the maximum
+  private StringBuilder whole = new StringBuilder();
+  // UTF-8 bytes of the whole string
+  private long wholeBytes;
+  // null while the value is short
+  private Writer chunkWriter;
+  private final List<ByteString> chunks = new ArrayList<>();
+
+  ChunkingWriter(int maxWholeBytes, int chunkBytes) {
+    this.maxWholeBytes = maxWholeBytes;
+    this.chunkBytes = chunkBytes;
+  }
+
+  /**
+   * @return the UTF-8 bytes of a char, a surrogate counting for half of the 4 bytes of its pair
+   */
+  private static int utf8Bytes(char c) {
+    if (c < 0x80) {
+      return 1;
+    }
+    if (c < 0x800 || Character.isSurrogate(c)) {
+      return 2;
+    }
+    return 3;
+  }
+
+  @Override
+  public void write(char[] buffer, int offset, int length) throws IOException {
+    if (whole != null) {
+      long bytes = wholeBytes;
+      for (int i = offset; i < offset + length && bytes <= maxWholeBytes; i++) {
+        bytes += utf8Bytes(buffer[i]);
+      }
+      if (bytes <= maxWholeBytes) {
+        whole.append(buffer, offset, length);
+        wholeBytes = bytes;
+        return;
+      }
+    }
+    if (whole != null) {
+      chunkWriter = new OutputStreamWriter(new ChunkOutputStream(), StandardCharsets.UTF_8);
+      chunkWriter.append(whole);
+      whole = null;
+    }
+    chunkWriter.write(buffer, offset, length);
+  }
+
+  @Override
+  public void write(String string, int offset, int length) throws IOException {
+    if (whole != null) {
+      long bytes = wholeBytes;
+      for (int i = offset; i < offset + length && bytes <= maxWholeBytes; i++) {
+        bytes += utf8Bytes(string.charAt(i));
+      }
+      if (bytes <= maxWholeBytes) {
+        whole.append(string, offset, offset + length);
+        wholeBytes = bytes;
+        return;
+      }
+    }
+    char[] chars = new char[length];
+    string.getChars(offset, offset + length, chars, 0);
+    write(chars, 0, length);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (chunkWriter != null) {
+      chunkWriter.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (chunkWriter != null) {
+      chunkWriter.close();
+    }
+  }
+
+  /**
+   * @return the JSON string, or null when the value went over the maximum
+   */
+  String whole() {
+    return whole == null ? null : whole.toString();
+  }
+
+  /**
+   * @return the UTF-8 chunks of the JSON, once the writer is closed
+   */
+  List<ByteString> chunks() {
+    return chunks;
+  }
+
+  private class ChunkOutputStream extends OutputStream {
+
+    private byte[] chunk = new byte[chunkBytes];
+    private int position;
+
+    @Override
+    public void write(int b) {
+      if (position == chunk.length) {
+        next();
+      }
+      chunk[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+      while (length > 0) {
+        if (position == chunk.length) {
+          next();
+        }
+        int copied = Math.min(length, chunk.length - position);
+        System.arraycopy(bytes, offset, chunk, position, copied);
+        position += copied;
+        offset += copied;
+        length -= copied;
+      }
+    }
+
+    private void next() {
+      // the full chunk is never written again, it is wrapped rather than copied
+      chunks.add(UnsafeByteOperations.unsafeWrap(chunk));
+      chunk = new byte[chunkBytes];
+      position = 0;
+    }
+
+    @Override
+    public void close() {
+      if (position > 0) {
+        chunks.add(UnsafeByteOperations.unsafeWrap(chunk, 0, position));
+      }
+    }
+  }
+}
@@ -4,16 +4,71 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import dev.ixixpercent.cache.store.serialization.pooling.KryoPoolUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.IOException;
+import java.util.List;
 
 public class KryoSerializer {
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * A serialized value, either whole or in chunks.
+     *
+     * @param bytes  the bytes of {@link #serialize}, null for a chunked value
+     * @param chunks the UTF-8 chunks of the JSON form of the value, null for a whole value
+     */
+    public record SerializedValue(ByteString bytes, List<ByteString> chunks) {
+
+        public boolean isChunked() {
+            return chunks != null;
+        }
+    }
+
     public static byte[] serialize(Object obj) {
+        try {
+            return serializeJson(mapper.writeValueAsString(obj));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Serialization error", e);
+        }
+    }
+
+    /**
+     * Serializes a value like {@link #serialize} while its JSON form has at most the given number of UTF-8 bytes, and
+     * into UTF-8 chunks of that form above it, without ever holding a large value in a single array.
+     */
+    public static SerializedValue serializeValue(Object obj, int maxWholeBytes, int chunkBytes) {
+        ChunkingWriter writer = new ChunkingWriter(maxWholeBytes, chunkBytes);
+        try {
+            // closes the writer
+            mapper.writeValue(writer, obj);
+        } catch (IOException e) {
+            throw new RuntimeException("Serialization error", e);
+        }
+        String whole = writer.whole();
+        return whole != null ? new SerializedValue(UnsafeByteOperations.unsafeWrap(serializeJson(whole)), null)
+                             : new SerializedValue(null, writer.chunks());
+    }
+
+    /**
+     * @return the number of characters of the JSON form of a value, the form the nodes store
+     */
+    public static int jsonLength(Object obj) {
+        try {
+            return mapper.writeValueAsString(obj).length();
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Serialization error", e);
+        }
+    }
+
+    private static byte[] serializeJson(String json) {
         Kryo kryo = KryoPoolUtil.borrowKryo();
         try (Output output = new Output(4096, -1)) {
-            kryo.writeClassAndObject(output, mapper.writeValueAsString(obj));
+            kryo.writeClassAndObject(output, json);
             return output.toBytes();
         } catch (Exception e) {
             throw new RuntimeException("Serialization error", e);
@@ -32,4 +87,15 @@ public class KryoSerializer {
             KryoPoolUtil.releaseKryo(kryo);
         }
     }
+
+    /**
+     * Reads a value from the UTF-8 chunks of its JSON form, streamed rather than joined in a single array.
+     */
+    public static <T> T deserializeChunks(List<ByteString> chunks, Class<T> valueType) {
+        try {
+            return mapper.readValue(ByteString.copyFrom(chunks).newInput(), valueType);
+        } catch (IOException e) {
+            throw new RuntimeException("Deserialization error", e);
+        }
+    }
 }
@@ -0,0 +1,20 @@
+package dev.ixixpercent.cache.tracing;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs every span on a single line, at info level. The default exporter.
+ */
+@Slf4j
+public class LoggingSpanExporter implements SpanExporter {
+
+  @Override
+  public void export(Span span) {
+    log.info("Span trace={} span={} parent={} kind={} name={} map={} node={} duration={}us serialization={}us " +
+             "status={}", span.traceId(), span.spanId(), span.parentSpanId(), span.kind(), span.name(),
+             span.mapName(), span.node(), TimeUnit.NANOSECONDS.toMicros(span.durationNanos()),
+             TimeUnit.NANOSECONDS.toMicros(span.serializationNanos()), span.status());
+  }
+}
@@ -0,0 +1,77 @@
+package dev.ixixpercent.cache.tracing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sampled operation of a cache, current on the thread running it until it ends. The calls made to the nodes by
+ * this thread meanwhile are recorded as its children, and the serializations add their time to it.
+ */
+public final class OperationSpan {
+
+  private static final ThreadLocal<OperationSpan> CURRENT = new ThreadLocal<>();
+
+  private final String traceId;
+  private final String spanId = TraceParent.newSpanId();
+  // null when the application gave no parent
+  private final String parentSpanId;
+  private final String name;
+  private final String mapName;
+  private final SpanExporter exporter;
+  private final long startNanos = System.nanoTime();
+  private final long startEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+  // the span current before this one, restored when it ends
+  private final OperationSpan previous = CURRENT.get();
+  private long serializationNanos;
+
+  OperationSpan(String traceId, String parentSpanId, String name, String mapName, SpanExporter exporter) {
+    this.traceId = traceId;
+    this.parentSpanId = parentSpanId;
+    this.name = name;
+    this.mapName = mapName;
+    this.exporter = exporter;
+    CURRENT.set(this);
+  }
+
+  /**
+   * @return the operation running on the current thread, null when it is not sampled
+   */
+  public static OperationSpan current() {
+    return CURRENT.get();
+  }
+
+  String getTraceId() {
+    return traceId;
+  }
+
+  String getSpanId() {
+    return spanId;
+  }
+
+  String getMapName() {
+    return mapName;
+  }
+
+  SpanExporter getExporter() {
+    return exporter;
+  }
+
+  /**
+   * Adds the time of a serialization or deserialization done by the operation.
+   */
+  public void addSerializationNanos(long nanos) {
+    serializationNanos += nanos;
+  }
+
+  /**
+   * Ends the operation on the thread that started it, and exports its span.
+   */
+  public void end() {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+    Tracing.export(exporter, new Span(traceId, spanId, parentSpanId, Span.Kind.OPERATION, name, mapName, null,
+                                      startEpochMicros, System.nanoTime() - startNanos, serializationNanos, null));
+  }
+}
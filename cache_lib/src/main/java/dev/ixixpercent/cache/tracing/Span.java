@@ -0,0 +1,29 @@
+package dev.ixixpercent.cache.tracing;
+
+/**
+ * A timed part of a trace recorded by a cache: an operation of the cache, or a call it made to a node during the
+ * operation. The nodes record their own spans for the calls, children of the call spans, with the queue, serialization
+ * and storage time of the call on the node.
+ *
+ * @param traceId            the trace, 32 hex digits, the one of the application when it gave a parent
+ * @param spanId             the span, 16 hex digits
+ * @param parentSpanId       the parent span, the operation for a call, null for an operation started without parent
+ * @param kind               what the span records
+ * @param name               the operation of the cache, like {@code get}, or the method called, like {@code GetV2}
+ * @param mapName            the name of the cache
+ * @param node               the node called, host:port, null for an operation
+ * @param startEpochMicros   when the span started, in microseconds since the epoch
+ * @param durationNanos      how long it lasted
+ * @param serializationNanos the time spent serializing and deserializing the keys and values, 0 for a call
+ * @param status             the status code of a call, null for an operation
+ */
+public record Span(String traceId, String spanId, String parentSpanId, Kind kind, String name, String mapName,
+                   String node, long startEpochMicros, long durationNanos, long serializationNanos, String status) {
+
+  public enum Kind {
+    // an operation of a cache
+    OPERATION,
+    // a call to a node
+    CALL
+  }
+}
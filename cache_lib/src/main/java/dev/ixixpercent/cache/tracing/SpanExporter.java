@@ -0,0 +1,10 @@
+package dev.ixixpercent.cache.tracing;
+
+/**
+ * Receives the spans of the sampled traces, to send them to a tracing backend. Called by the threads of the
+ * operations and calls as they end, concurrently, so an exporter must be thread safe and should not block.
+ */
+public interface SpanExporter {
+
+  void export(Span span);
+}
@@ -0,0 +1,66 @@
+package dev.ixixpercent.cache.tracing;
+
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A trace context in the W3C Trace Context format of the {@code traceparent} header:
+ * {@code 00-<32 hex digits of trace id>-<16 hex digits of parent span id>-<2 hex digits of flags>}.
+ *
+ * @param traceId the trace, 32 hex digits
+ * @param spanId  the parent span, 16 hex digits
+ * @param sampled whether the trace is recorded
+ */
+record TraceParent(String traceId, String spanId, boolean sampled) {
+
+  static final String HEADER = "traceparent";
+
+  /**
+   * @param header the value of the header, may be null
+   * @return the trace context, null when the header is missing or malformed
+   */
+  static TraceParent parse(String header) {
+    if (header == null || header.length() != 55 || !header.startsWith("00-") || header.charAt(35) != '-' ||
+        header.charAt(52) != '-') {
+      return null;
+    }
+    String traceId = header.substring(3, 35);
+    String spanId = header.substring(36, 52);
+    if (!isHex(traceId) || !isHex(spanId) || !isHex(header.substring(53))) {
+      return null;
+    }
+    return new TraceParent(traceId, spanId, (HexFormat.fromHexDigits(header, 53, 55) & 1) == 1);
+  }
+
+  /**
+   * @return the value of the header
+   */
+  String format() {
+    return "00-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+  }
+
+  /**
+   * @return a random trace id, 32 hex digits
+   */
+  static String newTraceId() {
+    HexFormat hex = HexFormat.of();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return hex.toHexDigits(random.nextLong()) + hex.toHexDigits(random.nextLong());
+  }
+
+  /**
+   * @return a random span id, 16 hex digits
+   */
+  static String newSpanId() {
+    return HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong());
+  }
+
+  private static boolean isHex(String digits) {
+    for (int i = 0; i < digits.length(); i++) {
+      if (!HexFormat.isHexDigit(digits.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,136 @@
+package dev.ixixpercent.cache.tracing;
+
+import io.grpc.ClientInterceptor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Traces a sample of the operations of the caches and the calls they make to the nodes, which record their part of
+ * the calls in the same traces.
+ *
+ * <p>An operation continues the trace of the application when the parent supplier gives one, and is then sampled
+ * when the application samples it. Otherwise it starts a new trace, sampled at the sample rate. The trace context
+ * travels to the nodes in the W3C {@code traceparent} header, so the spans of the client and of the nodes, exported
+ * to their own exporters, share their trace id.</p>
+ *
+ * <pre>
+ * Tracing tracing = new Tracing.Builder()
+ *   .withSampleRate(0.01)
+ *   .withParentSupplier(() -&gt; currentTraceParentOfTheApplication())
+ *   .build();
+ * CacheServiceGrpcFactory factory = new CacheServiceGrpcFactory.Builder().withTracing(tracing).build();
+ * </pre>
+ */
+@Slf4j
+public class Tracing {
+
+  private final double sampleRate;
+  private final SpanExporter exporter;
+  // null when the operations always start a new trace
+  private final Supplier<String> parentSupplier;
+
+  private Tracing(Builder builder) {
+    this.sampleRate = builder.sampleRate;
+    this.exporter = builder.exporter;
+    this.parentSupplier = builder.parentSupplier;
+  }
+
+  /**
+   * Starts an operation of a cache on the current thread, if it is sampled.
+   *
+   * @param name    the operation, like get
+   * @param mapName the name of the cache
+   * @return the span of the operation, to end on the same thread, or null when it is not sampled
+   */
+  public OperationSpan startOperation(String name, String mapName) {
+    TraceParent parent = parentSupplier == null ? null : TraceParent.parse(parentSupplier.get());
+    if (parent != null) {
+      return parent.sampled() ? new OperationSpan(parent.traceId(), parent.spanId(), name, mapName, exporter) : null;
+    }
+    OperationSpan current = OperationSpan.current();
+    if (current != null) {
+      // an operation made by another one, a loader reading a cache for instance
+      return new OperationSpan(current.getTraceId(), current.getSpanId(), name, mapName, exporter);
+    }
+    if (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+      return null;
+    }
+    return new OperationSpan(TraceParent.newTraceId(), null, name, mapName, exporter);
+  }
+
+  /**
+   * @param node the node the channel is connected to, host:port
+   * @return the interceptor to add to the channels of the node
+   */
+  public ClientInterceptor clientInterceptor(String node) {
+    return new TracingClientInterceptor(node);
+  }
+
+  static void export(SpanExporter exporter, Span span) {
+    try {
+      exporter.export(span);
+    } catch (RuntimeException e) {
+      // a failing exporter must not fail the operation
+      log.warn("Span exporter {} failed: {}", exporter.getClass().getName(), e.getMessage());
+    }
+  }
+
+  /**
+   * Builder class for constructing instances of Tracing.
+   */
+  public static class Builder {
+    private double sampleRate = 0;
+    private SpanExporter exporter = new LoggingSpanExporter();
+    private Supplier<String> parentSupplier;
+
+    /**
+     * Sets the fraction of the operations traced when the application gives no parent.
+     *
+     * @param sampleRate between 0, none, and 1, all of them
+     * @return the Builder instance for method chaining
+     */
+    public Builder withSampleRate(double sampleRate) {
+      this.sampleRate = sampleRate;
+      return this;
+    }
+
+    /**
+     * Sets where the spans go, {@link LoggingSpanExporter} by default.
+     *
+     * @param exporter the exporter
+     * @return the Builder instance for method chaining
+     */
+    public Builder withExporter(SpanExporter exporter) {
+      this.exporter = exporter;
+      return this;
+    }
+
+    /**
+     * Sets where the trace of the application comes from, to make the operations parts of it.
+     *
+     * @param parentSupplier gives the W3C traceparent of the current span of the application, or null when there is
+     *                       none
+     * @return the Builder instance for method chaining
+     */
+    public Builder withParentSupplier(Supplier<String> parentSupplier) {
+      this.parentSupplier = parentSupplier;
+      return this;
+    }
+
+    /**
+     * @return a new Tracing instance
+     * @throws IllegalArgumentException if the sample rate is out of range or no exporter is given
+     */
+    public Tracing build() {
+      if (sampleRate < 0 || sampleRate > 1) {
+        throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+      }
+      if (exporter == null) {
+        throw new IllegalArgumentException("Span exporter must be provided");
+      }
+      return new Tracing(this);
+    }
+  }
+}
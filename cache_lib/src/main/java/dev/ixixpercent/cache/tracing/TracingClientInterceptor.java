@@ -0,0 +1,60 @@
+package dev.ixixpercent.cache.tracing;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the calls made to a node during a sampled operation as children of the operation, and sends their
+ * trace context to the node in the {@code traceparent} header. The other calls are left untouched.
+ */
+class TracingClientInterceptor implements ClientInterceptor {
+
+  static final Metadata.Key<String> TRACE_PARENT = Metadata.Key.of(TraceParent.HEADER,
+                                                                   Metadata.ASCII_STRING_MARSHALLER);
+
+  private final String node;
+
+  /**
+   * @param node the node the channel is connected to, host:port
+   */
+  TracingClientInterceptor(String node) {
+    this.node = node;
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                             CallOptions callOptions, Channel next) {
+    OperationSpan operation = OperationSpan.current();
+    if (operation == null) {
+      return next.newCall(method, callOptions);
+    }
+    String spanId = TraceParent.newSpanId();
+    return new SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+      @Override
+      public void start(Listener<RespT> responseListener, Metadata headers) {
+        headers.put(TRACE_PARENT, new TraceParent(operation.getTraceId(), spanId, true).format());
+        long startNanos = System.nanoTime();
+        long startEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        super.start(new SimpleForwardingClientCallListener<>(responseListener) {
+          @Override
+          public void onClose(Status status, Metadata trailers) {
+            Tracing.export(operation.getExporter(),
+                           new Span(operation.getTraceId(), spanId, operation.getSpanId(), Span.Kind.CALL,
+                                    method.getBareMethodName(), operation.getMapName(), node, startEpochMicros,
+                                    System.nanoTime() - startNanos, 0, status.getCode().name()));
+            super.onClose(status, trailers);
+          }
+        }, headers);
+      }
+    };
+  }
+}
@@ -0,0 +1,34 @@
+package dev.ixixpercent.cache.store.remote;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import dev.ixixpercent.cache.grpc.CacheServiceProto.MapMemoryStats;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.MemoryStatsResponse;
+import org.junit.jupiter.api.Test;
+
+class RemoteCacheTest {
+
+  private static final MapMemoryStats OBJECT_MAP =
+    MapMemoryStats.newBuilder().setMapName("users").setEntries(3).setKeyBytes(30).setValueBytes(300).build();
+  private static final MapMemoryStats LONG_MAP =
+    MapMemoryStats.newBuilder().setMapName("users").setLongKeys(true).setEntries(7).setValueBytes(70).build();
+
+  @Test
+  void usageIgnoresTheLongMapOfTheSameName() {
+    for (MemoryStatsResponse response : new MemoryStatsResponse[] {
+      MemoryStatsResponse.newBuilder().addMaps(OBJECT_MAP).addMaps(LONG_MAP).build(),
+      MemoryStatsResponse.newBuilder().addMaps(LONG_MAP).addMaps(OBJECT_MAP).build()}) {
+      MapMemoryUsage usage = RemoteCache.usageOf("node:1", response);
+
+      assertEquals("node:1", usage.node());
+      assertEquals(3, usage.entries());
+      assertEquals(330, usage.totalBytes());
+    }
+  }
+
+  @Test
+  void usageIsNullWhenOnlyTheLongMapExists() {
+    assertNull(RemoteCache.usageOf("node:1", MemoryStatsResponse.newBuilder().addMaps(LONG_MAP).build()));
+  }
+}
@@ -0,0 +1,47 @@
+package dev.ixixpercent.cache.store.serialization;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ixixpercent.cache.store.serialization.KryoSerializer.SerializedValue;
+import org.junit.jupiter.api.Test;
+
+class KryoSerializerTest {
+
+  private static final int THRESHOLD_BYTES = 100;
+  private static final int CHUNK_BYTES = 16;
+
+  @Test
+  void asciiValueAtTheThresholdIsWhole() {
+    // the JSON form adds the two quotes
+    String value = "a".repeat(THRESHOLD_BYTES - 2);
+
+    SerializedValue serialized = KryoSerializer.serializeValue(value, THRESHOLD_BYTES, CHUNK_BYTES);
+
+    assertFalse(serialized.isChunked());
+    assertEquals(value, KryoSerializer.deserialize(serialized.bytes().toByteArray(), String.class));
+  }
+
+  @Test
+  void multibyteValueOverTheThresholdInBytesIsChunked() {
+    // 62 characters of JSON but 122 bytes of UTF-8
+    String value = "é".repeat(60);
+
+    SerializedValue serialized = KryoSerializer.serializeValue(value, THRESHOLD_BYTES, CHUNK_BYTES);
+
+    assertTrue(serialized.isChunked());
+    assertEquals(value, KryoSerializer.deserializeChunks(serialized.chunks(), String.class));
+  }
+
+  @Test
+  void surrogatePairsCountForFourBytes() {
+    // 26 characters of JSON, 24 of them surrogates, and 50 bytes of UTF-8
+    String value = "😀".repeat(12);
+
+    assertFalse(KryoSerializer.serializeValue(value, 50, CHUNK_BYTES).isChunked());
+    SerializedValue serialized = KryoSerializer.serializeValue(value, 49, CHUNK_BYTES);
+    assertTrue(serialized.isChunked());
+    assertEquals(value, KryoSerializer.deserializeChunks(serialized.chunks(), String.class));
+  }
+}
@@ -0,0 +1,78 @@
+package dev.ixixpercent.cache.loadgen;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the index of the key each operation uses, between 0 and the number of keys.
+ */
+public interface KeyDistribution {
+
+  int next();
+
+  static KeyDistribution of(LoadSettings settings) {
+    return switch (settings.getDistribution()) {
+      case UNIFORM -> new Uniform(settings.getKeys());
+      case ZIPFIAN -> new Zipfian(settings.getKeys(), settings.getZipfExponent());
+    };
+  }
+
+  /**
+   * Every key is as likely as the others.
+   */
+  record Uniform(int keys) implements KeyDistribution {
+
+    @Override
+    public int next() {
+      return ThreadLocalRandom.current().nextInt(keys);
+    }
+  }
+
+  /**
+   * Key i is picked with a probability proportional to 1 / (i + 1)^exponent, the key 0 being the most popular.
+   *
+   * <p>Uses the method of Gray et al., "Quickly Generating Billion-Record Synthetic Databases", which draws a key in
+   * constant time once the zeta constant of the number of keys has been computed.</p>
+   */
+  final class Zipfian implements KeyDistribution {
+
+    private final int keys;
+    private final double exponent;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+
+    /**
+     * @param keys     the number of keys
+     * @param exponent the skew, between 0 and 1 exclusive
+     */
+    public Zipfian(int keys, double exponent) {
+      this.keys = keys;
+      this.exponent = exponent;
+      this.alpha = 1 / (1 - exponent);
+      this.zetaN = zeta(keys, exponent);
+      double zeta2 = zeta(2, exponent);
+      this.eta = (1 - Math.pow(2.0 / keys, 1 - exponent)) / (1 - zeta2 / zetaN);
+    }
+
+    private static double zeta(int n, double exponent) {
+      double sum = 0;
+      for (int i = 1; i <= n; i++) {
+        sum += 1 / Math.pow(i, exponent);
+      }
+      return sum;
+    }
+
+    @Override
+    public int next() {
+      double u = ThreadLocalRandom.current().nextDouble();
+      double uz = u * zetaN;
+      if (uz < 1) {
+        return 0;
+      }
+      if (uz < 1 + Math.pow(0.5, exponent)) {
+        return Math.min(1, keys - 1);
+      }
+      return (int) Math.min(keys - 1, keys * Math.pow(eta * u - eta + 1, alpha));
+    }
+  }
+}
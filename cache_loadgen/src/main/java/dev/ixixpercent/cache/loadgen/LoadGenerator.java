@@ -0,0 +1,212 @@
+package dev.ixixpercent.cache.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import dev.ixixpercent.cache.IxIxCacheManager;
+import dev.ixixpercent.cache.configuration.IxIxCacheConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.io.File;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a cache cluster open loop: the operations are started at the target rate whether or not the previous ones
+ * completed, and the latency of each is measured from when it was due, so that the queueing delay of a saturated
+ * cluster shows in the percentiles instead of slowing the load down.
+ *
+ * <p>The operations run on virtual threads, at most {@link LoadSettings#getMaxInFlight()} at once; an operation due
+ * while that many are pending is dropped and counted. The keys are preloaded through a separate cache manager, so the
+ * near cache of the cache driven only holds the keys it wrote or read during the run.</p>
+ */
+@Slf4j
+public class LoadGenerator {
+
+  private static final String CACHE_NAME = "loadgen";
+  private static final int PRELOAD_BATCH_SIZE = 1000;
+  private static final long DRAIN_TIMEOUT_SECONDS = 30;
+  private static final long TOPOLOGY_TIMEOUT_SECONDS = 10;
+
+  private final LoadSettings settings;
+  private final KeyDistribution keyDistribution;
+  private final byte[] value;
+  private final Recorder getLatency = new Recorder(3);
+  private final Recorder putLatency = new Recorder(3);
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  public LoadGenerator(LoadSettings settings) {
+    this.settings = settings;
+    this.keyDistribution = KeyDistribution.of(settings);
+    this.value = new byte[settings.getValueSize()];
+    ThreadLocalRandom.current().nextBytes(value);
+  }
+
+  public static void main(String[] args) throws Exception {
+    LoadSettings settings = LoadSettings.fromArgs(args, System.getenv());
+    LoadReport report;
+    if (settings.getNodes() > 0) {
+      try (LocalCluster cluster = new LocalCluster(settings.getNodes(), settings.getNodeJar(), settings.getBasePort())) {
+        report = new LoadGenerator(settings).run(cluster.getAddresses());
+      }
+    } else {
+      report = new LoadGenerator(settings).run(settings.getSeeds());
+    }
+
+    ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    if (settings.getOutput() == null) {
+      System.out.println(mapper.writeValueAsString(report));
+    } else {
+      mapper.writeValue(new File(settings.getOutput()), report);
+      log.info("Report written to {}", settings.getOutput());
+    }
+  }
+
+  private static String key(int index) {
+    return "key-" + index;
+  }
+
+  /**
+   * Lets the manager learn the partition table before the first call, so that the calls go to the owners of their
+   * keys from the start.
+   */
+  private static void awaitTopology(CacheManager manager) throws InterruptedException {
+    if (!manager.unwrap(IxIxCacheManager.class).awaitTopology(TOPOLOGY_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      log.warn("No node published the topology in {}s, starting with the seeds", TOPOLOGY_TIMEOUT_SECONDS);
+    }
+  }
+
+  /**
+   * @param nodes the host:port of the nodes to drive
+   * @return the report of the run
+   */
+  public LoadReport run(List<String> nodes) throws InterruptedException {
+    CachingProvider provider = Caching.getCachingProvider();
+    Properties properties = new Properties();
+    properties.setProperty(IxIxCacheManager.SEEDS_PROPERTY, String.join(",", nodes));
+    CacheManager manager = provider.getCacheManager(URI.create("ixix://loadgen"), getClass().getClassLoader(), properties);
+    IxIxCacheConfiguration<String, byte[]> configuration = new IxIxCacheConfiguration<>();
+    configuration.setTypes(String.class, byte[].class);
+    awaitTopology(manager);
+
+    if (settings.isPreload()) {
+      preload(provider, properties, configuration);
+    }
+    Cache<String, byte[]> cache = manager.createCache(CACHE_NAME, configuration);
+
+    log.info("Running {} ops/s for {}s of warmup and {}s measured", settings.getRate(), settings.getWarmupSeconds(),
+             settings.getDurationSeconds());
+    long start = System.nanoTime();
+    long measureStart = start + TimeUnit.SECONDS.toNanos(settings.getWarmupSeconds());
+    long end = measureStart + TimeUnit.SECONDS.toNanos(settings.getDurationSeconds());
+    double intervalNanos = 1e9 / settings.getRate();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (long i = 0; ; i++) {
+        long due = start + (long) (i * intervalNanos);
+        if (due >= end) {
+          break;
+        }
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        boolean measured = due >= measureStart;
+        if (inFlight.get() >= settings.getMaxInFlight()) {
+          if (measured) {
+            dropped.increment();
+          }
+          continue;
+        }
+        inFlight.incrementAndGet();
+        String key = key(keyDistribution.next());
+        boolean read = ThreadLocalRandom.current().nextDouble() < settings.getReadRatio();
+        executor.execute(() -> execute(cache, key, read, due, measured));
+      }
+      executor.shutdown();
+      if (!executor.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        log.warn("{} operations still in flight after {}s", inFlight.get(), DRAIN_TIMEOUT_SECONDS);
+        executor.shutdownNow();
+      }
+    }
+
+    Histogram gets = getLatency.getIntervalHistogram();
+    Histogram puts = putLatency.getIntervalHistogram();
+    Histogram all = gets.copy();
+    all.add(puts);
+    Map<String, LoadReport.LatencySummary> latencies = new LinkedHashMap<>();
+    latencies.put("all", LoadReport.LatencySummary.of(all));
+    latencies.put("get", LoadReport.LatencySummary.of(gets));
+    latencies.put("put", LoadReport.LatencySummary.of(puts));
+    manager.close();
+    return new LoadReport(settings,
+                          nodes,
+                          (double) completed.sum() / settings.getDurationSeconds(),
+                          completed.sum(),
+                          errors.sum(),
+                          dropped.sum(),
+                          latencies);
+  }
+
+  private void execute(Cache<String, byte[]> cache, String key, boolean read, long due, boolean measured) {
+    try {
+      if (read) {
+        cache.get(key);
+      } else {
+        cache.put(key, value);
+      }
+    } catch (RuntimeException e) {
+      if (measured) {
+        errors.increment();
+      }
+      log.debug("Operation on {} failed: {}", key, e.getMessage());
+    } finally {
+      if (measured) {
+        (read ? getLatency : putLatency).recordValue(System.nanoTime() - due);
+        completed.increment();
+      }
+      inFlight.decrementAndGet();
+    }
+  }
+
+  /**
+   * Writes every key through a cache manager of its own, which is closed afterwards.
+   */
+  private void preload(CachingProvider provider, Properties properties,
+                       IxIxCacheConfiguration<String, byte[]> configuration) throws InterruptedException {
+    URI uri = URI.create("ixix://loadgen-preload");
+    CacheManager manager = provider.getCacheManager(uri, getClass().getClassLoader(), properties);
+    awaitTopology(manager);
+    Cache<String, byte[]> cache = manager.createCache(CACHE_NAME, new IxIxCacheConfiguration<>(configuration));
+    long start = System.nanoTime();
+    Map<String, byte[]> batch = new HashMap<>();
+    for (int i = 0; i < settings.getKeys(); i++) {
+      batch.put(key(i), value);
+      if (batch.size() == PRELOAD_BATCH_SIZE || i == settings.getKeys() - 1) {
+        cache.putAll(batch);
+        batch.clear();
+      }
+    }
+    // closing keeps the entries on the nodes
+    provider.close(uri, getClass().getClassLoader());
+    log.info("Preloaded {} keys in {} ms", settings.getKeys(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+}
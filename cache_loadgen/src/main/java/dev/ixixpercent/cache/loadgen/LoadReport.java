@@ -0,0 +1,57 @@
+package dev.ixixpercent.cache.loadgen;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of a run, written as JSON.
+ *
+ * @param settings      the settings of the run
+ * @param nodes         the host:port of the nodes driven
+ * @param throughput    the operations completed per second over the measured part of the run
+ * @param completed     the operations completed, successfully or not
+ * @param errors        the operations that failed
+ * @param dropped       the operations not started because too many were in flight
+ * @param latencyMicros the latency summaries by operation, and of all of them under "all"
+ */
+public record LoadReport(LoadSettings settings,
+                         List<String> nodes,
+                         double throughput,
+                         long completed,
+                         long errors,
+                         long dropped,
+                         Map<String, LatencySummary> latencyMicros) {
+
+  /**
+   * Percentiles of the time between when an operation was due and when it completed, in microseconds.
+   */
+  public record LatencySummary(long count,
+                               double mean,
+                               double p50,
+                               double p90,
+                               double p99,
+                               double p999,
+                               double p9999,
+                               double max) {
+
+    /**
+     * @param histogram latencies recorded in nanoseconds
+     */
+    public static LatencySummary of(Histogram histogram) {
+      return new LatencySummary(histogram.getTotalCount(),
+                                micros(histogram.getMean()),
+                                micros(histogram.getValueAtPercentile(50)),
+                                micros(histogram.getValueAtPercentile(90)),
+                                micros(histogram.getValueAtPercentile(99)),
+                                micros(histogram.getValueAtPercentile(99.9)),
+                                micros(histogram.getValueAtPercentile(99.99)),
+                                micros(histogram.getMaxValue()));
+    }
+
+    private static double micros(double nanos) {
+      return Math.round(nanos / 100) / 10.0;
+    }
+  }
+}
@@ -0,0 +1,277 @@
+package dev.ixixpercent.cache.loadgen;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What a load generator run does: the cluster it drives, the rate and mix of the operations and the keys they use.
+ *
+ * <p>Every setting can be given as a {@code --name=value} command line argument or as an environment variable
+ * named after it in upper snake case. Arguments take precedence over the environment.</p>
+ *
+ * <table>
+ *   <tr><th>Argument</th><th>Environment</th><th>Default</th></tr>
+ *   <tr><td>--nodes</td><td>NODES</td><td>3, local nodes started for the run, 0 to drive the nodes of --seeds</td></tr>
+ *   <tr><td>--node-jar</td><td>NODE_JAR</td><td>../cache_node/build/libs/app-0.0.1.jar</td></tr>
+ *   <tr><td>--base-port</td><td>BASE_PORT</td><td>50051, port of the first local node, the others follow</td></tr>
+ *   <tr><td>--seeds</td><td>SEEDS</td><td>none, comma separated host:port of the nodes of a running cluster</td></tr>
+ *   <tr><td>--rate</td><td>RATE</td><td>1000, operations started per second</td></tr>
+ *   <tr><td>--duration-seconds</td><td>DURATION_SECONDS</td><td>30, measured part of the run</td></tr>
+ *   <tr><td>--warmup-seconds</td><td>WARMUP_SECONDS</td><td>5, run at the same rate before measuring</td></tr>
+ *   <tr><td>--keys</td><td>KEYS</td><td>100000</td></tr>
+ *   <tr><td>--distribution</td><td>DISTRIBUTION</td><td>zipfian or uniform</td></tr>
+ *   <tr><td>--zipf-exponent</td><td>ZIPF_EXPONENT</td><td>0.99, between 0 and 1 exclusive, higher is more skewed</td></tr>
+ *   <tr><td>--read-ratio</td><td>READ_RATIO</td><td>0.9, fraction of the operations that are gets</td></tr>
+ *   <tr><td>--value-size</td><td>VALUE_SIZE</td><td>100, bytes</td></tr>
+ *   <tr><td>--preload</td><td>PRELOAD</td><td>true, writes every key before the run</td></tr>
+ *   <tr><td>--max-in-flight</td><td>MAX_IN_FLIGHT</td><td>10000, operations due while that many are pending are dropped</td></tr>
+ *   <tr><td>--output</td><td>OUTPUT</td><td>none, file the report is written to instead of the standard output</td></tr>
+ * </table>
+ */
+@Getter
+public class LoadSettings {
+
+  public enum Distribution {
+    ZIPFIAN, UNIFORM
+  }
+
+  private final int nodes;
+  private final String nodeJar;
+  private final int basePort;
+  private final List<String> seeds;
+  private final int rate;
+  private final int durationSeconds;
+  private final int warmupSeconds;
+  private final int keys;
+  private final Distribution distribution;
+  private final double zipfExponent;
+  private final double readRatio;
+  private final int valueSize;
+  private final boolean preload;
+  private final int maxInFlight;
+  private final String output;
+
+  private LoadSettings(Builder builder) {
+    this.nodes = builder.nodes;
+    this.nodeJar = builder.nodeJar;
+    this.basePort = builder.basePort;
+    this.seeds = List.copyOf(builder.seeds);
+    this.rate = builder.rate;
+    this.durationSeconds = builder.durationSeconds;
+    this.warmupSeconds = builder.warmupSeconds;
+    this.keys = builder.keys;
+    this.distribution = builder.distribution;
+    this.zipfExponent = builder.zipfExponent;
+    this.readRatio = builder.readRatio;
+    this.valueSize = builder.valueSize;
+    this.preload = builder.preload;
+    this.maxInFlight = builder.maxInFlight;
+    this.output = builder.output;
+  }
+
+  /**
+   * Reads the settings from the command line arguments, falling back to the environment.
+   *
+   * @param args the arguments, in the form --name=value
+   * @param env  the environment variables
+   * @return the settings
+   * @throws IllegalArgumentException if an argument is malformed or a value is invalid
+   */
+  public static LoadSettings fromArgs(String[] args, Map<String, String> env) {
+    Map<String, String> values = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Invalid argument " + arg + ", expected --name=value");
+      }
+      int separator = arg.indexOf('=');
+      values.put(arg.substring(2, separator), arg.substring(separator + 1));
+    }
+
+    Builder builder = new Builder();
+    String value;
+    if ((value = lookup("nodes", values, env)) != null) {
+      builder.withNodes(Integer.parseInt(value));
+    }
+    if ((value = lookup("node-jar", values, env)) != null) {
+      builder.withNodeJar(value);
+    }
+    if ((value = lookup("base-port", values, env)) != null) {
+      builder.withBasePort(Integer.parseInt(value));
+    }
+    if ((value = lookup("seeds", values, env)) != null) {
+      builder.withSeeds(Arrays.stream(value.split(",")).map(String::trim).filter(seed -> !seed.isEmpty()).toList());
+    }
+    if ((value = lookup("rate", values, env)) != null) {
+      builder.withRate(Integer.parseInt(value));
+    }
+    if ((value = lookup("duration-seconds", values, env)) != null) {
+      builder.withDurationSeconds(Integer.parseInt(value));
+    }
+    if ((value = lookup("warmup-seconds", values, env)) != null) {
+      builder.withWarmupSeconds(Integer.parseInt(value));
+    }
+    if ((value = lookup("keys", values, env)) != null) {
+      builder.withKeys(Integer.parseInt(value));
+    }
+    if ((value = lookup("distribution", values, env)) != null) {
+      builder.withDistribution(Distribution.valueOf(value.toUpperCase(Locale.ROOT)));
+    }
+    if ((value = lookup("zipf-exponent", values, env)) != null) {
+      builder.withZipfExponent(Double.parseDouble(value));
+    }
+    if ((value = lookup("read-ratio", values, env)) != null) {
+      builder.withReadRatio(Double.parseDouble(value));
+    }
+    if ((value = lookup("value-size", values, env)) != null) {
+      builder.withValueSize(Integer.parseInt(value));
+    }
+    if ((value = lookup("preload", values, env)) != null) {
+      builder.withPreload(Boolean.parseBoolean(value));
+    }
+    if ((value = lookup("max-in-flight", values, env)) != null) {
+      builder.withMaxInFlight(Integer.parseInt(value));
+    }
+    if ((value = lookup("output", values, env)) != null) {
+      builder.withOutput(value);
+    }
+    return builder.build();
+  }
+
+  private static String lookup(String name, Map<String, String> args, Map<String, String> env) {
+    String value = args.get(name);
+    if (value == null) {
+      value = env.get(name.replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+    return value == null || value.isBlank() ? null : value.trim();
+  }
+
+  /**
+   * Builder class for constructing instances of LoadSettings.
+   */
+  public static class Builder {
+    private int nodes = 3;
+    private String nodeJar = "../cache_node/build/libs/app-0.0.1.jar";
+    private int basePort = 50051;
+    private List<String> seeds = List.of();
+    private int rate = 1000;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int keys = 100_000;
+    private Distribution distribution = Distribution.ZIPFIAN;
+    private double zipfExponent = 0.99;
+    private double readRatio = 0.9;
+    private int valueSize = 100;
+    private boolean preload = true;
+    private int maxInFlight = 10_000;
+    // null for the standard output
+    private String output;
+
+    public Builder withNodes(int nodes) {
+      this.nodes = nodes;
+      return this;
+    }
+
+    public Builder withNodeJar(String nodeJar) {
+      this.nodeJar = nodeJar;
+      return this;
+    }
+
+    public Builder withBasePort(int basePort) {
+      this.basePort = basePort;
+      return this;
+    }
+
+    public Builder withSeeds(List<String> seeds) {
+      this.seeds = seeds;
+      return this;
+    }
+
+    public Builder withRate(int rate) {
+      this.rate = rate;
+      return this;
+    }
+
+    public Builder withDurationSeconds(int durationSeconds) {
+      this.durationSeconds = durationSeconds;
+      return this;
+    }
+
+    public Builder withWarmupSeconds(int warmupSeconds) {
+      this.warmupSeconds = warmupSeconds;
+      return this;
+    }
+
+    public Builder withKeys(int keys) {
+      this.keys = keys;
+      return this;
+    }
+
+    public Builder withDistribution(Distribution distribution) {
+      this.distribution = distribution;
+      return this;
+    }
+
+    public Builder withZipfExponent(double zipfExponent) {
+      this.zipfExponent = zipfExponent;
+      return this;
+    }
+
+    public Builder withReadRatio(double readRatio) {
+      this.readRatio = readRatio;
+      return this;
+    }
+
+    public Builder withValueSize(int valueSize) {
+      this.valueSize = valueSize;
+      return this;
+    }
+
+    public Builder withPreload(boolean preload) {
+      this.preload = preload;
+      return this;
+    }
+
+    public Builder withMaxInFlight(int maxInFlight) {
+      this.maxInFlight = maxInFlight;
+      return this;
+    }
+
+    public Builder withOutput(String output) {
+      this.output = output;
+      return this;
+    }
+
+    /**
+     * Builds a new LoadSettings instance with the provided configuration.
+     *
+     * @return a new LoadSettings instance
+     * @throws IllegalArgumentException if a value is out of range
+     */
+    public LoadSettings build() {
+      if (nodes < 0 || (nodes == 0 && (seeds == null || seeds.isEmpty()))) {
+        throw new IllegalArgumentException("Either local nodes or the seeds of a running cluster are required");
+      }
+      if (basePort <= 0 || basePort + nodes > 65536) {
+        throw new IllegalArgumentException("Invalid base port " + basePort);
+      }
+      if (rate <= 0 || durationSeconds <= 0 || warmupSeconds < 0) {
+        throw new IllegalArgumentException("Rate and duration must be positive");
+      }
+      if (keys <= 0 || valueSize < 0 || maxInFlight <= 0) {
+        throw new IllegalArgumentException("Keys and in flight limit must be positive, value size not negative");
+      }
+      if (zipfExponent <= 0 || zipfExponent >= 1) {
+        throw new IllegalArgumentException("Zipf exponent must be between 0 and 1 exclusive");
+      }
+      if (readRatio < 0 || readRatio > 1) {
+        throw new IllegalArgumentException("Read ratio must be between 0 and 1");
+      }
+      return new LoadSettings(this);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package dev.ixixpercent.cache.loadgen;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache nodes started as child processes of the load generator, on consecutive ports of the local host.
+ *
+ * <p>The nodes run the jar built by cache_node, with a logging configuration keeping their output quiet, and write
+ * it to {@code node-<port>.log} in the working directory. Closing the cluster stops them.</p>
+ */
+@Slf4j
+public class LocalCluster implements AutoCloseable {
+
+  private static final long START_TIMEOUT_MILLIS = 30_000;
+
+  private final List<Process> processes = new ArrayList<>();
+  private final List<String> addresses = new ArrayList<>();
+
+  /**
+   * Starts the nodes and waits until they all accept connections.
+   *
+   * @param nodes    the number of nodes
+   * @param nodeJar  the path of the node jar
+   * @param basePort the port of the first node
+   */
+  public LocalCluster(int nodes, String nodeJar, int basePort) throws IOException, InterruptedException {
+    if (!new File(nodeJar).isFile()) {
+      throw new IllegalArgumentException("Node jar " + nodeJar + " not found, build it with ./gradlew jar in cache_node");
+    }
+    Path logConfiguration = Files.createTempFile("ixix-node-logback", ".xml");
+    logConfiguration.toFile().deleteOnExit();
+    try (InputStream in = LocalCluster.class.getResourceAsStream("/node-logback.xml")) {
+      Files.copy(in, logConfiguration, StandardCopyOption.REPLACE_EXISTING);
+    }
+    String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    try {
+      for (int i = 0; i < nodes; i++) {
+        int port = basePort + i;
+        ProcessBuilder builder = new ProcessBuilder(java,
+                                                    "-Dlogback.configurationFile=" + logConfiguration,
+                                                    "-jar",
+                                                    nodeJar,
+                                                    String.valueOf(port))
+          .redirectErrorStream(true)
+          .redirectOutput(new File("node-" + port + ".log"));
+        builder.environment().put("SEEDS", "localhost:" + basePort);
+        processes.add(builder.start());
+        addresses.add("localhost:" + port);
+      }
+      for (String address : addresses) {
+        awaitListening(address);
+      }
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      stop();
+      throw e;
+    }
+    log.info("Started {} nodes on {}", nodes, addresses);
+  }
+
+  /**
+   * @return the host:port of the nodes
+   */
+  public List<String> getAddresses() {
+    return List.copyOf(addresses);
+  }
+
+  private static void awaitListening(String address) throws InterruptedException {
+    int separator = address.lastIndexOf(':');
+    InetSocketAddress socketAddress =
+      new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)));
+    long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+    while (true) {
+      try (Socket socket = new Socket()) {
+        socket.connect(socketAddress, 500);
+        return;
+      } catch (IOException e) {
+        if (System.currentTimeMillis() > deadline) {
+          throw new UncheckedIOException("Node " + address + " did not start", e);
+        }
+        Thread.sleep(200);
+      }
+    }
+  }
+
+  /**
+   * Stops the nodes, they hand their entries over to each other on the way down.
+   */
+  @Override
+  public void close() {
+    stop();
+  }
+
+  /**
+   * Stops the nodes, killing those still running after a while. Interrupted, it kills the remaining ones and keeps
+   * the interrupt status of the thread.
+   */
+  private void stop() {
+    for (Process process : processes) {
+      process.destroy();
+    }
+    try {
+      for (Process process : processes) {
+        if (!process.waitFor(10, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+        }
+      }
+    } catch (InterruptedException e) {
+      processes.forEach(Process::destroyForcibly);
+      Thread.currentThread().interrupt();
+    }
+    processes.clear();
+  }
+}
@@ -2,8 +2,10 @@
 
 # Function to display usage instructions
 usage() {
-    echo "Usage: $0 <port>"
-    echo "  <port>  The port number to expose and map (1025-65535)"
+    echo "Usage: $0 <port> [seeds]"
+    echo "  <port>   The port number to listen on (1025-65535)"
+    echo "  [seeds]  Comma separated host:port of the nodes to join, localhost:50051 by default"
+    echo "The node advertises itself as \$ADVERTISED_HOST:<port>, localhost:<port> by default"
     exit 1
 }
 
@@ -14,6 +16,8 @@ if [ -z "$1" ]; then
 fi
 
 PORT=$1
+SEEDS=${2:-localhost:50051}
+ADVERTISED_HOST=${ADVERTISED_HOST:-localhost}
 
 echo "Building Docker image..."
 
@@ -32,7 +36,8 @@ COMMIT_HASH=$(git rev-parse HEAD)
 # Define the Docker image tag
 IMAGE_TAG="cache-node:0.0.1_$COMMIT_HASH"
 
-echo "Running Docker container on port $PORT..."
+echo "Running Docker container on port $PORT, joining $SEEDS..."
 
-# Run the Docker container with the specified port
-docker run -e PORT="$PORT" -p "$PORT":"$PORT" "$IMAGE_TAG"
+# Run the Docker container on the network of the host, so that the nodes started on this machine and the clients all
+# reach each other on the advertised address
+docker run --network host -e PORT="$PORT" -e ADVERTISED_HOST="$ADVERTISED_HOST" -e SEEDS="$SEEDS" "$IMAGE_TAG"
@@ -0,0 +1,137 @@
+package dev.ixixpercent.cache.node;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A map of the node accounting for the memory of its entries in its {@link MapMemory} as they are written, whatever
+ * writes them: the calls, the expiries, the cold tier and the migrations.
+ *
+ * <p>Every write method accounts for the object it replaced. The removals through the iterators of the views are
+ * not accounted, the node does not make any.</p>
+ */
+class AccountedMap extends ConcurrentHashMap<Object, Object> {
+
+  private final transient MapMemory memory = new MapMemory();
+
+  MapMemory getMemory() {
+    return memory;
+  }
+
+  @Override
+  public Object put(Object key, Object value) {
+    Object previous = super.put(key, value);
+    memory.replaced(key, previous, value);
+    return previous;
+  }
+
+  @Override
+  public void putAll(Map<?, ?> entries) {
+    entries.forEach(this::put);
+  }
+
+  @Override
+  public Object putIfAbsent(Object key, Object value) {
+    Object previous = super.putIfAbsent(key, value);
+    if (previous == null) {
+      memory.replaced(key, null, value);
+    }
+    return previous;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    Object previous = super.remove(key);
+    memory.replaced(key, previous, null);
+    return previous;
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    if (!super.remove(key, value)) {
+      return false;
+    }
+    memory.replaced(key, value, null);
+    return true;
+  }
+
+  @Override
+  public Object replace(Object key, Object value) {
+    Object previous = super.replace(key, value);
+    if (previous != null) {
+      memory.replaced(key, previous, value);
+    }
+    return previous;
+  }
+
+  @Override
+  public boolean replace(Object key, Object oldValue, Object newValue) {
+    if (!super.replace(key, oldValue, newValue)) {
+      return false;
+    }
+    memory.replaced(key, oldValue, newValue);
+    return true;
+  }
+
+  @Override
+  public Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remapping) {
+    Object[] previous = new Object[1];
+    Object stored = super.compute(key, (k, current) -> {
+      previous[0] = current;
+      return remapping.apply(k, current);
+    });
+    memory.replaced(key, previous[0], stored);
+    return stored;
+  }
+
+  @Override
+  public Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> remapping) {
+    Object[] previous = new Object[1];
+    Object stored = super.computeIfPresent(key, (k, current) -> {
+      previous[0] = current;
+      return remapping.apply(k, current);
+    });
+    memory.replaced(key, previous[0], stored);
+    return stored;
+  }
+
+  @Override
+  public Object computeIfAbsent(Object key, Function<? super Object, ?> mapping) {
+    boolean[] computed = new boolean[1];
+    Object stored = super.computeIfAbsent(key, k -> {
+      computed[0] = true;
+      return mapping.apply(k);
+    });
+    if (computed[0]) {
+      memory.replaced(key, null, stored);
+    }
+    return stored;
+  }
+
+  @Override
+  public Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> remapping) {
+    Object[] previous = new Object[1];
+    Object stored = super.compute(key, (k, current) -> {
+      previous[0] = current;
+      return current == null ? value : remapping.apply(current, value);
+    });
+    memory.replaced(key, previous[0], stored);
+    return stored;
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+    for (Object key : keySet()) {
+      computeIfPresent(key, function);
+    }
+  }
+
+  @Override
+  public void clear() {
+    for (Object key : keySet()) {
+      remove(key);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package dev.ixixpercent.cache.node;
+
+import com.google.protobuf.ByteString;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BigKey;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BigKeysRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BigKeysResponse;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static dev.ixixpercent.cache.node.serialization.KryoSerializer.serialize;
+
+/**
+ * Finds the largest entries of a map on demand, for the operators looking for what fills the memory of a node.
+ *
+ * <p>A scan reads the entries kept in memory through the weakly consistent iterator of the map, which takes no lock,
+ * on a virtual thread of its own: the writes go on while it runs and the scan sees some of them. It reads at most
+ * the requested entries per second, sleeping between runs of entries, so that it does not take the processors from
+ * the calls, and a single scan runs at a time on the node, the others are refused with RESOURCE_EXHAUSTED.</p>
+ */
+@Slf4j
+class BigKeySampler {
+
+  static final int DEFAULT_COUNT = 10;
+  static final int DEFAULT_ENTRIES_PER_SECOND = 100_000;
+  private static final int MAX_COUNT = 1000;
+  // the entries read between two checks of the rate
+  private static final int RUN_LENGTH = 1000;
+
+  private final Semaphore scans = new Semaphore(1);
+
+  private record Candidate(Object key, long keyBytes, long valueBytes, boolean chunked) {
+
+    long bytes() {
+      return keyBytes + valueBytes;
+    }
+  }
+
+  /**
+   * Starts a scan of a map, answered once the scan ends.
+   *
+   * @param map      the map, null when the node holds none of that name
+   * @param request  the map and the limits of the scan
+   * @param observer the call
+   */
+  void sample(ConcurrentHashMap<Object, Object> map, BigKeysRequest request,
+              ServerCallStreamObserver<BigKeysResponse> observer) {
+    if (map == null) {
+      observer.onNext(BigKeysResponse.newBuilder().setComplete(true).build());
+      observer.onCompleted();
+      return;
+    }
+    if (!scans.tryAcquire()) {
+      observer.onError(Status.RESOURCE_EXHAUSTED
+                         .withDescription("A big key scan is already running on this node")
+                         .asRuntimeException());
+      return;
+    }
+    Thread.ofVirtual().name("big-keys-" + request.getMapName()).start(() -> {
+      try {
+        BigKeysResponse response = scan(map, request, observer);
+        if (!observer.isCancelled()) {
+          observer.onNext(response);
+          observer.onCompleted();
+        }
+      } catch (RuntimeException e) {
+        log.warn("Big key scan of map {} failed", request.getMapName(), e);
+        observer.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+      } finally {
+        scans.release();
+      }
+    });
+  }
+
+  private BigKeysResponse scan(ConcurrentHashMap<Object, Object> map, BigKeysRequest request,
+                               ServerCallStreamObserver<BigKeysResponse> observer) {
+    int count = request.getCount() == 0 ? DEFAULT_COUNT : Math.min(request.getCount(), MAX_COUNT);
+    long maxScanned = request.getMaxScanned() == 0 ? Long.MAX_VALUE : request.getMaxScanned();
+    long entriesPerSecond = request.getEntriesPerSecond() == 0 ? DEFAULT_ENTRIES_PER_SECOND
+                                                               : request.getEntriesPerSecond();
+    long runNanos = TimeUnit.SECONDS.toNanos(1) * RUN_LENGTH / entriesPerSecond;
+    // the smallest of the largest entries found so far first
+    PriorityQueue<Candidate> largest = new PriorityQueue<>(Comparator.comparingLong(Candidate::bytes));
+    long scanned = 0;
+    boolean complete = true;
+    long runStart = System.nanoTime();
+    for (Map.Entry<Object, Object> entry : map.entrySet()) {
+      if (scanned == maxScanned || observer.isCancelled()) {
+        complete = false;
+        break;
+      }
+      scanned++;
+      Object stored = entry.getValue();
+      if (stored instanceof ExpiringValue expiring && expiring.isExpired()) {
+        continue;
+      }
+      Object value = ExpiringValue.unwrap(stored);
+      Candidate candidate = new Candidate(entry.getKey(), MapMemory.sizeOf(entry.getKey()), MapMemory.sizeOf(value),
+                                          value instanceof ChunkedValue);
+      if (largest.size() < count) {
+        largest.add(candidate);
+      } else if (candidate.bytes() > largest.peek().bytes()) {
+        largest.poll();
+        largest.add(candidate);
+      }
+      if (scanned % RUN_LENGTH == 0) {
+        long ahead = runNanos - (System.nanoTime() - runStart);
+        if (ahead > 0) {
+          LockSupport.parkNanos(ahead);
+        }
+        runStart = System.nanoTime();
+      }
+    }
+
+    List<Candidate> found = new ArrayList<>(largest);
+    found.sort(Comparator.comparingLong(Candidate::bytes).reversed());
+    BigKeysResponse.Builder response = BigKeysResponse.newBuilder().setScanned(scanned).setComplete(complete);
+    for (Candidate candidate : found) {
+      response.addKeys(BigKey
+                         .newBuilder()
+                         .setKey(ByteString.copyFrom(serialize(candidate.key())))
+                         .setKeyBytes(candidate.keyBytes())
+                         .setValueBytes(candidate.valueBytes())
+                         .setChunked(candidate.chunked()));
+    }
+    log.debug("Big key scan of map {} read {} entries", request.getMapName(), scanned);
+    return response.build();
+  }
+}
@@ -0,0 +1,60 @@
+package dev.ixixpercent.cache.node;
+
+import dev.ixixpercent.cache.node.cluster.Murmur3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of serialized keys, sized for about 1% false positives at its capacity.
+ *
+ * <p>The bit indexes are derived from two Murmur3 hashes of the key. The client library has the same
+ * implementation to test the filters it downloads.</p>
+ */
+public final class BloomFilter {
+
+  public static final int HASH_COUNT = 7;
+  private static final int BITS_PER_KEY = 10;
+
+  private final AtomicLongArray words;
+  private final long bitCount;
+  private final int capacity;
+
+  /**
+   * @param capacity the number of keys the filter is sized for
+   */
+  public BloomFilter(int capacity) {
+    this.capacity = capacity;
+    this.words = new AtomicLongArray((int) Math.max(1, ((long) capacity * BITS_PER_KEY + 63) / 64));
+    this.bitCount = words.length() * 64L;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public void add(byte[] key) {
+    int h1 = Murmur3.hash32(key, 0);
+    int h2 = Murmur3.hash32(key, h1);
+    for (int i = 0; i < HASH_COUNT; i++) {
+      long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+      long mask = 1L << bit;
+      int word = (int) (bit >>> 6);
+      if ((words.get(word) & mask) == 0) {
+        words.getAndUpdate(word, value -> value | mask);
+      }
+    }
+  }
+
+  /**
+   * @return the bits of the filter as little-endian 64 bits words
+   */
+  public byte[] toByteArray() {
+    ByteBuffer buffer = ByteBuffer.allocate(words.length() * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < words.length(); i++) {
+      buffer.putLong(words.get(i));
+    }
+    return buffer.array();
+  }
+}
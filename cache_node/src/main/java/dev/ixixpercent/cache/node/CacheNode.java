@@ -1,25 +1,131 @@
 package dev.ixixpercent.cache.node;
 
+import dev.ixixpercent.cache.node.cluster.ClusterMembership;
+import dev.ixixpercent.cache.node.cluster.ClusterServiceImpl;
+import dev.ixixpercent.cache.node.cluster.PartitionMigrator;
+import dev.ixixpercent.cache.node.cluster.PeerChannels;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class CacheNode {
 
   private final int port;
   private final Server server;
+  private final CacheServiceImpl cacheService;
+  private final EventLoopGroup bossGroup;
+  private final EventLoopGroup workerGroup;
+  // null when gRPC manages the executor or calls run on the event loop
+  private final ExecutorService executor;
+  private final PeerChannels peers = new PeerChannels();
+  private final ClusterMembership membership;
+  private final PartitionMigrator migrator;
 
   public CacheNode(int port) {
-    this.port = port;
-    this.server = ServerBuilder.forPort(port).addService(new CacheServiceImpl()).build();
+    this(new CacheNodeSettings.Builder().withPort(port).build());
+  }
+
+  public CacheNode(CacheNodeSettings settings) {
+    this.port = settings.getPort();
+    this.cacheService = new CacheServiceImpl(settings.getHotKeys(), settings.getHotKeyReadsPerSecond(),
+                                             settings.getColdTierDirectory(), settings.getMaxHotEntries(),
+                                             settings.getColdSegmentBytes(), settings.getStorageShards());
+    this.membership = new ClusterMembership(settings.getAdvertisedAddress(), settings.getSeeds(),
+                                            settings.getPartitions(), settings.getGossipIntervalMillis(),
+                                            settings.getFailureTimeoutMillis(), peers);
+    this.migrator = new PartitionMigrator(membership, cacheService.getMaps(), cacheService.getLongMaps(),
+                                          cacheService.getColdTier(), peers, settings.getMigrationEntriesPerSecond());
+    NettyServerBuilder builder = NettyServerBuilder.forPort(port);
+    RequestEventInterceptor requestEvents = new RequestEventInterceptor(cacheService.getMapHandles());
+    if (settings.getSpanExporter() != null) {
+      TracingServerInterceptor tracing = new TracingServerInterceptor(settings.getAdvertisedAddress(),
+                                                                      cacheService.getMapHandles(),
+                                                                      settings.getSpanExporter());
+      builder.addStreamTracerFactory(tracing.streamTracerFactory())
+        .addService(ServerInterceptors.intercept(cacheService, requestEvents, tracing));
+    } else {
+      builder.addService(ServerInterceptors.intercept(cacheService, requestEvents));
+    }
+    builder.addService(new ClusterServiceImpl(membership));
+
+    if (useEpoll(settings.getTransportType())) {
+      bossGroup = new EpollEventLoopGroup(settings.getBossThreads());
+      workerGroup = new EpollEventLoopGroup(settings.getWorkerThreads());
+      builder.channelType(EpollServerSocketChannel.class);
+    } else {
+      bossGroup = new NioEventLoopGroup(settings.getBossThreads());
+      workerGroup = new NioEventLoopGroup(settings.getWorkerThreads());
+      builder.channelType(NioServerSocketChannel.class);
+    }
+    builder.bossEventLoopGroup(bossGroup).workerEventLoopGroup(workerGroup);
+
+    executor = switch (settings.getExecutorType()) {
+      case CACHED -> null;
+      case VIRTUAL -> Executors.newVirtualThreadPerTaskExecutor();
+      case FIXED -> Executors.newFixedThreadPool(settings.getExecutorThreads(),
+                                                 Thread.ofPlatform().name("cache-node-", 0).daemon(true).factory());
+      case DIRECT -> {
+        // runs the handlers on the event loop without a thread hop, a handler that blocks stalls every connection of
+        // the loop: the settings refuse it with the cold tier, whose reads hit the files, and with seeds, whose
+        // migrations hand entries over in bulk, and the batches still wait for the lock of their hash tag
+        builder.directExecutor();
+        yield null;
+      }
+    };
+    if (executor != null) {
+      builder.executor(executor);
+    }
+
+    this.server = builder
+      .keepAliveTime(settings.getKeepAliveTimeSeconds(), TimeUnit.SECONDS)
+      .keepAliveTimeout(settings.getKeepAliveTimeoutSeconds(), TimeUnit.SECONDS)
+      .permitKeepAliveTime(settings.getPermitKeepAliveTimeSeconds(), TimeUnit.SECONDS)
+      .permitKeepAliveWithoutCalls(true)
+      .maxConcurrentCallsPerConnection(settings.getMaxConcurrentStreams())
+      .maxInboundMessageSize(settings.getMaxInboundMessageSize())
+      .flowControlWindow(settings.getFlowControlWindow())
+      .build();
+    log.info("Created server with {}", settings);
+  }
+
+  private static boolean useEpoll(CacheNodeSettings.TransportType transportType) {
+    return switch (transportType) {
+      case NIO -> false;
+      case AUTO -> {
+        if (!Epoll.isAvailable()) {
+          log.info("Native epoll transport not available, using NIO: {}", Epoll.unavailabilityCause().getMessage());
+        }
+        yield Epoll.isAvailable();
+      }
+      case EPOLL -> {
+        if (!Epoll.isAvailable()) {
+          throw new IllegalStateException("Native epoll transport not available", Epoll.unavailabilityCause());
+        }
+        yield true;
+      }
+    };
   }
 
   public void start() throws IOException {
     server.start();
     log.info("Server started, listening on {}", port);
+    migrator.start();
+    membership.addListener(table -> cacheService.ownershipChanged());
+    membership.start();
 
     // Add shutdown hook
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -30,9 +136,25 @@ public class CacheNode {
   }
 
   public void stop() {
+    // hand the partitions over while the server still answers the clients that have not noticed yet
+    membership.leave();
+    migrator.drain(20, TimeUnit.SECONDS);
+    peers.closeAll();
     if (server != null) {
       server.shutdown();
+      try {
+        server.awaitTermination(30, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    // the event loops and executor are owned by the node, the server does not release them
+    bossGroup.shutdownGracefully();
+    workerGroup.shutdownGracefully();
+    if (executor != null) {
+      executor.shutdown();
     }
+    cacheService.close();
   }
 
   // Await termination on the main thread since the grpc library uses daemon threads.
@@ -44,12 +166,14 @@ public class CacheNode {
 
   public static void main(String[] args) throws IOException, InterruptedException {
     if (args.length < 1) {
-      log.error("Usage: CacheNode <port>");
+      log.error("Usage: CacheNode <port> [--name=value ...]");
       System.exit(1);
     }
 
     int port = Integer.parseInt(args[0]);
-    CacheNode server = new CacheNode(port);
+    CacheNodeSettings settings =
+      CacheNodeSettings.fromArgs(port, Arrays.copyOfRange(args, 1, args.length), System.getenv());
+    CacheNode server = new CacheNode(settings);
 
     server.start();
     server.blockUntilShutdown();
@@ -0,0 +1,447 @@
+package dev.ixixpercent.cache.node;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Server profile of a cache node: threading, transport and HTTP/2 tuning of the gRPC server, membership in the
+ * cluster and storage tiers.
+ *
+ * <p>Every setting can be given as a {@code --name=value} command line argument or as an environment variable
+ * named after it in upper snake case, the same way the port is passed to the Docker container. Arguments take
+ * precedence over the environment.</p>
+ *
+ * <table>
+ *   <tr><th>Argument</th><th>Environment</th><th>Default</th></tr>
+ *   <tr><td>--executor</td><td>EXECUTOR</td><td>fixed, cached (gRPC unbounded thread pool), virtual or direct (standalone in-memory nodes only)</td></tr>
+ *   <tr><td>--executor-threads</td><td>EXECUTOR_THREADS</td><td>number of cores, used by the fixed executor</td></tr>
+ *   <tr><td>--transport</td><td>TRANSPORT</td><td>auto (epoll when available), epoll or nio</td></tr>
+ *   <tr><td>--boss-threads</td><td>BOSS_THREADS</td><td>1</td></tr>
+ *   <tr><td>--worker-threads</td><td>WORKER_THREADS</td><td>0, Netty default of twice the number of cores</td></tr>
+ *   <tr><td>--keep-alive-time-seconds</td><td>KEEP_ALIVE_TIME_SECONDS</td><td>60</td></tr>
+ *   <tr><td>--keep-alive-timeout-seconds</td><td>KEEP_ALIVE_TIMEOUT_SECONDS</td><td>20</td></tr>
+ *   <tr><td>--permit-keep-alive-time-seconds</td><td>PERMIT_KEEP_ALIVE_TIME_SECONDS</td><td>10</td></tr>
+ *   <tr><td>--max-concurrent-streams</td><td>MAX_CONCURRENT_STREAMS</td><td>1000</td></tr>
+ *   <tr><td>--max-inbound-message-size</td><td>MAX_INBOUND_MESSAGE_SIZE</td><td>4194304 (4 MB)</td></tr>
+ *   <tr><td>--flow-control-window</td><td>FLOW_CONTROL_WINDOW</td><td>1048576 (1 MB)</td></tr>
+ *   <tr><td>--advertised-host</td><td>ADVERTISED_HOST</td><td>localhost, host the other nodes and clients reach this node on</td></tr>
+ *   <tr><td>--seeds</td><td>SEEDS</td><td>none, comma separated host:port of the nodes to join</td></tr>
+ *   <tr><td>--partitions</td><td>PARTITIONS</td><td>271, must be the same on all the nodes</td></tr>
+ *   <tr><td>--gossip-interval-millis</td><td>GOSSIP_INTERVAL_MILLIS</td><td>1000</td></tr>
+ *   <tr><td>--failure-timeout-millis</td><td>FAILURE_TIMEOUT_MILLIS</td><td>5000</td></tr>
+ *   <tr><td>--migration-entries-per-second</td><td>MIGRATION_ENTRIES_PER_SECOND</td><td>10000</td></tr>
+ *   <tr><td>--hot-keys</td><td>HOT_KEYS</td><td>16, hot keys reported per map, 0 to disable the tracking</td></tr>
+ *   <tr><td>--hot-key-reads-per-second</td><td>HOT_KEY_READS_PER_SECOND</td><td>1000, reads making a key hot</td></tr>
+ *   <tr><td>--cold-tier-dir</td><td>COLD_TIER_DIR</td><td>none, directory of the cold tier files, every entry stays in memory without it</td></tr>
+ *   <tr><td>--max-hot-entries</td><td>MAX_HOT_ENTRIES</td><td>1000000, entries in memory above which entries are demoted to the cold tier</td></tr>
+ *   <tr><td>--cold-segment-bytes</td><td>COLD_SEGMENT_BYTES</td><td>67108864 (64 MB), size of a cold tier file</td></tr>
+ *   <tr><td>--storage-shards</td><td>STORAGE_SHARDS</td><td>0, single writer threads applying the writes by key, 0 to write on the threads of the calls</td></tr>
+ *   <tr><td>--span-exporter</td><td>SPAN_EXPORTER</td><td>{@link LoggingSpanExporter}, class receiving the spans of the traced calls, none to ignore the traces</td></tr>
+ * </table>
+ */
+@Getter
+public class CacheNodeSettings {
+
+  public enum ExecutorType {
+    CACHED, VIRTUAL, FIXED, DIRECT
+  }
+
+  public enum TransportType {
+    AUTO, EPOLL, NIO
+  }
+
+  private final int port;
+  private final ExecutorType executorType;
+  private final int executorThreads;
+  private final TransportType transportType;
+  private final int bossThreads;
+  private final int workerThreads;
+  private final long keepAliveTimeSeconds;
+  private final long keepAliveTimeoutSeconds;
+  private final long permitKeepAliveTimeSeconds;
+  private final int maxConcurrentStreams;
+  private final int maxInboundMessageSize;
+  private final int flowControlWindow;
+  private final String advertisedHost;
+  private final List<String> seeds;
+  private final int partitions;
+  private final long gossipIntervalMillis;
+  private final long failureTimeoutMillis;
+  private final int migrationEntriesPerSecond;
+  private final int hotKeys;
+  private final int hotKeyReadsPerSecond;
+  // null when every entry stays in memory
+  private final Path coldTierDirectory;
+  private final long maxHotEntries;
+  private final int coldSegmentBytes;
+  private final int storageShards;
+  // null when the traces of the clients are ignored
+  private final SpanExporter spanExporter;
+
+  private CacheNodeSettings(Builder builder) {
+    this.port = builder.port;
+    this.executorType = builder.executorType;
+    this.executorThreads = builder.executorThreads;
+    this.transportType = builder.transportType;
+    this.bossThreads = builder.bossThreads;
+    this.workerThreads = builder.workerThreads;
+    this.keepAliveTimeSeconds = builder.keepAliveTimeSeconds;
+    this.keepAliveTimeoutSeconds = builder.keepAliveTimeoutSeconds;
+    this.permitKeepAliveTimeSeconds = builder.permitKeepAliveTimeSeconds;
+    this.maxConcurrentStreams = builder.maxConcurrentStreams;
+    this.maxInboundMessageSize = builder.maxInboundMessageSize;
+    this.flowControlWindow = builder.flowControlWindow;
+    this.advertisedHost = builder.advertisedHost;
+    this.seeds = List.copyOf(builder.seeds);
+    this.partitions = builder.partitions;
+    this.gossipIntervalMillis = builder.gossipIntervalMillis;
+    this.failureTimeoutMillis = builder.failureTimeoutMillis;
+    this.migrationEntriesPerSecond = builder.migrationEntriesPerSecond;
+    this.hotKeys = builder.hotKeys;
+    this.hotKeyReadsPerSecond = builder.hotKeyReadsPerSecond;
+    this.coldTierDirectory = builder.coldTierDirectory;
+    this.maxHotEntries = builder.maxHotEntries;
+    this.coldSegmentBytes = builder.coldSegmentBytes;
+    this.storageShards = builder.storageShards;
+    this.spanExporter = builder.spanExporter;
+  }
+
+  /**
+   * @return host:port the other nodes and the clients reach this node on
+   */
+  public String getAdvertisedAddress() {
+    return advertisedHost + ":" + port;
+  }
+
+  /**
+   * Reads the settings from the command line arguments, falling back to the environment.
+   *
+   * @param port the port the node listens on
+   * @param args the arguments following the port, in the form --name=value
+   * @param env  the environment variables
+   * @return the settings
+   * @throws IllegalArgumentException if an argument is malformed or a value is invalid
+   */
+  public static CacheNodeSettings fromArgs(int port, String[] args, Map<String, String> env) {
+    Map<String, String> values = new HashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Invalid argument " + arg + ", expected --name=value");
+      }
+      int separator = arg.indexOf('=');
+      values.put(arg.substring(2, separator), arg.substring(separator + 1));
+    }
+
+    Builder builder = new Builder().withPort(port);
+    String value;
+    if ((value = lookup("executor", values, env)) != null) {
+      builder.withExecutorType(ExecutorType.valueOf(value.toUpperCase(Locale.ROOT)));
+    }
+    if ((value = lookup("executor-threads", values, env)) != null) {
+      builder.withExecutorThreads(Integer.parseInt(value));
+    }
+    if ((value = lookup("transport", values, env)) != null) {
+      builder.withTransportType(TransportType.valueOf(value.toUpperCase(Locale.ROOT)));
+    }
+    if ((value = lookup("boss-threads", values, env)) != null) {
+      builder.withBossThreads(Integer.parseInt(value));
+    }
+    if ((value = lookup("worker-threads", values, env)) != null) {
+      builder.withWorkerThreads(Integer.parseInt(value));
+    }
+    if ((value = lookup("keep-alive-time-seconds", values, env)) != null) {
+      builder.withKeepAliveTimeSeconds(Long.parseLong(value));
+    }
+    if ((value = lookup("keep-alive-timeout-seconds", values, env)) != null) {
+      builder.withKeepAliveTimeoutSeconds(Long.parseLong(value));
+    }
+    if ((value = lookup("permit-keep-alive-time-seconds", values, env)) != null) {
+      builder.withPermitKeepAliveTimeSeconds(Long.parseLong(value));
+    }
+    if ((value = lookup("max-concurrent-streams", values, env)) != null) {
+      builder.withMaxConcurrentStreams(Integer.parseInt(value));
+    }
+    if ((value = lookup("max-inbound-message-size", values, env)) != null) {
+      builder.withMaxInboundMessageSize(Integer.parseInt(value));
+    }
+    if ((value = lookup("flow-control-window", values, env)) != null) {
+      builder.withFlowControlWindow(Integer.parseInt(value));
+    }
+    if ((value = lookup("advertised-host", values, env)) != null) {
+      builder.withAdvertisedHost(value);
+    }
+    if ((value = lookup("seeds", values, env)) != null) {
+      builder.withSeeds(Arrays.stream(value.split(",")).map(String::trim).filter(seed -> !seed.isEmpty()).toList());
+    }
+    if ((value = lookup("partitions", values, env)) != null) {
+      builder.withPartitions(Integer.parseInt(value));
+    }
+    if ((value = lookup("gossip-interval-millis", values, env)) != null) {
+      builder.withGossipIntervalMillis(Long.parseLong(value));
+    }
+    if ((value = lookup("failure-timeout-millis", values, env)) != null) {
+      builder.withFailureTimeoutMillis(Long.parseLong(value));
+    }
+    if ((value = lookup("migration-entries-per-second", values, env)) != null) {
+      builder.withMigrationEntriesPerSecond(Integer.parseInt(value));
+    }
+    if ((value = lookup("hot-keys", values, env)) != null) {
+      builder.withHotKeys(Integer.parseInt(value));
+    }
+    if ((value = lookup("hot-key-reads-per-second", values, env)) != null) {
+      builder.withHotKeyReadsPerSecond(Integer.parseInt(value));
+    }
+    if ((value = lookup("cold-tier-dir", values, env)) != null) {
+      builder.withColdTierDirectory(Path.of(value));
+    }
+    if ((value = lookup("max-hot-entries", values, env)) != null) {
+      builder.withMaxHotEntries(Long.parseLong(value));
+    }
+    if ((value = lookup("cold-segment-bytes", values, env)) != null) {
+      builder.withColdSegmentBytes(Integer.parseInt(value));
+    }
+    if ((value = lookup("storage-shards", values, env)) != null) {
+      builder.withStorageShards(Integer.parseInt(value));
+    }
+    if ((value = lookup("span-exporter", values, env)) != null) {
+      builder.withSpanExporter(value.equalsIgnoreCase("none") ? null : newSpanExporter(value));
+    }
+    return builder.build();
+  }
+
+  private static SpanExporter newSpanExporter(String className) {
+    try {
+      return Class.forName(className).asSubclass(SpanExporter.class).getConstructor().newInstance();
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalArgumentException("Invalid span exporter " + className, e);
+    }
+  }
+
+  private static String lookup(String name, Map<String, String> args, Map<String, String> env) {
+    String value = args.get(name);
+    if (value == null) {
+      value = env.get(name.replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+    return value == null || value.isBlank() ? null : value.trim();
+  }
+
+  @Override
+  public String toString() {
+    return "CacheNodeSettings{port=" + port + ", executor=" + executorType + ", executorThreads=" + executorThreads +
+           ", transport=" + transportType + ", bossThreads=" + bossThreads + ", workerThreads=" + workerThreads +
+           ", keepAliveTimeSeconds=" + keepAliveTimeSeconds + ", keepAliveTimeoutSeconds=" +
+           keepAliveTimeoutSeconds + ", permitKeepAliveTimeSeconds=" + permitKeepAliveTimeSeconds +
+           ", maxConcurrentStreams=" + maxConcurrentStreams + ", maxInboundMessageSize=" + maxInboundMessageSize +
+           ", flowControlWindow=" + flowControlWindow + ", advertisedHost=" + advertisedHost + ", seeds=" + seeds +
+           ", partitions=" + partitions + ", gossipIntervalMillis=" + gossipIntervalMillis +
+           ", failureTimeoutMillis=" + failureTimeoutMillis + ", migrationEntriesPerSecond=" +
+           migrationEntriesPerSecond + ", hotKeys=" + hotKeys + ", hotKeyReadsPerSecond=" + hotKeyReadsPerSecond +
+           ", coldTierDirectory=" + coldTierDirectory + ", maxHotEntries=" + maxHotEntries + ", coldSegmentBytes=" +
+           coldSegmentBytes + ", storageShards=" + storageShards + ", spanExporter=" +
+           (spanExporter == null ? null : spanExporter.getClass().getSimpleName()) + "}";
+  }
+
+  /**
+   * Builder class for constructing instances of CacheNodeSettings.
+   */
+  public static class Builder {
+    private int port;
+    private ExecutorType executorType = ExecutorType.FIXED;
+    private int executorThreads = Runtime.getRuntime().availableProcessors();
+    private TransportType transportType = TransportType.AUTO;
+    private int bossThreads = 1;
+    // 0 lets Netty pick its default
+    private int workerThreads = 0;
+    private long keepAliveTimeSeconds = 60;
+    private long keepAliveTimeoutSeconds = 20;
+    private long permitKeepAliveTimeSeconds = 10;
+    private int maxConcurrentStreams = 1000;
+    private int maxInboundMessageSize = 4 * 1024 * 1024;
+    private int flowControlWindow = 1024 * 1024;
+    private String advertisedHost = "localhost";
+    private List<String> seeds = List.of();
+    private int partitions = 271;
+    private long gossipIntervalMillis = 1000;
+    private long failureTimeoutMillis = 5000;
+    private int migrationEntriesPerSecond = 10000;
+    private int hotKeys = 16;
+    private int hotKeyReadsPerSecond = 1000;
+    private Path coldTierDirectory;
+    private long maxHotEntries = 1_000_000;
+    private int coldSegmentBytes = 64 * 1024 * 1024;
+    private int storageShards = 0;
+    private SpanExporter spanExporter = new LoggingSpanExporter();
+
+    public Builder withPort(int port) {
+      this.port = port;
+      return this;
+    }
+
+    public Builder withExecutorType(ExecutorType executorType) {
+      this.executorType = executorType;
+      return this;
+    }
+
+    public Builder withExecutorThreads(int executorThreads) {
+      this.executorThreads = executorThreads;
+      return this;
+    }
+
+    public Builder withTransportType(TransportType transportType) {
+      this.transportType = transportType;
+      return this;
+    }
+
+    public Builder withBossThreads(int bossThreads) {
+      this.bossThreads = bossThreads;
+      return this;
+    }
+
+    public Builder withWorkerThreads(int workerThreads) {
+      this.workerThreads = workerThreads;
+      return this;
+    }
+
+    public Builder withKeepAliveTimeSeconds(long keepAliveTimeSeconds) {
+      this.keepAliveTimeSeconds = keepAliveTimeSeconds;
+      return this;
+    }
+
+    public Builder withKeepAliveTimeoutSeconds(long keepAliveTimeoutSeconds) {
+      this.keepAliveTimeoutSeconds = keepAliveTimeoutSeconds;
+      return this;
+    }
+
+    public Builder withPermitKeepAliveTimeSeconds(long permitKeepAliveTimeSeconds) {
+      this.permitKeepAliveTimeSeconds = permitKeepAliveTimeSeconds;
+      return this;
+    }
+
+    public Builder withMaxConcurrentStreams(int maxConcurrentStreams) {
+      this.maxConcurrentStreams = maxConcurrentStreams;
+      return this;
+    }
+
+    public Builder withMaxInboundMessageSize(int maxInboundMessageSize) {
+      this.maxInboundMessageSize = maxInboundMessageSize;
+      return this;
+    }
+
+    public Builder withFlowControlWindow(int flowControlWindow) {
+      this.flowControlWindow = flowControlWindow;
+      return this;
+    }
+
+    public Builder withAdvertisedHost(String advertisedHost) {
+      this.advertisedHost = advertisedHost;
+      return this;
+    }
+
+    public Builder withSeeds(List<String> seeds) {
+      this.seeds = seeds;
+      return this;
+    }
+
+    public Builder withPartitions(int partitions) {
+      this.partitions = partitions;
+      return this;
+    }
+
+    public Builder withGossipIntervalMillis(long gossipIntervalMillis) {
+      this.gossipIntervalMillis = gossipIntervalMillis;
+      return this;
+    }
+
+    public Builder withFailureTimeoutMillis(long failureTimeoutMillis) {
+      this.failureTimeoutMillis = failureTimeoutMillis;
+      return this;
+    }
+
+    public Builder withMigrationEntriesPerSecond(int migrationEntriesPerSecond) {
+      this.migrationEntriesPerSecond = migrationEntriesPerSecond;
+      return this;
+    }
+
+    public Builder withHotKeys(int hotKeys) {
+      this.hotKeys = hotKeys;
+      return this;
+    }
+
+    public Builder withHotKeyReadsPerSecond(int hotKeyReadsPerSecond) {
+      this.hotKeyReadsPerSecond = hotKeyReadsPerSecond;
+      return this;
+    }
+
+    public Builder withColdTierDirectory(Path coldTierDirectory) {
+      this.coldTierDirectory = coldTierDirectory;
+      return this;
+    }
+
+    public Builder withMaxHotEntries(long maxHotEntries) {
+      this.maxHotEntries = maxHotEntries;
+      return this;
+    }
+
+    public Builder withColdSegmentBytes(int coldSegmentBytes) {
+      this.coldSegmentBytes = coldSegmentBytes;
+      return this;
+    }
+
+    public Builder withStorageShards(int storageShards) {
+      this.storageShards = storageShards;
+      return this;
+    }
+
+    public Builder withSpanExporter(SpanExporter spanExporter) {
+      this.spanExporter = spanExporter;
+      return this;
+    }
+
+    /**
+     * Builds a new CacheNodeSettings instance with the provided configuration.
+     *
+     * @return a new CacheNodeSettings instance
+     * @throws IllegalArgumentException if a value is out of range
+     */
+    public CacheNodeSettings build() {
+      if (port < 0 || port > 65535) {
+        throw new IllegalArgumentException("Invalid port " + port);
+      }
+      if (executorThreads <= 0 || bossThreads <= 0 || workerThreads < 0) {
+        throw new IllegalArgumentException("Thread counts must be positive");
+      }
+      if (maxConcurrentStreams <= 0 || maxInboundMessageSize <= 0 || flowControlWindow <= 0) {
+        throw new IllegalArgumentException("Stream and message limits must be positive");
+      }
+      if (advertisedHost == null || advertisedHost.isBlank() || seeds == null) {
+        throw new IllegalArgumentException("Advertised host and seeds are required");
+      }
+      if (partitions <= 0 || migrationEntriesPerSecond <= 0) {
+        throw new IllegalArgumentException("Partitions and migration rate must be positive");
+      }
+      if (gossipIntervalMillis <= 0 || failureTimeoutMillis <= gossipIntervalMillis) {
+        throw new IllegalArgumentException("Failure timeout must be longer than the gossip interval");
+      }
+      if (hotKeys < 0 || hotKeyReadsPerSecond <= 0) {
+        throw new IllegalArgumentException("Hot key count must not be negative and its read rate must be positive");
+      }
+      if (maxHotEntries <= 0 || coldSegmentBytes <= 0) {
+        throw new IllegalArgumentException("Maximum hot entries and cold segment size must be positive");
+      }
+      if (storageShards < 0) {
+        throw new IllegalArgumentException("Storage shards must not be negative");
+      }
+      if (executorType == ExecutorType.DIRECT && (coldTierDirectory != null || !seeds.isEmpty())) {
+        throw new IllegalArgumentException("The direct executor blocks the event loop on the cold tier files and the "
+                                           + "migrations, it is only allowed without a cold tier and seeds");
+      }
+      return new CacheNodeSettings(this);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package dev.ixixpercent.cache.node;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A call of a client handled by the node, from its start to the status sent back.
+ */
+@Name("dev.ixixpercent.cache.node.Request")
+@Label("Cache Request")
+@Category({"IxIx Cache", "Node"})
+@Description("A call of a client handled by the node")
+@Threshold("1 ms")
+@StackTrace(false)
+class CacheRequestEvent extends Event {
+
+  @Label("Method")
+  String method;
+
+  @Label("Map Name")
+  @Description("The map named or opened by the first message of the call, null when it names none")
+  String mapName;
+
+  @Label("Request Size")
+  @Description("Bytes of the messages received")
+  @DataAmount
+  long requestBytes;
+
+  @Label("Response Size")
+  @Description("Bytes of the messages sent")
+  @DataAmount
+  long responseBytes;
+
+  @Label("Status")
+  String status;
+}
@@ -1,122 +1,590 @@
 package dev.ixixpercent.cache.node;
 
-import com.esotericsoftware.kryo.Kryo;
 import com.google.protobuf.ByteString;
 import dev.ixixpercent.cache.grpc.CacheServiceGrpc;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BatchOperation;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BatchRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BatchResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BatchResult;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BigKeysRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.BigKeysResponse;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.ClearRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.ClearResponse;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.ContainsKeyRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.ContainsKeyResponse;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.Entry;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEventBatch;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEventType;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.GetAllRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.GetAllResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GetChunk;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GetLongRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.GetRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.GetResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GetResponseV2;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.HotKeysRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.HotKeysResponse;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.IsEmptyRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.IsEmptyResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.KeyRequestV2;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.KeyFilterRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.KeyFilterResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.LongEntry;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.MemoryStatsRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.MemoryStatsResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.OpenMapRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.OpenMapResponse;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.PutAllRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutAllLongRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.PutAllResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutChunk;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutLongRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.PutRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutRequestV2;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.PutResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.RemoveLongRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.RemoveRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.RemoveResponse;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.SizeRequest;
 import dev.ixixpercent.cache.grpc.CacheServiceProto.SizeResponse;
-import dev.ixixpercent.cache.node.serialization.KryoPoolUtil;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.SubscribeRequest;
+import dev.ixixpercent.cache.node.cluster.PartitionTable;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static dev.ixixpercent.cache.node.serialization.KryoSerializer.deserialize;
+import static dev.ixixpercent.cache.node.serialization.KryoSerializer.serialize;
 
 @Slf4j
 public class CacheServiceImpl extends CacheServiceGrpc.CacheServiceImplBase {
 
   private final Map<String, ConcurrentHashMap<Object, Object>> maps = new ConcurrentHashMap<>();
+  private final Map<String, LongKeyTable> longMaps = new ConcurrentHashMap<>();
+  // null when the node keeps every entry in memory
+  private final ColdTier coldTier;
+  // null when the writes run on the threads of the calls
+  private final StorageShards shards;
+  private final KeyFilters keyFilters;
+  private final Map<String, HotKeyTracker> hotKeyTrackers = new ConcurrentHashMap<>();
+  private final MapHandles mapHandles = new MapHandles();
+  private final HashTagLocks hashTagLocks = new HashTagLocks();
+  private final EntryEventHub entryEvents = new EntryEventHub();
+  private final BigKeySampler bigKeySampler = new BigKeySampler();
+  private final RemovedKeys removedKeys = new RemovedKeys();
+  private final RemovedKeys removedLongKeys = new RemovedKeys();
+  private final ExpirySweeper expirySweeper;
+  // 0 when the hot keys are not tracked
+  private final int maxHotKeys;
+  private final int hotKeyReadsPerSecond;
+
+  /**
+   * @param maxHotKeys           the number of hot keys reported per map, 0 to disable the tracking
+   * @param hotKeyReadsPerSecond the reads per second making a key hot
+   */
+  public CacheServiceImpl(int maxHotKeys, int hotKeyReadsPerSecond) {
+    this(maxHotKeys, hotKeyReadsPerSecond, null, 0, 0, 0);
+  }
+
+  /**
+   * @param maxHotKeys           the number of hot keys reported per map, 0 to disable the tracking
+   * @param hotKeyReadsPerSecond the reads per second making a key hot
+   * @param coldTierDirectory    the directory of the cold tier files, null to keep every entry in memory
+   * @param maxHotEntries        the entries kept in memory above which entries are demoted to the cold tier
+   * @param coldSegmentBytes     the size of a cold tier file
+   * @param storageShards        the number of single writer shards, 0 to write on the threads of the calls
+   */
+  public CacheServiceImpl(int maxHotKeys, int hotKeyReadsPerSecond, Path coldTierDirectory, long maxHotEntries,
+                          int coldSegmentBytes, int storageShards) {
+    this.maxHotKeys = maxHotKeys;
+    this.shards = storageShards == 0 ? null : new StorageShards(storageShards);
+    this.hotKeyReadsPerSecond = hotKeyReadsPerSecond;
+    this.coldTier = coldTierDirectory == null ? null
+                                              : new ColdTier(coldTierDirectory, coldSegmentBytes, maxHotEntries, maps);
+    this.keyFilters = new KeyFilters(maps, coldTier);
+    this.expirySweeper = new ExpirySweeper(maps, longMaps, coldTier, entryEvents);
+    expirySweeper.start();
+  }
+
+  /**
+   * @return the cold tier of the maps, null when the node keeps every entry in memory
+   */
+  ColdTier getColdTier() {
+    return coldTier;
+  }
+
+  /**
+   * Stops the expiry sweep, ends the entry event streams, stops the storage shards and deletes the files of the cold
+   * tier.
+   */
+  void close() {
+    expirySweeper.close();
+    entryEvents.close();
+    if (shards != null) {
+      shards.close();
+    }
+    if (coldTier != null) {
+      coldTier.close();
+    }
+  }
+
+  /**
+   * Remembers the keys the clients remove for a while, so that the entries still migrated to the node do not bring
+   * them back. Called when the partition table changes.
+   */
+  void ownershipChanged() {
+    removedKeys.ownershipChanged();
+    removedLongKeys.ownershipChanged();
+  }
+
+  /**
+   * @return the handles given for the map names
+   */
+  MapHandles getMapHandles() {
+    return mapHandles;
+  }
+
+  /**
+   * @return the maps held by the node, by name
+   */
+  Map<String, ConcurrentHashMap<Object, Object>> getMaps() {
+    return maps;
+  }
+
+  /**
+   * @return the maps keyed by primitive longs held by the node, by name
+   */
+  Map<String, LongKeyTable> getLongMaps() {
+    return longMaps;
+  }
+
+  private LongKeyTable getLongMap(String mapName) {
+    return longMaps.computeIfAbsent(mapName, k -> new LongKeyTable());
+  }
+
+  /**
+   * Returns the map of the given name, creating it. Only the writes create maps, the reads of a map nothing was
+   * written to see it empty.
+   */
+  private ConcurrentHashMap<Object, Object> getMap(String mapName) {
+    return maps.computeIfAbsent(mapName, k -> new AccountedMap());
+  }
+
+  /**
+   * Returns the name of the map a v2 call is made on, or null after failing the call with NOT_FOUND when the handle
+   * is unknown, which tells the client to open the map again.
+   */
+  private String mapNameOf(long handle, StreamObserver<?> responseObserver) {
+    String mapName = mapHandles.nameOf(handle);
+    if (mapName == null) {
+      responseObserver.onError(Status.NOT_FOUND.withDescription("Unknown map handle " + handle).asRuntimeException());
+    }
+    return mapName;
+  }
 
-  private byte[] serialize(Object obj) {
-    Kryo kryo = KryoPoolUtil.borrowKryo();
-    try (com.esotericsoftware.kryo.io.Output output = new com.esotericsoftware.kryo.io.Output(4096, -1)) {
-      kryo.writeClassAndObject(output, obj);
-      return output.toBytes();
-    } catch (Exception e) {
-      throw new RuntimeException("Serialization error", e);
+  /**
+   * Counts a read and returns the version of the hot keys of the map, 0 when they are not tracked.
+   */
+  private int recordRead(String mapName, ByteString key) {
+    if (maxHotKeys == 0) {
+      return 0;
+    }
+    HotKeyTracker tracker =
+      hotKeyTrackers.computeIfAbsent(mapName, k -> new HotKeyTracker(maxHotKeys, hotKeyReadsPerSecond));
+    tracker.recordRead(key);
+    return tracker.getVersion();
+  }
+
+  /**
+   * Returns the object stored for a key, promoting it from the cold tier, and removing it when it has expired.
+   */
+  private Object getLive(String mapName, ConcurrentHashMap<Object, Object> map, Object key) {
+    Object stored = coldTier == null ? map.get(key) : coldTier.get(mapName, map, key);
+    if (stored instanceof ExpiringValue expiring && expiring.isExpired()) {
+      if (map.remove(key, stored) && entryEvents.hasSubscribers(mapName)) {
+        entryEvents.publish(mapName, EntryEventType.EXPIRED, key, null, expiring.value());
+      }
+      return null;
+    }
+    return stored;
+  }
+
+  /**
+   * Writes the object stored for a key, under the lock of its hash tag so that it does not land in the middle of a
+   * batch.
+   */
+  private void store(String mapName, ConcurrentHashMap<Object, Object> map, Object key, Object stored) {
+    Consumer<Object> onPrevious = !entryEvents.hasSubscribers(mapName) ? null : previous -> {
+      Object oldValue = ExpiringValue.unwrap(previous);
+      entryEvents.publish(mapName, oldValue == null ? EntryEventType.CREATED : EntryEventType.UPDATED, key,
+                          ExpiringValue.unwrap(stored), oldValue);
+    };
+    ReentrantLock lock = hashTagLocks.ofKey(key);
+    if (lock != null) {
+      lock.lock();
+    }
+    try {
+      if (coldTier != null) {
+        coldTier.put(mapName, map, key, stored, onPrevious);
+      } else if (onPrevious == null) {
+        map.put(key, stored);
+      } else {
+        map.compute(key, (k, previous) -> {
+          onPrevious.accept(previous);
+          return stored;
+        });
+      }
     } finally {
-      KryoPoolUtil.releaseKryo(kryo);
+      if (lock != null) {
+        lock.unlock();
+      }
     }
   }
 
-  private Object deserialize(byte[] bytes) {
-    Kryo kryo = KryoPoolUtil.borrowKryo();
-    try (com.esotericsoftware.kryo.io.Input input = new com.esotericsoftware.kryo.io.Input(bytes)) {
-      return kryo.readClassAndObject(input);
-    } catch (Exception e) {
-      throw new RuntimeException("Deserialization error", e);
+  /**
+   * Writes an entry moved from another node, unless the key has a value here or was removed since the partition
+   * table changed: the clients already write the key to this node, and their writes are newer than the entry. The
+   * migrated entries are not changes for the entry listeners.
+   */
+  private void storeMigrated(String mapName, ConcurrentHashMap<Object, Object> map, Object key, Object stored) {
+    ReentrantLock lock = hashTagLocks.ofKey(key);
+    if (lock != null) {
+      lock.lock();
+    }
+    try {
+      removedKeys.unlessRemoved(mapName, key, () -> {
+        if (coldTier != null) {
+          coldTier.putIfAbsent(mapName, map, key, stored);
+        } else {
+          map.putIfAbsent(key, stored);
+        }
+      });
     } finally {
-      KryoPoolUtil.releaseKryo(kryo);
+      if (lock != null) {
+        lock.unlock();
+      }
     }
   }
 
-  private ConcurrentHashMap<Object, Object> getMap(String mapName) {
-    log.trace("Getting map {}", mapName);
-    return maps.computeIfAbsent(mapName, k -> new ConcurrentHashMap<>());
+  private void delete(String mapName, ConcurrentHashMap<Object, Object> map, Object key) {
+    Consumer<Object> onPrevious = !entryEvents.hasSubscribers(mapName) ? null : previous -> {
+      // an expired entry was already gone for the clients
+      Object oldValue = ExpiringValue.unwrap(previous);
+      if (oldValue != null) {
+        entryEvents.publish(mapName, EntryEventType.REMOVED, key, null, oldValue);
+      }
+    };
+    ReentrantLock lock = hashTagLocks.ofKey(key);
+    if (lock != null) {
+      lock.lock();
+    }
+    try {
+      removedKeys.remove(mapName, key, () -> {
+        if (coldTier != null) {
+          coldTier.remove(mapName, map, key, onPrevious);
+        } else if (onPrevious == null) {
+          map.remove(key);
+        } else {
+          map.computeIfPresent(key, (k, previous) -> {
+            onPrevious.accept(previous);
+            return null;
+          });
+        }
+      });
+    } finally {
+      if (lock != null) {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Runs a write on the shard of its key, or right away when the storage is not sharded. The write responds to the
+   * call itself.
+   */
+  private void write(ByteString key, StreamObserver<?> responseObserver, Runnable write) {
+    if (shards == null) {
+      write.run();
+    } else {
+      shards.execute(shards.shardOf(key), write, e -> fail(responseObserver, e));
+    }
+  }
+
+  private static void fail(StreamObserver<?> responseObserver, RuntimeException e) {
+    responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).withCause(e).asRuntimeException());
+  }
+
+  /**
+   * Splits the keys of a multi-key call by storage shard.
+   *
+   * @return the items of every shard, empty lists for the shards without any
+   */
+  private <T> List<List<T>> byShard(List<T> items, Function<T, ByteString> keyOf) {
+    List<List<T>> result = new ArrayList<>(shards.count());
+    for (int i = 0; i < shards.count(); i++) {
+      result.add(new ArrayList<>());
+    }
+    for (T item : items) {
+      result.get(shards.shardOf(keyOf.apply(item))).add(item);
+    }
+    return result;
+  }
+
+  private int sizeOf(String mapName, ConcurrentHashMap<Object, Object> map) {
+    return map.size() + (coldTier == null ? 0 : coldTier.size(mapName));
   }
 
   @Override
   public void get(GetRequest request, StreamObserver<GetResponse> responseObserver) {
     String mapName = request.getMapName();
-    ConcurrentHashMap<Object, Object> map = getMap(mapName);
-
-    Object key = deserialize(request.getKey().toByteArray());
-    Object value = map.get(key);
+    ConcurrentHashMap<Object, Object> map = maps.get(mapName);
 
-    log.trace("Getting key [{}] and value [{}]", key, value);
+    GetResponse.Builder responseBuilder = GetResponse.newBuilder();
+    Object stored = map == null ? null : getLive(mapName, map, deserialize(request.getKey().toByteArray()));
+    Object value = ExpiringValue.unwrap(stored);
     if (value != null) {
-      byte[] serializedValue = serialize(value);
-      GetResponse response = GetResponse.newBuilder().setValue(ByteString.copyFrom(serializedValue)).build();
-      responseObserver.onNext(response);
-    } else {
-      responseObserver.onNext(null);
+      responseBuilder
+        .setValue(ByteString.copyFrom(serialize(value)))
+        .setTtlMillis(ExpiringValue.ttlMillisOf(stored))
+        .setHotKeysVersion(recordRead(mapName, request.getKey()));
     }
+    responseObserver.onNext(responseBuilder.build());
     responseObserver.onCompleted();
   }
 
   @Override
-  public void put(PutRequest request, StreamObserver<PutResponse> responseObserver) {
+  public void openMap(OpenMapRequest request, StreamObserver<OpenMapResponse> responseObserver) {
+    OpenMapResponse response = OpenMapResponse.newBuilder().setHandle(mapHandles.open(request.getMapName())).build();
+    responseObserver.onNext(response);
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void getV2(KeyRequestV2 request, StreamObserver<GetResponseV2> responseObserver) {
+    String mapName = mapNameOf(request.getMap(), responseObserver);
+    if (mapName == null) {
+      return;
+    }
+    ConcurrentHashMap<Object, Object> map = maps.get(mapName);
+
+    GetResponseV2.Builder responseBuilder = GetResponseV2.newBuilder();
+    Object stored = map == null ? null : getLive(mapName, map, deserialize(request.getKey().toByteArray()));
+    Object value = ExpiringValue.unwrap(stored);
+    if (value instanceof ChunkedValue) {
+      // too large for this response, the client reads it with getChunked
+      responseBuilder
+        .setFound(true)
+        .setChunked(true)
+        .setTtlMillis(ExpiringValue.ttlMillisOf(stored))
+        .setHotKeysVersion(recordRead(mapName, request.getKey()));
+    } else if (value != null) {
+      responseBuilder
+        .setFound(true)
+        .setValue(ByteString.copyFrom(serialize(value)))
+        .setTtlMillis(ExpiringValue.ttlMillisOf(stored))
+        .setHotKeysVersion(recordRead(mapName, request.getKey()));
+    }
+    responseObserver.onNext(responseBuilder.build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Streams a value stored in chunks, as fast as the client reads them. A value stored whole is sent in one chunk.
+   */
+  @Override
+  public void getChunked(GetRequest request, StreamObserver<GetChunk> responseObserver) {
     String mapName = request.getMapName();
-    ConcurrentHashMap<Object, Object> map = getMap(mapName);
+    ConcurrentHashMap<Object, Object> map = maps.get(mapName);
+    Object stored = map == null ? null : getLive(mapName, map, deserialize(request.getKey().toByteArray()));
+    Object value = ExpiringValue.unwrap(stored);
+    if (value == null) {
+      responseObserver.onNext(GetChunk.newBuilder().setFound(false).build());
+      responseObserver.onCompleted();
+      return;
+    }
+    List<ByteString> chunks = value instanceof ChunkedValue chunked
+                              ? chunked.chunks()
+                              // the clients store the JSON strings of their values
+                              : List.of(ByteString.copyFromUtf8(String.valueOf(value)));
+    GetChunk first = GetChunk
+      .newBuilder()
+      .setFound(true)
+      .setTtlMillis(ExpiringValue.ttlMillisOf(stored))
+      .setHotKeysVersion(recordRead(mapName, request.getKey()))
+      .setData(chunks.isEmpty() ? ByteString.EMPTY : chunks.get(0))
+      .build();
+    ServerCallStreamObserver<GetChunk> observer = (ServerCallStreamObserver<GetChunk>) responseObserver;
+    Runnable sendWhileReady = new Runnable() {
+      private int next = 0;
+
+      @Override
+      public synchronized void run() {
+        while (next <= chunks.size() && observer.isReady() && !observer.isCancelled()) {
+          if (next == 0) {
+            observer.onNext(first);
+          } else if (next < chunks.size()) {
+            observer.onNext(GetChunk.newBuilder().setData(chunks.get(next)).build());
+          } else {
+            observer.onCompleted();
+          }
+          next++;
+        }
+      }
+    };
+    observer.setOnReadyHandler(sendWhileReady);
+    sendWhileReady.run();
+  }
 
-    Object key = deserialize(request.getKey().toByteArray());
-    Object value = deserialize(request.getValue().toByteArray());
+  @Override
+  public void putV2(PutRequestV2 request, StreamObserver<PutResponse> responseObserver) {
+    String mapName = mapNameOf(request.getMap(), responseObserver);
+    if (mapName == null) {
+      return;
+    }
+    ConcurrentHashMap<Object, Object> map = getMap(mapName);
 
-    log.trace("Putting key [{}] and value [{}]", key, value);
-    map.put(key, value);
+    write(request.getKey(), responseObserver, () -> {
+      Object key = deserialize(request.getKey().toByteArray());
+      Object value = deserialize(request.getValue().toByteArray());
+      store(mapName, map, key, ExpiringValue.wrap(value, request.getTtlMillis()));
+      keyFilters.add(mapName, request.getKey().toByteArray());
 
-    PutResponse response = PutResponse.newBuilder().build();
-    responseObserver.onNext(response);
-    responseObserver.onCompleted();
+      responseObserver.onNext(PutResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    });
   }
 
   @Override
-  public void remove(RemoveRequest request, StreamObserver<RemoveResponse> responseObserver) {
-    String mapName = request.getMapName();
+  public void removeV2(KeyRequestV2 request, StreamObserver<RemoveResponse> responseObserver) {
+    String mapName = mapNameOf(request.getMap(), responseObserver);
+    if (mapName == null) {
+      return;
+    }
+    // the key may not be here yet, its entry still being migrated
     ConcurrentHashMap<Object, Object> map = getMap(mapName);
 
-    Object key = deserialize(request.getKey().toByteArray());
-    map.remove(key);
+    write(request.getKey(), responseObserver, () -> {
+      delete(mapName, map, deserialize(request.getKey().toByteArray()));
 
-    RemoveResponse response = RemoveResponse.newBuilder().build();
-    responseObserver.onNext(response);
+      responseObserver.onNext(RemoveResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    });
+  }
+
+  @Override
+  public void containsKeyV2(KeyRequestV2 request, StreamObserver<ContainsKeyResponse> responseObserver) {
+    String mapName = mapNameOf(request.getMap(), responseObserver);
+    if (mapName == null) {
+      return;
+    }
+    ConcurrentHashMap<Object, Object> map = maps.get(mapName);
+    boolean exists = map != null && getLive(mapName, map, deserialize(request.getKey().toByteArray())) != null;
+
+    responseObserver.onNext(ContainsKeyResponse.newBuilder().setExists(exists).build());
     responseObserver.onCompleted();
   }
 
+  /**
+   * Receives a value in chunks, stored as they arrive once the last one is received. The entry is described by the
+   * first chunk.
+   */
   @Override
-  public void containsKey(ContainsKeyRequest request, StreamObserver<ContainsKeyResponse> responseObserver) {
+  public StreamObserver<PutChunk> putChunked(StreamObserver<PutResponse> responseObserver) {
+    return new StreamObserver<>() {
+      // null until the first chunk is received
+      private PutChunk first;
+      private final List<ByteString> chunks = new ArrayList<>();
+      private long size;
+
+      @Override
+      public void onNext(PutChunk chunk) {
+        if (first == null) {
+          first = chunk;
+        }
+        chunks.add(chunk.getData());
+        size += chunk.getData().size();
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        log.debug("Chunked put abandoned after {} bytes: {}", size, t.getMessage());
+      }
+
+      @Override
+      public void onCompleted() {
+        if (first == null || first.getMapName().isEmpty()) {
+          responseObserver.onError(
+            Status.INVALID_ARGUMENT.withDescription("The first chunk must name the map and key").asRuntimeException());
+          return;
+        }
+        String mapName = first.getMapName();
+        ConcurrentHashMap<Object, Object> map = getMap(mapName);
+        ChunkedValue value = new ChunkedValue(List.copyOf(chunks), size);
+        write(first.getKey(), responseObserver, () -> {
+          Object key = deserialize(first.getKey().toByteArray());
+          log.trace("Putting key [{}] and a value of {} bytes in {} chunks", key, size, chunks.size());
+          if (first.getMigration()) {
+            storeMigrated(mapName, map, key, ExpiringValue.wrap(value, first.getTtlMillis()));
+          } else {
+            store(mapName, map, key, ExpiringValue.wrap(value, first.getTtlMillis()));
+          }
+          keyFilters.add(mapName, first.getKey().toByteArray());
+
+          responseObserver.onNext(PutResponse.newBuilder().build());
+          responseObserver.onCompleted();
+        });
+      }
+    };
+  }
+
+  @Override
+  public void put(PutRequest request, StreamObserver<PutResponse> responseObserver) {
     String mapName = request.getMapName();
     ConcurrentHashMap<Object, Object> map = getMap(mapName);
 
-    Object key = deserialize(request.getKey().toByteArray());
-    boolean exists = map.containsKey(key);
+    write(request.getKey(), responseObserver, () -> {
+      Object key = deserialize(request.getKey().toByteArray());
+      Object value = deserialize(request.getValue().toByteArray());
+
+      log.trace("Putting key [{}] and value [{}]", key, value);
+      store(mapName, map, key, ExpiringValue.wrap(value, request.getTtlMillis()));
+      keyFilters.add(mapName, request.getKey().toByteArray());
+
+      PutResponse response = PutResponse.newBuilder().build();
+      responseObserver.onNext(response);
+      responseObserver.onCompleted();
+    });
+  }
+
+  @Override
+  public void remove(RemoveRequest request, StreamObserver<RemoveResponse> responseObserver) {
+    // the key may not be here yet, its entry still being migrated
+    ConcurrentHashMap<Object, Object> map = getMap(request.getMapName());
+
+    write(request.getKey(), responseObserver, () -> {
+      delete(request.getMapName(), map, deserialize(request.getKey().toByteArray()));
+
+      RemoveResponse response = RemoveResponse.newBuilder().build();
+      responseObserver.onNext(response);
+      responseObserver.onCompleted();
+    });
+  }
+
+  @Override
+  public void containsKey(ContainsKeyRequest request, StreamObserver<ContainsKeyResponse> responseObserver) {
+    ConcurrentHashMap<Object, Object> map = maps.get(request.getMapName());
+    boolean exists =
+      map != null && getLive(request.getMapName(), map, deserialize(request.getKey().toByteArray())) != null;
 
     ContainsKeyResponse response = ContainsKeyResponse.newBuilder().setExists(exists).build();
     responseObserver.onNext(response);
@@ -125,10 +593,8 @@ public class CacheServiceImpl extends CacheServiceGrpc.CacheServiceImplBase {
 
   @Override
   public void size(SizeRequest request, StreamObserver<SizeResponse> responseObserver) {
-    String mapName = request.getMapName();
-    ConcurrentHashMap<Object, Object> map = getMap(mapName);
-
-    int size = map.size();
+    ConcurrentHashMap<Object, Object> map = maps.get(request.getMapName());
+    int size = map == null ? 0 : sizeOf(request.getMapName(), map);
 
     SizeResponse response = SizeResponse.newBuilder().setSize(size).build();
     responseObserver.onNext(response);
@@ -137,10 +603,8 @@ public class CacheServiceImpl extends CacheServiceGrpc.CacheServiceImplBase {
 
   @Override
   public void isEmpty(IsEmptyRequest request, StreamObserver<IsEmptyResponse> responseObserver) {
-    String mapName = request.getMapName();
-    ConcurrentHashMap<Object, Object> map = getMap(mapName);
-
-    boolean isEmpty = map.isEmpty();
+    ConcurrentHashMap<Object, Object> map = maps.get(request.getMapName());
+    boolean isEmpty = map == null || sizeOf(request.getMapName(), map) == 0;
 
     IsEmptyResponse response = IsEmptyResponse.newBuilder().setIsEmpty(isEmpty).build();
     responseObserver.onNext(response);
@@ -150,9 +614,20 @@ public class CacheServiceImpl extends CacheServiceGrpc.CacheServiceImplBase {
   @Override
   public void clear(ClearRequest request, StreamObserver<ClearResponse> responseObserver) {
     String mapName = request.getMapName();
-    ConcurrentHashMap<Object, Object> map = getMap(mapName);
+    ConcurrentHashMap<Object, Object> map = maps.get(mapName);
 
-    map.clear();
+    keyFilters.clear(mapName);
+    if (map != null) {
+      map.clear();
+      if (coldTier != null) {
+        coldTier.clear(mapName);
+      }
+    }
+    // the long keyed map of the same name belongs to the same cache
+    LongKeyTable longMap = longMaps.get(mapName);
+    if (longMap != null) {
+      longMap.clear();
+    }
 
     ClearResponse response = ClearResponse.newBuilder().build();
     responseObserver.onNext(response);
@@ -163,29 +638,78 @@ public class CacheServiceImpl extends CacheServiceGrpc.CacheServiceImplBase {
   public void putAll(PutAllRequest request, StreamObserver<PutAllResponse> responseObserver) {
     String mapName = request.getMapName();
     ConcurrentHashMap<Object, Object> map = getMap(mapName);
+    Runnable respond = () -> {
+      PutAllResponse response = PutAllResponse.newBuilder().build();
+      responseObserver.onNext(response);
+      responseObserver.onCompleted();
+    };
 
-    for (Entry entry : request.getEntriesList()) {
-      Object key = deserialize(entry.getKey().toByteArray());
-      Object value = deserialize(entry.getValue().toByteArray());
-      map.put(key, value);
+    boolean migration = request.getMigration();
+
+    if (shards == null) {
+      putEntries(mapName, map, request.getEntriesList(), migration);
+      respond.run();
+      return;
     }
+    List<Runnable> tasks = new ArrayList<>(shards.count());
+    for (List<Entry> entries : byShard(request.getEntriesList(), Entry::getKey)) {
+      tasks.add(entries.isEmpty() ? null : () -> putEntries(mapName, map, entries, migration));
+    }
+    shards.executeAll(tasks, respond, e -> fail(responseObserver, e));
+  }
 
-    PutAllResponse response = PutAllResponse.newBuilder().build();
-    responseObserver.onNext(response);
-    responseObserver.onCompleted();
+  private void putEntries(String mapName, ConcurrentHashMap<Object, Object> map, List<Entry> entries,
+                          boolean migration) {
+    for (Entry entry : entries) {
+      Object key = deserialize(entry.getKey().toByteArray());
+      Object stored = ExpiringValue.wrap(deserialize(entry.getValue().toByteArray()), entry.getTtlMillis());
+      if (migration) {
+        storeMigrated(mapName, map, key, stored);
+      } else {
+        store(mapName, map, key, stored);
+      }
+      keyFilters.add(mapName, entry.getKey().toByteArray());
+    }
   }
 
   @Override
   public void getAll(GetAllRequest request, StreamObserver<GetAllResponse> responseObserver) {
     String mapName = request.getMapName();
-    ConcurrentHashMap<Object, Object> map = getMap(mapName);
+    ConcurrentHashMap<Object, Object> map = maps.get(mapName);
 
-    GetAllResponse.Builder responseBuilder = GetAllResponse.newBuilder();
+    if (map == null || shards == null) {
+      GetAllResponse.Builder responseBuilder = GetAllResponse.newBuilder();
+      if (map != null) {
+        responseBuilder.addAllEntries(getEntries(mapName, map, request.getKeysList()));
+      }
+      responseObserver.onNext(responseBuilder.build());
+      responseObserver.onCompleted();
+      return;
+    }
+    // the reads of every shard run in parallel, each one fills its own list
+    List<List<ByteString>> keysByShard = byShard(request.getKeysList(), Function.identity());
+    List<List<Entry>> entriesByShard = new ArrayList<>(shards.count());
+    List<Runnable> tasks = new ArrayList<>(shards.count());
+    for (List<ByteString> keys : keysByShard) {
+      List<Entry> entries = new ArrayList<>();
+      entriesByShard.add(entries);
+      tasks.add(keys.isEmpty() ? null : () -> entries.addAll(getEntries(mapName, map, keys)));
+    }
+    shards.executeAll(tasks, () -> {
+      GetAllResponse.Builder responseBuilder = GetAllResponse.newBuilder();
+      entriesByShard.forEach(responseBuilder::addAllEntries);
+      responseObserver.onNext(responseBuilder.build());
+      responseObserver.onCompleted();
+    }, e -> fail(responseObserver, e));
+  }
 
-    for (ByteString keyByteString : request.getKeysList()) {
+  private List<Entry> getEntries(String mapName, ConcurrentHashMap<Object, Object> map, List<ByteString> keys) {
+    List<Entry> entries = new ArrayList<>();
+    for (ByteString keyByteString : keys) {
       byte[] keyBytes = keyByteString.toByteArray();
       Object key = deserialize(keyBytes);
-      Object value = map.get(key);
+      Object stored = getLive(mapName, map, key);
+      Object value = ExpiringValue.unwrap(stored);
       if (value != null) {
         byte[] serializedKey = serialize(key);
         byte[] serializedValue = serialize(value);
@@ -193,14 +717,253 @@ public class CacheServiceImpl extends CacheServiceGrpc.CacheServiceImplBase {
           .newBuilder()
           .setKey(ByteString.copyFrom(serializedKey))
           .setValue(ByteString.copyFrom(serializedValue))
+          .setTtlMillis(ExpiringValue.ttlMillisOf(stored))
           .build();
-        responseBuilder.addEntries(entry);
+        entries.add(entry);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Applies the operations of a batch in order, holding the lock of the hash tag all its keys must share, so that
+   * the other writes of the tag happen before or after the whole batch and the conditions see the writes of the
+   * earlier operations.
+   *
+   * <p>Every key, value and expected value is read and checked before the lock is taken, so a malformed batch fails
+   * before any of its operations is applied. The reads do not take the lock and may see a batch in progress, with
+   * some of its writes applied and the others not yet.</p>
+   */
+  @Override
+  public void batch(BatchRequest request, StreamObserver<BatchResponse> responseObserver) {
+    String mapName = request.getMapName();
+    List<PreparedOperation> operations = new ArrayList<>(request.getOperationsCount());
+    String tag = null;
+    for (BatchOperation operation : request.getOperationsList()) {
+      PreparedOperation prepared;
+      try {
+        prepared = prepare(operation);
+      } catch (RuntimeException e) {
+        responseObserver.onError(Status.INVALID_ARGUMENT
+                                   .withDescription("Unreadable batch operation: " + e.getMessage())
+                                   .asRuntimeException());
+        return;
+      }
+      Object key = prepared.key();
+      String keyTag = PartitionTable.hashTagOf(key);
+      if (keyTag == null || (tag != null && !tag.equals(keyTag))) {
+        responseObserver.onError(Status.INVALID_ARGUMENT
+                                   .withDescription("The keys of a batch must share a hash tag, found " + key)
+                                   .asRuntimeException());
+        return;
+      }
+      if (operation.getType() == BatchOperation.Type.UNRECOGNIZED) {
+        responseObserver.onError(Status.INVALID_ARGUMENT
+                                   .withDescription("Unknown batch operation " + operation.getTypeValue())
+                                   .asRuntimeException());
+        return;
+      }
+      tag = keyTag;
+      operations.add(prepared);
+    }
+
+    BatchResponse.Builder responseBuilder = BatchResponse.newBuilder();
+    if (tag != null) {
+      ConcurrentHashMap<Object, Object> map = getMap(mapName);
+      ReentrantLock lock = hashTagLocks.of(tag);
+      lock.lock();
+      try {
+        for (PreparedOperation operation : operations) {
+          responseBuilder.addResults(apply(mapName, map, operation));
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    responseObserver.onNext(responseBuilder.build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Reads the key and the values an operation of a batch needs.
+   */
+  private static PreparedOperation prepare(BatchOperation operation) {
+    Object key = deserialize(operation.getKey().toByteArray());
+    Object value = switch (operation.getType()) {
+      case PUT, PUT_IF_ABSENT, REPLACE, REPLACE_IF_EQUALS -> deserialize(operation.getValue().toByteArray());
+      default -> null;
+    };
+    Object expectedValue = switch (operation.getType()) {
+      case REPLACE_IF_EQUALS, REMOVE_IF_EQUALS -> deserialize(operation.getExpectedValue().toByteArray());
+      default -> null;
+    };
+    return new PreparedOperation(operation, key, value, expectedValue);
+  }
+
+  private BatchResult apply(String mapName, ConcurrentHashMap<Object, Object> map, PreparedOperation prepared) {
+    BatchOperation operation = prepared.operation();
+    Object key = prepared.key();
+    Object current = ExpiringValue.unwrap(getLive(mapName, map, key));
+    boolean applied = switch (operation.getType()) {
+      case GET, PUT -> true;
+      case PUT_IF_ABSENT -> current == null;
+      case REPLACE, REMOVE -> current != null;
+      case REPLACE_IF_EQUALS, REMOVE_IF_EQUALS ->
+        current != null && ChunkedValue.whole(current).equals(prepared.expectedValue());
+      case UNRECOGNIZED -> throw new IllegalArgumentException("Unknown batch operation");
+    };
+    if (applied) {
+      switch (operation.getType()) {
+        case PUT, PUT_IF_ABSENT, REPLACE, REPLACE_IF_EQUALS -> {
+          store(mapName, map, key, ExpiringValue.wrap(prepared.value(), operation.getTtlMillis()));
+          keyFilters.add(mapName, operation.getKey().toByteArray());
+        }
+        case REMOVE, REMOVE_IF_EQUALS -> delete(mapName, map, key);
+        default -> {
+          // a read
+        }
       }
     }
 
-    GetAllResponse response = responseBuilder.build();
+    BatchResult.Builder result = BatchResult.newBuilder().setApplied(applied);
+    if (current != null) {
+      result.setFound(true).setValue(ByteString.copyFrom(serialize(current)));
+    }
+    return result.build();
+  }
+
+  /**
+   * Streams the changes of the entries of a map until the client cancels the call. Only the changes made on this node
+   * are sent, the clients subscribe to every node.
+   */
+  @Override
+  public void subscribe(SubscribeRequest request, StreamObserver<EntryEventBatch> responseObserver) {
+    entryEvents.subscribe(request, (ServerCallStreamObserver<EntryEventBatch>) responseObserver);
+  }
+
+  @Override
+  public void getKeyFilter(KeyFilterRequest request, StreamObserver<KeyFilterResponse> responseObserver) {
+    BloomFilter filter = keyFilters.get(request.getMapName());
+
+    KeyFilterResponse response = KeyFilterResponse
+      .newBuilder()
+      .setBits(ByteString.copyFrom(filter.toByteArray()))
+      .setHashCount(BloomFilter.HASH_COUNT)
+      .build();
     responseObserver.onNext(response);
     responseObserver.onCompleted();
   }
 
+  @Override
+  public void getHotKeys(HotKeysRequest request, StreamObserver<HotKeysResponse> responseObserver) {
+    HotKeysResponse.Builder responseBuilder = HotKeysResponse.newBuilder();
+    HotKeyTracker tracker = hotKeyTrackers.get(request.getMapName());
+    if (tracker != null) {
+      // the version is read first, a client seeing a newer one fetches the keys again
+      responseBuilder.setVersion(tracker.getVersion()).addAllKeys(tracker.getHotKeys());
+    }
+
+    responseObserver.onNext(responseBuilder.build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Reports the estimated memory held by a map, or by every map of the node when the request names none.
+   */
+  @Override
+  public void getMemoryStats(MemoryStatsRequest request, StreamObserver<MemoryStatsResponse> responseObserver) {
+    String requested = request.getMapName();
+    MemoryStatsResponse.Builder responseBuilder = MemoryStatsResponse.newBuilder();
+    maps.forEach((mapName, map) -> {
+      if ((requested.isEmpty() || requested.equals(mapName)) && map instanceof AccountedMap accounted) {
+        long coldEntries = coldTier == null ? 0 : coldTier.size(mapName);
+        responseBuilder.addMaps(accounted.getMemory().toStats(mapName, false, coldEntries));
+      }
+    });
+    longMaps.forEach((mapName, map) -> {
+      if (requested.isEmpty() || requested.equals(mapName)) {
+        responseBuilder.addMaps(map.getMemory().toStats(mapName, true, 0));
+      }
+    });
+
+    responseObserver.onNext(responseBuilder.build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * Scans the entries of a map kept in memory for the largest ones, at the rate the request allows.
+   */
+  @Override
+  public void sampleBigKeys(BigKeysRequest request, StreamObserver<BigKeysResponse> responseObserver) {
+    bigKeySampler.sample(maps.get(request.getMapName()), request,
+                         (ServerCallStreamObserver<BigKeysResponse>) responseObserver);
+  }
+
+  @Override
+  public void getLong(GetLongRequest request, StreamObserver<GetResponse> responseObserver) {
+    LongKeyTable map = longMaps.get(request.getMapName());
+
+    Object stored = map == null ? null : map.get(request.getKey());
+    if (stored instanceof ExpiringValue expiring && expiring.isExpired()) {
+      map.remove(request.getKey(), stored);
+      stored = null;
+    }
+
+    GetResponse.Builder responseBuilder = GetResponse.newBuilder();
+    if (stored != null) {
+      // the value is sent back as the client serialized it
+      responseBuilder.setValue((ByteString) ExpiringValue.unwrap(stored))
+                     .setTtlMillis(ExpiringValue.ttlMillisOf(stored));
+    }
+    responseObserver.onNext(responseBuilder.build());
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void putLong(PutLongRequest request, StreamObserver<PutResponse> responseObserver) {
+    LongKeyTable map = getLongMap(request.getMapName());
+
+    map.put(request.getKey(), ExpiringValue.wrap(request.getValue(), request.getTtlMillis()));
+
+    responseObserver.onNext(PutResponse.newBuilder().build());
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void removeLong(RemoveLongRequest request, StreamObserver<RemoveResponse> responseObserver) {
+    // the key may not be here yet, its entry still being migrated
+    LongKeyTable map = getLongMap(request.getMapName());
+    removedLongKeys.remove(request.getMapName(), request.getKey(), () -> map.remove(request.getKey()));
+
+    responseObserver.onNext(RemoveResponse.newBuilder().build());
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void putAllLong(PutAllLongRequest request, StreamObserver<PutAllResponse> responseObserver) {
+    LongKeyTable map = getLongMap(request.getMapName());
+
+    for (LongEntry entry : request.getEntriesList()) {
+      Object stored = ExpiringValue.wrap(entry.getValue(), entry.getTtlMillis());
+      if (request.getMigration()) {
+        removedLongKeys.unlessRemoved(request.getMapName(), entry.getKey(),
+                                      () -> map.putIfAbsent(entry.getKey(), stored));
+      } else {
+        map.put(entry.getKey(), stored);
+      }
+    }
+
+    responseObserver.onNext(PutAllResponse.newBuilder().build());
+    responseObserver.onCompleted();
+  }
+
+  /**
+   * An operation of a batch with its key and values read, before the batch is applied.
+   *
+   * @param value         the value to store, null when the operation stores none
+   * @param expectedValue the value the entry must have, null when the operation has no condition on it
+   */
+  private record PreparedOperation(BatchOperation operation, Object key, Object value, Object expectedValue) {
+  }
 }
@@ -0,0 +1,30 @@
+package dev.ixixpercent.cache.node;
+
+import com.google.protobuf.ByteString;
+
+import java.util.List;
+
+/**
+ * A value received in chunks of its JSON form, too large for a single message. The node keeps the chunks as they
+ * arrived, neither deserialized nor joined in a single array, and streams them back the same way.
+ *
+ * @param chunks the chunks, in order
+ * @param size   the number of bytes of all the chunks
+ */
+public record ChunkedValue(List<ByteString> chunks, long size) {
+
+  /**
+   * @return the value as the clients read it from a single message, the JSON string they serialize their values to
+   */
+  public String json() {
+    return ByteString.copyFrom(chunks).toStringUtf8();
+  }
+
+  /**
+   * @param value the value of an entry, may be null
+   * @return the JSON string of a chunked value, to compare or send in a single message, the value itself otherwise
+   */
+  public static Object whole(Object value) {
+    return value instanceof ChunkedValue chunked ? chunked.json() : value;
+  }
+}
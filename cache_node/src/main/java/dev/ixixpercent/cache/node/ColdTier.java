@@ -0,0 +1,535 @@
+package dev.ixixpercent.cache.node;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static dev.ixixpercent.cache.node.serialization.KryoSerializer.deserialize;
+import static dev.ixixpercent.cache.node.serialization.KryoSerializer.serialize;
+
+/**
+ * Second storage tier of the node: the entries demoted from the in-memory maps are appended to memory-mapped log
+ * files, and only their location is kept in memory.
+ *
+ * <p>When the maps hold more than the maximum number of hot entries, a background sweep demotes entries until they
+ * are back under 90% of it. The sweep gives a second chance to the keys read or written since it last passed them,
+ * so that the demoted entries are the ones not used lately. A read of a demoted entry promotes it back to its map.
+ * Every move between the tiers happens under the lock the map holds on the key, so a read, write or removal of the
+ * key never sees it in both tiers or in neither. The values received in chunks are never demoted.</p>
+ *
+ * <p>The log is split in segments of a fixed size, a new one is started when the current one is full. A promoted,
+ * overwritten or removed entry leaves dead bytes in its segment, and a full segment whose live bytes fall under half
+ * of it is compacted: its live entries are copied to the current segment and the file is unmapped and deleted. The
+ * files are only meant to outlive the memory of the process, they are deleted when the node starts and stops.</p>
+ *
+ * <p>A record is a header of the map id, the key and value lengths and the expiry time, followed by the serialized
+ * key and value.</p>
+ */
+@Slf4j
+public class ColdTier {
+
+  private static final int HEADER_BYTES = 20;
+  private static final double DEMOTION_TARGET = 0.9;
+  private static final double COMPACTION_THRESHOLD = 0.5;
+  private static final long MAINTENANCE_INTERVAL_MILLIS = 1000;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final long maxHotEntries;
+  private final Map<String, ConcurrentHashMap<Object, Object>> maps;
+  private final Map<String, MapIndex> indexes = new ConcurrentHashMap<>();
+  private final Map<Integer, MapIndex> indexesById = new ConcurrentHashMap<>();
+  private final AtomicInteger nextMapId = new AtomicInteger();
+  private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+    Thread.ofPlatform().name("cold-tier").daemon(true).factory());
+  // guarded by this
+  private Segment active;
+  private int nextSegmentId;
+
+  private static final class MapIndex {
+    private final int id;
+    private final String name;
+    private final ConcurrentHashMap<Object, Long> locations = new ConcurrentHashMap<>();
+    // keys read or written in the map since the sweep last passed them
+    private final Set<Object> referenced = ConcurrentHashMap.newKeySet();
+
+    private MapIndex(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+  }
+
+  private static final class Segment {
+    private final int id;
+    private final Path path;
+    // closed to unmap the file rather than waiting for the buffer to be collected
+    private final Arena arena;
+    private final ByteBuffer buffer;
+    private final AtomicLong liveBytes = new AtomicLong();
+    // only moves forward under the lock of the tier, read by the compaction once the segment is full
+    private volatile int position;
+    private volatile boolean full;
+
+    private Segment(int id, Path path, Arena arena, ByteBuffer buffer) {
+      this.id = id;
+      this.path = path;
+      this.arena = arena;
+      this.buffer = buffer;
+    }
+  }
+
+  /**
+   * @param directory     the directory of the log files, created if needed
+   * @param segmentBytes  the size of a log file
+   * @param maxHotEntries the number of entries of all the maps above which entries are demoted
+   * @param maps          the maps held by the node, by name
+   */
+  public ColdTier(Path directory, int segmentBytes, long maxHotEntries,
+                  Map<String, ConcurrentHashMap<Object, Object>> maps) {
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxHotEntries = maxHotEntries;
+    this.maps = maps;
+    try {
+      Files.createDirectories(directory);
+      // the index of the previous run is gone, so are its entries
+      deleteSegmentFiles();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot use cold tier directory " + directory, e);
+    }
+    executor.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL_MILLIS, MAINTENANCE_INTERVAL_MILLIS,
+                                    TimeUnit.MILLISECONDS);
+    log.info("Cold tier in {} with segments of {} bytes, demoting above {} entries in memory", directory,
+             segmentBytes, maxHotEntries);
+  }
+
+  private static long location(int segmentId, int offset) {
+    return ((long) segmentId << 32) | offset;
+  }
+
+  private MapIndex index(String mapName) {
+    return indexes.computeIfAbsent(mapName, name -> {
+      MapIndex index = new MapIndex(nextMapId.getAndIncrement(), name);
+      indexesById.put(index.id, index);
+      return index;
+    });
+  }
+
+  /**
+   * Returns the object stored for a key, promoting it to the map when it was demoted.
+   *
+   * @param mapName the name of the map
+   * @param map     the map
+   * @param key     the key
+   * @return the stored object, possibly an expired {@link ExpiringValue}, or null
+   */
+  public Object get(String mapName, ConcurrentHashMap<Object, Object> map, Object key) {
+    MapIndex index = index(mapName);
+    Object stored = map.get(key);
+    if (stored == null && !index.locations.isEmpty()) {
+      // under the lock of the map on the key, a promotion in progress has already taken the location of the key
+      // but not yet put its entry back in the map
+      stored = map.computeIfAbsent(key, k -> take(index, k));
+    }
+    if (stored != null) {
+      index.referenced.add(key);
+    }
+    return stored;
+  }
+
+  /**
+   * Stores an object for a key in the map, dropping a demoted one.
+   *
+   * @param mapName      the name of the map
+   * @param map          the map
+   * @param key          the key
+   * @param stored       the object to store
+   * @param onPrevious   called under the lock of the map on the key with the previous object, read when it was
+   *                     demoted, or null; null to not read it
+   */
+  public void put(String mapName, ConcurrentHashMap<Object, Object> map, Object key, Object stored,
+                  Consumer<Object> onPrevious) {
+    MapIndex index = index(mapName);
+    map.compute(key, (k, current) -> {
+      if (onPrevious != null) {
+        onPrevious.accept(current != null ? current : take(index, k));
+      }
+      release(index.locations.remove(k));
+      return stored;
+    });
+    index.referenced.add(key);
+  }
+
+  /**
+   * Stores an object for a key in the map, unless the key has one in either tier.
+   *
+   * @param mapName the name of the map
+   * @param map     the map
+   * @param key     the key
+   * @param stored  the object to store
+   */
+  public void putIfAbsent(String mapName, ConcurrentHashMap<Object, Object> map, Object key, Object stored) {
+    MapIndex index = index(mapName);
+    map.compute(key, (k, current) -> current != null || index.locations.containsKey(k) ? current : stored);
+    index.referenced.add(key);
+  }
+
+  /**
+   * Removes a key from both tiers.
+   *
+   * @param mapName      the name of the map
+   * @param map          the map
+   * @param key          the key
+   * @param onPrevious   called under the lock of the map on the key with the removed object, read when it was
+   *                     demoted, or null; null to not read it
+   */
+  public void remove(String mapName, ConcurrentHashMap<Object, Object> map, Object key, Consumer<Object> onPrevious) {
+    MapIndex index = index(mapName);
+    map.compute(key, (k, current) -> {
+      if (onPrevious != null) {
+        onPrevious.accept(current != null ? current : take(index, k));
+      }
+      release(index.locations.remove(k));
+      return null;
+    });
+    index.referenced.remove(key);
+  }
+
+  /**
+   * Removes a demoted entry of a map if it has expired.
+   *
+   * @param mapName the name of the map
+   * @param map     the map
+   * @param key     the key
+   * @return the removed entry, null when the key is not demoted or has not expired
+   */
+  public ExpiringValue removeIfExpired(String mapName, ConcurrentHashMap<Object, Object> map, Object key) {
+    MapIndex index = indexes.get(mapName);
+    if (index == null) {
+      return null;
+    }
+    ExpiringValue[] removed = new ExpiringValue[1];
+    // under the lock of the map on the key, like the promotions
+    map.compute(key, (k, hot) -> {
+      Long location = index.locations.get(k);
+      if (hot == null && location != null && isExpired(location)) {
+        removed[0] = (ExpiringValue) take(index, k);
+      }
+      return hot;
+    });
+    return removed[0];
+  }
+
+  /**
+   * Drops the demoted entries of a map. Must be called after the map was cleared.
+   *
+   * @param mapName the name of the map
+   */
+  public void clear(String mapName) {
+    MapIndex index = indexes.get(mapName);
+    if (index == null) {
+      return;
+    }
+    for (Object key : index.locations.keySet()) {
+      release(index.locations.remove(key));
+    }
+    index.referenced.clear();
+  }
+
+  /**
+   * @param mapName the name of the map
+   * @return the number of demoted entries of the map, expired ones included
+   */
+  public int size(String mapName) {
+    MapIndex index = indexes.get(mapName);
+    return index == null ? 0 : index.locations.size();
+  }
+
+  /**
+   * @param mapName the name of the map
+   * @return a live view of the demoted keys of the map
+   */
+  public Set<Object> keys(String mapName) {
+    MapIndex index = indexes.get(mapName);
+    return index == null ? Set.of() : index.locations.keySet();
+  }
+
+  /**
+   * Stops the maintenance, unmaps and deletes the log files. The demoted entries are lost.
+   */
+  public void close() {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+      for (Segment segment : segments.values()) {
+        segments.remove(segment.id);
+        segment.arena.close();
+      }
+      deleteSegmentFiles();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      log.warn("Could not delete the cold tier files of {}", directory, e);
+    }
+  }
+
+  /**
+   * Removes a key from the index and reads its entry. Called under the lock of the map on the key.
+   */
+  private Object take(MapIndex index, Object key) {
+    Long location = index.locations.remove(key);
+    if (location == null) {
+      return null;
+    }
+    Object stored = read(location);
+    release(location);
+    return stored;
+  }
+
+  private Object read(long location) {
+    Segment segment = segments.get((int) (location >>> 32));
+    int offset = (int) location;
+    int keyLength = segment.buffer.getInt(offset + 4);
+    int valueLength = segment.buffer.getInt(offset + 8);
+    long expiresAtMillis = segment.buffer.getLong(offset + 12);
+    byte[] value = new byte[valueLength];
+    segment.buffer.get(offset + HEADER_BYTES + keyLength, value);
+    Object deserialized = deserialize(value);
+    return expiresAtMillis == 0 ? deserialized : new ExpiringValue(deserialized, expiresAtMillis);
+  }
+
+  private boolean isExpired(long location) {
+    Segment segment = segments.get((int) (location >>> 32));
+    long expiresAtMillis = segment.buffer.getLong((int) location + 12);
+    return expiresAtMillis != 0 && System.currentTimeMillis() >= expiresAtMillis;
+  }
+
+  private void release(Long location) {
+    if (location == null) {
+      return;
+    }
+    Segment segment = segments.get((int) (location >>> 32));
+    if (segment != null) {
+      int offset = (int) (long) location;
+      try {
+        int size = HEADER_BYTES + segment.buffer.getInt(offset + 4) + segment.buffer.getInt(offset + 8);
+        segment.liveBytes.addAndGet(-size);
+      } catch (IllegalStateException e) {
+        // compacted and unmapped in the meantime, the bytes of a retired segment no longer count
+      }
+    }
+  }
+
+  /**
+   * Appends a record to the current segment, starting a new one when it is full.
+   *
+   * @return the location of the record, or -1 when it does not fit in a segment
+   */
+  private synchronized long append(int mapId, byte[] key, byte[] value, long expiresAtMillis) {
+    int size = HEADER_BYTES + key.length + value.length;
+    if (size > segmentBytes) {
+      return -1;
+    }
+    if (active == null || active.position + size > segmentBytes) {
+      if (active != null) {
+        active.full = true;
+      }
+      active = newSegment();
+    }
+    int offset = active.position;
+    active.buffer.putInt(offset, mapId)
+                 .putInt(offset + 4, key.length)
+                 .putInt(offset + 8, value.length)
+                 .putLong(offset + 12, expiresAtMillis)
+                 .put(offset + HEADER_BYTES, key)
+                 .put(offset + HEADER_BYTES + key.length, value);
+    active.position = offset + size;
+    active.liveBytes.addAndGet(size);
+    return location(active.id, offset);
+  }
+
+  private Segment newSegment() {
+    int id = nextSegmentId++;
+    Path path = directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    // the mapping stays valid once the channel is closed, until the arena is
+    Arena arena = Arena.ofShared();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes, arena).asByteBuffer();
+      Segment segment = new Segment(id, path, arena, buffer);
+      segments.put(id, segment);
+      return segment;
+    } catch (IOException e) {
+      arena.close();
+      throw new UncheckedIOException("Cannot create cold tier segment " + path, e);
+    }
+  }
+
+  private void deleteSegmentFiles() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path file : files) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private void maintain() {
+    try {
+      demote();
+      compact();
+    } catch (RuntimeException e) {
+      // a full disk only stops the demotions, the maps keep growing in memory
+      log.error("Cold tier maintenance failed", e);
+    }
+  }
+
+  private void demote() {
+    long hotEntries = 0;
+    for (ConcurrentHashMap<Object, Object> map : maps.values()) {
+      hotEntries += map.size();
+    }
+    if (hotEntries <= maxHotEntries) {
+      return;
+    }
+    long start = System.nanoTime();
+    long excess = hotEntries - (long) (maxHotEntries * DEMOTION_TARGET);
+    long demoted = 0;
+    for (Map.Entry<String, ConcurrentHashMap<Object, Object>> map : maps.entrySet()) {
+      MapIndex index = index(map.getKey());
+      // every map gives up its share of the excess
+      long toDemote = excess * map.getValue().size() / hotEntries;
+      long mapDemoted = 0;
+      for (Map.Entry<Object, Object> entry : map.getValue().entrySet()) {
+        if (mapDemoted >= toDemote) {
+          break;
+        }
+        // the second chance, the key loses it and is demoted the next time unless used again
+        if (!index.referenced.remove(entry.getKey()) && demote(index, map.getValue(), entry.getKey(),
+                                                               entry.getValue())) {
+          mapDemoted++;
+        }
+      }
+      // keys removed from the map by the expiry or the migrations are not unmarked, forget them once in a while
+      if (index.referenced.size() > 2 * map.getValue().size() + 1024) {
+        index.referenced.clear();
+      }
+      demoted += mapDemoted;
+    }
+    log.debug("Demoted {} of {} entries in memory in {} ms", demoted, hotEntries,
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * @return whether the entry left the map
+   */
+  private boolean demote(MapIndex index, ConcurrentHashMap<Object, Object> map, Object key, Object stored) {
+    if (stored instanceof ExpiringValue expiring && expiring.isExpired()) {
+      return map.remove(key, stored);
+    }
+    if (ExpiringValue.unwrap(stored) instanceof ChunkedValue) {
+      // kept in chunks in memory, the records of the segments hold single arrays
+      return false;
+    }
+    // serialized outside of the lock on the key, the entry is only moved if it did not change in the meantime
+    byte[] keyBytes = serialize(key);
+    byte[] valueBytes = serialize(stored instanceof ExpiringValue expiring ? expiring.value() : stored);
+    long expiresAtMillis = stored instanceof ExpiringValue expiring ? expiring.expiresAtMillis() : 0;
+    boolean[] demoted = new boolean[1];
+    map.computeIfPresent(key, (k, current) -> {
+      if (current != stored) {
+        return current;
+      }
+      long location = append(index.id, keyBytes, valueBytes, expiresAtMillis);
+      if (location < 0) {
+        return current;
+      }
+      release(index.locations.put(k, location));
+      demoted[0] = true;
+      return null;
+    });
+    return demoted[0];
+  }
+
+  private void compact() {
+    for (Segment segment : segments.values()) {
+      if (segment.full && segment.liveBytes.get() < segment.position * COMPACTION_THRESHOLD) {
+        compact(segment);
+      }
+    }
+  }
+
+  private void compact(Segment segment) {
+    long start = System.nanoTime();
+    int relocated = 0;
+    int offset = 0;
+    while (offset < segment.position) {
+      int mapId = segment.buffer.getInt(offset);
+      int keyLength = segment.buffer.getInt(offset + 4);
+      int valueLength = segment.buffer.getInt(offset + 8);
+      long expiresAtMillis = segment.buffer.getLong(offset + 12);
+      long location = location(segment.id, offset);
+      offset += HEADER_BYTES + keyLength + valueLength;
+
+      MapIndex index = indexesById.get(mapId);
+      byte[] keyBytes = new byte[keyLength];
+      segment.buffer.get((int) location + HEADER_BYTES, keyBytes);
+      Object key = deserialize(keyBytes);
+      Long current = index.locations.get(key);
+      if (current == null || current != location) {
+        continue;
+      }
+      boolean expired = expiresAtMillis != 0 && System.currentTimeMillis() >= expiresAtMillis;
+      byte[] valueBytes = expired ? null : new byte[valueLength];
+      if (!expired) {
+        segment.buffer.get((int) location + HEADER_BYTES + keyLength, valueBytes);
+      }
+      // under the lock of the map on the key, like the promotions; the record is copied before its location moves,
+      // so that an append failing on a full disk leaves the entry where it was and the segment in place
+      maps.get(index.name).compute(key, (k, hot) -> {
+        Long now = index.locations.get(k);
+        if (now == null || now != location) {
+          return hot;
+        }
+        if (expired) {
+          index.locations.remove(k, location);
+        } else {
+          // fits in a segment, it was in one
+          index.locations.put(k, append(mapId, keyBytes, valueBytes, expiresAtMillis));
+        }
+        release(location);
+        return hot;
+      });
+      relocated++;
+    }
+    segments.remove(segment.id);
+    // the entries have left the segment, a release still reading it fails rather than reading unmapped memory
+    segment.arena.close();
+    try {
+      Files.deleteIfExists(segment.path);
+    } catch (IOException e) {
+      log.warn("Could not delete cold tier segment {}", segment.path, e);
+    }
+    log.debug("Compacted cold tier segment {}, {} entries relocated in {} ms", segment.id, relocated,
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+}
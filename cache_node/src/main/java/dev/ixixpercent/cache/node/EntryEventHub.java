@@ -0,0 +1,219 @@
+package dev.ixixpercent.cache.node;
+
+import com.google.protobuf.ByteString;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEvent;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEventBatch;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEventType;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.SubscribeRequest;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static dev.ixixpercent.cache.node.serialization.KryoSerializer.serialize;
+
+/**
+ * Streams the changes of the entries of the maps to the clients subscribed to them, for their entry listeners.
+ *
+ * <p>A write only queues its change for every subscription of its map, when there are any. The events are
+ * serialized and sent by a virtual thread per subscription, in batches of the changes queued while the previous
+ * batch was sent, as fast as the client reads them. A subscription whose client does not keep up fills its queue and
+ * is ended with RESOURCE_EXHAUSTED rather than slowing down the writes, the client then subscribes again.</p>
+ */
+@Slf4j
+class EntryEventHub {
+
+  private static final int QUEUE_CAPACITY = 65536;
+  private static final int MAX_BATCH_SIZE = 256;
+
+  private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+  /**
+   * A change of an entry, with its values unwrapped.
+   *
+   * @param value    the value written, null for the removals and expiries
+   * @param oldValue the previous value, null when the entry had none
+   */
+  private record Change(EntryEventType type, Object key, Object value, Object oldValue) {}
+
+  /**
+   * @param mapName the name of the map
+   * @return true if a client is subscribed to the changes of the map
+   */
+  boolean hasSubscribers(String mapName) {
+    Set<Subscription> mapSubscriptions = subscriptions.get(mapName);
+    return mapSubscriptions != null && !mapSubscriptions.isEmpty();
+  }
+
+  /**
+   * Queues a change for the subscriptions of its map. Called under the lock of the map on the key, so that the
+   * changes of a key are queued in the order they were made.
+   *
+   * @param mapName  the name of the map
+   * @param type     the type of the change
+   * @param key      the key
+   * @param value    the value written, null for the removals and expiries
+   * @param oldValue the previous value, null when the entry had none
+   */
+  void publish(String mapName, EntryEventType type, Object key, Object value, Object oldValue) {
+    Set<Subscription> mapSubscriptions = subscriptions.get(mapName);
+    if (mapSubscriptions == null) {
+      return;
+    }
+    Change change = new Change(type, key, value, oldValue);
+    for (Subscription subscription : mapSubscriptions) {
+      subscription.offer(change);
+    }
+  }
+
+  /**
+   * Starts streaming the changes of a map to a client, until it cancels the call or the node stops.
+   *
+   * @param request  the map and the events the client wants
+   * @param observer the stream of the call
+   */
+  void subscribe(SubscribeRequest request, ServerCallStreamObserver<EntryEventBatch> observer) {
+    Set<EntryEventType> types = EnumSet.noneOf(EntryEventType.class);
+    for (EntryEventType type : request.getTypesList()) {
+      if (type != EntryEventType.UNRECOGNIZED) {
+        types.add(type);
+      }
+    }
+    if (request.getTypesCount() == 0) {
+      types = EnumSet.of(EntryEventType.CREATED, EntryEventType.UPDATED, EntryEventType.REMOVED,
+                         EntryEventType.EXPIRED);
+    }
+    Subscription subscription = new Subscription(request.getMapName(), types, request.getOldValues(), observer);
+    observer.setOnCancelHandler(subscription::cancel);
+    observer.setOnReadyHandler(subscription::wakeUp);
+    subscriptions.computeIfAbsent(request.getMapName(), k -> new CopyOnWriteArraySet<>()).add(subscription);
+    subscription.thread = Thread.ofVirtual().name("entry-events-" + request.getMapName()).start(subscription);
+    log.debug("Client subscribed to the {} events of map {}", types, request.getMapName());
+  }
+
+  /**
+   * Ends every subscription, the clients subscribe to the other nodes.
+   */
+  void close() {
+    subscriptions.values().forEach(mapSubscriptions -> mapSubscriptions.forEach(Subscription::end));
+  }
+
+  private final class Subscription implements Runnable {
+
+    private final String mapName;
+    private final Set<EntryEventType> types;
+    private final boolean oldValues;
+    private final ServerCallStreamObserver<EntryEventBatch> observer;
+    private final BlockingQueue<Change> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile Thread thread;
+    // set when the client cancelled the call
+    private volatile boolean cancelled;
+    // set when the node stops
+    private volatile boolean ended;
+    private volatile boolean overflowed;
+
+    private Subscription(String mapName, Set<EntryEventType> types, boolean oldValues,
+                         ServerCallStreamObserver<EntryEventBatch> observer) {
+      this.mapName = mapName;
+      this.types = types;
+      this.oldValues = oldValues;
+      this.observer = observer;
+    }
+
+    private void offer(Change change) {
+      if (types.contains(change.type()) && !queue.offer(change)) {
+        overflowed = true;
+      }
+    }
+
+    private void cancel() {
+      cancelled = true;
+      wakeUp();
+    }
+
+    private void end() {
+      ended = true;
+      wakeUp();
+    }
+
+    private void wakeUp() {
+      Thread subscriptionThread = thread;
+      if (subscriptionThread != null) {
+        LockSupport.unpark(subscriptionThread);
+      }
+    }
+
+    @Override
+    public void run() {
+      List<Change> batch = new ArrayList<>(MAX_BATCH_SIZE);
+      try {
+        // tells the client the changes are now queued for it
+        observer.onNext(EntryEventBatch.getDefaultInstance());
+        while (!cancelled && !ended && !overflowed) {
+          Change first = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+          batch.add(first);
+          queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+          EntryEventBatch events = toEvents(batch);
+          batch.clear();
+          // the changes keep queuing while the client is not ready for more
+          while (!observer.isReady() && !cancelled && !ended) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+          }
+          if (!cancelled && !ended) {
+            observer.onNext(events);
+          }
+        }
+        if (overflowed && !cancelled) {
+          log.warn("Entry events of map {} not read fast enough, ending the subscription", mapName);
+          observer.onError(Status.RESOURCE_EXHAUSTED
+                             .withDescription("More than " + QUEUE_CAPACITY + " entry events waiting to be sent")
+                             .asRuntimeException());
+        } else if (!cancelled) {
+          observer.onCompleted();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        // the call ended while sending
+        log.debug("Entry events of map {} could not be sent: {}", mapName, e.getMessage());
+      } finally {
+        Set<Subscription> mapSubscriptions = subscriptions.get(mapName);
+        if (mapSubscriptions != null) {
+          mapSubscriptions.remove(this);
+        }
+      }
+    }
+
+    private EntryEventBatch toEvents(List<Change> changes) {
+      EntryEventBatch.Builder events = EntryEventBatch.newBuilder();
+      for (Change change : changes) {
+        EntryEvent.Builder event = EntryEvent
+          .newBuilder()
+          .setType(change.type())
+          .setKey(ByteString.copyFrom(serialize(change.key())));
+        if (change.value() != null) {
+          event.setValue(ByteString.copyFrom(serialize(change.value())));
+        }
+        if (oldValues && change.oldValue() != null) {
+          event.setHasOldValue(true).setOldValue(ByteString.copyFrom(serialize(change.oldValue())));
+        }
+        events.addEvents(event);
+      }
+      return events.build();
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package dev.ixixpercent.cache.node;
+
+/**
+ * A value stored with the time it expires at. Values written without a time to live are stored as they are.
+ *
+ * @param value           the value
+ * @param expiresAtMillis the expiry time, in milliseconds since the epoch
+ */
+public record ExpiringValue(Object value, long expiresAtMillis) {
+
+  /**
+   * @param value     the value
+   * @param ttlMillis the time to live in milliseconds, 0 when the value does not expire
+   * @return the object to store in the map
+   */
+  public static Object wrap(Object value, long ttlMillis) {
+    return ttlMillis > 0 ? new ExpiringValue(value, System.currentTimeMillis() + ttlMillis) : value;
+  }
+
+  /**
+   * @param stored the object stored in the map, may be null
+   * @return the value, or null when the stored object is null or expired
+   */
+  public static Object unwrap(Object stored) {
+    if (stored instanceof ExpiringValue expiring) {
+      return expiring.isExpired() ? null : expiring.value();
+    }
+    return stored;
+  }
+
+  /**
+   * @param stored the object stored in the map
+   * @return the time the value has left to live in milliseconds, at least 1, or 0 when it does not expire
+   */
+  public static long ttlMillisOf(Object stored) {
+    if (stored instanceof ExpiringValue expiring) {
+      return Math.max(1, expiring.expiresAtMillis() - System.currentTimeMillis());
+    }
+    return 0;
+  }
+
+  public boolean isExpired() {
+    return System.currentTimeMillis() >= expiresAtMillis;
+  }
+}
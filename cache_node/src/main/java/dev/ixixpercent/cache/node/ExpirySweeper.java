@@ -0,0 +1,129 @@
+package dev.ixixpercent.cache.node;
+
+import dev.ixixpercent.cache.grpc.CacheServiceProto.EntryEventType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the expired entries of the maps in the background, so that the entries written with a time to live and
+ * never read again do not stay on the node. The reads remove the expired entries they find as well.
+ *
+ * <p>Every run reads a slice of the entries of every map, in memory and in the cold tier, from where the previous
+ * run stopped, and a segment of every long-keyed table, so that a run stays short whatever the size of the maps and
+ * a map is swept entirely in a few seconds. The removal of an entry is conditional on the entry still being the
+ * expired one, and is reported to the entry listeners as an expiry.</p>
+ */
+@Slf4j
+class ExpirySweeper {
+
+  private static final long SWEEP_INTERVAL_MILLIS = 100;
+  // entries of every map read by a run, in memory and in the cold tier each
+  private static final int ENTRIES_PER_RUN = 10_000;
+
+  private final Map<String, ConcurrentHashMap<Object, Object>> maps;
+  private final Map<String, LongKeyTable> longMaps;
+  // null when the node keeps every entry in memory
+  private final ColdTier coldTier;
+  private final EntryEventHub entryEvents;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+    Thread.ofPlatform().name("expiry-sweeper").daemon(true).factory());
+  // where the sweep of every map stands, only used by the thread of the sweeper
+  private final Map<String, Iterator<Map.Entry<Object, Object>>> cursors = new HashMap<>();
+  private final Map<String, Iterator<Object>> coldCursors = new HashMap<>();
+  private int nextLongSegment;
+
+  /**
+   * @param maps        the maps held by the node, by name
+   * @param longMaps    the maps keyed by primitive longs held by the node, by name
+   * @param coldTier    the tier holding the entries demoted from the maps, null if there is none
+   * @param entryEvents the hub the expiries are published to
+   */
+  ExpirySweeper(Map<String, ConcurrentHashMap<Object, Object>> maps, Map<String, LongKeyTable> longMaps,
+                ColdTier coldTier, EntryEventHub entryEvents) {
+    this.maps = maps;
+    this.longMaps = longMaps;
+    this.coldTier = coldTier;
+    this.entryEvents = entryEvents;
+  }
+
+  void start() {
+    executor.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS,
+                                    TimeUnit.MILLISECONDS);
+  }
+
+  void close() {
+    executor.shutdownNow();
+  }
+
+  private void sweep() {
+    try {
+      long removed = 0;
+      for (Map.Entry<String, ConcurrentHashMap<Object, Object>> map : maps.entrySet()) {
+        removed += sweep(map.getKey(), map.getValue());
+        if (coldTier != null) {
+          removed += sweepColdTier(map.getKey(), map.getValue());
+        }
+      }
+      int segment = nextLongSegment;
+      nextLongSegment = (segment + 1) % LongKeyTable.SEGMENTS;
+      for (LongKeyTable map : longMaps.values()) {
+        removed += map.removeExpired(segment);
+      }
+      if (removed > 0) {
+        log.trace("Removed {} expired entries", removed);
+      }
+    } catch (RuntimeException e) {
+      // an exception would cancel the next runs
+      log.error("Expiry sweep failed", e);
+    }
+  }
+
+  private int sweep(String mapName, ConcurrentHashMap<Object, Object> map) {
+    Iterator<Map.Entry<Object, Object>> cursor = cursors.get(mapName);
+    if (cursor == null || !cursor.hasNext()) {
+      cursor = map.entrySet().iterator();
+      cursors.put(mapName, cursor);
+    }
+    int removed = 0;
+    for (int i = 0; i < ENTRIES_PER_RUN && cursor.hasNext(); i++) {
+      Map.Entry<Object, Object> entry = cursor.next();
+      if (entry.getValue() instanceof ExpiringValue expiring && expiring.isExpired() &&
+          map.remove(entry.getKey(), expiring)) {
+        expired(mapName, entry.getKey(), expiring);
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  private int sweepColdTier(String mapName, ConcurrentHashMap<Object, Object> map) {
+    Iterator<Object> cursor = coldCursors.get(mapName);
+    if (cursor == null || !cursor.hasNext()) {
+      cursor = coldTier.keys(mapName).iterator();
+      coldCursors.put(mapName, cursor);
+    }
+    int removed = 0;
+    for (int i = 0; i < ENTRIES_PER_RUN && cursor.hasNext(); i++) {
+      Object key = cursor.next();
+      ExpiringValue expiring = coldTier.removeIfExpired(mapName, map, key);
+      if (expiring != null) {
+        expired(mapName, key, expiring);
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  private void expired(String mapName, Object key, ExpiringValue expiring) {
+    if (entryEvents.hasSubscribers(mapName)) {
+      entryEvents.publish(mapName, EntryEventType.EXPIRED, key, null, expiring.value());
+    }
+  }
+}
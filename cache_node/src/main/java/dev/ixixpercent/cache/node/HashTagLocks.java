@@ -0,0 +1,43 @@
+package dev.ixixpercent.cache.node;
+
+import dev.ixixpercent.cache.node.cluster.PartitionTable;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The locks making the batches atomic.
+ *
+ * <p>A batch holds the lock of the hash tag its keys share while it applies its operations, and every other write
+ * of a key with a hash tag takes the same lock, so that no write of the tag lands in the middle of a batch. The
+ * writes of the keys without a tag never lock. The tags are spread over a fixed number of locks.</p>
+ */
+class HashTagLocks {
+
+  private static final int STRIPES = 256;
+
+  private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+  HashTagLocks() {
+    for (int i = 0; i < STRIPES; i++) {
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * @param tag the hash tag
+   * @return the lock of the tag
+   */
+  ReentrantLock of(String tag) {
+    int hash = tag.hashCode();
+    return locks[Math.floorMod(hash ^ (hash >>> 16), STRIPES)];
+  }
+
+  /**
+   * @param key the key
+   * @return the lock of the hash tag of the key, null when the key has none
+   */
+  ReentrantLock ofKey(Object key) {
+    String tag = PartitionTable.hashTagOf(key);
+    return tag == null ? null : of(tag);
+  }
+}
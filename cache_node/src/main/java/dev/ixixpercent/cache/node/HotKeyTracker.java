@@ -0,0 +1,125 @@
+package dev.ixixpercent.cache.node;
+
+import com.google.protobuf.ByteString;
+import dev.ixixpercent.cache.node.cluster.Murmur3;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the most read keys of a map.
+ *
+ * <p>The reads are counted in a count-min sketch, halved every second so that the counts follow the recent
+ * traffic. A key whose count reaches the threshold becomes a candidate, and the most read candidates are the hot
+ * keys. The hot keys are recomputed when the counts are halved, and their version changes whenever they do, which
+ * lets the clients fetch them only when needed.</p>
+ */
+class HotKeyTracker {
+
+  private static final int DEPTH = 4;
+  private static final int WIDTH = 1 << 12;
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final int maxHotKeys;
+  private final int threshold;
+  private final AtomicIntegerArray counters = new AtomicIntegerArray(DEPTH * WIDTH);
+  // at most maxHotKeys keys, with their estimated count when admitted
+  private final Map<ByteString, Integer> candidates = new ConcurrentHashMap<>();
+  private final AtomicLong windowEnd = new AtomicLong(System.nanoTime() + WINDOW_NANOS);
+  private volatile List<ByteString> hotKeys = List.of();
+  // 0 until the first hot key is found, only written under the lock
+  private volatile int version;
+
+  /**
+   * @param maxHotKeys the maximum number of hot keys
+   * @param threshold  the reads per second making a key hot
+   */
+  HotKeyTracker(int maxHotKeys, int threshold) {
+    this.maxHotKeys = maxHotKeys;
+    this.threshold = threshold;
+  }
+
+  /**
+   * @param key the serialized key read
+   */
+  void recordRead(ByteString key) {
+    rollIfDue();
+    int estimate = increment(key.toByteArray());
+    if (estimate >= threshold && !candidates.containsKey(key)) {
+      admit(key, estimate);
+    }
+  }
+
+  List<ByteString> getHotKeys() {
+    return hotKeys;
+  }
+
+  int getVersion() {
+    return version;
+  }
+
+  private int increment(byte[] key) {
+    int h1 = Murmur3.hash32(key, 0);
+    int h2 = Murmur3.hash32(key, h1);
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      estimate = Math.min(estimate, counters.incrementAndGet(row * WIDTH + ((h1 + row * h2) & (WIDTH - 1))));
+    }
+    return estimate;
+  }
+
+  private int estimate(byte[] key) {
+    int h1 = Murmur3.hash32(key, 0);
+    int h2 = Murmur3.hash32(key, h1);
+    int estimate = Integer.MAX_VALUE;
+    for (int row = 0; row < DEPTH; row++) {
+      estimate = Math.min(estimate, counters.get(row * WIDTH + ((h1 + row * h2) & (WIDTH - 1))));
+    }
+    return estimate;
+  }
+
+  private synchronized void admit(ByteString key, int estimate) {
+    if (candidates.size() < maxHotKeys) {
+      candidates.put(key, estimate);
+      return;
+    }
+    Map.Entry<ByteString, Integer> coldest =
+      candidates.entrySet().stream().min(Map.Entry.comparingByValue()).orElseThrow();
+    if (estimate > coldest.getValue()) {
+      candidates.remove(coldest.getKey());
+      candidates.put(key, estimate);
+    }
+  }
+
+  private void rollIfDue() {
+    long now = System.nanoTime();
+    long end = windowEnd.get();
+    if (now - end < 0 || !windowEnd.compareAndSet(end, now + WINDOW_NANOS)) {
+      return;
+    }
+    for (int i = 0; i < counters.length(); i++) {
+      counters.updateAndGet(i, count -> count >>> 1);
+    }
+    synchronized (this) {
+      candidates.replaceAll((key, count) -> estimate(key.toByteArray()));
+      // a key stays hot for a few seconds after it cooled down, the clients pinning it no longer read it here
+      candidates.values().removeIf(count -> count < threshold / 8);
+      List<ByteString> current = candidates
+        .entrySet()
+        .stream()
+        .sorted(Map.Entry.<ByteString, Integer>comparingByValue(Comparator.reverseOrder()))
+        .map(Map.Entry::getKey)
+        .toList();
+      if (!Set.copyOf(current).equals(Set.copyOf(hotKeys))) {
+        hotKeys = current;
+        version++;
+      }
+    }
+  }
+}
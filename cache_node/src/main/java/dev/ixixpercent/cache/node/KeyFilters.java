@@ -0,0 +1,129 @@
+package dev.ixixpercent.cache.node;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static dev.ixixpercent.cache.node.serialization.KryoSerializer.serialize;
+
+/**
+ * Keeps a Bloom filter of the keys of every map, which the clients download to skip the calls for keys the node
+ * does not have.
+ *
+ * <p>A map gets a filter the first time a client asks for it. From then on the written keys are added as they
+ * arrive. A removed key stays in the filter, which only costs a false positive, until the filter is rebuilt from
+ * the keys of the map. That happens when the filter is requested and the map has outgrown it or has shrunk well
+ * below its capacity. While a filter is rebuilt, the written keys are added to both the old and the new one.</p>
+ */
+@Slf4j
+class KeyFilters {
+
+  private static final int MIN_CAPACITY = 1024;
+
+  private final Map<String, ConcurrentHashMap<Object, Object>> maps;
+  // null when the node keeps every entry in memory
+  private final ColdTier coldTier;
+  private final Map<String, Filters> filters = new ConcurrentHashMap<>();
+
+  private static final class Filters {
+    // null until the first build completed
+    private volatile BloomFilter current;
+    // non null while the filter is rebuilt
+    private volatile BloomFilter building;
+  }
+
+  /**
+   * @param maps     the maps held by the node, by name
+   * @param coldTier the tier holding the entries demoted from the maps, null if there is none
+   */
+  KeyFilters(Map<String, ConcurrentHashMap<Object, Object>> maps, ColdTier coldTier) {
+    this.maps = maps;
+    this.coldTier = coldTier;
+  }
+
+  private int sizeOf(String mapName, ConcurrentHashMap<Object, Object> map) {
+    return map.size() + (coldTier == null ? 0 : coldTier.size(mapName));
+  }
+
+  /**
+   * Adds a key written to a map. Must be called after the key was put in the map.
+   *
+   * @param mapName the name of the map
+   * @param key     the serialized key
+   */
+  void add(String mapName, byte[] key) {
+    Filters mapFilters = filters.get(mapName);
+    if (mapFilters == null) {
+      // no filter yet, the first build reads the key from the map
+      return;
+    }
+    BloomFilter current = mapFilters.current;
+    BloomFilter building = mapFilters.building;
+    if (current != null) {
+      current.add(key);
+    }
+    if (building != null) {
+      building.add(key);
+    }
+  }
+
+  /**
+   * Drops the keys of a map before it is cleared.
+   *
+   * @param mapName the name of the map
+   */
+  void clear(String mapName) {
+    Filters mapFilters = filters.get(mapName);
+    if (mapFilters != null) {
+      synchronized (mapFilters) {
+        mapFilters.current = new BloomFilter(MIN_CAPACITY);
+      }
+    }
+  }
+
+  /**
+   * @param mapName the name of the map
+   * @return the filter of the keys of the map, rebuilt first if it no longer fits the map
+   */
+  BloomFilter get(String mapName) {
+    ConcurrentHashMap<Object, Object> map = maps.get(mapName);
+    if (map == null) {
+      // nothing was written to the map, the first write finds no filter and the next call builds one
+      return new BloomFilter(MIN_CAPACITY);
+    }
+    Filters mapFilters = filters.computeIfAbsent(mapName, k -> new Filters());
+    synchronized (mapFilters) {
+      BloomFilter current = mapFilters.current;
+      int size = sizeOf(mapName, map);
+      if (current == null
+          || size > current.getCapacity()
+          || (current.getCapacity() > MIN_CAPACITY && size < current.getCapacity() / 4)) {
+        rebuild(mapName, mapFilters, map);
+      }
+      return mapFilters.current;
+    }
+  }
+
+  private void rebuild(String mapName, Filters mapFilters, ConcurrentHashMap<Object, Object> map) {
+    BloomFilter filter = new BloomFilter(Math.max(MIN_CAPACITY, sizeOf(mapName, map) * 2));
+    // published before reading the map, so the keys written during the rebuild are not missed
+    mapFilters.building = filter;
+    for (Object key : map.keySet()) {
+      filter.add(serialize(key));
+    }
+    if (coldTier != null) {
+      for (Object key : coldTier.keys(mapName)) {
+        filter.add(serialize(key));
+      }
+      // a key promoted while the cold keys were read is back in the map, it would have to be demoted again in the
+      // meantime to be missed
+      for (Object key : map.keySet()) {
+        filter.add(serialize(key));
+      }
+    }
+    mapFilters.current = filter;
+    mapFilters.building = null;
+    log.debug("Rebuilt the key filter of map {} with a capacity of {}", mapName, filter.getCapacity());
+  }
+}
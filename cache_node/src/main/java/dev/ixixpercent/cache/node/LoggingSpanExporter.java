@@ -0,0 +1,24 @@
+package dev.ixixpercent.cache.node;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs every span on a single line, at info level.
+ */
+@Slf4j
+public class LoggingSpanExporter implements SpanExporter {
+
+  @Override
+  public void export(Span span) {
+    log.info("Span trace={} span={} parent={} method={} map={} node={} duration={}us queue={}us serialization={}us " +
+             "storage={}us status={}", span.traceId(), span.spanId(), span.parentSpanId(), span.method(),
+             span.mapName(), span.node(), micros(span.durationNanos()), micros(span.queueNanos()),
+             micros(span.serializationNanos()), micros(span.storageNanos()), span.status());
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
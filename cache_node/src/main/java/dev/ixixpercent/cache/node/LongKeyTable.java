@@ -0,0 +1,260 @@
+package dev.ixixpercent.cache.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A map from primitive long keys to values, without boxing the keys.
+ *
+ * <p>The table is split in segments, each an open addressing table with linear probing guarded by its own lock.
+ * A slot is empty while its value is null, removed entries leave a tombstone so that the probe sequences of the
+ * other keys stay intact. A segment is rehashed when its used slots, tombstones included, reach three quarters of
+ * its capacity.</p>
+ */
+public class LongKeyTable {
+
+  static final int SEGMENTS = 64;
+  private static final int INITIAL_SEGMENT_CAPACITY = 16;
+  private static final Object TOMBSTONE = new Object();
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+  private final MapMemory memory = new MapMemory();
+
+  public LongKeyTable() {
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  private static long mix(long key) {
+    // finalizer of MurmurHash3, spreads the sequential ids over the whole table
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  MapMemory getMemory() {
+    return memory;
+  }
+
+  private Segment segmentOf(long hash) {
+    return segments[(int) (hash >>> 58)];
+  }
+
+  public Object get(long key) {
+    long hash = mix(key);
+    return segmentOf(hash).get(key, hash);
+  }
+
+  /**
+   * @return the previous value, or null if there was none
+   */
+  public Object put(long key, Object value) {
+    long hash = mix(key);
+    Object previous = segmentOf(hash).put(key, hash, value);
+    memory.replacedLong(previous, value);
+    return previous;
+  }
+
+  /**
+   * @return the current value, or null if there was none and the value was stored
+   */
+  public Object putIfAbsent(long key, Object value) {
+    long hash = mix(key);
+    Segment segment = segmentOf(hash);
+    Object current;
+    synchronized (segment) {
+      current = segment.get(key, hash);
+      if (current == null) {
+        segment.put(key, hash, value);
+      }
+    }
+    if (current == null) {
+      memory.replacedLong(null, value);
+    }
+    return current;
+  }
+
+  /**
+   * @return the removed value, or null if there was none
+   */
+  public Object remove(long key) {
+    long hash = mix(key);
+    Object previous = segmentOf(hash).remove(key, hash, null);
+    memory.replacedLong(previous, null);
+    return previous;
+  }
+
+  /**
+   * Removes the key only if it is still mapped to the given value, compared by identity.
+   *
+   * @return true if the key was removed
+   */
+  public boolean remove(long key, Object expected) {
+    long hash = mix(key);
+    Object previous = segmentOf(hash).remove(key, hash, expected);
+    memory.replacedLong(previous, null);
+    return previous != null;
+  }
+
+  /**
+   * Removes the expired entries of a segment of the table.
+   *
+   * @param segment the index of the segment, below {@link #SEGMENTS}
+   * @return the number of entries removed
+   */
+  int removeExpired(int segment) {
+    return segments[segment].removeExpired(memory);
+  }
+
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.clear(memory);
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /**
+   * @return a copy of the entries, taken segment by segment
+   */
+  public List<Map.Entry<Long, Object>> entries() {
+    List<Map.Entry<Long, Object>> entries = new ArrayList<>();
+    for (Segment segment : segments) {
+      segment.copyTo(entries);
+    }
+    return entries;
+  }
+
+  private static final class Segment {
+
+    private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+    private Object[] values = new Object[INITIAL_SEGMENT_CAPACITY];
+    private int size;
+    // live entries and tombstones
+    private int used;
+
+    synchronized Object get(long key, long hash) {
+      int slot = find(key, hash);
+      return slot < 0 ? null : values[slot];
+    }
+
+    synchronized Object put(long key, long hash, Object value) {
+      int slot = find(key, hash);
+      if (slot >= 0) {
+        Object previous = values[slot];
+        values[slot] = value;
+        return previous;
+      }
+      if ((used + 1) * 4 >= values.length * 3) {
+        rehash(size * 2 >= values.length ? values.length * 2 : values.length);
+      }
+      int mask = values.length - 1;
+      int index = (int) hash & mask;
+      // the first tombstone or empty slot of the probe sequence
+      while (values[index] != null && values[index] != TOMBSTONE) {
+        index = (index + 1) & mask;
+      }
+      if (values[index] == null) {
+        used++;
+      }
+      keys[index] = key;
+      values[index] = value;
+      size++;
+      return null;
+    }
+
+    synchronized Object remove(long key, long hash, Object expected) {
+      int slot = find(key, hash);
+      if (slot < 0 || (expected != null && values[slot] != expected)) {
+        return null;
+      }
+      Object previous = values[slot];
+      values[slot] = TOMBSTONE;
+      size--;
+      return previous;
+    }
+
+    synchronized int removeExpired(MapMemory memory) {
+      int removed = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] instanceof ExpiringValue expiring && expiring.isExpired()) {
+          values[i] = TOMBSTONE;
+          size--;
+          memory.replacedLong(expiring, null);
+          removed++;
+        }
+      }
+      return removed;
+    }
+
+    synchronized void clear(MapMemory memory) {
+      for (Object value : values) {
+        if (value != null && value != TOMBSTONE) {
+          memory.replacedLong(value, null);
+        }
+      }
+      keys = new long[INITIAL_SEGMENT_CAPACITY];
+      values = new Object[INITIAL_SEGMENT_CAPACITY];
+      size = 0;
+      used = 0;
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    synchronized void copyTo(List<Map.Entry<Long, Object>> entries) {
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null && values[i] != TOMBSTONE) {
+          entries.add(Map.entry(keys[i], values[i]));
+        }
+      }
+    }
+
+    /**
+     * @return the slot of the key, or -1 if it is absent
+     */
+    private int find(long key, long hash) {
+      int mask = values.length - 1;
+      int index = (int) hash & mask;
+      Object value;
+      while ((value = values[index]) != null) {
+        if (value != TOMBSTONE && keys[index] == key) {
+          return index;
+        }
+        index = (index + 1) & mask;
+      }
+      return -1;
+    }
+
+    private void rehash(int capacity) {
+      long[] oldKeys = keys;
+      Object[] oldValues = values;
+      keys = new long[capacity];
+      values = new Object[capacity];
+      int mask = capacity - 1;
+      for (int i = 0; i < oldValues.length; i++) {
+        if (oldValues[i] != null && oldValues[i] != TOMBSTONE) {
+          int index = (int) mix(oldKeys[i]) & mask;
+          while (values[index] != null) {
+            index = (index + 1) & mask;
+          }
+          keys[index] = oldKeys[i];
+          values[index] = oldValues[i];
+        }
+      }
+      used = size;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package dev.ixixpercent.cache.node;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The handles standing for the map names in the v2 calls.
+ *
+ * <p>A name gets its handle the first time a client opens it and keeps it until the node stops. The high bits of a
+ * handle are the epoch of the node, the time it started in milliseconds, and the low bits the index of the name. A
+ * handle obtained from a previous run of the node has another epoch, so it is unknown rather than standing for
+ * another map, as long as the clock of the node did not go back between the runs.</p>
+ */
+class MapHandles {
+
+  private static final int INDEX_BITS = 20;
+  private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+  private final long epoch = System.currentTimeMillis() << INDEX_BITS;
+  private final Map<String, Long> handles = new ConcurrentHashMap<>();
+  // indexed by the low bits of the handle, replaced when a name is added
+  private volatile String[] names = new String[0];
+
+  /**
+   * @param mapName the name of the map, which does not need to exist
+   * @return the handle of the map
+   */
+  long open(String mapName) {
+    Long handle = handles.get(mapName);
+    return handle != null ? handle : register(mapName);
+  }
+
+  private synchronized long register(String mapName) {
+    Long handle = handles.get(mapName);
+    if (handle != null) {
+      return handle;
+    }
+    String[] current = names;
+    if (current.length > INDEX_MASK) {
+      throw new IllegalStateException("Too many maps opened on this node");
+    }
+    String[] grown = Arrays.copyOf(current, current.length + 1);
+    grown[current.length] = mapName;
+    names = grown;
+    handles.put(mapName, epoch | current.length);
+    return epoch | current.length;
+  }
+
+  /**
+   * @param handle the handle of a map
+   * @return the name of the map, or null when the handle was not given by this node
+   */
+  String nameOf(long handle) {
+    if ((handle & ~INDEX_MASK) != epoch) {
+      return null;
+    }
+    String[] current = names;
+    int index = (int) (handle & INDEX_MASK);
+    return index < current.length ? current[index] : null;
+  }
+
+  /**
+   * @param message a request of a client
+   * @return the map named by the map_name field of the request or opened under its map handle, null when none
+   */
+  String nameIn(Object message) {
+    if (!(message instanceof Message protoMessage)) {
+      return null;
+    }
+    FieldDescriptor mapName = protoMessage.getDescriptorForType().findFieldByName("map_name");
+    if (mapName != null && mapName.getJavaType() == FieldDescriptor.JavaType.STRING) {
+      return (String) protoMessage.getField(mapName);
+    }
+    FieldDescriptor handle = protoMessage.getDescriptorForType().findFieldByName("map");
+    if (handle != null && handle.getJavaType() == FieldDescriptor.JavaType.LONG) {
+      return nameOf((Long) protoMessage.getField(handle));
+    }
+    return null;
+  }
+}
@@ -0,0 +1,154 @@
+package dev.ixixpercent.cache.node;
+
+import com.google.protobuf.ByteString;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.MapMemoryStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The estimated heap held by the entries of a map, updated by every write of the map.
+ *
+ * <p>The sizes are estimated from the stored objects, the same way when an entry is added and when it is removed,
+ * so that the counts stay exact while the sizes are only as good as the estimates: a string counts one byte per
+ * character, as the Latin-1 strings the JSON values mostly are, plus its headers, and the objects of unknown classes
+ * a fixed size.</p>
+ */
+class MapMemory {
+
+  static final int HISTOGRAM_BUCKETS = 40;
+
+  // node of the map and its share of the table
+  private static final long ENTRY_OVERHEAD = 40;
+  // slots of the key and value arrays of a long-keyed table, at three quarters full
+  private static final long LONG_ENTRY_OVERHEAD = 16;
+  private static final long EXPIRING_VALUE_OVERHEAD = 24;
+  private static final long STRING_OVERHEAD = 40;
+  private static final long BYTE_STRING_OVERHEAD = 40;
+  private static final long CHUNKED_VALUE_OVERHEAD = 56;
+  private static final long UNKNOWN_OBJECT_SIZE = 64;
+
+  private final LongAdder entries = new LongAdder();
+  private final LongAdder keyBytes = new LongAdder();
+  private final LongAdder valueBytes = new LongAdder();
+  private final LongAdder overheadBytes = new LongAdder();
+  private final LongAdder[] keySizes = newHistogram();
+  private final LongAdder[] valueSizes = newHistogram();
+
+  private static LongAdder[] newHistogram() {
+    LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+    for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+      histogram[i] = new LongAdder();
+    }
+    return histogram;
+  }
+
+  /**
+   * Accounts for the change of the object stored for a key.
+   *
+   * @param previous the object stored before, null when the key was absent
+   * @param stored   the object stored now, null when the key was removed
+   */
+  void replaced(Object key, Object previous, Object stored) {
+    if (previous != null) {
+      account(sizeOf(key), previous, ENTRY_OVERHEAD, -1);
+    }
+    if (stored != null) {
+      account(sizeOf(key), stored, ENTRY_OVERHEAD, 1);
+    }
+  }
+
+  /**
+   * Accounts for the change of the object stored for a primitive long key.
+   */
+  void replacedLong(Object previous, Object stored) {
+    if (previous != null) {
+      account(Long.BYTES, previous, LONG_ENTRY_OVERHEAD, -1);
+    }
+    if (stored != null) {
+      account(Long.BYTES, stored, LONG_ENTRY_OVERHEAD, 1);
+    }
+  }
+
+  private void account(long keySize, Object stored, long entryOverhead, int sign) {
+    Object value = stored instanceof ExpiringValue expiring ? expiring.value() : stored;
+    long valueSize = sizeOf(value);
+    long overhead = entryOverhead + (stored instanceof ExpiringValue ? EXPIRING_VALUE_OVERHEAD : 0) +
+                    (value instanceof ChunkedValue chunked ? chunkOverheadOf(chunked) : 0);
+    entries.add(sign);
+    keyBytes.add(sign * keySize);
+    valueBytes.add(sign * valueSize);
+    overheadBytes.add(sign * overhead);
+    keySizes[bucketOf(keySize)].add(sign);
+    valueSizes[bucketOf(valueSize)].add(sign);
+  }
+
+  /**
+   * @return the histogram bucket of a size, the number of bits it takes
+   */
+  static int bucketOf(long size) {
+    return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(size));
+  }
+
+  /**
+   * @param object a key, or a value unwrapped from its {@link ExpiringValue}
+   * @return the estimated bytes of the object, the wrappers of the chunks of a chunked value excluded
+   */
+  static long sizeOf(Object object) {
+    if (object instanceof String string) {
+      return STRING_OVERHEAD + string.length();
+    }
+    if (object instanceof ChunkedValue chunked) {
+      return chunked.size();
+    }
+    if (object instanceof ByteString bytes) {
+      return BYTE_STRING_OVERHEAD + bytes.size();
+    }
+    if (object instanceof byte[] bytes) {
+      return 16 + bytes.length;
+    }
+    if (object instanceof Long || object instanceof Double) {
+      return 24;
+    }
+    if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+      return 16;
+    }
+    return UNKNOWN_OBJECT_SIZE;
+  }
+
+  private static long chunkOverheadOf(ChunkedValue chunked) {
+    return CHUNKED_VALUE_OVERHEAD + BYTE_STRING_OVERHEAD * chunked.chunks().size();
+  }
+
+  /**
+   * @param mapName     the name of the map
+   * @param longKeys    whether the map is keyed by primitive longs
+   * @param coldEntries the entries of the map demoted to the cold tier
+   * @return the current estimates
+   */
+  MapMemoryStats toStats(String mapName, boolean longKeys, long coldEntries) {
+    MapMemoryStats.Builder stats = MapMemoryStats
+      .newBuilder()
+      .setMapName(mapName)
+      .setLongKeys(longKeys)
+      .setEntries(entries.sum())
+      .setKeyBytes(keyBytes.sum())
+      .setValueBytes(valueBytes.sum())
+      .setOverheadBytes(overheadBytes.sum())
+      .setColdEntries(coldEntries);
+    // the highest buckets are mostly empty, they are left out
+    int last = Math.max(lastNonEmpty(keySizes), lastNonEmpty(valueSizes));
+    for (int i = 0; i <= last; i++) {
+      stats.addKeySizeHistogram(keySizes[i].sum()).addValueSizeHistogram(valueSizes[i].sum());
+    }
+    return stats.build();
+  }
+
+  private static int lastNonEmpty(LongAdder[] histogram) {
+    for (int i = histogram.length - 1; i >= 0; i--) {
+      if (histogram[i].sum() != 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
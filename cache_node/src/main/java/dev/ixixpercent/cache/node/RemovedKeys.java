@@ -0,0 +1,69 @@
+package dev.ixixpercent.cache.node;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The keys removed by the clients while entries may still be migrated to the node, so that a migrated entry does not
+ * bring back a key removed on its new owner.
+ *
+ * <p>The clients write to the new owner of a key as soon as they see the new partition table, while its previous
+ * owner is still sending the entries. The keys removed in that time are remembered until a while after the last
+ * change of the table, then forgotten all at once. A removal and the write of a migrated entry of the same key run
+ * under the same lock, so the entry either lands before the removal or is dropped.</p>
+ */
+class RemovedKeys {
+
+  static final long RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private final Map<String, ConcurrentHashMap<Object, Boolean>> removed = new ConcurrentHashMap<>();
+  private volatile long recordingUntilMillis;
+
+  /**
+   * Starts or extends the time the removed keys are remembered, called when the partition table changes.
+   */
+  void ownershipChanged() {
+    recordingUntilMillis = System.currentTimeMillis() + RETENTION_MILLIS;
+  }
+
+  private boolean recording() {
+    if (System.currentTimeMillis() < recordingUntilMillis) {
+      return true;
+    }
+    if (!removed.isEmpty()) {
+      removed.clear();
+    }
+    return false;
+  }
+
+  /**
+   * Runs the removal of a key, remembering the key while entries may still be migrated.
+   */
+  void remove(String mapName, Object key, Runnable removal) {
+    if (!recording()) {
+      removal.run();
+      return;
+    }
+    removed.computeIfAbsent(mapName, k -> new ConcurrentHashMap<>()).compute(key, (k, present) -> {
+      removal.run();
+      return Boolean.TRUE;
+    });
+  }
+
+  /**
+   * Runs the write of a migrated entry, unless its key was removed since the partition table changed.
+   */
+  void unlessRemoved(String mapName, Object key, Runnable write) {
+    if (!recording()) {
+      write.run();
+      return;
+    }
+    removed.computeIfAbsent(mapName, k -> new ConcurrentHashMap<>()).compute(key, (k, present) -> {
+      if (present == null) {
+        write.run();
+      }
+      return present;
+    });
+  }
+}
@@ -0,0 +1,91 @@
+package dev.ixixpercent.cache.node;
+
+import com.google.protobuf.Message;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the calls of the clients as {@link CacheRequestEvent}s.
+ *
+ * <p>When the event is not enabled in a running recording the calls are not wrapped at all. Otherwise only the sizes
+ * of the messages are counted during the call, the map is looked up in the first message once the call took longer
+ * than the threshold.</p>
+ */
+class RequestEventInterceptor implements ServerInterceptor {
+
+  private final MapHandles mapHandles;
+
+  RequestEventInterceptor(MapHandles mapHandles) {
+    this.mapHandles = mapHandles;
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                               ServerCallHandler<ReqT, RespT> next) {
+    CacheRequestEvent event = new CacheRequestEvent();
+    if (!event.isEnabled()) {
+      return next.startCall(call, headers);
+    }
+    event.begin();
+    RecordedCall<ReqT, RespT> recordedCall = new RecordedCall<>(call, event);
+    return new SimpleForwardingServerCallListener<>(next.startCall(recordedCall, headers)) {
+      @Override
+      public void onMessage(ReqT message) {
+        recordedCall.received(message);
+        super.onMessage(message);
+      }
+    };
+  }
+
+  private final class RecordedCall<ReqT, RespT> extends SimpleForwardingServerCall<ReqT, RespT> {
+
+    private final CacheRequestEvent event;
+    // null until the first message is received
+    private volatile Object firstMessage;
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+
+    private RecordedCall(ServerCall<ReqT, RespT> call, CacheRequestEvent event) {
+      super(call);
+      this.event = event;
+    }
+
+    private void received(Object message) {
+      if (firstMessage == null) {
+        firstMessage = message;
+      }
+      requestBytes.addAndGet(sizeOf(message));
+    }
+
+    @Override
+    public void sendMessage(RespT message) {
+      responseBytes.addAndGet(sizeOf(message));
+      super.sendMessage(message);
+    }
+
+    @Override
+    public void close(Status status, Metadata trailers) {
+      event.end();
+      if (event.shouldCommit()) {
+        event.method = getMethodDescriptor().getBareMethodName();
+        event.mapName = mapHandles.nameIn(firstMessage);
+        event.requestBytes = requestBytes.get();
+        event.responseBytes = responseBytes.get();
+        event.status = status.getCode().name();
+        event.commit();
+      }
+      super.close(status, trailers);
+    }
+  }
+
+  private static long sizeOf(Object message) {
+    return message instanceof Message protoMessage ? protoMessage.getSerializedSize() : 0;
+  }
+}
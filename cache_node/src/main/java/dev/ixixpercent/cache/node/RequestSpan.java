@@ -0,0 +1,77 @@
+package dev.ixixpercent.cache.node;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The timings of a traced call being handled, set as current on the threads running the handlers of the call so
+ * that the serializer can add its time.
+ */
+public final class RequestSpan {
+
+  private static final ThreadLocal<RequestSpan> CURRENT = new ThreadLocal<>();
+
+  private final TraceParent parent;
+  private final String spanId = TraceParent.newSpanId();
+  private final long receivedNanos = System.nanoTime();
+  private final long startEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+  private final AtomicLong serializationNanos = new AtomicLong();
+  // 0 until the call is started on the executor
+  private volatile long startedNanos;
+  // null until the first message of the call is received
+  private volatile String mapName;
+
+  RequestSpan(TraceParent parent) {
+    this.parent = parent;
+  }
+
+  /**
+   * @return the span of the call handled by the current thread, null when it is not traced
+   */
+  public static RequestSpan current() {
+    return CURRENT.get();
+  }
+
+  public void addSerializationNanos(long nanos) {
+    serializationNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Makes the span current on this thread.
+   *
+   * @return the span current before, to restore with {@link #exit(RequestSpan)}
+   */
+  RequestSpan enter() {
+    RequestSpan previous = CURRENT.get();
+    CURRENT.set(this);
+    return previous;
+  }
+
+  static void exit(RequestSpan previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  void started() {
+    startedNanos = System.nanoTime();
+  }
+
+  void setMapName(String mapName) {
+    this.mapName = mapName;
+  }
+
+  /**
+   * @return the span of the call, ended now
+   */
+  Span end(String method, String node, String status) {
+    long endNanos = System.nanoTime();
+    long started = startedNanos == 0 ? receivedNanos : startedNanos;
+    long serialization = serializationNanos.get();
+    return new Span(parent.traceId(), spanId, parent.spanId(), method, mapName, node, startEpochMicros,
+                    endNanos - receivedNanos, started - receivedNanos, serialization,
+                    Math.max(0, endNanos - started - serialization), status);
+  }
+}
@@ -0,0 +1,25 @@
+package dev.ixixpercent.cache.node;
+
+/**
+ * A call of a client handled by the node, as part of the trace of the client.
+ *
+ * <p>The time of the call splits into the time it waited for a thread of the executor, the time spent serializing
+ * and deserializing its keys and values, and the rest, spent on the maps: their locks, the storage shards and the
+ * cold tier.</p>
+ *
+ * @param traceId            the trace of the client, 32 hex digits
+ * @param spanId             the span of the node, 16 hex digits
+ * @param parentSpanId       the span of the call on the client
+ * @param method             the method of the call, like {@code GetV2}
+ * @param mapName            the map named or opened by the first message of the call, null when it names none
+ * @param node               the node, host:port
+ * @param startEpochMicros   when the headers of the call were received, in microseconds since the epoch
+ * @param durationNanos      from the headers received to the status sent
+ * @param queueNanos         from the headers received to the call started on the executor
+ * @param serializationNanos spent in the serializer
+ * @param storageNanos       the rest of the time after the call started
+ * @param status             the status code sent back
+ */
+public record Span(String traceId, String spanId, String parentSpanId, String method, String mapName, String node,
+                   long startEpochMicros, long durationNanos, long queueNanos, long serializationNanos,
+                   long storageNanos, String status) {}
@@ -0,0 +1,13 @@
+package dev.ixixpercent.cache.node;
+
+/**
+ * Receives the spans of the traced calls, to send them to a tracing backend. Called by the threads of the calls as
+ * they end, concurrently, so an exporter must be thread safe and should not block.
+ *
+ * <p>Set with {@code --span-exporter} or {@code SPAN_EXPORTER}, the name of a class with a public no-arg
+ * constructor. {@link LoggingSpanExporter} by default.</p>
+ */
+public interface SpanExporter {
+
+  void export(Span span);
+}
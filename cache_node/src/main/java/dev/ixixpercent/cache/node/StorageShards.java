@@ -0,0 +1,108 @@
+package dev.ixixpercent.cache.node;
+
+import com.google.protobuf.ByteString;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Single writer shards of the storage: every shard is a thread applying, in order, the writes of the keys hashed to
+ * it, so that the writes of a key never contend with each other.
+ *
+ * <p>A key is hashed from the bytes the client sent, before it is deserialized, and the deserialization happens on
+ * the shard. The operations on several keys are split by shard and run on the shards in parallel.</p>
+ */
+@Slf4j
+class StorageShards {
+
+  private final ExecutorService[] executors;
+
+  /**
+   * @param count the number of shards, typically the number of cores
+   */
+  StorageShards(int count) {
+    executors = new ExecutorService[count];
+    for (int i = 0; i < count; i++) {
+      executors[i] = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("storage-shard-" + i).daemon(true)
+                                                         .factory());
+    }
+  }
+
+  int count() {
+    return executors.length;
+  }
+
+  /**
+   * @param key the serialized key
+   * @return the shard of the key
+   */
+  int shardOf(ByteString key) {
+    int hash = key.hashCode();
+    // the low bits pick the shard, mix the high ones into them
+    return Math.floorMod(hash ^ (hash >>> 16), executors.length);
+  }
+
+  /**
+   * @param shard     the shard to run the task on
+   * @param task      the task
+   * @param onFailure called on the shard when the task fails
+   */
+  void execute(int shard, Runnable task, Consumer<RuntimeException> onFailure) {
+    executors[shard].execute(() -> {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        log.error("Storage shard {} task failed", shard, e);
+        onFailure.accept(e);
+      }
+    });
+  }
+
+  /**
+   * Runs a task per shard in parallel, then the completion on the shard finishing last. After a failure, the handler
+   * is called once and the completion is not.
+   *
+   * @param tasks      the task of every shard, null for the shards without work
+   * @param completion called once every task succeeded
+   * @param onFailure  called on the first failure
+   */
+  void executeAll(List<Runnable> tasks, Runnable completion, Consumer<RuntimeException> onFailure) {
+    List<Integer> shards = new ArrayList<>();
+    for (int i = 0; i < tasks.size(); i++) {
+      if (tasks.get(i) != null) {
+        shards.add(i);
+      }
+    }
+    if (shards.isEmpty()) {
+      completion.run();
+      return;
+    }
+    AtomicInteger remaining = new AtomicInteger(shards.size());
+    AtomicBoolean failed = new AtomicBoolean();
+    Consumer<RuntimeException> failOnce = e -> {
+      if (failed.compareAndSet(false, true)) {
+        onFailure.accept(e);
+      }
+    };
+    for (int shard : shards) {
+      execute(shard, () -> {
+        tasks.get(shard).run();
+        if (remaining.decrementAndGet() == 0 && !failed.get()) {
+          completion.run();
+        }
+      }, failOnce);
+    }
+  }
+
+  void close() {
+    for (ExecutorService executor : executors) {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package dev.ixixpercent.cache.node;
+
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The trace context of a call, carried in its {@code traceparent} header in the W3C Trace Context format:
+ * {@code 00-<32 hex digits of trace id>-<16 hex digits of parent span id>-<2 hex digits of flags>}.
+ *
+ * @param traceId the trace the call belongs to
+ * @param spanId  the span of the client making the call
+ * @param sampled whether the client records the trace, the node then records it too
+ */
+record TraceParent(String traceId, String spanId, boolean sampled) {
+
+  static final String HEADER = "traceparent";
+
+  /**
+   * @param header the value of the header, may be null
+   * @return the trace context, null when the header is missing or malformed
+   */
+  static TraceParent parse(String header) {
+    if (header == null || header.length() != 55 || !header.startsWith("00-") || header.charAt(35) != '-' ||
+        header.charAt(52) != '-') {
+      return null;
+    }
+    String traceId = header.substring(3, 35);
+    String spanId = header.substring(36, 52);
+    if (!isHex(traceId) || !isHex(spanId) || !isHex(header.substring(53))) {
+      return null;
+    }
+    return new TraceParent(traceId, spanId, (HexFormat.fromHexDigits(header, 53, 55) & 1) == 1);
+  }
+
+  /**
+   * @return a random span id, 16 hex digits
+   */
+  static String newSpanId() {
+    return HexFormat.of().toHexDigits(ThreadLocalRandom.current().nextLong());
+  }
+
+  private static boolean isHex(String digits) {
+    for (int i = 0; i < digits.length(); i++) {
+      if (!HexFormat.isHexDigit(digits.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
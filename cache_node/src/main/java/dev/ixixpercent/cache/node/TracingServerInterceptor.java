@@ -0,0 +1,130 @@
+package dev.ixixpercent.cache.node;
+
+import io.grpc.Context;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerStreamTracer;
+import io.grpc.Status;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records the calls of the clients that carry a sampled trace context as {@link Span}s.
+ *
+ * <p>The stream tracer of the server creates the span as soon as the headers of a call are read by the transport,
+ * and marks when the call is started on the executor, which gives its queue time. The interceptor then makes the
+ * span current while the handlers of the call run, and exports it when the call closes. The calls without a sampled
+ * {@code traceparent} header are neither wrapped nor timed.</p>
+ */
+@Slf4j
+class TracingServerInterceptor implements ServerInterceptor {
+
+  private static final Metadata.Key<String> TRACE_PARENT =
+    Metadata.Key.of(TraceParent.HEADER, Metadata.ASCII_STRING_MARSHALLER);
+  private static final Context.Key<RequestSpan> SPAN = Context.key("ixix-request-span");
+  private static final ServerStreamTracer NOT_TRACED = new ServerStreamTracer() {};
+
+  private final String node;
+  private final MapHandles mapHandles;
+  private final SpanExporter exporter;
+
+  /**
+   * @param node       the address of the node, recorded in the spans
+   * @param mapHandles the handles of the maps, to name the map of the v2 calls
+   * @param exporter   receives the spans
+   */
+  TracingServerInterceptor(String node, MapHandles mapHandles, SpanExporter exporter) {
+    this.node = node;
+    this.mapHandles = mapHandles;
+    this.exporter = exporter;
+  }
+
+  /**
+   * @return the factory of the stream tracers creating the spans, to add to the server
+   */
+  ServerStreamTracer.Factory streamTracerFactory() {
+    return new ServerStreamTracer.Factory() {
+      @Override
+      public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+        TraceParent parent = TraceParent.parse(headers.get(TRACE_PARENT));
+        if (parent == null || !parent.sampled()) {
+          return NOT_TRACED;
+        }
+        RequestSpan span = new RequestSpan(parent);
+        return new ServerStreamTracer() {
+          @Override
+          public Context filterContext(Context context) {
+            return context.withValue(SPAN, span);
+          }
+
+          @Override
+          public void serverCallStarted(ServerCallInfo<?, ?> callInfo) {
+            span.started();
+          }
+        };
+      }
+    };
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                               ServerCallHandler<ReqT, RespT> next) {
+    RequestSpan span = SPAN.get();
+    if (span == null) {
+      return next.startCall(call, headers);
+    }
+    ServerCall<ReqT, RespT> tracedCall = new SimpleForwardingServerCall<>(call) {
+      @Override
+      public void close(Status status, Metadata trailers) {
+        export(span.end(getMethodDescriptor().getBareMethodName(), node, status.getCode().name()));
+        super.close(status, trailers);
+      }
+    };
+    ServerCall.Listener<ReqT> listener;
+    RequestSpan previous = span.enter();
+    try {
+      listener = next.startCall(tracedCall, headers);
+    } finally {
+      RequestSpan.exit(previous);
+    }
+    return new SimpleForwardingServerCallListener<>(listener) {
+      private boolean named;
+
+      @Override
+      public void onMessage(ReqT message) {
+        if (!named) {
+          span.setMapName(mapHandles.nameIn(message));
+          named = true;
+        }
+        RequestSpan previous = span.enter();
+        try {
+          super.onMessage(message);
+        } finally {
+          RequestSpan.exit(previous);
+        }
+      }
+
+      @Override
+      public void onHalfClose() {
+        RequestSpan previous = span.enter();
+        try {
+          super.onHalfClose();
+        } finally {
+          RequestSpan.exit(previous);
+        }
+      }
+    };
+  }
+
+  private void export(Span span) {
+    try {
+      exporter.export(span);
+    } catch (RuntimeException e) {
+      // a failing exporter must not fail the call
+      log.warn("Span exporter {} failed: {}", exporter.getClass().getName(), e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package dev.ixixpercent.cache.node.cluster;
+
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GossipRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GossipResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.Member;
+import dev.ixixpercent.cache.grpc.ClusterServiceGrpc;
+import io.grpc.StatusRuntimeException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Membership of this node in the cluster, maintained by gossip.
+ *
+ * <p>A node starts knowing only itself and a list of seeds. Every gossip interval it increments its own
+ * heartbeat and exchanges the members it knows with a random live peer, or a seed when it knows none. Both
+ * sides keep the most recent state of every member, so new members and heartbeats spread through the cluster
+ * in a number of rounds logarithmic in its size.</p>
+ *
+ * <p>A member whose heartbeat did not increase for the failure timeout is considered dead and is no longer
+ * gossiped. A member leaving gracefully gossips a last state flagged as leaving, which removes it at once.
+ * Each member carries the start time of its process as incarnation, so a restarted node supersedes its
+ * previous state whatever its heartbeat.</p>
+ *
+ * <p>The partition table is recomputed whenever the set of live members changes and handed to the
+ * listeners.</p>
+ */
+@Slf4j
+public class ClusterMembership {
+
+  private record MemberState(long incarnation, long heartbeat, long updatedAtMillis, boolean leaving) {
+
+    boolean supersededBy(Member member) {
+      if (member.getIncarnation() != incarnation) {
+        return member.getIncarnation() > incarnation;
+      }
+      return member.getHeartbeat() > heartbeat || (member.getLeaving() && !leaving);
+    }
+  }
+
+  // rounds between two exchanges with a seed, so that clusters started apart from each other merge
+  private static final int SEED_GOSSIP_ROUNDS = 10;
+
+  private final String self;
+  private final long incarnation = System.currentTimeMillis();
+  private final List<String> seeds;
+  private final int partitionCount;
+  private final long gossipIntervalMillis;
+  private final long failureTimeoutMillis;
+  private final PeerChannels peers;
+  private final Map<String, MemberState> members = new ConcurrentHashMap<>();
+  private final List<Consumer<PartitionTable>> listeners = new CopyOnWriteArrayList<>();
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+    Thread.ofPlatform().name("cluster-gossip").daemon(true).factory());
+  private volatile PartitionTable partitionTable;
+  private long rounds;
+
+  /**
+   * @param self                 host:port this node is reachable on by the other nodes and the clients
+   * @param seeds                host:port of the nodes to contact to join the cluster
+   * @param partitionCount       the number of partitions
+   * @param gossipIntervalMillis the time between two gossip rounds
+   * @param failureTimeoutMillis the time without heartbeat after which a member is considered dead
+   * @param peers                the channels to the other nodes
+   */
+  public ClusterMembership(String self, List<String> seeds, int partitionCount, long gossipIntervalMillis,
+                           long failureTimeoutMillis, PeerChannels peers) {
+    this.self = self;
+    this.seeds = seeds.stream().filter(seed -> !seed.equals(self)).toList();
+    this.partitionCount = partitionCount;
+    this.gossipIntervalMillis = gossipIntervalMillis;
+    this.failureTimeoutMillis = failureTimeoutMillis;
+    this.peers = peers;
+    members.put(self, new MemberState(incarnation, 0, System.currentTimeMillis(), false));
+    this.partitionTable = PartitionTable.compute(List.of(self), partitionCount);
+  }
+
+  public String getSelf() {
+    return self;
+  }
+
+  /**
+   * @return the partition table of the current live members
+   */
+  public PartitionTable getPartitionTable() {
+    return partitionTable;
+  }
+
+  /**
+   * @param listener called with the new partition table every time the live members change
+   */
+  public void addListener(Consumer<PartitionTable> listener) {
+    listeners.add(listener);
+  }
+
+  public void start() {
+    log.info("Joining cluster as {} with seeds {}", self, seeds);
+    scheduler.scheduleWithFixedDelay(this::gossipRound, 0, gossipIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Leaves the cluster: flags this node as leaving and tells every live peer, which hand its partitions to the
+   * remaining members without waiting for the failure timeout.
+   */
+  public void leave() {
+    scheduler.shutdownNow();
+    MemberState state = members.get(self);
+    members.put(self, new MemberState(incarnation, state.heartbeat() + 1, System.currentTimeMillis(), true));
+    List<Member> digest = digest();
+    for (String peer : liveMembers()) {
+      if (!peer.equals(self)) {
+        exchange(peer, digest);
+      }
+    }
+    updatePartitionTable();
+    log.info("Left cluster as {}", self);
+  }
+
+  /**
+   * Merges the members gossiped by a peer.
+   *
+   * @param gossiped the members known by the peer
+   * @return the members known by this node
+   */
+  public List<Member> onGossip(List<Member> gossiped) {
+    merge(gossiped);
+    updatePartitionTable();
+    return digest();
+  }
+
+  private void gossipRound() {
+    try {
+      MemberState state = members.get(self);
+      if (!state.leaving()) {
+        members.put(self, new MemberState(incarnation, state.heartbeat() + 1, System.currentTimeMillis(), false));
+      }
+      expireMembers();
+
+      String peer = pickPeer();
+      if (peer != null) {
+        GossipResponse response = exchange(peer, digest());
+        if (response != null) {
+          merge(response.getMembersList());
+        }
+      }
+      updatePartitionTable();
+    } catch (RuntimeException e) {
+      log.warn("Gossip round failed", e);
+    }
+  }
+
+  private GossipResponse exchange(String peer, List<Member> digest) {
+    try {
+      return ClusterServiceGrpc
+        .newBlockingStub(peers.get(peer))
+        .withDeadlineAfter(gossipIntervalMillis, TimeUnit.MILLISECONDS)
+        .gossip(GossipRequest.newBuilder().addAllMembers(digest).build());
+    } catch (StatusRuntimeException e) {
+      log.debug("Could not gossip with {}: {}", peer, e.getStatus());
+      return null;
+    }
+  }
+
+  private String pickPeer() {
+    List<String> candidates = new ArrayList<>(liveMembers());
+    candidates.remove(self);
+    if (candidates.isEmpty() || (!seeds.isEmpty() && ++rounds % SEED_GOSSIP_ROUNDS == 0)) {
+      candidates = seeds;
+    }
+    return candidates.isEmpty() ? null : candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+  }
+
+  private void merge(List<Member> gossiped) {
+    long now = System.currentTimeMillis();
+    for (Member member : gossiped) {
+      if (member.getAddress().equals(self)) {
+        continue;
+      }
+      members.compute(member.getAddress(), (address, known) -> {
+        if (known == null || known.supersededBy(member)) {
+          return new MemberState(member.getIncarnation(), member.getHeartbeat(), now, member.getLeaving());
+        }
+        return known;
+      });
+    }
+  }
+
+  private void expireMembers() {
+    // dead and leaving members are kept a while so that late gossip does not bring them back
+    long forgetBefore = System.currentTimeMillis() - 10 * failureTimeoutMillis;
+    members.entrySet().removeIf(entry -> {
+      boolean forget = !entry.getKey().equals(self) && entry.getValue().updatedAtMillis() < forgetBefore;
+      if (forget) {
+        peers.close(entry.getKey());
+      }
+      return forget;
+    });
+  }
+
+  private boolean isLive(String address, MemberState state, long now) {
+    if (address.equals(self)) {
+      return !state.leaving();
+    }
+    return !state.leaving() && now - state.updatedAtMillis() <= failureTimeoutMillis;
+  }
+
+  private List<String> liveMembers() {
+    long now = System.currentTimeMillis();
+    return members
+      .entrySet()
+      .stream()
+      .filter(entry -> isLive(entry.getKey(), entry.getValue(), now))
+      .map(Map.Entry::getKey)
+      .sorted()
+      .toList();
+  }
+
+  private List<Member> digest() {
+    long now = System.currentTimeMillis();
+    List<Member> digest = new ArrayList<>();
+    members.forEach((address, state) -> {
+      // dead members are not spread, a peer that never heard of them would take them for alive
+      if (isLive(address, state, now) || (state.leaving() && now - state.updatedAtMillis() <= failureTimeoutMillis)) {
+        digest.add(Member
+                     .newBuilder()
+                     .setAddress(address)
+                     .setIncarnation(state.incarnation())
+                     .setHeartbeat(state.heartbeat())
+                     .setLeaving(state.leaving())
+                     .build());
+      }
+    });
+    return digest;
+  }
+
+  private synchronized void updatePartitionTable() {
+    List<String> live = liveMembers();
+    if (live.equals(partitionTable.getMembers())) {
+      return;
+    }
+    PartitionTable table = PartitionTable.compute(live, partitionCount);
+    log.info("Cluster members changed to {}, partition table version {}", live, table.getVersion());
+    partitionTable = table;
+    for (Consumer<PartitionTable> listener : listeners) {
+      try {
+        listener.accept(table);
+      } catch (RuntimeException e) {
+        log.warn("Partition table listener failed", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package dev.ixixpercent.cache.node.cluster;
+
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GossipRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.GossipResponse;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.TopologyRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.TopologyResponse;
+import dev.ixixpercent.cache.grpc.ClusterServiceGrpc;
+import io.grpc.stub.StreamObserver;
+
+import java.util.List;
+
+/**
+ * Serves the gossip of the other nodes and the topology requested by the clients.
+ */
+public class ClusterServiceImpl extends ClusterServiceGrpc.ClusterServiceImplBase {
+
+  private final ClusterMembership membership;
+
+  public ClusterServiceImpl(ClusterMembership membership) {
+    this.membership = membership;
+  }
+
+  @Override
+  public void gossip(GossipRequest request, StreamObserver<GossipResponse> responseObserver) {
+    GossipResponse response =
+      GossipResponse.newBuilder().addAllMembers(membership.onGossip(request.getMembersList())).build();
+    responseObserver.onNext(response);
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void getTopology(TopologyRequest request, StreamObserver<TopologyResponse> responseObserver) {
+    PartitionTable table = membership.getPartitionTable();
+    List<String> members = table.getMembers();
+
+    TopologyResponse.Builder responseBuilder = TopologyResponse
+      .newBuilder()
+      .setVersion(table.getVersion())
+      .addAllMembers(members)
+      .setPartitionCount(table.getPartitionCount());
+    if (!members.isEmpty()) {
+      for (int partition = 0; partition < table.getPartitionCount(); partition++) {
+        responseBuilder.addPartitionOwners(members.indexOf(table.ownerOf(partition)));
+      }
+    }
+
+    responseObserver.onNext(responseBuilder.build());
+    responseObserver.onCompleted();
+  }
+}
@@ -0,0 +1,385 @@
+package dev.ixixpercent.cache.node.cluster;
+
+import com.google.protobuf.ByteString;
+import dev.ixixpercent.cache.grpc.CacheServiceGrpc;
+import dev.ixixpercent.cache.node.ChunkedValue;
+import dev.ixixpercent.cache.node.ColdTier;
+import dev.ixixpercent.cache.node.ExpiringValue;
+import dev.ixixpercent.cache.node.LongKeyTable;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.Entry;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.LongEntry;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutAllLongRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutAllRequest;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutChunk;
+import dev.ixixpercent.cache.grpc.CacheServiceProto.PutResponse;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static dev.ixixpercent.cache.node.serialization.KryoSerializer.serialize;
+
+/**
+ * Moves the entries of the partitions this node no longer owns to their new owners.
+ *
+ * <p>A migration runs in the background every time the partition table changes, and periodically to pick up
+ * the entries written by clients that still used a previous table. Entries are sent in batches with the
+ * regular put all call, and are only removed here once the new owner has them, unless they were updated in the
+ * meantime. The new owner keeps the values the clients wrote there, and drops the entries of the keys they removed
+ * there, since the clients write to it as soon as they see the new table. The migration is throttled to a number
+ * of entries per second so that it does not starve the client traffic, and stops as soon as a newer table
+ * supersedes the one it was started for.</p>
+ */
+@Slf4j
+public class PartitionMigrator {
+
+  private static final int BATCH_SIZE = 500;
+  private static final long SWEEP_INTERVAL_SECONDS = 30;
+  private static final long SEND_DEADLINE_SECONDS = 10;
+
+  private final ClusterMembership membership;
+  private final Map<String, ConcurrentHashMap<Object, Object>> maps;
+  private final Map<String, LongKeyTable> longMaps;
+  // null when the node keeps every entry in memory
+  private final ColdTier coldTier;
+  private final PeerChannels peers;
+  private final int entriesPerSecond;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+    Thread.ofPlatform().name("partition-migrator").daemon(true).factory());
+  // a single migration is queued at a time, it always works on the latest table
+  private final AtomicBoolean migrationQueued = new AtomicBoolean(false);
+  private volatile boolean draining;
+
+  /**
+   * @param membership       the membership giving the partition table
+   * @param maps             the maps held by the node, by name
+   * @param longMaps         the maps keyed by primitive longs held by the node, by name
+   * @param coldTier         the tier holding the entries demoted from the maps, null if there is none
+   * @param peers            the channels to the other nodes
+   * @param entriesPerSecond the maximum number of entries migrated per second
+   */
+  public PartitionMigrator(ClusterMembership membership, Map<String, ConcurrentHashMap<Object, Object>> maps,
+                           Map<String, LongKeyTable> longMaps, ColdTier coldTier, PeerChannels peers,
+                           int entriesPerSecond) {
+    this.membership = membership;
+    this.maps = maps;
+    this.longMaps = longMaps;
+    this.coldTier = coldTier;
+    this.peers = peers;
+    this.entriesPerSecond = entriesPerSecond;
+  }
+
+  public void start() {
+    membership.addListener(table -> requestMigration());
+    executor.scheduleWithFixedDelay(this::requestMigration, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS,
+                                    TimeUnit.SECONDS);
+  }
+
+  /**
+   * Hands every entry to its owner before the node shuts down, at full speed and waiting at most the given time.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of the timeout
+   */
+  public void drain(long timeout, TimeUnit unit) {
+    long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+    draining = true;
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(timeout, unit)) {
+        log.warn("Background migration did not stop in time");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    migrate(membership.getPartitionTable(), false, deadlineNanos);
+  }
+
+  private void requestMigration() {
+    if (migrationQueued.compareAndSet(false, true)) {
+      try {
+        executor.execute(() -> {
+          migrationQueued.set(false);
+          migrate(membership.getPartitionTable(), true, Long.MAX_VALUE);
+        });
+      } catch (RuntimeException e) {
+        // the migrator is shutting down
+        migrationQueued.set(false);
+      }
+    }
+  }
+
+  /**
+   * @param table         the table to migrate the entries to
+   * @param background    whether the migration is throttled and gives way to a newer table or to a drain
+   * @param deadlineNanos the time to give up at
+   */
+  private void migrate(PartitionTable table, boolean background, long deadlineNanos) {
+    if (table.getMembers().isEmpty()) {
+      log.warn("No member left to migrate the entries to");
+      return;
+    }
+    String self = membership.getSelf();
+    long start = System.nanoTime();
+    long migrated = 0;
+
+    for (Map.Entry<String, ConcurrentHashMap<Object, Object>> map : maps.entrySet()) {
+      Map<String, List<Map.Entry<Object, Object>>> batches = new HashMap<>();
+      for (Map.Entry<Object, Object> entry : map.getValue().entrySet()) {
+        if (mustStop(table, background, deadlineNanos, migrated)) {
+          return;
+        }
+        if (entry.getValue() instanceof ExpiringValue expiring && expiring.isExpired()) {
+          map.getValue().remove(entry.getKey(), expiring);
+          continue;
+        }
+        String owner = table.ownerOf(PartitionTable.routingBytes(entry.getKey(), serialize(entry.getKey())));
+        if (owner.equals(self)) {
+          continue;
+        }
+        List<Map.Entry<Object, Object>> batch = batches.computeIfAbsent(owner, o -> new ArrayList<>());
+        batch.add(Map.entry(entry.getKey(), entry.getValue()));
+        if (batch.size() >= BATCH_SIZE) {
+          migrated += send(owner, map.getKey(), map.getValue(), batch);
+          batch.clear();
+          if (background) {
+            throttle(start, migrated);
+          }
+        }
+      }
+      if (coldTier != null) {
+        for (Object key : coldTier.keys(map.getKey())) {
+          if (mustStop(table, background, deadlineNanos, migrated)) {
+            return;
+          }
+          String owner = table.ownerOf(PartitionTable.routingBytes(key, serialize(key)));
+          if (owner.equals(self)) {
+            continue;
+          }
+          // promoted a batch at a time, and removed from the map once sent like the entries in memory
+          Object stored = coldTier.get(map.getKey(), map.getValue(), key);
+          if (stored == null) {
+            continue;
+          }
+          if (stored instanceof ExpiringValue expiring && expiring.isExpired()) {
+            map.getValue().remove(key, expiring);
+            continue;
+          }
+          List<Map.Entry<Object, Object>> batch = batches.computeIfAbsent(owner, o -> new ArrayList<>());
+          batch.add(Map.entry(key, stored));
+          if (batch.size() >= BATCH_SIZE) {
+            migrated += send(owner, map.getKey(), map.getValue(), batch);
+            batch.clear();
+            if (background) {
+              throttle(start, migrated);
+            }
+          }
+        }
+      }
+      for (Map.Entry<String, List<Map.Entry<Object, Object>>> batch : batches.entrySet()) {
+        if (!batch.getValue().isEmpty()) {
+          migrated += send(batch.getKey(), map.getKey(), map.getValue(), batch.getValue());
+          if (background) {
+            throttle(start, migrated);
+          }
+        }
+      }
+    }
+    for (Map.Entry<String, LongKeyTable> map : longMaps.entrySet()) {
+      Map<String, List<Map.Entry<Long, Object>>> batches = new HashMap<>();
+      for (Map.Entry<Long, Object> entry : map.getValue().entries()) {
+        if (mustStop(table, background, deadlineNanos, migrated)) {
+          return;
+        }
+        if (entry.getValue() instanceof ExpiringValue expiring && expiring.isExpired()) {
+          map.getValue().remove(entry.getKey(), expiring);
+          continue;
+        }
+        // the clients hash the 8 bytes of the key
+        String owner = table.ownerOf(ByteBuffer.allocate(Long.BYTES).putLong(entry.getKey()).array());
+        if (owner.equals(self)) {
+          continue;
+        }
+        List<Map.Entry<Long, Object>> batch = batches.computeIfAbsent(owner, o -> new ArrayList<>());
+        batch.add(entry);
+        if (batch.size() >= BATCH_SIZE) {
+          migrated += sendLong(owner, map.getKey(), map.getValue(), batch);
+          batch.clear();
+          if (background) {
+            throttle(start, migrated);
+          }
+        }
+      }
+      for (Map.Entry<String, List<Map.Entry<Long, Object>>> batch : batches.entrySet()) {
+        if (!batch.getValue().isEmpty()) {
+          migrated += sendLong(batch.getKey(), map.getKey(), map.getValue(), batch.getValue());
+          if (background) {
+            throttle(start, migrated);
+          }
+        }
+      }
+    }
+    if (migrated > 0) {
+      log.info("Migrated {} entries for partition table version {}", migrated, table.getVersion());
+    }
+  }
+
+  private boolean mustStop(PartitionTable table, boolean background, long deadlineNanos, long migrated) {
+    if (background && (draining || table != membership.getPartitionTable())) {
+      log.info("Migration for partition table version {} superseded", table.getVersion());
+      requestMigration();
+      return true;
+    }
+    if (System.nanoTime() > deadlineNanos) {
+      log.warn("Migration did not complete in time, {} entries migrated", migrated);
+      return true;
+    }
+    return false;
+  }
+
+  private int send(String owner, String mapName, ConcurrentHashMap<Object, Object> map,
+                   List<Map.Entry<Object, Object>> batch) {
+    PutAllRequest.Builder requestBuilder = PutAllRequest.newBuilder().setMapName(mapName).setMigration(true);
+    List<Map.Entry<Object, Object>> sent = new ArrayList<>(batch.size());
+    int chunkedSent = 0;
+    for (Map.Entry<Object, Object> entry : batch) {
+      // the new owner gets the time left to live, an entry expiring in the meantime lives 1 more millisecond
+      Object value = entry.getValue() instanceof ExpiringValue expiring ? expiring.value() : entry.getValue();
+      if (value instanceof ChunkedValue chunked) {
+        // too large for the batch, streamed in its chunks like the clients put it
+        if (sendChunked(owner, mapName, entry.getKey(), entry.getValue(), chunked)) {
+          map.remove(entry.getKey(), entry.getValue());
+          chunkedSent++;
+        }
+        continue;
+      }
+      sent.add(entry);
+      requestBuilder.addEntries(Entry
+                                  .newBuilder()
+                                  .setKey(ByteString.copyFrom(serialize(entry.getKey())))
+                                  .setValue(ByteString.copyFrom(serialize(value)))
+                                  .setTtlMillis(ExpiringValue.ttlMillisOf(entry.getValue()))
+                                  .build());
+    }
+    if (sent.isEmpty()) {
+      return chunkedSent;
+    }
+    try {
+      CacheServiceGrpc
+        .newBlockingStub(peers.get(owner))
+        .withDeadlineAfter(SEND_DEADLINE_SECONDS, TimeUnit.SECONDS)
+        .putAll(requestBuilder.build());
+    } catch (StatusRuntimeException e) {
+      // the entries stay here and are retried on the next sweep
+      log.warn("Could not migrate {} entries of {} to {}: {}", sent.size(), mapName, owner, e.getStatus());
+      return chunkedSent;
+    }
+    for (Map.Entry<Object, Object> entry : sent) {
+      // an entry updated since it was sent is left for the next sweep
+      map.remove(entry.getKey(), entry.getValue());
+    }
+    return sent.size() + chunkedSent;
+  }
+
+  /**
+   * @param stored the object stored for the key, with its expiry
+   * @return whether the new owner stored the value
+   */
+  private boolean sendChunked(String owner, String mapName, Object key, Object stored, ChunkedValue value) {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    StreamObserver<PutChunk> chunks = CacheServiceGrpc
+      .newStub(peers.get(owner))
+      .withDeadlineAfter(SEND_DEADLINE_SECONDS, TimeUnit.SECONDS)
+      .putChunked(new StreamObserver<>() {
+        @Override
+        public void onNext(PutResponse response) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          done.completeExceptionally(t);
+        }
+
+        @Override
+        public void onCompleted() {
+          done.complete(null);
+        }
+      });
+    for (int i = 0; i < value.chunks().size(); i++) {
+      PutChunk.Builder chunk = PutChunk.newBuilder().setData(value.chunks().get(i));
+      if (i == 0) {
+        chunk
+          .setMapName(mapName)
+          .setKey(ByteString.copyFrom(serialize(key)))
+          .setTtlMillis(ExpiringValue.ttlMillisOf(stored))
+          .setMigration(true);
+      }
+      chunks.onNext(chunk.build());
+    }
+    chunks.onCompleted();
+    try {
+      done.get();
+      return true;
+    } catch (ExecutionException e) {
+      // the entry stays here and is retried on the next sweep
+      log.warn("Could not migrate a value of {} bytes of {} to {}: {}", value.size(), mapName, owner,
+               e.getCause().getMessage());
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private int sendLong(String owner, String mapName, LongKeyTable map, List<Map.Entry<Long, Object>> batch) {
+    PutAllLongRequest.Builder requestBuilder = PutAllLongRequest.newBuilder().setMapName(mapName).setMigration(true);
+    for (Map.Entry<Long, Object> entry : batch) {
+      Object value = entry.getValue() instanceof ExpiringValue expiring ? expiring.value() : entry.getValue();
+      requestBuilder.addEntries(LongEntry
+                                  .newBuilder()
+                                  .setKey(entry.getKey())
+                                  .setValue((ByteString) value)
+                                  .setTtlMillis(ExpiringValue.ttlMillisOf(entry.getValue()))
+                                  .build());
+    }
+    try {
+      CacheServiceGrpc
+        .newBlockingStub(peers.get(owner))
+        .withDeadlineAfter(SEND_DEADLINE_SECONDS, TimeUnit.SECONDS)
+        .putAllLong(requestBuilder.build());
+    } catch (StatusRuntimeException e) {
+      log.warn("Could not migrate {} entries of {} to {}: {}", batch.size(), mapName, owner, e.getStatus());
+      return 0;
+    }
+    for (Map.Entry<Long, Object> entry : batch) {
+      map.remove(entry.getKey(), entry.getValue());
+    }
+    return batch.size();
+  }
+
+  private void throttle(long startNanos, long migrated) {
+    long expectedNanos = TimeUnit.SECONDS.toNanos(migrated) / entriesPerSecond;
+    long aheadNanos = expectedNanos - (System.nanoTime() - startNanos);
+    if (aheadNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(aheadNanos);
+      } catch (InterruptedException e) {
+        // interrupted by a drain, which stops the migration at the next entry
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package dev.ixixpercent.cache.node.cluster;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Channels from this node to the other members of the cluster, used to gossip and to migrate partitions.
+ */
+@Slf4j
+public class PeerChannels {
+
+  private final Map<String, ManagedChannel> channels = new ConcurrentHashMap<>();
+
+  /**
+   * @param address host:port of the peer
+   * @return the channel to the peer, created on first use
+   */
+  public ManagedChannel get(String address) {
+    return channels.computeIfAbsent(address, a -> {
+      log.debug("Opening channel to peer {}", a);
+      int separator = a.lastIndexOf(':');
+      return ManagedChannelBuilder
+        .forAddress(a.substring(0, separator), Integer.parseInt(a.substring(separator + 1)))
+        .usePlaintext()
+        .build();
+    });
+  }
+
+  /**
+   * Closes the channel to a peer that left the cluster.
+   *
+   * @param address host:port of the peer
+   */
+  public void close(String address) {
+    ManagedChannel channel = channels.remove(address);
+    if (channel != null) {
+      log.debug("Closing channel to peer {}", address);
+      channel.shutdown();
+    }
+  }
+
+  public void closeAll() {
+    channels.keySet().forEach(this::close);
+  }
+}
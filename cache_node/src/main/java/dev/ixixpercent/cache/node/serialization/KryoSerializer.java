@@ -0,0 +1,51 @@
+package dev.ixixpercent.cache.node.serialization;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import dev.ixixpercent.cache.node.ChunkedValue;
+import dev.ixixpercent.cache.node.RequestSpan;
+
+/**
+ * Converts the keys and values held by the node from and to the bytes exchanged with the clients and the other
+ * nodes. The bytes of a key are the same as the ones the client sent, so they hash to the same partition.
+ */
+public class KryoSerializer {
+
+  private KryoSerializer() {
+  }
+
+  public static byte[] serialize(Object obj) {
+    RequestSpan span = RequestSpan.current();
+    long start = span == null ? 0 : System.nanoTime();
+    Kryo kryo = KryoPoolUtil.borrowKryo();
+    try (Output output = new Output(4096, -1)) {
+      // the calls returning values in single messages get the chunked ones whole
+      kryo.writeClassAndObject(output, ChunkedValue.whole(obj));
+      return output.toBytes();
+    } catch (Exception e) {
+      throw new RuntimeException("Serialization error", e);
+    } finally {
+      KryoPoolUtil.releaseKryo(kryo);
+      if (span != null) {
+        span.addSerializationNanos(System.nanoTime() - start);
+      }
+    }
+  }
+
+  public static Object deserialize(byte[] bytes) {
+    RequestSpan span = RequestSpan.current();
+    long start = span == null ? 0 : System.nanoTime();
+    Kryo kryo = KryoPoolUtil.borrowKryo();
+    try (Input input = new Input(bytes)) {
+      return kryo.readClassAndObject(input);
+    } catch (Exception e) {
+      throw new RuntimeException("Deserialization error", e);
+    } finally {
+      KryoPoolUtil.releaseKryo(kryo);
+      if (span != null) {
+        span.addSerializationNanos(System.nanoTime() - start);
+      }
+    }
+  }
+}
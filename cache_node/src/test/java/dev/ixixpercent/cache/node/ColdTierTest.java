@@ -0,0 +1,80 @@
+package dev.ixixpercent.cache.node;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ColdTierTest {
+
+  private static final String MAP = "map";
+  private static final int ENTRIES = 2000;
+  private static final int READERS = 4;
+
+  @TempDir
+  Path directory;
+
+  private final Map<String, ConcurrentHashMap<Object, Object>> maps = new ConcurrentHashMap<>();
+  private ColdTier coldTier;
+
+  @BeforeEach
+  void setUp() {
+    ConcurrentHashMap<Object, Object> map = new ConcurrentHashMap<>();
+    for (int i = 0; i < ENTRIES; i++) {
+      map.put("key-" + i, "value-" + i);
+    }
+    maps.put(MAP, map);
+    coldTier = new ColdTier(directory, 1 << 20, 100, maps);
+  }
+
+  @AfterEach
+  void tearDown() {
+    coldTier.close();
+  }
+
+  @Test
+  void concurrentReadsOfADemotedKeyAllFindIt() throws Exception {
+    ConcurrentHashMap<Object, Object> map = maps.get(MAP);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (coldTier.size(MAP) < ENTRIES / 2 && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    List<Object> demoted = new ArrayList<>(coldTier.keys(MAP));
+    assertTrue(demoted.size() >= ENTRIES / 2, "entries were not demoted");
+
+    ExecutorService readers = Executors.newFixedThreadPool(READERS);
+    try {
+      CyclicBarrier barrier = new CyclicBarrier(READERS);
+      for (Object key : demoted) {
+        // every reader races to promote the same key
+        List<Future<Object>> reads = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+          reads.add(readers.submit(() -> {
+            barrier.await();
+            return coldTier.get(MAP, map, key);
+          }));
+        }
+        String expected = "value-" + ((String) key).substring("key-".length());
+        for (Future<Object> read : reads) {
+          assertEquals(expected, read.get(10, TimeUnit.SECONDS), "read of " + key);
+        }
+      }
+    } finally {
+      readers.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package dev.ixixpercent.cache.node.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import dev.ixixpercent.cache.node.serialization.KryoSerializer;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pins the routing of the keys. The clients have their own copy of the partition table and of the hash, tested
+ * against the same values in cache_lib: both must route every key to the same partition, change them together.
+ */
+class PartitionTableTest {
+
+  private static final PartitionTable TABLE =
+    PartitionTable.compute(List.of("node-a:50051", "node-b:50052", "node-c:50053"), 271);
+
+  @Test
+  void hashIsMurmur3() {
+    assertEquals(0, Murmur3.hash32(bytes("")));
+    assertEquals(613153351, Murmur3.hash32(bytes("hello")));
+    assertEquals(1606865885, Murmur3.hash32(bytes("node-a:50051#0")));
+  }
+
+  @Test
+  void tableIsPinned() {
+    assertEquals(4238243289L, TABLE.getVersion());
+    assertEquals("node-b:50052", TABLE.ownerOf(0));
+    assertEquals("node-c:50053", TABLE.ownerOf(1));
+    assertEquals("node-b:50052", TABLE.ownerOf(2));
+    assertEquals("node-a:50051", TABLE.ownerOf(3));
+    assertEquals("node-a:50051", TABLE.ownerOf(4));
+  }
+
+  @Test
+  void keysAreSerializedLikeByTheClients() {
+    assertArrayEquals(new byte[] {3, 1, 34, 117, 115, 101, 114, 58, 49, -94}, KryoSerializer.serialize(json("user:1")));
+  }
+
+  @Test
+  void plainKeysArePinned() {
+    assertRouted("user:1", 14, "node-a:50051");
+    assertRouted("order-42", 41, "node-b:50052");
+    assertRouted("naïve", 30, "node-c:50053");
+  }
+
+  @Test
+  void taggedKeysArePinned() {
+    assertRouted("{user42}:cart", 52, "node-c:50053");
+    assertRouted("{user42}:session", 52, "node-c:50053");
+    // an empty tag is no tag, the whole key is hashed
+    assertRouted("{}:empty", 194, "node-b:50052");
+  }
+
+  /**
+   * @param key the key as the client wrote it, held by the node in its JSON form
+   */
+  private static void assertRouted(String key, int partition, String owner) {
+    byte[] routingBytes = PartitionTable.routingBytes(json(key), KryoSerializer.serialize(json(key)));
+    assertEquals(partition, TABLE.partitionOf(routingBytes), key);
+    assertEquals(owner, TABLE.ownerOf(routingBytes), key);
+  }
+
+  private static String json(String key) {
+    return "\"" + key + "\"";
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -1,25 +1,35 @@
 package dev.ixixpercent.cache.cache_tester.configuration;
 
+import dev.ixixpercent.cache.spring.IxIxSpringCacheManager;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.jcache.JCacheCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import javax.cache.CacheManager;
 import javax.cache.Caching;
 import javax.cache.spi.CachingProvider;
+import java.net.URI;
 
 @Slf4j
 @Configuration
 @EnableCaching
 public class ProviderConfiguration {
 
+  /**
+   * @param uri the URI of the cache manager, ixix://embedded to keep the entries in this JVM without nodes
+   */
   @Bean
-  public org.springframework.cache.CacheManager jCacheManager() {
+  public CacheManager ixixCacheManager(@Value("${ixix.uri:ixix://cache}") URI uri) {
     CachingProvider cachingProvider = Caching.getCachingProvider();
-    CacheManager cacheManager = cachingProvider.getCacheManager();
+    CacheManager cacheManager = cachingProvider.getCacheManager(uri, cachingProvider.getDefaultClassLoader());
     log.trace("Created cache manager {}", cacheManager);
-    return new JCacheCacheManager(cacheManager);
+    return cacheManager;
+  }
+
+  @Bean
+  public org.springframework.cache.CacheManager jCacheManager(CacheManager ixixCacheManager) {
+    return new IxIxSpringCacheManager(ixixCacheManager);
   }
 }
@@ -6,6 +6,8 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequestMapping(value = "/api", path = "/api")
 public class CachedController {
@@ -22,6 +24,13 @@ public class CachedController {
     return service.getResponse();
   }
 
+  // concurrent misses wait for a single call to the service
+  @Cacheable(cacheNames = "async", keyGenerator = "endpointKeyGenerator", sync = true)
+  @GetMapping("/async")
+  public CompletableFuture<CachedResponse> async() {
+    return service.getResponseAsync();
+  }
+
   @Cacheable(cacheNames = "withSession", keyGenerator = "sessionAwareKeyGenerator")
   @GetMapping("/session")
   public CachedResponse session() {
@@ -10,88 +10,95 @@ import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.lang.reflect.Method;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-
-import static java.util.stream.Collectors.joining;
-import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component("attributesAwareKeyGenerator")
 public class AttributesAwareKeyGenerator extends SessionAwareKeyGenerator {
 
+  // markers separating the parameters from the headers in the hashed components
+  private static final int PARAMETERS = 1;
+  private static final int HEADERS = 2;
+  private static final int NO_ATTRIBUTES = 3;
+
   private final CachesProperties cachesProperties;
+  private final ClassValue<Map<Method, String>> cacheNames = new ClassValue<>() {
+    @Override
+    protected Map<Method, String> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<>();
+    }
+  };
 
   public AttributesAwareKeyGenerator(CachesProperties cachesProperties) {
     this.cachesProperties = cachesProperties;
   }
 
   @Override
-  public Object generate(Object target, Method method, Object... params) {
-    return md5Hex(generateRaw(target, method, params));
-  }
+  protected void addComponents(KeyHasher hasher, Object target, Method method, Object... params) {
+    // Get the base components from the superclass (endpoint and session ID)
+    super.addComponents(hasher, target, method, params);
 
-  protected String generateRaw(Object target, Method method, Object... params) {
-    // Get the base key from the superclass (includes endpoint and session ID)
-    String baseKey = super.generateRaw(target, method, params);
+    CacheConfig cacheConfig = cachesProperties.getCaches().get(getCacheName(target.getClass(), method));
 
-    CacheConfig cacheConfig = cachesProperties.getCaches().get(getCacheName(target, method));
-
-    // Get specific request attributes to include in the key
-    String requestAttributes = getRequestAttributes(cacheConfig);
-
-    // Combine base key with request attributes
-    return baseKey + " Attributes:" + requestAttributes;
+    // Add the specific request attributes configured for the cache
+    addRequestAttributes(hasher, cacheConfig);
   }
 
-  private String getRequestAttributes(CacheConfig cacheConfig) {
-
-
+  private void addRequestAttributes(KeyHasher hasher, CacheConfig cacheConfig) {
     ServletRequestAttributes attrs = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
-    if (attrs != null) {
-      HttpServletRequest request = attrs.getRequest();
+    if (attrs == null || cacheConfig == null) {
+      hasher.add(NO_ATTRIBUTES);
+      return;
+    }
+    HttpServletRequest request = attrs.getRequest();
 
-      // Retrieve parameter values
+    // Add parameter values
+    hasher.add(PARAMETERS);
+    List<String> parameters = cacheConfig.getParameters();
+    if (parameters != null) {
       Map<String, String[]> parameterMap = request.getParameterMap();
-
-      List<String> parameters = cacheConfig.getParameters();
-      String paramsString = parameters != null ?
-                            parameters
-                              .stream()
-                              .filter(parameterMap::containsKey)
-                              .map(name -> name + "=" + Arrays.toString(parameterMap.get(name)))
-                              .collect(joining(", ")) :
-                            "";
-
-      // Retrieve header values
-      List<String> headers = cacheConfig.getHeaders();
-      String headersString = headers != null ?
-                             headers
-                               .stream()
-                               .filter(name -> request.getHeader(name) != null)
-                               .map(name -> name + "=" + request.getHeader(name))
-                               .collect(joining(", ")) :
-                             "";
-
-      // Combine parameters and headers
-      String combinedAttributes = paramsString;
-      if (!headersString.isEmpty()) {
-        combinedAttributes += (combinedAttributes.isEmpty() ? "" : ", ") + headersString;
+      for (String name : parameters) {
+        String[] values = parameterMap.get(name);
+        if (values != null) {
+          hasher.add(name).add(values.length);
+          for (String value : values) {
+            hasher.add(value);
+          }
+        }
       }
+    }
 
-      return combinedAttributes;
+    // Add header values
+    hasher.add(HEADERS);
+    List<String> headers = cacheConfig.getHeaders();
+    if (headers != null) {
+      for (String name : headers) {
+        String value = request.getHeader(name);
+        if (value != null) {
+          hasher.add(name).add(value);
+        }
+      }
     }
-    return "NoAttributes";
   }
 
+  private String getCacheName(Class<?> type, Method method) {
+    Map<Method, String> typeCacheNames = cacheNames.get(type);
+    String cacheName = typeCacheNames.get(method);
+    if (cacheName == null) {
+      cacheName = findCacheName(type, method);
+      typeCacheNames.put(method, cacheName);
+    }
+    return cacheName;
+  }
 
-  private String getCacheName(Object target, Method method) {
+  private String findCacheName(Class<?> type, Method method) {
     // Attempt to find the @Cacheable annotation on the method
     Cacheable cacheable = AnnotationUtils.findAnnotation(method, Cacheable.class);
 
     // If not found on the method, check the class
     if (cacheable == null) {
-      cacheable = AnnotationUtils.findAnnotation(target.getClass(), Cacheable.class);
+      cacheable = AnnotationUtils.findAnnotation(type, Cacheable.class);
     }
 
     // If @Cacheable is present and has cache names defined, return the first one
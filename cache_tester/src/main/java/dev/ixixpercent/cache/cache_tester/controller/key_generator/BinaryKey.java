@@ -0,0 +1,79 @@
+package dev.ixixpercent.cache.cache_tester.controller.key_generator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.io.Serializable;
+import java.util.Base64;
+
+/**
+ * 128-bit cache key produced by the key generators.
+ *
+ * <p>The hash code is computed once, and the key is serialized as its 22 characters base64url form instead of
+ * the 32 characters hex of an MD5 digest.</p>
+ */
+public final class BinaryKey implements Serializable {
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private final long high;
+  private final long low;
+  private final int hashCode;
+
+  public BinaryKey(long high, long low) {
+    this.high = high;
+    this.low = low;
+    // the bits of the hash are already uniformly distributed, folding them is enough
+    this.hashCode = Long.hashCode(high ^ low);
+  }
+
+  /**
+   * @param value the base64url form of the key, as returned by {@link #toString()}
+   * @return the key
+   * @throws IllegalArgumentException if the value is not a 128-bit base64url value
+   */
+  @JsonCreator
+  public static BinaryKey fromString(String value) {
+    byte[] bytes = DECODER.decode(value);
+    if (bytes.length != 16) {
+      throw new IllegalArgumentException("Expected a 128-bit key but got " + bytes.length * 8 + " bits");
+    }
+    long high = 0;
+    long low = 0;
+    for (int i = 0; i < 8; i++) {
+      high = (high << 8) | (bytes[i] & 0xff);
+      low = (low << 8) | (bytes[i + 8] & 0xff);
+    }
+    return new BinaryKey(high, low);
+  }
+
+  public long getHigh() {
+    return high;
+  }
+
+  public long getLow() {
+    return low;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || (o instanceof BinaryKey other && high == other.high && low == other.low);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @JsonValue
+  @Override
+  public String toString() {
+    byte[] bytes = new byte[16];
+    for (int i = 7; i >= 0; i--) {
+      bytes[i] = (byte) (high >>> (8 * (7 - i)));
+      bytes[i + 8] = (byte) (low >>> (8 * (7 - i)));
+    }
+    return ENCODER.encodeToString(bytes);
+  }
+}
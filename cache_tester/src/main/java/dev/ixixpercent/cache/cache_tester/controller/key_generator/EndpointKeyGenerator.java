@@ -10,23 +10,44 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
-
+/**
+ * Generates a {@link BinaryKey} from the HTTP method and path of the endpoint.
+ *
+ * <p>The components of the key are hashed as they are added, subclasses add their own after the ones of their
+ * parent. The endpoint of a handler is read from its annotations once and then reused.</p>
+ */
 @Component("endpointKeyGenerator")
 public class EndpointKeyGenerator implements KeyGenerator {
 
+  private final ClassValue<Map<Method, String>> endpoints = new ClassValue<>() {
+    @Override
+    protected Map<Method, String> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
   @Override
   public Object generate(Object target, Method method, Object... params) {
-    return md5Hex(generateRaw(target, method, params));
+    KeyHasher hasher = KeyHasher.start();
+    addComponents(hasher, target, method, params);
+    return hasher.toKey();
   }
 
-  protected String generateRaw(Object target, Method method, Object... params) {
-    String classMapping = getClassMapping(target.getClass());
-    String methodMapping = getMethodMapping(method);
-    String httpMethod = getHttpMethod(method);
+  protected void addComponents(KeyHasher hasher, Object target, Method method, Object... params) {
+    hasher.add(getEndpoint(target.getClass(), method));
+  }
 
-    return httpMethod + " " + classMapping + methodMapping;
+  private String getEndpoint(Class<?> type, Method method) {
+    Map<Method, String> typeEndpoints = endpoints.get(type);
+    String endpoint = typeEndpoints.get(method);
+    if (endpoint == null) {
+      endpoint = getHttpMethod(method) + " " + getClassMapping(type) + getMethodMapping(method);
+      typeEndpoints.put(method, endpoint);
+    }
+    return endpoint;
   }
 
   private String getClassMapping(Class<?> clazz) {
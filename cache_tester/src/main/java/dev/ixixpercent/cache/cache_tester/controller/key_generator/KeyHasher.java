@@ -0,0 +1,69 @@
+package dev.ixixpercent.cache.cache_tester.controller.key_generator;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+
+import java.util.Arrays;
+
+/**
+ * Hashes the components of a key into a {@link BinaryKey} with the 128-bit MurmurHash3.
+ *
+ * <p>The components are written to a buffer reused by the thread, each one prefixed with its length so that
+ * different splits of the same characters give different keys. Characters are written as UTF-16 code units,
+ * there is no need to encode them since the bytes are only hashed.</p>
+ */
+public final class KeyHasher {
+
+  private static final ThreadLocal<KeyHasher> HASHERS = ThreadLocal.withInitial(KeyHasher::new);
+  private static final int MAX_RETAINED_BUFFER = 8192;
+
+  private byte[] buffer = new byte[512];
+  private int length;
+
+  private KeyHasher() {
+  }
+
+  /**
+   * @return the hasher of the current thread, emptied
+   */
+  public static KeyHasher start() {
+    KeyHasher hasher = HASHERS.get();
+    hasher.length = 0;
+    return hasher;
+  }
+
+  public KeyHasher add(String value) {
+    int size = value.length();
+    add(size);
+    ensureCapacity(size * 2);
+    for (int i = 0; i < size; i++) {
+      char c = value.charAt(i);
+      buffer[length++] = (byte) c;
+      buffer[length++] = (byte) (c >>> 8);
+    }
+    return this;
+  }
+
+  public KeyHasher add(int value) {
+    ensureCapacity(4);
+    buffer[length++] = (byte) value;
+    buffer[length++] = (byte) (value >>> 8);
+    buffer[length++] = (byte) (value >>> 16);
+    buffer[length++] = (byte) (value >>> 24);
+    return this;
+  }
+
+  public BinaryKey toKey() {
+    long[] hash = MurmurHash3.hash128x64(buffer, 0, length, 0);
+    if (buffer.length > MAX_RETAINED_BUFFER) {
+      // do not keep the buffer of an unusually large key for the life of the thread
+      buffer = new byte[512];
+    }
+    return new BinaryKey(hash[0], hash[1]);
+  }
+
+  private void ensureCapacity(int extra) {
+    if (length + extra > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+    }
+  }
+}
@@ -7,25 +7,14 @@ import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.lang.reflect.Method;
 
-import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
-
 @Component("sessionAwareKeyGenerator")
 public class SessionAwareKeyGenerator extends EndpointKeyGenerator {
 
   @Override
-  public Object generate(Object target, Method method, Object... params) {
-    return md5Hex(generateRaw(target, method, params));
-  }
-
-  protected String generateRaw(Object target, Method method, Object... params) {
-    // Get the original endpoint key from the superclass
-    String endpointKey = super.generateRaw(target, method, params);
-
-    // Get the session ID
-    String sessionId = getSessionId();
-
-    // Combine the endpoint key with the session ID
-    return endpointKey + " " + sessionId;
+  protected void addComponents(KeyHasher hasher, Object target, Method method, Object... params) {
+    // the endpoint components from the superclass, followed by the session ID
+    super.addComponents(hasher, target, method, params);
+    hasher.add(getSessionId());
   }
 
 
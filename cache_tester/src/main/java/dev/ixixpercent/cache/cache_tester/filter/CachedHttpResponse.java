@@ -0,0 +1,10 @@
+package dev.ixixpercent.cache.cache_tester.filter;
+
+/**
+ * A response as written to the client, cached by {@link ResponseCacheFilter}.
+ *
+ * @param body        the encoded body
+ * @param contentType the content type header, null if the response had none
+ * @param etag        the strong entity tag of the body, quoted
+ */
+public record CachedHttpResponse(byte[] body, String contentType, String etag) {}
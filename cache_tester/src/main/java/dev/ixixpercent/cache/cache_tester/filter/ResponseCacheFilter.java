@@ -0,0 +1,157 @@
+package dev.ixixpercent.cache.cache_tester.filter;
+
+import dev.ixixpercent.cache.cache_tester.controller.key_generator.BinaryKey;
+import dev.ixixpercent.cache.cache_tester.controller.key_generator.KeyHasher;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.WebUtils;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the encoded responses of the GET requests of the configured paths, with a strong ETag of their body.
+ *
+ * <p>A hit writes the cached bytes as they are, or answers 304 when the ETag is in the {@code If-None-Match} header
+ * of the request, without calling the controller or encoding the body again. A miss goes through the chain, and its
+ * response is cached when it is a 200 setting no cookie. Asynchronous responses are cached on their last dispatch.</p>
+ *
+ * <p>The filter runs after the security filters, so the hits are still authorized.</p>
+ */
+@Slf4j
+@Component
+public class ResponseCacheFilter extends OncePerRequestFilter {
+
+  private final Cache<BinaryKey, CachedHttpResponse> cache;
+  private final Set<String> paths;
+
+  public ResponseCacheFilter(CacheManager cacheManager, ResponseCacheProperties properties) {
+    this.paths = new HashSet<>(properties.getPaths());
+    MutableConfiguration<BinaryKey, CachedHttpResponse> configuration = new MutableConfiguration<>();
+    configuration.setTypes(BinaryKey.class, CachedHttpResponse.class);
+    configuration.setExpiryPolicyFactory(CreatedExpiryPolicy.factoryOf(new Duration(TimeUnit.MILLISECONDS,
+                                                                                    properties.getTtl())));
+    this.cache = cacheManager.createCache(properties.getCacheName(), configuration);
+  }
+
+  private static String etagOf(byte[] body) {
+    long[] hash = MurmurHash3.hash128x64(body);
+    return "\"" + new BinaryKey(hash[0], hash[1]) + "\"";
+  }
+
+  private static boolean matches(HttpServletRequest request, String etag) {
+    String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      // If-None-Match uses the weak comparison
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals(etag) || tag.equals("*")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !"GET".equals(request.getMethod()) || !paths.contains(getPath(request));
+  }
+
+  @Override
+  protected boolean shouldNotFilterAsyncDispatch() {
+    // the response of an asynchronous request is complete on its last dispatch only
+    return false;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request,
+                                  HttpServletResponse response,
+                                  FilterChain filterChain) throws ServletException, IOException {
+    BinaryKey key = KeyHasher.start().add(getPath(request)).add(Objects.toString(request.getQueryString(), "")).toKey();
+    if (!isAsyncDispatch(request)) {
+      CachedHttpResponse cached = get(key);
+      if (cached != null) {
+        write(request, response, cached);
+        return;
+      }
+    }
+
+    ContentCachingResponseWrapper wrapper = WebUtils.getNativeResponse(response, ContentCachingResponseWrapper.class);
+    if (wrapper == null) {
+      wrapper = new ContentCachingResponseWrapper(response);
+    }
+    filterChain.doFilter(request, wrapper);
+    if (!isAsyncStarted(request)) {
+      store(request, key, wrapper);
+      wrapper.copyBodyToResponse();
+    }
+  }
+
+  private String getPath(HttpServletRequest request) {
+    return request.getRequestURI().substring(request.getContextPath().length());
+  }
+
+  private CachedHttpResponse get(BinaryKey key) {
+    try {
+      return cache.get(key);
+    } catch (RuntimeException e) {
+      // the response is produced by the controller while the cache is unavailable
+      log.warn("Failed to read cached response {}: {}", key, e.getMessage());
+      return null;
+    }
+  }
+
+  private void write(HttpServletRequest request, HttpServletResponse response, CachedHttpResponse cached) throws
+                                                                                                         IOException {
+    response.setHeader(HttpHeaders.ETAG, cached.etag());
+    if (matches(request, cached.etag())) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    response.setStatus(HttpServletResponse.SC_OK);
+    if (cached.contentType() != null) {
+      response.setContentType(cached.contentType());
+    }
+    response.setContentLength(cached.body().length);
+    response.getOutputStream().write(cached.body());
+  }
+
+  private void store(HttpServletRequest request, BinaryKey key, ContentCachingResponseWrapper wrapper) {
+    if (wrapper.getStatus() != HttpServletResponse.SC_OK || wrapper.containsHeader(HttpHeaders.SET_COOKIE)) {
+      return;
+    }
+    byte[] body = wrapper.getContentAsByteArray();
+    String etag = etagOf(body);
+    try {
+      cache.put(key, new CachedHttpResponse(body, wrapper.getContentType(), etag));
+    } catch (RuntimeException e) {
+      log.warn("Failed to cache response {}: {}", key, e.getMessage());
+    }
+    wrapper.setHeader(HttpHeaders.ETAG, etag);
+    if (matches(request, etag)) {
+      wrapper.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      wrapper.resetBuffer();
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package dev.ixixpercent.cache.cache_tester.filter;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Paths whose encoded responses are cached by {@link ResponseCacheFilter}. The responses must only depend on the method,
+ * path and query string of the request.
+ */
+@Component
+@ConfigurationProperties(prefix = "response-cache")
+@Getter
+@Setter
+public class ResponseCacheProperties {
+  private String cacheName = "responses";
+  private List<String> paths = List.of();
+  // time to live of a response, in milliseconds
+  private long ttl = 10000;
+}
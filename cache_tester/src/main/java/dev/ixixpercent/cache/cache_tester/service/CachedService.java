@@ -4,6 +4,9 @@ import dev.ixixpercent.cache.cache_tester.controller.CachedResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @Service
 public class CachedService {
@@ -18,4 +21,12 @@ public class CachedService {
     log.info("Returning response after delay (not cached)");
     return new CachedResponse("Hello, World!", System.currentTimeMillis());
   }
+
+  public CompletableFuture<CachedResponse> getResponseAsync() {
+    // completes after the same delay without holding a thread
+    return CompletableFuture.supplyAsync(() -> {
+      log.info("Returning response after delay (not cached)");
+      return new CachedResponse("Hello, World!", System.currentTimeMillis());
+    }, CompletableFuture.delayedExecutor(3, TimeUnit.SECONDS));
+  }
 }
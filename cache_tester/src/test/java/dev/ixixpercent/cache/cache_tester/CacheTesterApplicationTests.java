@@ -3,7 +3,8 @@ package dev.ixixpercent.cache.cache_tester;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// embedded, the test does not need cache nodes
+@SpringBootTest(properties = "ixix.uri=ixix://embedded")
 class CacheTesterApplicationTests {
 
   @Test